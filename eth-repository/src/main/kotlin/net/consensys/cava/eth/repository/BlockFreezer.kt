@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import net.consensys.cava.bytes.Bytes
+import java.io.Closeable
+import java.nio.file.Path
+
+/**
+ * A store of the ancient blocks of the canonical chain, kept in append-only flat files.
+ *
+ * Blocks more than `depth` blocks behind the chain head are considered final. They are moved by the
+ * [BlockchainRepository] from its key-value stores to the freezer, in chain order, starting from the genesis block.
+ * Block headers, block bodies and the transaction receipts of each block are held in separate tables, where the value
+ * of a block is found at the position given by its number.
+ *
+ * @param directory the directory holding the files of the freezer
+ * @param depth the number of most recent blocks kept out of the freezer
+ */
+class BlockFreezer
+internal constructor(directory: Path, val depth: Long, segmentSize: Int) : Closeable {
+
+  /**
+   * Opens a block freezer.
+   *
+   * @param directory the directory holding the files of the freezer
+   * @param depth the number of most recent blocks kept out of the freezer
+   */
+  @JvmOverloads
+  constructor(directory: Path, depth: Long = DEFAULT_DEPTH) : this(
+    directory,
+    depth,
+    FreezerTable.DEFAULT_SEGMENT_SIZE
+  )
+
+  companion object {
+    /**
+     * The default number of most recent blocks kept out of the freezer.
+     */
+    const val DEFAULT_DEPTH = 90000L
+  }
+
+  private val headers = FreezerTable(directory, "headers", segmentSize)
+  private val bodies = FreezerTable(directory, "bodies", segmentSize)
+  private val receipts = FreezerTable(directory, "receipts", segmentSize)
+
+  init {
+    if (depth < 1) {
+      throw IllegalArgumentException("Invalid depth $depth")
+    }
+    // discard blocks partially appended before a crash
+    val complete = minOf(headers.size, bodies.size, receipts.size)
+    headers.truncate(complete)
+    bodies.truncate(complete)
+    receipts.truncate(complete)
+  }
+
+  /**
+   * The number of blocks held by the freezer, which is also the number of the next block to freeze.
+   */
+  val frozen: Long
+    get() = headers.size
+
+  /**
+   * Appends a block to the freezer.
+   *
+   * @param number the number of the block, which must be the next block to freeze
+   * @param header the serialized block header
+   * @param body the serialized block body
+   * @param transactionReceipts the serialized list of transaction receipts of the block, or null if it is not known
+   */
+  @Synchronized
+  fun append(number: Long, header: Bytes, body: Bytes, transactionReceipts: Bytes?) {
+    if (number != frozen) {
+      throw IllegalArgumentException("Expected block $frozen, got $number")
+    }
+    bodies.append(body)
+    receipts.append(transactionReceipts ?: Bytes.EMPTY)
+    // the header table is appended last, as its size is the number of blocks frozen
+    headers.append(header)
+  }
+
+  /**
+   * Provides the serialized header of a frozen block.
+   *
+   * @param number the number of the block
+   * @return the serialized block header, or null if the block is not frozen
+   */
+  fun header(number: Long): Bytes? = headers.get(number)
+
+  /**
+   * Provides the serialized body of a frozen block.
+   *
+   * @param number the number of the block
+   * @return the serialized block body, or null if the block is not frozen
+   */
+  fun body(number: Long): Bytes? = if (number < frozen) bodies.get(number) else null
+
+  /**
+   * Provides the serialized list of transaction receipts of a frozen block.
+   *
+   * @param number the number of the block
+   * @return the serialized transaction receipts, or null if the block is not frozen or its receipts were not known
+   */
+  fun transactionReceipts(number: Long): Bytes? =
+    if (number < frozen) receipts.get(number)?.takeIf { it.size() > 0 } else null
+
+  /**
+   * Forces frozen blocks to the storage device.
+   */
+  fun sync() {
+    bodies.sync()
+    receipts.sync()
+    headers.sync()
+  }
+
+  override fun close() {
+    bodies.close()
+    receipts.close()
+    headers.close()
+  }
+}
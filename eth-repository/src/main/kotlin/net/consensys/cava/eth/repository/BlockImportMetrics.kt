@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Stages of the bulk block import pipeline.
+ */
+enum class BlockImportStage {
+  /**
+   * RLP encoding of block headers and bodies.
+   */
+  ENCODE,
+  /**
+   * Writes of block bodies to their key-value store.
+   */
+  STORE,
+  /**
+   * Writes of block headers along with their index entries.
+   */
+  INDEX
+}
+
+/**
+ * Throughput measurements of the stages of a bulk block import.
+ *
+ * Each stage reports the number of blocks it processed and the time it spent processing them, excluding the time spent
+ * waiting for other stages. The stage with the lowest throughput bounds the throughput of the whole import.
+ */
+class BlockImportMetrics {
+
+  private val blocks = Array(BlockImportStage.values().size) { AtomicLong() }
+  private val nanos = Array(BlockImportStage.values().size) { AtomicLong() }
+
+  /**
+   * Records blocks processed by a stage.
+   *
+   * @param stage the stage
+   * @param count the number of blocks processed
+   * @param elapsedNanos the time spent processing the blocks, in nanoseconds
+   */
+  fun record(stage: BlockImportStage, count: Int, elapsedNanos: Long) {
+    blocks[stage.ordinal].addAndGet(count.toLong())
+    nanos[stage.ordinal].addAndGet(elapsedNanos)
+  }
+
+  /**
+   * Provides the number of blocks processed by a stage.
+   *
+   * @param stage the stage
+   * @return the number of blocks processed
+   */
+  fun blocks(stage: BlockImportStage): Long = blocks[stage.ordinal].get()
+
+  /**
+   * Provides the throughput of a stage.
+   *
+   * For stages processing blocks concurrently, the time spent by all workers is added up, so the throughput reported is
+   * per worker.
+   *
+   * @param stage the stage
+   * @return the number of blocks processed per second of processing time, or zero if no block was processed
+   */
+  fun throughput(stage: BlockImportStage): Double {
+    val elapsed = nanos[stage.ordinal].get()
+    return if (elapsed == 0L) 0.0 else blocks[stage.ordinal].get() * 1e9 / elapsed
+  }
+}
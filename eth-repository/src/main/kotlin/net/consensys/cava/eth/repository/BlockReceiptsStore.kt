@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.bytes.Bytes32
+import net.consensys.cava.eth.Hash
+import net.consensys.cava.eth.TransactionReceipt
+import net.consensys.cava.kv.KeyValueStore
+import net.consensys.cava.rlp.RLP
+
+/**
+ * The location of a transaction in the blockchain.
+ *
+ * @param blockHash the hash of the block holding the transaction
+ * @param index the index of the transaction in the block
+ */
+data class TransactionLocation(val blockHash: Hash, val index: Int)
+
+/**
+ * Transaction receipts kept in a key-value store as one RLP list per block.
+ *
+ * Receipts of a block are read back with a single lookup. Receipts of a transaction are located through a small entry
+ * mapping the transaction hash to the block hash and the index of the transaction in the block.
+ *
+ * Keys are made of a prefix followed by a hash, so that they never clash with receipts stored by transaction hash.
+ *
+ * @param store the key-value store holding the receipts
+ */
+internal class BlockReceiptsStore(private val store: KeyValueStore) {
+
+  companion object {
+    private val RECEIPTS_PREFIX = Bytes.wrap("blockReceipts".toByteArray())
+    private val LOCATION_PREFIX = Bytes.wrap("txLocation".toByteArray())
+
+    private fun receiptsKey(blockHash: Hash): Bytes = Bytes.wrap(RECEIPTS_PREFIX, blockHash.toBytes())
+
+    private fun locationKey(txHash: Hash): Bytes = Bytes.wrap(LOCATION_PREFIX, txHash.toBytes())
+
+    /**
+     * Decodes the transaction receipts of a block.
+     *
+     * @param bytes the RLP list of transaction receipts
+     * @return the transaction receipts
+     */
+    fun decode(bytes: Bytes): List<TransactionReceipt> =
+      RLP.decodeToList(bytes) { reader -> TransactionReceipt.readFrom(reader) }
+  }
+
+  /**
+   * Stores the transaction receipts of a block, and the location of each of its transactions, with a single write.
+   *
+   * @param blockHash the hash of the block
+   * @param receipts the transaction receipts, ordered by the transactions order of the block
+   * @param txHashes the hashes of the transactions, in the same order
+   */
+  suspend fun put(blockHash: Hash, receipts: List<TransactionReceipt>, txHashes: List<Hash>) {
+    if (receipts.size != txHashes.size) {
+      throw IllegalArgumentException("Expected ${receipts.size} transaction hashes, got ${txHashes.size}")
+    }
+    val entries = HashMap<Bytes, Bytes>(txHashes.size * 2 + 2)
+    entries[receiptsKey(blockHash)] = RLP.encodeList(receipts) { writer, receipt -> receipt.writeTo(writer) }
+    for (i in txHashes.indices) {
+      entries[locationKey(txHashes[i])] = Bytes.wrap(blockHash.toBytes(), Bytes.ofUnsignedInt(i.toLong()))
+    }
+    store.putAll(entries)
+  }
+
+  /**
+   * Provides the transaction receipts of a block.
+   *
+   * @param blockHash the hash of the block
+   * @return the transaction receipts, in the transactions order of the block, or null if none were stored for the block
+   */
+  suspend fun get(blockHash: Hash): List<TransactionReceipt>? = getBytes(blockHash)?.let { decode(it) }
+
+  /**
+   * Provides the serialized transaction receipts of a block.
+   *
+   * @param blockHash the hash of the block
+   * @return the RLP list of transaction receipts, or null if none were stored for the block
+   */
+  suspend fun getBytes(blockHash: Hash): Bytes? = store.get(receiptsKey(blockHash))
+
+  /**
+   * Removes the transaction receipts of a block, keeping the location of its transactions.
+   *
+   * @param blockHash the hash of the block
+   */
+  suspend fun remove(blockHash: Hash) = store.remove(receiptsKey(blockHash))
+
+  /**
+   * Provides the location of a transaction.
+   *
+   * @param txHash the hash of the transaction
+   * @return the location of the transaction, or null if it is not known
+   */
+  suspend fun locate(txHash: Hash): TransactionLocation? = store.get(locationKey(txHash))?.let {
+    TransactionLocation(Hash.fromBytes(Bytes32.wrap(it.slice(0, 32))), it.slice(32).toInt())
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import net.consensys.cava.eth.BlockHeader
+import net.consensys.cava.eth.Hash
+import net.consensys.cava.units.bigints.UInt256
+import java.util.TreeMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * A block of the block tree.
+ *
+ * @param hash the hash of the block header
+ * @param parentHash the hash of the parent block header, or null for the genesis block
+ * @param number the number of the block
+ * @param totalDifficulty the total difficulty of the chain ending with this block
+ */
+data class BlockTreeNode(val hash: Hash, val parentHash: Hash?, val number: Long, val totalDifficulty: UInt256)
+
+/**
+ * A change of the canonical chain, where the new chain head is not a descendant of the previous chain head.
+ *
+ * @param oldHead the previous chain head
+ * @param newHead the new chain head
+ * @param commonAncestor the most recent block shared by both chains, or null if it is not known to the block tree
+ * @param removed the blocks no longer part of the canonical chain, from the previous chain head backwards
+ * @param added the blocks now part of the canonical chain, from the new chain head backwards
+ */
+data class ReorgEvent(
+  val oldHead: BlockTreeNode,
+  val newHead: BlockTreeNode,
+  val commonAncestor: BlockTreeNode?,
+  val removed: List<BlockTreeNode>,
+  val added: List<BlockTreeNode>
+)
+
+/**
+ * An in-memory tree of recent block headers, tracking the chain head and the canonical chain.
+ *
+ * The chain head is the block with the largest total difficulty; on ties, the block seen first is kept. Lookups of the
+ * chain head, of the total difficulty of a block and of canonical blocks by number are answered in constant time.
+ *
+ * Blocks more than `retention` blocks older than the chain head are pruned from the tree.
+ *
+ * @param retention the number of blocks kept behind the chain head
+ */
+class BlockTree(private val retention: Long = 100000) {
+
+  private val nodes = ConcurrentHashMap<Hash, BlockTreeNode>()
+  private val canonical = ConcurrentHashMap<Long, BlockTreeNode>()
+  private val byNumber = TreeMap<Long, MutableList<Hash>>()
+  private val listeners = CopyOnWriteArrayList<(ReorgEvent) -> Unit>()
+  @Volatile
+  private var headNode: BlockTreeNode? = null
+
+  init {
+    if (retention < 1) {
+      throw IllegalArgumentException("Invalid retention $retention")
+    }
+  }
+
+  /**
+   * The block with the largest total difficulty, or null if the tree is empty.
+   */
+  val head: BlockTreeNode?
+    get() = headNode
+
+  /**
+   * The number of blocks held by the tree.
+   */
+  val size: Int
+    get() = nodes.size
+
+  /**
+   * Registers a listener notified of reorganizations of the canonical chain.
+   *
+   * Listeners are called synchronously, while the tree is being updated, and should not block.
+   *
+   * @param listener the listener
+   */
+  fun addReorgListener(listener: (ReorgEvent) -> Unit) {
+    listeners.add(listener)
+  }
+
+  /**
+   * Provides a block of the tree.
+   *
+   * @param hash the hash of the block
+   * @return the block, or null if it is not held by the tree
+   */
+  operator fun get(hash: Hash): BlockTreeNode? = nodes[hash]
+
+  /**
+   * Provides the total difficulty of a block of the tree.
+   *
+   * @param hash the hash of the block
+   * @return the total difficulty of the block, or null if it is not held by the tree
+   */
+  fun totalDifficulty(hash: Hash): UInt256? = nodes[hash]?.totalDifficulty
+
+  /**
+   * Provides the block of the canonical chain with a number.
+   *
+   * @param number the number of the block
+   * @return the canonical block, or null if it is not held by the tree
+   */
+  fun canonical(number: Long): BlockTreeNode? = canonical[number]
+
+  /**
+   * Provides the ancestor of a block with a number.
+   *
+   * The lookup is answered in constant time for blocks of the canonical chain, and otherwise requires walking back to
+   * the canonical chain.
+   *
+   * @param hash the hash of the block
+   * @param number the number of the ancestor
+   * @return the ancestor, or null if it is not held by the tree
+   */
+  fun ancestor(hash: Hash, number: Long): BlockTreeNode? {
+    var node = nodes[hash] ?: return null
+    if (number > node.number) {
+      return null
+    }
+    while (canonical[node.number]?.hash != node.hash) {
+      if (node.number == number) {
+        return node
+      }
+      node = node.parentHash?.let { nodes[it] } ?: return null
+    }
+    return canonical[number]
+  }
+
+  /**
+   * Adds a block header to the tree.
+   *
+   * Block headers with a number that does not fit in a long are ignored.
+   *
+   * @param header the block header
+   * @param totalDifficulty the total difficulty of the chain ending with this block header
+   * @return the block added, or null if the block header was ignored
+   */
+  fun add(header: BlockHeader, totalDifficulty: UInt256): BlockTreeNode? {
+    if (!header.number().fitsLong()) {
+      return null
+    }
+    return add(BlockTreeNode(header.hash(), header.parentHash(), header.number().toLong(), totalDifficulty))
+  }
+
+  /**
+   * Adds a block to the tree.
+   *
+   * If the block is already present, its total difficulty is replaced.
+   *
+   * @param node the block
+   * @return the block added
+   */
+  @Synchronized
+  fun add(node: BlockTreeNode): BlockTreeNode {
+    val current = headNode
+    if (current != null && node.number < current.number - retention) {
+      return node
+    }
+    if (nodes.put(node.hash, node) == null) {
+      byNumber.getOrPut(node.number) { mutableListOf() }.add(node.hash)
+    } else if (canonical[node.number]?.hash == node.hash) {
+      canonical[node.number] = node
+    }
+    if (current == null || node.totalDifficulty > current.totalDifficulty) {
+      updateHead(current, node)
+    }
+    return node
+  }
+
+  /**
+   * Removes all blocks from the tree.
+   */
+  @Synchronized
+  fun clear() {
+    nodes.clear()
+    canonical.clear()
+    byNumber.clear()
+    headNode = null
+  }
+
+  private fun updateHead(oldHead: BlockTreeNode?, newHead: BlockTreeNode) {
+    headNode = newHead
+    val oldBranch = mutableListOf<BlockTreeNode>()
+    val newBranch = mutableListOf<BlockTreeNode>()
+    var commonAncestor: BlockTreeNode? = null
+
+    // walk back the new chain until it meets the canonical chain
+    var node: BlockTreeNode? = newHead
+    while (node != null) {
+      if (canonical[node.number]?.hash == node.hash) {
+        commonAncestor = node
+        break
+      }
+      newBranch.add(node)
+      node = node.parentHash?.let { nodes[it] }
+    }
+
+    // remove canonical blocks past the common ancestor
+    if (oldHead != null) {
+      val from = commonAncestor?.number?.plus(1) ?: Long.MIN_VALUE
+      for (number in oldHead.number downTo maxOf(from, oldHead.number - retention)) {
+        canonical.remove(number)?.let { oldBranch.add(it) }
+      }
+    }
+    for (added in newBranch) {
+      canonical[added.number] = added
+    }
+
+    prune(newHead.number - retention)
+
+    if (oldHead != null && oldBranch.isNotEmpty()) {
+      val event = ReorgEvent(oldHead, newHead, commonAncestor, oldBranch, newBranch)
+      for (listener in listeners) {
+        listener(event)
+      }
+    }
+  }
+
+  private fun prune(minNumber: Long) {
+    while (byNumber.isNotEmpty() && byNumber.firstKey() < minNumber) {
+      val entry = byNumber.pollFirstEntry()
+      for (hash in entry.value) {
+        nodes.remove(hash)
+      }
+      canonical.remove(entry.key)
+    }
+  }
+}
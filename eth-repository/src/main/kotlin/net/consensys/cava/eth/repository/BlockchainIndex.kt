@@ -31,18 +31,27 @@ import net.consensys.cava.eth.repository.BlockHeaderFields.TIMESTAMP
 import net.consensys.cava.eth.repository.BlockHeaderFields.TOTAL_DIFFICULTY
 import net.consensys.cava.units.bigints.UInt256
 import net.consensys.cava.units.ethereum.Gas
+import org.apache.lucene.document.BinaryDocValuesField
+import org.apache.lucene.document.BinaryPoint
 import org.apache.lucene.document.Document
 import org.apache.lucene.document.Field
+import org.apache.lucene.document.LongPoint
 import org.apache.lucene.document.NumericDocValuesField
 import org.apache.lucene.document.SortedDocValuesField
 import org.apache.lucene.document.StringField
+import org.apache.lucene.index.DocValues
 import org.apache.lucene.index.IndexWriter
 import org.apache.lucene.index.IndexableField
+import org.apache.lucene.index.ReaderUtil
 import org.apache.lucene.index.Term
 import org.apache.lucene.search.BooleanClause
 import org.apache.lucene.search.BooleanQuery
+import org.apache.lucene.search.FieldDoc
+import org.apache.lucene.search.MatchNoDocsQuery
+import org.apache.lucene.search.IndexOrDocValuesQuery
 import org.apache.lucene.search.IndexSearcher
 import org.apache.lucene.search.Query
+import org.apache.lucene.search.ScoreDoc
 import org.apache.lucene.search.SearcherFactory
 import org.apache.lucene.search.SearcherManager
 import org.apache.lucene.search.Sort
@@ -50,8 +59,16 @@ import org.apache.lucene.search.SortField
 import org.apache.lucene.search.TermQuery
 import org.apache.lucene.search.TermRangeQuery
 import org.apache.lucene.util.BytesRef
+import java.io.Closeable
 import java.io.IOException
 import java.io.UncheckedIOException
+import java.time.Duration
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Reader of a blockchain index.
@@ -133,6 +150,29 @@ interface BlockchainIndexReader {
    */
   fun findByLargest(field: BlockHeaderFields): Hash?
 
+  /**
+   * Streams all block headers with a value in a range.
+   *
+   * Unlike [findInRange], results are not capped. They are read lazily, one page at a time, in hash order.
+   *
+   * @param field the name of the field
+   * @param minValue the minimum value, inclusive
+   * @param maxValue the maximum value, inclusive
+   * @return the matching block header hashes.
+   */
+  fun streamInRange(field: BlockHeaderFields, minValue: UInt256, maxValue: UInt256): Sequence<Hash>
+
+  /**
+   * Streams all exact matches for a field.
+   *
+   * Unlike [findBy], results are not capped. They are read lazily, one page at a time, in hash order.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching block header hashes.
+   */
+  fun streamBy(field: BlockHeaderFields, value: Bytes): Sequence<Hash>
+
   /**
    * Finds hashes of blocks by hash or number.
    *
@@ -223,6 +263,17 @@ interface BlockchainIndexReader {
    */
   fun findByLargest(field: TransactionReceiptFields): Hash?
 
+  /**
+   * Streams all exact matches for a field.
+   *
+   * Unlike [findBy], results are not capped. They are read lazily, one page at a time, in hash order.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching transaction receipt hashes.
+   */
+  fun streamBy(field: TransactionReceiptFields, value: Bytes): Sequence<Hash>
+
   /**
    * Find a transaction request by block hash and index.
    * @param blockHash the block hash
@@ -252,6 +303,14 @@ interface BlockchainIndexWriter {
    */
   fun indexBlockHeader(blockHeader: BlockHeader)
 
+  /**
+   * Indexes a block header with a known total difficulty.
+   *
+   * @param blockHeader the block header to index
+   * @param totalDifficulty the total difficulty of the chain ending with this block header
+   */
+  fun indexBlockHeader(blockHeader: BlockHeader, totalDifficulty: UInt256)
+
   /**
    * Indexes a transaction receipt.
    *
@@ -275,28 +334,101 @@ internal class IndexWriteException(e: Exception) : RuntimeException(e)
 
 /**
  * A Lucene-backed indexer capable of indexing blocks and block headers.
+ *
+ * By default, each call to [index] commits the index. With a positive commit interval, the index instead runs in
+ * group-commit mode: each call to [index] only refreshes the index searcher so that indexed elements become visible to
+ * queries, and a background task commits the index once the commit interval has elapsed or once the maximum number of
+ * uncommitted documents is reached. Callers needing durability call [flush].
+ *
+ * Numeric block header fields are indexed as points with doc values, so that range queries use the points tree and
+ * "largest" queries sort on doc values. Unsigned 256-bit fields are indexed as 16-byte binary points when their value
+ * is below 2^128; larger values are only matched through their term. Indexes written by earlier versions, without
+ * points, report [isMigrationRequired] until all their block headers are indexed again and [completeMigration] is
+ * called. Until then, range and "largest" queries keep relying on terms and document order.
+ *
+ * Document identifiers are also kept as doc values, so that hashes are read without loading stored fields. Streaming
+ * queries page through results with `searchAfter`, sorted on identifiers: each page is read from the latest searcher,
+ * and holds a bounded number of hashes, so streams use constant memory and can be consumed slowly.
+ *
+ * @param indexWriter the Lucene index writer
+ * @param commitInterval the maximum time elements stay uncommitted in group-commit mode, or zero to commit on every
+ *   call to [index]
+ * @param maxUncommittedDocuments the number of documents indexed in group-commit mode that triggers a commit
  */
-class BlockchainIndex(private val indexWriter: IndexWriter) : BlockchainIndexWriter, BlockchainIndexReader {
+class BlockchainIndex
+@JvmOverloads
+constructor(
+  private val indexWriter: IndexWriter,
+  private val commitInterval: Duration = Duration.ZERO,
+  private val maxUncommittedDocuments: Int = 10000
+) : BlockchainIndexWriter, BlockchainIndexReader, Closeable {
   private val searcherManager: SearcherManager
+  private val store = LuceneBlockchainIndexStore(this)
+  private val committer: ScheduledThreadPoolExecutor?
+  private val uncommittedDocuments = AtomicInteger()
+  private val immediateCommitScheduled = AtomicBoolean()
+  private val delayedCommitScheduled = AtomicBoolean()
+  @Volatile
+  private var commitFailure: IOException? = null
+  @Volatile
+  private var formatVersion: Int
 
   init {
     if (!indexWriter.isOpen) {
       throw IllegalArgumentException("Index writer should be opened")
     }
+    if (commitInterval.isNegative) {
+      throw IllegalArgumentException("Invalid commit interval $commitInterval")
+    }
+    if (maxUncommittedDocuments < 1) {
+      throw IllegalArgumentException("Invalid maximum number of uncommitted documents $maxUncommittedDocuments")
+    }
     try {
       searcherManager = SearcherManager(indexWriter, SearcherFactory())
     } catch (e: IOException) {
       throw UncheckedIOException(e)
     }
+    val storedVersion = indexWriter.liveCommitData?.firstOrNull { it.key == FORMAT_VERSION_KEY }?.value?.toInt()
+    formatVersion = storedVersion ?: if (isEmpty()) {
+      setFormatVersion(FORMAT_VERSION)
+      FORMAT_VERSION
+    } else {
+      1
+    }
+    committer = if (commitInterval.isZero) {
+      null
+    } else {
+      val executor = ScheduledThreadPoolExecutor(1, ThreadFactory { runnable ->
+        val thread = Thread(runnable, "blockchain-index-committer")
+        thread.isDaemon = true
+        thread
+      })
+      executor.executeExistingDelayedTasksAfterShutdownPolicy = false
+      executor
+    }
   }
 
+  /**
+   * Provides a view of this index for use from coroutines, such as by a [BlockchainRepository].
+   *
+   * @return a blockchain index store querying and updating this index
+   */
+  fun asStore(): BlockchainIndexStore = store
+
   /**
    * Provides a function to index elements and committing them. If an exception is thrown in the function, the write is
    * rolled back.
    *
+   * In group-commit mode, the elements are indexed only if the function completes normally, and they are committed
+   * later by the background committer.
+   *
    * @param indexer function indexing data to be committed
    */
   fun index(indexer: (BlockchainIndexWriter) -> Unit) {
+    if (committer != null) {
+      groupIndex(indexer)
+      return
+    }
     try {
       indexer(this)
       try {
@@ -316,12 +448,200 @@ class BlockchainIndex(private val indexWriter: IndexWriter) : BlockchainIndexWri
     }
   }
 
-  override fun indexBlockHeader(blockHeader: BlockHeader) {
+  private fun groupIndex(indexer: (BlockchainIndexWriter) -> Unit) {
+    val pending = PendingDocuments()
+    indexer(pending)
+    try {
+      for ((id, document) in pending.documents) {
+        indexWriter.updateDocument(Term("_id", id), document)
+      }
+      searcherManager.maybeRefreshBlocking()
+    } catch (e: IOException) {
+      throw IndexWriteException(e)
+    }
+    val count = uncommittedDocuments.addAndGet(pending.documents.size)
+    if (count >= maxUncommittedDocuments) {
+      scheduleCommit(immediateCommitScheduled, 0)
+    } else if (count > 0) {
+      scheduleCommit(delayedCommitScheduled, commitInterval.toMillis())
+    }
+  }
+
+  private fun scheduleCommit(scheduled: AtomicBoolean, delayMillis: Long) {
+    if (!scheduled.compareAndSet(false, true)) {
+      return
+    }
+    try {
+      committer!!.schedule({
+        scheduled.set(false)
+        try {
+          commit()
+        } catch (e: IOException) {
+          commitFailure = e
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS)
+    } catch (e: RejectedExecutionException) {
+      // closed: remaining changes are committed by close()
+      scheduled.set(false)
+    }
+  }
+
+  @Synchronized
+  private fun commit() {
+    val count = uncommittedDocuments.get()
+    if (indexWriter.hasUncommittedChanges()) {
+      indexWriter.commit()
+    }
+    uncommittedDocuments.addAndGet(-count)
+  }
+
+  /**
+   * Commits all elements indexed so far, returning once they are durably stored.
+   *
+   * @throws IndexWriteException if the index could not be committed, now or by a previous background commit
+   */
+  fun flush() {
+    try {
+      commitFailure?.let {
+        commitFailure = null
+        throw it
+      }
+      commit()
+      searcherManager.maybeRefreshBlocking()
+    } catch (e: IOException) {
+      throw IndexWriteException(e)
+    }
+  }
+
+  /**
+   * Checks whether the index was written by an earlier version and should be migrated.
+   *
+   * @return `true` if all block headers should be indexed again, before calling [completeMigration]
+   */
+  fun isMigrationRequired(): Boolean = formatVersion < FORMAT_VERSION
+
+  /**
+   * Marks the migration of an index written by an earlier version as complete, once all block headers have been indexed
+   * again.
+   *
+   * Identifier doc values are added to the documents indexed by an earlier version that were not indexed again, such as
+   * transaction receipts. Segments are then merged so that fields of documents indexed by an earlier version no longer
+   * lack doc values, and the index is committed.
+   *
+   * @throws IndexWriteException if the index could not be merged or committed
+   */
+  fun completeMigration() {
+    if (!isMigrationRequired()) {
+      return
+    }
+    try {
+      flush()
+      addMissingIdDocValues()
+      indexWriter.forceMerge(1)
+      setFormatVersion(FORMAT_VERSION)
+      flush()
+    } catch (e: IOException) {
+      throw IndexWriteException(e)
+    }
+    formatVersion = FORMAT_VERSION
+  }
+
+  private fun addMissingIdDocValues() {
+    val searcher = searcherManager.acquire()
+    try {
+      for (leaf in searcher.indexReader.leaves()) {
+        val reader = leaf.reader()
+        val ids = DocValues.getBinary(reader, "_id")
+        val liveDocs = reader.liveDocs
+        for (doc in 0 until reader.maxDoc()) {
+          if ((liveDocs == null || liveDocs.get(doc)) && !ids.advanceExact(doc)) {
+            val id = searcher.doc(leaf.docBase + doc, setOf("_id")).getBinaryValue("_id")
+            indexWriter.updateBinaryDocValue(Term("_id", id), "_id", id)
+          }
+        }
+      }
+    } finally {
+      searcherManager.release(searcher)
+    }
+  }
+
+  private fun setFormatVersion(version: Int) {
+    val commitData = LinkedHashMap<String, String>()
+    indexWriter.liveCommitData?.forEach { commitData[it.key] = it.value }
+    commitData[FORMAT_VERSION_KEY] = version.toString()
+    indexWriter.setLiveCommitData(commitData.entries)
+  }
+
+  private fun isEmpty(): Boolean {
+    val searcher = searcherManager.acquire()
+    try {
+      return searcher.indexReader.maxDoc() == 0
+    } finally {
+      searcherManager.release(searcher)
+    }
+  }
+
+  /**
+   * Stops the background committer, if any, and commits all elements indexed so far.
+   *
+   * The underlying index writer is not closed.
+   */
+  override fun close() {
+    committer?.let {
+      it.shutdown()
+      it.awaitTermination(1, TimeUnit.MINUTES)
+      flush()
+    }
+  }
+
+  /**
+   * Writer collecting documents, to be applied to the index once an indexing function completes.
+   */
+  private inner class PendingDocuments : BlockchainIndexWriter {
+    val documents = mutableListOf<Pair<BytesRef, List<IndexableField>>>()
+
+    override fun indexBlockHeader(blockHeader: BlockHeader) {
+      documents += blockHeaderDocument(blockHeader, null)
+    }
+
+    override fun indexBlockHeader(blockHeader: BlockHeader, totalDifficulty: UInt256) {
+      documents += blockHeaderDocument(blockHeader, totalDifficulty)
+    }
+
+    override fun indexTransactionReceipt(txReceipt: TransactionReceipt, txIndex: Int, txHash: Hash, blockHash: Hash) {
+      documents += transactionReceiptDocument(txReceipt, txIndex, txHash, blockHash)
+    }
+  }
+
+  override fun indexBlockHeader(blockHeader: BlockHeader) = writeBlockHeader(blockHeader, null)
+
+  override fun indexBlockHeader(blockHeader: BlockHeader, totalDifficulty: UInt256) =
+    writeBlockHeader(blockHeader, totalDifficulty)
+
+  private fun writeBlockHeader(blockHeader: BlockHeader, totalDifficulty: UInt256?) {
+    val (id, document) = blockHeaderDocument(blockHeader, totalDifficulty)
+    try {
+      indexWriter.updateDocument(Term("_id", id), document)
+    } catch (e: IOException) {
+      throw IndexWriteException(e)
+    }
+  }
+
+  private fun blockHeaderDocument(
+    blockHeader: BlockHeader,
+    totalDifficulty: UInt256?
+  ): Pair<BytesRef, List<IndexableField>> {
     val document = mutableListOf<IndexableField>()
     val id = toBytesRef(blockHeader.hash())
     document.add(StringField("_id", id, Field.Store.YES))
+    document.add(BinaryDocValuesField("_id", id))
     document.add(StringField("_type", "block", Field.Store.NO))
-    blockHeader.parentHash()?.let { hash ->
+    if (totalDifficulty != null) {
+      blockHeader.parentHash()?.let {
+        document += StringField(PARENT_HASH.fieldName, toBytesRef(it), Field.Store.NO)
+      }
+      addUInt256(document, TOTAL_DIFFICULTY, totalDifficulty, Field.Store.YES)
+    } else blockHeader.parentHash()?.let { hash ->
       val hashRef = toBytesRef(hash)
       document += StringField(
         PARENT_HASH.fieldName,
@@ -331,26 +651,47 @@ class BlockchainIndex(private val indexWriter: IndexWriter) : BlockchainIndexWri
       queryBlockDocs(TermQuery(Term("_id", hashRef)), listOf(TOTAL_DIFFICULTY)).firstOrNull()?.let {
         it.getField(TOTAL_DIFFICULTY.fieldName)?.let {
           val totalDifficulty = blockHeader.difficulty().add(UInt256.fromBytes(Bytes.wrap(it.binaryValue().bytes)))
-          val diffBytes = toBytesRef(totalDifficulty.toBytes())
-          document += StringField(TOTAL_DIFFICULTY.fieldName, diffBytes, Field.Store.YES)
-          document += SortedDocValuesField(TOTAL_DIFFICULTY.fieldName, diffBytes)
+          addUInt256(document, TOTAL_DIFFICULTY, totalDifficulty, Field.Store.YES)
         }
       }
     } ?: run {
-      val diffBytes = toBytesRef(blockHeader.difficulty().toBytes())
-      document += StringField(TOTAL_DIFFICULTY.fieldName, diffBytes, Field.Store.YES)
-      document += SortedDocValuesField(TOTAL_DIFFICULTY.fieldName, diffBytes)
+      addUInt256(document, TOTAL_DIFFICULTY, blockHeader.difficulty(), Field.Store.YES)
     }
     document += StringField(OMMERS_HASH.fieldName, toBytesRef(blockHeader.ommersHash()), Field.Store.NO)
     document += StringField(COINBASE.fieldName, toBytesRef(blockHeader.coinbase()), Field.Store.NO)
     document += StringField(STATE_ROOT.fieldName, toBytesRef(blockHeader.stateRoot()), Field.Store.NO)
-    document += StringField(DIFFICULTY.fieldName, toBytesRef(blockHeader.difficulty()), Field.Store.NO)
-    document += StringField(NUMBER.fieldName, toBytesRef(blockHeader.number()), Field.Store.NO)
-    document += StringField(GAS_LIMIT.fieldName, toBytesRef(blockHeader.gasLimit()), Field.Store.NO)
-    document += StringField(GAS_USED.fieldName, toBytesRef(blockHeader.gasUsed()), Field.Store.NO)
+    addUInt256(document, DIFFICULTY, blockHeader.difficulty(), Field.Store.NO)
+    addUInt256(document, NUMBER, blockHeader.number(), Field.Store.NO)
+    addGas(document, GAS_LIMIT, blockHeader.gasLimit())
+    addGas(document, GAS_USED, blockHeader.gasUsed())
     document += StringField(EXTRA_DATA.fieldName, toBytesRef(blockHeader.extraData()), Field.Store.NO)
     document += NumericDocValuesField(TIMESTAMP.fieldName, blockHeader.timestamp().toEpochMilli())
+    document += LongPoint(TIMESTAMP.fieldName, blockHeader.timestamp().toEpochMilli())
+    return Pair(id, document)
+  }
 
+  private fun addUInt256(
+    document: MutableList<IndexableField>,
+    field: BlockHeaderFields,
+    value: UInt256,
+    store: Field.Store
+  ) {
+    val bytes = toBytesRef(value)
+    document += StringField(field.fieldName, bytes, store)
+    document += SortedDocValuesField(field.fieldName, bytes)
+    if (value < POINT_LIMIT) {
+      document += BinaryPoint(field.fieldName, toPoint(value))
+    }
+  }
+
+  private fun addGas(document: MutableList<IndexableField>, field: BlockHeaderFields, value: Gas) {
+    document += StringField(field.fieldName, toBytesRef(value), Field.Store.NO)
+    document += LongPoint(field.fieldName, value.toLong())
+    document += NumericDocValuesField(field.fieldName, value.toLong())
+  }
+
+  override fun indexTransactionReceipt(txReceipt: TransactionReceipt, txIndex: Int, txHash: Hash, blockHash: Hash) {
+    val (id, document) = transactionReceiptDocument(txReceipt, txIndex, txHash, blockHash)
     try {
       indexWriter.updateDocument(Term("_id", id), document)
     } catch (e: IOException) {
@@ -358,10 +699,16 @@ class BlockchainIndex(private val indexWriter: IndexWriter) : BlockchainIndexWri
     }
   }
 
-  override fun indexTransactionReceipt(txReceipt: TransactionReceipt, txIndex: Int, txHash: Hash, blockHash: Hash) {
+  private fun transactionReceiptDocument(
+    txReceipt: TransactionReceipt,
+    txIndex: Int,
+    txHash: Hash,
+    blockHash: Hash
+  ): Pair<BytesRef, List<IndexableField>> {
     val document = mutableListOf<IndexableField>()
     val id = toBytesRef(txHash)
     document += StringField("_id", id, Field.Store.YES)
+    document += BinaryDocValuesField("_id", id)
     document += StringField("_type", "txReceipt", Field.Store.NO)
 
     document += NumericDocValuesField(TransactionReceiptFields.INDEX.fieldName, txIndex.toLong())
@@ -384,24 +731,7 @@ class BlockchainIndex(private val indexWriter: IndexWriter) : BlockchainIndexWri
     txReceipt.status()?.let {
       document += NumericDocValuesField(TransactionReceiptFields.STATUS.fieldName, it.toLong())
     }
-
-    try {
-      indexWriter.updateDocument(Term("_id", id), document)
-    } catch (e: IOException) {
-      throw IndexWriteException(e)
-    }
-  }
-
-  private fun queryBlockDocs(query: Query): List<Document> = queryBlockDocs(query, emptyList())
-
-  private fun queryTxReceiptDocs(query: Query): List<Document> = queryTxReceiptDocs(query, emptyList())
-
-  private fun queryTxReceiptDocs(query: Query, fields: List<BlockHeaderFields>): List<Document> {
-    val txQuery = BooleanQuery.Builder().add(
-      query, BooleanClause.Occur.MUST)
-      .add(TermQuery(Term("_type", "txReceipt")), BooleanClause.Occur.MUST).build()
-
-    return search(txQuery, fields.map { it.fieldName })
+    return Pair(id, document)
   }
 
   private fun search(query: Query, fields: List<String>): List<Document> {
@@ -426,34 +756,152 @@ class BlockchainIndex(private val indexWriter: IndexWriter) : BlockchainIndexWri
     }
   }
 
-  private fun queryBlockDocs(query: Query, fields: List<BlockHeaderFields>): List<Document> {
-    val blockQuery = BooleanQuery.Builder().add(
-      query, BooleanClause.Occur.MUST)
-      .add(TermQuery(Term("_type", "block")), BooleanClause.Occur.MUST).build()
+  private fun queryBlockDocs(query: Query, fields: List<BlockHeaderFields>): List<Document> =
+    search(typeQuery(query, "block"), fields.map { it.fieldName })
+
+  private fun queryBlocks(query: Query): List<Hash> = searchIds(typeQuery(query, "block"))
+
+  private fun queryTxReceipts(query: Query): List<Hash> = searchIds(typeQuery(query, "txReceipt"))
+
+  private fun typeQuery(query: Query, type: String): Query = BooleanQuery.Builder()
+    .add(query, BooleanClause.Occur.MUST)
+    .add(TermQuery(Term("_type", type)), BooleanClause.Occur.MUST)
+    .build()
+
+  private fun searchIds(query: Query): List<Hash> {
+    var searcher: IndexSearcher? = null
+    try {
+      searcher = searcherManager.acquire()
+      return readIds(searcher!!, searcher.search(query, HITS).scoreDocs)
+    } catch (e: IOException) {
+      throw IndexReadException(e)
+    } finally {
+      try {
+        searcherManager.release(searcher)
+      } catch (e: IOException) {
+      }
+    }
+  }
+
+  private fun readIds(searcher: IndexSearcher, hits: Array<ScoreDoc>): List<Hash> {
+    val leaves = searcher.indexReader.leaves()
+    return hits.map { hit ->
+      val leaf = leaves[ReaderUtil.subIndex(hit.doc, leaves)]
+      val ids = DocValues.getBinary(leaf.reader(), "_id")
+      // documents indexed by earlier versions may only have a stored identifier
+      val id = if (ids.advanceExact(hit.doc - leaf.docBase)) {
+        ids.binaryValue()
+      } else {
+        searcher.doc(hit.doc, setOf("_id")).getBinaryValue("_id")
+      }
+      toHash(id)
+    }
+  }
 
-    return search(blockQuery, fields.map { it.fieldName })
+  private fun streamIds(query: Query): Sequence<Hash> = sequence {
+    if (isMigrationRequired()) {
+      // documents indexed by earlier versions may lack identifier doc values to sort on
+      yieldAll(searchAllIds(query))
+      return@sequence
+    }
+    var after: FieldDoc? = null
+    do {
+      val page = searchPage(query, after)
+      yieldAll(page.map { toHash(it.fields[0] as BytesRef) })
+      after = page.lastOrNull()?.let { FieldDoc(Int.MAX_VALUE, Float.NaN, it.fields) }
+    } while (page.size == STREAM_PAGE_SIZE)
+  }
+
+  private fun searchPage(query: Query, after: FieldDoc?): List<FieldDoc> {
+    var searcher: IndexSearcher? = null
+    try {
+      searcher = searcherManager.acquire()
+      return searcher!!.searchAfter(after, query, STREAM_PAGE_SIZE, ID_SORT).scoreDocs.map { it as FieldDoc }
+    } catch (e: IOException) {
+      throw IndexReadException(e)
+    } finally {
+      try {
+        searcherManager.release(searcher)
+      } catch (e: IOException) {
+      }
+    }
   }
 
-  private fun queryBlocks(query: Query): List<Hash> {
-    val hashes = mutableListOf<Hash>()
-    for (doc in queryBlockDocs(query)) {
-      val bytes = doc.getBinaryValue("_id")
-      hashes.add(Hash.fromBytes(Bytes32.wrap(bytes.bytes)))
+  private fun searchAllIds(query: Query): List<Hash> {
+    var searcher: IndexSearcher? = null
+    try {
+      searcher = searcherManager.acquire()
+      val maxDoc = maxOf(1, searcher!!.indexReader.maxDoc())
+      return readIds(searcher, searcher.search(query, maxDoc).scoreDocs)
+    } catch (e: IOException) {
+      throw IndexReadException(e)
+    } finally {
+      try {
+        searcherManager.release(searcher)
+      } catch (e: IOException) {
+      }
     }
-    return hashes
   }
 
-  private fun queryTxReceipts(query: Query): List<Hash> {
-    val hashes = mutableListOf<Hash>()
-    for (doc in queryTxReceiptDocs(query)) {
-      val bytes = doc.getBinaryValue("_id")
-      hashes.add(Hash.fromBytes(Bytes32.wrap(bytes.bytes)))
+  override fun streamInRange(field: BlockHeaderFields, minValue: UInt256, maxValue: UInt256): Sequence<Hash> {
+    if (isMigrationRequired()) {
+      return streamIds(
+        typeQuery(TermRangeQuery(field.fieldName, toBytesRef(minValue), toBytesRef(maxValue), true, true), "block")
+      )
     }
-    return hashes
+    return streamIds(typeQuery(rangeQuery(field, minValue, maxValue), "block"))
   }
 
+  override fun streamBy(field: BlockHeaderFields, value: Bytes): Sequence<Hash> =
+    streamIds(typeQuery(TermQuery(Term(field.fieldName, toBytesRef(value))), "block"))
+
+  override fun streamBy(field: TransactionReceiptFields, value: Bytes): Sequence<Hash> =
+    streamIds(typeQuery(TermQuery(Term(field.fieldName, toBytesRef(value))), "txReceipt"))
+
   override fun findInRange(field: BlockHeaderFields, minValue: UInt256, maxValue: UInt256): List<Hash> {
-    return queryBlocks(TermRangeQuery(field.fieldName, toBytesRef(minValue), toBytesRef(maxValue), true, true))
+    if (isMigrationRequired()) {
+      return queryBlocks(TermRangeQuery(field.fieldName, toBytesRef(minValue), toBytesRef(maxValue), true, true))
+    }
+    return queryBlocks(rangeQuery(field, minValue, maxValue))
+  }
+
+  private fun rangeQuery(field: BlockHeaderFields, minValue: UInt256, maxValue: UInt256): Query {
+    if (minValue > maxValue) {
+      return MatchNoDocsQuery()
+    }
+    return when (field) {
+      DIFFICULTY, NUMBER, TOTAL_DIFFICULTY -> {
+        // values below 2^128 are matched on points, larger values on their term
+        val query = BooleanQuery.Builder().setMinimumNumberShouldMatch(1)
+        if (minValue < POINT_LIMIT) {
+          val upper = if (maxValue < POINT_LIMIT) maxValue else POINT_LIMIT.subtract(1)
+          query.add(
+            BinaryPoint.newRangeQuery(field.fieldName, toPoint(minValue), toPoint(upper)),
+            BooleanClause.Occur.SHOULD
+          )
+        }
+        if (maxValue >= POINT_LIMIT) {
+          val lower = if (minValue >= POINT_LIMIT) minValue else POINT_LIMIT
+          query.add(
+            TermRangeQuery(field.fieldName, toBytesRef(lower), toBytesRef(maxValue), true, true),
+            BooleanClause.Occur.SHOULD
+          )
+        }
+        query.build()
+      }
+      GAS_LIMIT, GAS_USED, TIMESTAMP -> {
+        if (!minValue.fitsLong()) {
+          MatchNoDocsQuery()
+        } else {
+          val upper = if (maxValue.fitsLong()) maxValue.toLong() else Long.MAX_VALUE
+          IndexOrDocValuesQuery(
+            LongPoint.newRangeQuery(field.fieldName, minValue.toLong(), upper),
+            NumericDocValuesField.newSlowRangeQuery(field.fieldName, minValue.toLong(), upper)
+          )
+        }
+      }
+      else -> TermRangeQuery(field.fieldName, toBytesRef(minValue), toBytesRef(maxValue), true, true)
+    }
   }
 
   override fun findBy(field: BlockHeaderFields, value: Bytes): List<Hash> {
@@ -468,19 +916,9 @@ class BlockchainIndex(private val indexWriter: IndexWriter) : BlockchainIndexWri
     var searcher: IndexSearcher? = null
     try {
       searcher = searcherManager.acquire()
-      val topDocs = searcher!!.search(
-        TermQuery(Term("_type", "block")),
-        HITS,
-        Sort(SortField.FIELD_SCORE, SortField(field.fieldName, SortField.Type.DOC, true))
-      )
+      val topDocs = searcher!!.search(TermQuery(Term("_type", "block")), 1, Sort(largestSortField(field)))
 
-      for (hit in topDocs.scoreDocs) {
-        val doc = searcher.doc(hit.doc, setOf("_id"))
-        val bytes = doc.getBinaryValue("_id")
-
-        return Hash.fromBytes(Bytes32.wrap(bytes.bytes))
-      }
-      return null
+      return readIds(searcher, topDocs.scoreDocs).firstOrNull()
     } catch (e: IOException) {
       throw IndexReadException(e)
     } finally {
@@ -491,6 +929,18 @@ class BlockchainIndex(private val indexWriter: IndexWriter) : BlockchainIndexWri
     }
   }
 
+  private fun largestSortField(field: BlockHeaderFields): SortField {
+    // documents indexed by earlier versions lack doc values for all fields but the total difficulty
+    if (isMigrationRequired() && field != TOTAL_DIFFICULTY) {
+      return SortField(field.fieldName, SortField.Type.DOC, true)
+    }
+    return when (field) {
+      DIFFICULTY, NUMBER, TOTAL_DIFFICULTY -> SortField(field.fieldName, SortField.Type.STRING, true)
+      GAS_LIMIT, GAS_USED, TIMESTAMP -> SortField(field.fieldName, SortField.Type.LONG, true)
+      else -> SortField(field.fieldName, SortField.Type.DOC, true)
+    }
+  }
+
   override fun findBy(field: BlockHeaderFields, value: Gas): List<Hash> {
     return findByOneTerm(field, toBytesRef(value))
   }
@@ -533,13 +983,7 @@ class BlockchainIndex(private val indexWriter: IndexWriter) : BlockchainIndexWri
         Sort(SortField.FIELD_SCORE, SortField(field.fieldName, SortField.Type.DOC, true))
       )
 
-      for (hit in topDocs.scoreDocs) {
-        val doc = searcher.doc(hit.doc, setOf("_id"))
-        val bytes = doc.getBinaryValue("_id")
-
-        return Hash.fromBytes(Bytes32.wrap(bytes.bytes))
-      }
-      return null
+      return readIds(searcher, topDocs.scoreDocs).firstOrNull()
     } catch (e: IOException) {
       throw IndexReadException(e)
     } finally {
@@ -627,8 +1071,27 @@ class BlockchainIndex(private val indexWriter: IndexWriter) : BlockchainIndexWri
     return toBytesRef(hash.toBytes())
   }
 
+  private fun toHash(id: BytesRef): Hash = Hash.fromBytes(Bytes32.wrap(BytesRef.deepCopyOf(id).bytes))
+
+  private fun toPoint(uint: UInt256): ByteArray {
+    return uint.toBytes().slice(16, 16).toArray()
+  }
+
   companion object {
 
     private val HITS = 10
+
+    private const val STREAM_PAGE_SIZE = 1000
+
+    private val ID_SORT = Sort(SortField("_id", SortField.Type.STRING_VAL))
+
+    /**
+     * The version of the layout of indexed documents.
+     */
+    const val FORMAT_VERSION = 3
+
+    private const val FORMAT_VERSION_KEY = "formatVersion"
+
+    private val POINT_LIMIT = UInt256.ONE.shiftLeft(128)
   }
 }
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.produce
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.bytes.Bytes32
+import net.consensys.cava.eth.Address
+import net.consensys.cava.eth.Hash
+import net.consensys.cava.kv.KeyValueStore
+import net.consensys.cava.units.bigints.UInt256
+import net.consensys.cava.units.ethereum.Gas
+
+/**
+ * A blockchain index that can be queried and updated from coroutines.
+ *
+ * Queries mirror those of [BlockchainIndexReader]. Streams are read lazily, one page at a time, as the channel they
+ * return is consumed; cancel the channel to stop reading early.
+ */
+interface BlockchainIndexStore {
+
+  /**
+   * Indexes elements.
+   *
+   * If an exception is thrown in the function, none of the elements it indexed are kept.
+   *
+   * @param indexer function indexing the elements
+   */
+  suspend fun index(indexer: (BlockchainIndexWriter) -> Unit)
+
+  /**
+   * Indexes elements, along with entries of a key-value store they describe.
+   *
+   * Indexes held in the same key-value store write the entries in the same batch as the index entries, so that stores
+   * supporting write batches apply both atomically. By default, the entries are written first, so that the index never
+   * refers to entries that are not stored.
+   *
+   * @param store the key-value store to write the entries to
+   * @param entries the entries, by key
+   * @param indexer function indexing the elements
+   */
+  suspend fun index(store: KeyValueStore, entries: Map<Bytes, Bytes>, indexer: (BlockchainIndexWriter) -> Unit) {
+    store.putAll(entries)
+    index(indexer)
+  }
+
+  /**
+   * Checks whether the index was written by an earlier version and should be migrated.
+   *
+   * @return `true` if all block headers should be indexed again, before calling [completeMigration]
+   */
+  suspend fun isMigrationRequired(): Boolean = false
+
+  /**
+   * Marks the migration of an index written by an earlier version as complete, once all block headers have been indexed
+   * again.
+   */
+  suspend fun completeMigration() {}
+
+  /**
+   * Find a value in a range.
+   *
+   * @param field the name of the field
+   * @param minValue the minimum value, inclusive
+   * @param maxValue the maximum value, inclusive
+   * @return the matching block header hashes.
+   */
+  suspend fun findInRange(field: BlockHeaderFields, minValue: UInt256, maxValue: UInt256): List<Hash>
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching block header hashes.
+   */
+  suspend fun findBy(field: BlockHeaderFields, value: Bytes): List<Hash>
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching block header hashes.
+   */
+  suspend fun findBy(field: BlockHeaderFields, value: Long): List<Hash>
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching block header hashes.
+   */
+  suspend fun findBy(field: BlockHeaderFields, value: Gas): List<Hash>
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching block header hashes.
+   */
+  suspend fun findBy(field: BlockHeaderFields, value: UInt256): List<Hash> = findBy(field, value.toBytes())
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching block header hashes.
+   */
+  suspend fun findBy(field: BlockHeaderFields, value: Address): List<Hash> = findBy(field, value.toBytes())
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching block header hashes.
+   */
+  suspend fun findBy(field: BlockHeaderFields, value: Hash): List<Hash> = findBy(field, value.toBytes())
+
+  /**
+   * Find the hash of the block header with the largest value of a specific block header field
+   *
+   * @param field the field to query on
+   * @return the matching hash with the largest field value.
+   */
+  suspend fun findByLargest(field: BlockHeaderFields): Hash?
+
+  /**
+   * Streams all block headers with a value in a range.
+   *
+   * Unlike [findInRange], results are not capped.
+   *
+   * @param field the name of the field
+   * @param minValue the minimum value, inclusive
+   * @param maxValue the maximum value, inclusive
+   * @return a channel receiving the matching block header hashes.
+   */
+  fun streamInRange(field: BlockHeaderFields, minValue: UInt256, maxValue: UInt256): ReceiveChannel<Hash>
+
+  /**
+   * Streams all exact matches for a field.
+   *
+   * Unlike [findBy], results are not capped.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return a channel receiving the matching block header hashes.
+   */
+  fun streamBy(field: BlockHeaderFields, value: Bytes): ReceiveChannel<Hash>
+
+  /**
+   * Finds hashes of blocks by hash or number.
+   *
+   * @param hashOrNumber the hash of a block header, or its number as a 32-byte word
+   * @return the matching block header hashes.
+   */
+  suspend fun findByHashOrNumber(hashOrNumber: Bytes32): List<Hash>
+
+  /**
+   * Find a value in a range.
+   *
+   * @param field the name of the field
+   * @param minValue the minimum value, inclusive
+   * @param maxValue the maximum value, inclusive
+   * @return the matching transaction receipt hashes.
+   */
+  suspend fun findInRange(field: TransactionReceiptFields, minValue: UInt256, maxValue: UInt256): List<Hash>
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching transaction receipt hashes.
+   */
+  suspend fun findBy(field: TransactionReceiptFields, value: Bytes): List<Hash>
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching transaction receipt hashes.
+   */
+  suspend fun findBy(field: TransactionReceiptFields, value: Int): List<Hash> = findBy(field, value.toLong())
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching transaction receipt hashes.
+   */
+  suspend fun findBy(field: TransactionReceiptFields, value: Long): List<Hash>
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching transaction receipt hashes.
+   */
+  suspend fun findBy(field: TransactionReceiptFields, value: Gas): List<Hash>
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching transaction receipt hashes.
+   */
+  suspend fun findBy(field: TransactionReceiptFields, value: UInt256): List<Hash> = findBy(field, value.toBytes())
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching transaction receipt hashes.
+   */
+  suspend fun findBy(field: TransactionReceiptFields, value: Address): List<Hash> = findBy(field, value.toBytes())
+
+  /**
+   * Find exact matches for a field.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching transaction receipt hashes.
+   */
+  suspend fun findBy(field: TransactionReceiptFields, value: Hash): List<Hash> = findBy(field, value.toBytes())
+
+  /**
+   * Find the hash of the transaction receipt with the largest value of a specific field.
+   *
+   * @param field the field to query on
+   * @return the matching hash with the largest field value.
+   */
+  suspend fun findByLargest(field: TransactionReceiptFields): Hash?
+
+  /**
+   * Streams all exact matches for a field.
+   *
+   * Unlike [findBy], results are not capped.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return a channel receiving the matching transaction receipt hashes.
+   */
+  fun streamBy(field: TransactionReceiptFields, value: Bytes): ReceiveChannel<Hash>
+
+  /**
+   * Find a transaction request by block hash and index.
+   *
+   * @param blockHash the block hash
+   * @param index the index of the transaction in the block
+   * @return the matching hash of the transaction if found
+   */
+  suspend fun findByBlockHashAndIndex(blockHash: Hash, index: Int): Hash?
+
+  /**
+   * Retrieves the total difficulty of the block header, if it has been computed.
+   *
+   * @param hash the hash of the header
+   * @return the total difficulty of the header if it could be computed.
+   */
+  suspend fun totalDifficulty(hash: Hash): UInt256?
+}
+
+/**
+ * A [BlockchainIndexStore] calling a Lucene [BlockchainIndex].
+ *
+ * Calls run on the calling coroutine, as Lucene searches of recent segments complete quickly. Streams are read on the
+ * I/O dispatcher.
+ */
+internal class LuceneBlockchainIndexStore(private val index: BlockchainIndex) : BlockchainIndexStore {
+
+  companion object {
+    private const val STREAM_BUFFER_SIZE = 1000
+  }
+
+  override suspend fun index(indexer: (BlockchainIndexWriter) -> Unit) = index.index(indexer)
+
+  override suspend fun isMigrationRequired(): Boolean = index.isMigrationRequired()
+
+  override suspend fun completeMigration() = index.completeMigration()
+
+  override suspend fun findInRange(field: BlockHeaderFields, minValue: UInt256, maxValue: UInt256): List<Hash> =
+    index.findInRange(field, minValue, maxValue)
+
+  override suspend fun findBy(field: BlockHeaderFields, value: Bytes): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findBy(field: BlockHeaderFields, value: Long): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findBy(field: BlockHeaderFields, value: Gas): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findBy(field: BlockHeaderFields, value: UInt256): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findBy(field: BlockHeaderFields, value: Address): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findBy(field: BlockHeaderFields, value: Hash): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findByLargest(field: BlockHeaderFields): Hash? = index.findByLargest(field)
+
+  override fun streamInRange(field: BlockHeaderFields, minValue: UInt256, maxValue: UInt256): ReceiveChannel<Hash> =
+    stream(index.streamInRange(field, minValue, maxValue))
+
+  override fun streamBy(field: BlockHeaderFields, value: Bytes): ReceiveChannel<Hash> =
+    stream(index.streamBy(field, value))
+
+  override suspend fun findByHashOrNumber(hashOrNumber: Bytes32): List<Hash> = index.findByHashOrNumber(hashOrNumber)
+
+  override suspend fun findInRange(field: TransactionReceiptFields, minValue: UInt256, maxValue: UInt256): List<Hash> =
+    index.findInRange(field, minValue, maxValue)
+
+  override suspend fun findBy(field: TransactionReceiptFields, value: Bytes): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findBy(field: TransactionReceiptFields, value: Int): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findBy(field: TransactionReceiptFields, value: Long): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findBy(field: TransactionReceiptFields, value: Gas): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findBy(field: TransactionReceiptFields, value: UInt256): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findBy(field: TransactionReceiptFields, value: Address): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findBy(field: TransactionReceiptFields, value: Hash): List<Hash> = index.findBy(field, value)
+
+  override suspend fun findByLargest(field: TransactionReceiptFields): Hash? = index.findByLargest(field)
+
+  override fun streamBy(field: TransactionReceiptFields, value: Bytes): ReceiveChannel<Hash> =
+    stream(index.streamBy(field, value))
+
+  override suspend fun findByBlockHashAndIndex(blockHash: Hash, index: Int): Hash? =
+    this.index.findByBlockHashAndIndex(blockHash, index)
+
+  override suspend fun totalDifficulty(hash: Hash): UInt256? = index.totalDifficulty(hash)
+
+  private fun stream(hashes: Sequence<Hash>): ReceiveChannel<Hash> =
+    GlobalScope.produce(Dispatchers.IO, STREAM_BUFFER_SIZE) {
+      for (hash in hashes) {
+        send(hash)
+      }
+    }
+}
@@ -12,6 +12,21 @@
  */
 package net.consensys.cava.eth.repository
 
+import com.google.common.cache.CacheStats
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.async
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.produce
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
 import net.consensys.cava.bytes.Bytes
 import net.consensys.cava.bytes.Bytes32
 import net.consensys.cava.eth.Block
@@ -20,6 +35,10 @@ import net.consensys.cava.eth.BlockHeader
 import net.consensys.cava.eth.Hash
 import net.consensys.cava.eth.TransactionReceipt
 import net.consensys.cava.kv.KeyValueStore
+import net.consensys.cava.units.bigints.UInt256
+import java.util.ArrayDeque
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.coroutines.coroutineContext
 
 /**
  * Repository housing blockchain information.
@@ -34,20 +53,105 @@ class BlockchainRepository
  * @param chainMetadata the key-value store to store chain metadata
  * @param blockBodyStore the key-value store to store block bodies
  * @param blockHeaderStore the key-value store to store block headers
- * @param blockchainIndex the blockchain index to index values
+ * @param blockchainIndex the blockchain index to index values, backed by Lucene or by a key-value store
+ * @param cacheSize the budget of the caches of decoded block headers, block bodies and transaction receipts, as the
+ *     total size of their serialized form in bytes
+ * @param freezer the store of ancient blocks of the canonical chain, or null to keep all blocks in key-value stores
+ * @param metrics the receiver of measurements of the calls to the operations of the repository, or null to take none
  */
-  (
-    private val chainMetadata: KeyValueStore,
-    private val blockBodyStore: KeyValueStore,
-    private val blockHeaderStore: KeyValueStore,
-    private val transactionReceiptsStore: KeyValueStore,
-    private val blockchainIndex: BlockchainIndex
+  @JvmOverloads
+  constructor(
+    chainMetadata: KeyValueStore,
+    blockBodyStore: KeyValueStore,
+    blockHeaderStore: KeyValueStore,
+    transactionReceiptsStore: KeyValueStore,
+    private val blockchainIndex: BlockchainIndexStore,
+    cacheSize: Long = DEFAULT_CACHE_SIZE,
+    private val freezer: BlockFreezer? = null,
+    private val metrics: RepositoryMetrics? = null
   ) {
 
+  private val chainMetadata = tracing(chainMetadata, metrics)
+  private val blockBodyStore = tracing(blockBodyStore, metrics)
+  private val blockHeaderStore = tracing(blockHeaderStore, metrics)
+  // block headers are passed untraced to the index, which may write them in the same batch as its entries
+  private val indexedHeaderStore = blockHeaderStore
+  private val transactionReceiptsStore = tracing(transactionReceiptsStore, metrics)
+
+  private val blockTree = BlockTree(BLOCK_TREE_RETENTION.toLong())
+  private val blockTreeMutex = Mutex()
+  @Volatile
+  private var blockTreeLoaded = false
+  private val canonicalChain = CanonicalChainIndex(this.chainMetadata)
+  private val canonicalChainMutex = Mutex()
+  private val blockReceipts = BlockReceiptsStore(this.transactionReceiptsStore)
+  private val orphanBuffer = OrphanBuffer(ORPHAN_BUFFER_CAPACITY)
+  private val headerCache = DecodedObjectCache<BlockHeader>(cacheSize / 4)
+  private val bodyCache = DecodedObjectCache<BlockBody>(cacheSize / 2)
+  private val receiptsCache = DecodedObjectCache<List<TransactionReceipt>>(cacheSize / 4)
+  private val bloomBits = BloomBitsIndex(this.chainMetadata, BLOOM_BITS_SECTION_SIZE)
+  private val bloomBitsMutex = Mutex()
+  private val bloomBitsScheduled = AtomicBoolean()
+  private val freezerMutex = Mutex()
+
+  /**
+   * Creates a repository indexed by a Lucene blockchain index.
+   *
+   * @param chainMetadata the key-value store to store chain metadata
+   * @param blockBodyStore the key-value store to store block bodies
+   * @param blockHeaderStore the key-value store to store block headers
+   * @param blockchainIndex the Lucene blockchain index to index values
+   * @param cacheSize the budget of the caches of decoded block headers, block bodies and transaction receipts, as the
+   *     total size of their serialized form in bytes
+   * @param freezer the store of ancient blocks of the canonical chain, or null to keep all blocks in key-value stores
+   * @param metrics the receiver of measurements of the calls to the operations of the repository, or null to take none
+   */
+  @JvmOverloads
+  constructor(
+    chainMetadata: KeyValueStore,
+    blockBodyStore: KeyValueStore,
+    blockHeaderStore: KeyValueStore,
+    transactionReceiptsStore: KeyValueStore,
+    blockchainIndex: BlockchainIndex,
+    cacheSize: Long = DEFAULT_CACHE_SIZE,
+    freezer: BlockFreezer? = null,
+    metrics: RepositoryMetrics? = null
+  ) : this(
+    chainMetadata,
+    blockBodyStore,
+    blockHeaderStore,
+    transactionReceiptsStore,
+    blockchainIndex.asStore(),
+    cacheSize,
+    freezer,
+    metrics
+  )
+
   companion object {
 
     val GENESIS_BLOCK = Bytes.wrap("genesisBlock".toByteArray())
 
+    private const val BLOCK_TREE_RETENTION = 4096
+    private const val ORPHAN_BUFFER_CAPACITY = 4096
+    private const val LINK_BATCH_SIZE = 1024
+    private const val CANONICAL_BACKFILL_BATCH_SIZE = 1024
+    private const val BLOOM_BITS_SECTION_SIZE = 4096
+    private const val BLOOM_BITS_CONFIRMATIONS = 256
+
+    /**
+     * The default budget of the caches of decoded objects, in bytes.
+     */
+    const val DEFAULT_CACHE_SIZE = 32L * 1024 * 1024
+
+    private const val LOG_BUFFER_SIZE = 64
+    private const val FREEZE_BATCH_SIZE = 1024
+    private val FROZEN_PREFIX = Bytes.wrap("frozen".toByteArray())
+
+    private fun frozenKey(blockHash: Bytes): Bytes = Bytes.wrap(FROZEN_PREFIX, blockHash)
+
+    private fun tracing(store: KeyValueStore, metrics: RepositoryMetrics?): KeyValueStore =
+      if (metrics == null) store else TracingKeyValueStore(store)
+
     /**
      * Initializes a blockchain repository with metadata, placing it in key-value stores.
      *
@@ -58,18 +162,51 @@ class BlockchainRepository
       blockHeaderStore: KeyValueStore,
       chainMetadata: KeyValueStore,
       transactionReceiptsStore: KeyValueStore,
-      blockchainIndex: BlockchainIndex,
-      genesisBlock: Block
+      blockchainIndex: BlockchainIndexStore,
+      genesisBlock: Block,
+      cacheSize: Long = DEFAULT_CACHE_SIZE,
+      freezer: BlockFreezer? = null,
+      metrics: RepositoryMetrics? = null
     ): BlockchainRepository {
       val repo = BlockchainRepository(chainMetadata,
         blockBodyStore,
         blockHeaderStore,
         transactionReceiptsStore,
-        blockchainIndex)
+        blockchainIndex,
+        cacheSize,
+        freezer,
+        metrics)
       repo.setGenesisBlock(genesisBlock)
       repo.storeBlock(genesisBlock)
       return repo
     }
+
+    /**
+     * Initializes a blockchain repository with metadata, placing it in key-value stores and indexing it with Lucene.
+     *
+     * @return a new blockchain repository made from the metadata passed in parameter.
+     */
+    suspend fun init(
+      blockBodyStore: KeyValueStore,
+      blockHeaderStore: KeyValueStore,
+      chainMetadata: KeyValueStore,
+      transactionReceiptsStore: KeyValueStore,
+      blockchainIndex: BlockchainIndex,
+      genesisBlock: Block,
+      cacheSize: Long = DEFAULT_CACHE_SIZE,
+      freezer: BlockFreezer? = null,
+      metrics: RepositoryMetrics? = null
+    ): BlockchainRepository = init(
+      blockBodyStore,
+      blockHeaderStore,
+      chainMetadata,
+      transactionReceiptsStore,
+      blockchainIndex.asStore(),
+      genesisBlock,
+      cacheSize,
+      freezer,
+      metrics
+    )
   }
 
   /**
@@ -78,8 +215,10 @@ class BlockchainRepository
    * @param blockBody the block body to store
    * @return a handle to the storage operation completion
    */
-  suspend fun storeBlockBody(blockHash: Hash, blockBody: BlockBody) {
-    blockBodyStore.put(blockHash.toBytes(), blockBody.toBytes())
+  suspend fun storeBlockBody(blockHash: Hash, blockBody: BlockBody) = traced("storeBlockBody") {
+    val bytes = measure(trace(), RepositoryStep.ENCODE) { blockBody.toBytes() }
+    blockBodyStore.put(blockHash.toBytes(), bytes)
+    bodyCache.put(blockHash.toBytes(), blockBody, bytes.size())
   }
 
   /**
@@ -88,10 +227,98 @@ class BlockchainRepository
    * @param block the block to store
    * @return a handle to the storage operation completion
    */
-  suspend fun storeBlock(block: Block) {
+  suspend fun storeBlock(block: Block) = traced("storeBlock") {
     storeBlockBody(block.header().hash(), block.body())
-    blockHeaderStore.put(block.header().hash().toBytes(), block.header().toBytes())
-    indexBlockHeader(block.header())
+    storeBlockHeaders(listOf(block.header()))
+  }
+
+  /**
+   * Stores blocks in the repository, in a pipeline of stages running concurrently.
+   *
+   * Block headers and bodies are encoded in parallel. Block bodies are written in batches with a single
+   * [KeyValueStore.putAll], then block headers are written in batches along with their index update, with bounded
+   * buffers between stages. Blocks are stored and indexed in the order they are received, so parents should be received
+   * before their children.
+   *
+   * @param blocks the channel providing the blocks to store, which should be closed after the last block is sent
+   * @param batchSize the number of blocks written and indexed at once
+   * @param parallelism the number of blocks encoded concurrently
+   * @param metrics the receiver of per-stage throughput measurements
+   * @return the throughput measurements of the import
+   */
+  suspend fun storeBlocks(
+    blocks: ReceiveChannel<Block>,
+    batchSize: Int = 256,
+    parallelism: Int = 4,
+    metrics: BlockImportMetrics = BlockImportMetrics()
+  ): BlockImportMetrics = traced("storeBlocks") {
+    if (batchSize < 1) {
+      throw IllegalArgumentException("Invalid batch size $batchSize")
+    }
+    if (parallelism < 1) {
+      throw IllegalArgumentException("Invalid parallelism $parallelism")
+    }
+    coroutineScope {
+      val encoded = Channel<Deferred<EncodedBlock>>(parallelism)
+      val stored = Channel<List<EncodedBlock>>(2)
+
+      launch {
+        for (block in blocks) {
+          encoded.send(async(Dispatchers.Default) {
+            val start = System.nanoTime()
+            val encodedBlock = measure(trace(), RepositoryStep.ENCODE) {
+              EncodedBlock(block.header(), block.header().toBytes(), block.body().toBytes())
+            }
+            metrics.record(BlockImportStage.ENCODE, 1, System.nanoTime() - start)
+            encodedBlock
+          })
+        }
+        encoded.close()
+      }
+
+      launch {
+        val batch = ArrayList<EncodedBlock>(batchSize)
+        for (deferred in encoded) {
+          batch.add(deferred.await())
+          if (batch.size == batchSize) {
+            stored.send(storeBatch(batch, metrics))
+            batch.clear()
+          }
+        }
+        if (!batch.isEmpty()) {
+          stored.send(storeBatch(batch, metrics))
+        }
+        stored.close()
+      }
+
+      launch {
+        for (batch in stored) {
+          val start = System.nanoTime()
+          storeBlockHeaders(batch.map { it.header }, batch.associate { it.header.hash().toBytes() to it.headerBytes })
+          for (block in batch) {
+            headerCache.invalidate(block.header.hash().toBytes())
+          }
+          metrics.record(BlockImportStage.INDEX, batch.size, System.nanoTime() - start)
+        }
+      }
+    }
+    metrics
+  }
+
+  private class EncodedBlock(val header: BlockHeader, val headerBytes: Bytes, val bodyBytes: Bytes)
+
+  private suspend fun storeBatch(batch: List<EncodedBlock>, metrics: BlockImportMetrics): List<EncodedBlock> {
+    val start = System.nanoTime()
+    val bodies = HashMap<Bytes, Bytes>(batch.size * 2)
+    for (block in batch) {
+      bodies[block.header.hash().toBytes()] = block.bodyBytes
+    }
+    blockBodyStore.putAll(bodies)
+    for (key in bodies.keys) {
+      bodyCache.invalidate(key)
+    }
+    metrics.record(BlockImportStage.STORE, batch.size, System.nanoTime() - start)
+    return ArrayList(batch)
   }
 
   /**
@@ -103,12 +330,42 @@ class BlockchainRepository
    * @param txHash the hash of the transaction
    * @param blockHash the hash of the block that this transaction belongs to
    */
-  suspend fun storeTransactionReceipts(vararg transactionReceipts: TransactionReceipt, txHash: Hash, blockHash: Hash) {
+  suspend fun storeTransactionReceipts(
+    vararg transactionReceipts: TransactionReceipt,
+    txHash: Hash,
+    blockHash: Hash
+  ) = traced("storeTransactionReceipts") {
     for (i in 0 until transactionReceipts.size) {
       storeTransactionReceipt(transactionReceipts[i], i, txHash, blockHash)
     }
   }
 
+  /**
+   * Stores all the transaction receipts of a block in the repository, as a single entry.
+   *
+   * The receipts of the block can then be retrieved with a single read, and the receipt of a transaction is located
+   * from its hash without querying the index.
+   *
+   * @param blockHash the hash of the block
+   * @param transactionReceipts the transaction receipts, ordered by the transactions order of the block
+   * @param txHashes the hashes of the transactions, in the same order
+   */
+  suspend fun storeBlockReceipts(
+    blockHash: Hash,
+    transactionReceipts: List<TransactionReceipt>,
+    txHashes: List<Hash>
+  ) = traced("storeBlockReceipts") {
+    blockReceipts.put(blockHash, transactionReceipts, txHashes)
+    receiptsCache.invalidate(blockHash.toBytes())
+    measure(trace(), RepositoryStep.INDEX_UPDATE) {
+      blockchainIndex.index { writer ->
+        for (i in transactionReceipts.indices) {
+          writer.indexTransactionReceipt(transactionReceipts[i], i, txHashes[i], blockHash)
+        }
+      }
+    }
+  }
+
   /**
    * Stores a transaction receipt in the repository.
    *
@@ -122,8 +379,10 @@ class BlockchainRepository
     txIndex: Int,
     txHash: Hash,
     blockHash: Hash
-  ) {
-    transactionReceiptsStore.put(txHash.toBytes(), transactionReceipt.toBytes())
+  ) = traced("storeTransactionReceipt") {
+    val bytes = measure(trace(), RepositoryStep.ENCODE) { transactionReceipt.toBytes() }
+    transactionReceiptsStore.put(txHash.toBytes(), bytes)
+    receiptsCache.invalidate(blockHash.toBytes())
     indexTransactionReceipt(transactionReceipt, txIndex, txHash, blockHash)
   }
 
@@ -133,18 +392,146 @@ class BlockchainRepository
    * @param header the block header to store
    * @return handle to the storage operation completion
    */
-  suspend fun storeBlockHeader(header: BlockHeader) {
-    blockHeaderStore.put(header.hash().toBytes(), header.toBytes())
-    indexBlockHeader(header)
+  suspend fun storeBlockHeader(header: BlockHeader) = traced("storeBlockHeader") {
+    storeBlockHeaders(listOf(header))
+  }
+
+  private suspend fun storeBlockHeaders(headers: List<BlockHeader>) {
+    val encoded = measure(trace(), RepositoryStep.ENCODE) { headers.map { it.hash().toBytes() to it.toBytes() } }
+    storeBlockHeaders(headers, encoded.toMap())
+    for ((header, entry) in headers.zip(encoded)) {
+      headerCache.put(entry.first, header, entry.second.size())
+    }
+  }
+
+  /**
+   * Stores and indexes block headers, linking them to their known ancestors.
+   *
+   * The encoded headers are written with the index update, in the same batch as the index entries when the index is
+   * held in the block header store. Headers whose parent is not known yet are held in the orphan buffer. Once a header
+   * is linked, its descendants still missing their total difficulty are linked in a single iterative pass, stopping at
+   * descendants already indexed with the computed total difficulty. Linked headers are indexed in batches of at most
+   * [LINK_BATCH_SIZE] headers.
+   */
+  private suspend fun storeBlockHeaders(headers: List<BlockHeader>, headerBytes: Map<Bytes, Bytes>) {
+    val trace = trace()
+    val tree = blockTree()
+    val totalDifficulties = HashMap<Hash, UInt256>()
+    val linked = mutableListOf<BlockHeader>()
+    val orphans = mutableListOf<BlockHeader>()
+    for (header in headers) {
+      val parentHash = header.parentHash()
+      val totalDifficulty = if (parentHash == null) {
+        header.difficulty()
+      } else {
+        (totalDifficulties[parentHash] ?: tree.totalDifficulty(parentHash)
+          ?: if (parentHash in orphanBuffer) null else measure(trace, RepositoryStep.INDEX_QUERY) {
+            blockchainIndex.totalDifficulty(parentHash)
+          })
+          ?.add(header.difficulty())
+      }
+      if (totalDifficulty != null) {
+        totalDifficulties[header.hash()] = totalDifficulty
+        linked.add(header)
+      } else {
+        orphans.add(header)
+        orphanBuffer.add(header)
+      }
+    }
+
+    val pending = ArrayDeque<BlockHeader>(linked)
+    var batch = linked
+    var batchOrphans: List<BlockHeader> = orphans
+    var batchBytes = headerBytes
+    while (!pending.isEmpty()) {
+      val parent = pending.removeFirst()
+      val parentTotalDifficulty = totalDifficulties[parent.hash()]!!
+      for ((child, totalDifficulty) in unlinkedChildren(parent.hash(), parentTotalDifficulty)) {
+        if (totalDifficulties.containsKey(child.hash())) {
+          continue
+        }
+        totalDifficulties[child.hash()] = totalDifficulty
+        batch.add(child)
+        pending.addLast(child)
+      }
+      if (batch.size >= LINK_BATCH_SIZE) {
+        indexLinkedHeaders(batch, batchOrphans, batchBytes, totalDifficulties)
+        batch = mutableListOf()
+        batchOrphans = emptyList()
+        batchBytes = emptyMap()
+        // only the total difficulties of the headers left to walk from are needed from now on
+        val pendingHashes = pending.map { it.hash() }.toSet()
+        totalDifficulties.keys.retainAll(pendingHashes)
+      }
+    }
+    indexLinkedHeaders(batch, batchOrphans, batchBytes, totalDifficulties)
   }
 
-  private suspend fun indexBlockHeader(header: BlockHeader) {
-    blockchainIndex.index { writer -> writer.indexBlockHeader(header) }
-    for (hash in findBlocksByParentHash(header.hash())) {
-      blockHeaderStore.get(hash.toBytes())?.let { bytes ->
-        indexBlockHeader(BlockHeader.fromBytes(bytes))
+  private suspend fun indexLinkedHeaders(
+    linked: List<BlockHeader>,
+    orphans: List<BlockHeader>,
+    headerBytes: Map<Bytes, Bytes>,
+    totalDifficulties: Map<Hash, UInt256>
+  ) {
+    val tree = blockTree()
+    measure(trace(), RepositoryStep.INDEX_UPDATE) {
+      blockchainIndex.index(indexedHeaderStore, headerBytes) { writer ->
+        for (header in linked) {
+          writer.indexBlockHeader(header, totalDifficulties[header.hash()]!!)
+        }
+        for (header in orphans) {
+          if (!totalDifficulties.containsKey(header.hash())) {
+            writer.indexBlockHeader(header)
+          }
+        }
       }
     }
+    var previousHead = tree.head
+    for ((i, header) in linked.withIndex()) {
+      tree.add(header, totalDifficulties[header.hash()]!!)
+      // update the canonical chain before the tree prunes the blocks it walks through
+      if ((i + 1) % (BLOCK_TREE_RETENTION / 2) == 0 && tree.head != previousHead) {
+        updateCanonicalChain()
+        previousHead = tree.head
+      }
+    }
+    if (tree.head != previousHead) {
+      updateCanonicalChain()
+    }
+  }
+
+  /**
+   * Provides the children of a linked header which are missing their total difficulty, with their total difficulty.
+   *
+   * Children held in the orphan buffer are always unlinked. Orphans dropped from the buffer, or stored before this
+   * repository was opened, are only found in the index: they are unlinked if the index holds no total difficulty for
+   * them, or one differing from the total difficulty computed from their parent.
+   */
+  private suspend fun unlinkedChildren(
+    parentHash: Hash,
+    parentTotalDifficulty: UInt256
+  ): List<Pair<BlockHeader, UInt256>> {
+    val trace = trace()
+    val children = orphanBuffer.removeChildren(parentHash)
+    val known = children.map { it.hash() }.toSet()
+    val unlinked = children.map { it to parentTotalDifficulty.add(it.difficulty()) }.toMutableList()
+    val hashes = measure(trace, RepositoryStep.INDEX_QUERY) {
+      blockchainIndex.findBy(BlockHeaderFields.PARENT_HASH, parentHash)
+    }
+    for (hash in hashes) {
+      if (hash in known) {
+        continue
+      }
+      val indexedTotalDifficulty = measure(trace, RepositoryStep.INDEX_QUERY) { blockchainIndex.totalDifficulty(hash) }
+      val child = retrieveBlockHeaderBytes(hash.toBytes())?.let {
+        measure(trace, RepositoryStep.DECODE) { BlockHeader.fromBytes(it) }
+      } ?: continue
+      val totalDifficulty = parentTotalDifficulty.add(child.difficulty())
+      if (indexedTotalDifficulty != totalDifficulty) {
+        unlinked.add(child to totalDifficulty)
+      }
+    }
+    return unlinked
   }
 
   private suspend fun indexTransactionReceipt(
@@ -153,11 +540,109 @@ class BlockchainRepository
     txHash: Hash,
     blockHash: Hash
   ) {
-    blockchainIndex.index {
-      it.indexTransactionReceipt(txReceipt, txIndex, txHash, blockHash)
+    measure(trace(), RepositoryStep.INDEX_UPDATE) {
+      blockchainIndex.index {
+        it.indexTransactionReceipt(txReceipt, txIndex, txHash, blockHash)
+      }
+    }
+  }
+
+  /**
+   * Migrates an index written by an earlier version of the blockchain index, by indexing all stored block headers
+   * again.
+   *
+   * Block headers keep the total difficulty recorded by the index. Queries remain answered during the migration.
+   *
+   * @param batchSize the number of block headers indexed at once
+   */
+  suspend fun migrateIndex(batchSize: Int = 1000) = traced("migrateIndex") {
+    if (batchSize < 1) {
+      throw IllegalArgumentException("Invalid batch size $batchSize")
+    }
+    if (blockchainIndex.isMigrationRequired()) {
+      val trace = trace()
+      for (keys in blockHeaderStore.keys().chunked(batchSize)) {
+        reindexBlockHeaders(keys.mapNotNull { key ->
+          blockHeaderStore.get(key)?.let { measure(trace, RepositoryStep.DECODE) { BlockHeader.fromBytes(it) } }
+        })
+      }
+      freezer?.let { freezer ->
+        for (numbers in (0 until freezer.frozen).asSequence().chunked(batchSize)) {
+          val headers = measure(trace, RepositoryStep.FREEZER_READ) { numbers.mapNotNull { freezer.header(it) } }
+          reindexBlockHeaders(measure(trace, RepositoryStep.DECODE) { headers.map { BlockHeader.fromBytes(it) } })
+        }
+      }
+      measure(trace, RepositoryStep.INDEX_UPDATE) { blockchainIndex.completeMigration() }
+    }
+  }
+
+  private suspend fun reindexBlockHeaders(headers: List<BlockHeader>) {
+    val trace = trace()
+    val totalDifficulties = measure(trace, RepositoryStep.INDEX_QUERY) {
+      headers.map { blockchainIndex.totalDifficulty(it.hash()) }
+    }
+    measure(trace, RepositoryStep.INDEX_UPDATE) {
+      blockchainIndex.index { writer ->
+        for ((header, totalDifficulty) in headers.zip(totalDifficulties)) {
+          if (totalDifficulty != null) {
+            writer.indexBlockHeader(header, totalDifficulty)
+          } else {
+            writer.indexBlockHeader(header)
+          }
+        }
+      }
     }
   }
 
+  /**
+   * Moves the blocks of the canonical chain lying more than the freezer depth behind the chain head to the freezer.
+   *
+   * Block headers, block bodies and the transaction receipts stored per block are appended to the freezer, in chain
+   * order, then removed from their key-value stores once the freezer is synced to disk. Blocks of side chains and
+   * receipts stored per transaction are left in the key-value stores. Frozen blocks remain readable by hash, and by
+   * number through [retrieveCanonicalBlockHeader].
+   *
+   * @return the number of blocks moved to the freezer
+   */
+  suspend fun freeze(): Long = traced("freeze") { freezeAncientBlocks() }
+
+  private suspend fun freezeAncientBlocks(): Long = freezerMutex.withLock {
+    val freezer = this.freezer ?: return@withLock 0L
+    val head = blockTree().head ?: return@withLock 0L
+    val limit = head.number - freezer.depth
+    var moved = 0L
+    while (freezer.frozen < limit) {
+      val batch = mutableListOf<Hash>()
+      while (batch.size < FREEZE_BATCH_SIZE && freezer.frozen < limit) {
+        val number = freezer.frozen
+        val hash = canonicalChain.get(number) ?: break
+        val header = blockHeaderStore.get(hash.toBytes()) ?: break
+        val body = blockBodyStore.get(hash.toBytes()) ?: break
+        chainMetadata.put(frozenKey(hash.toBytes()), Bytes.ofUnsignedLong(number))
+        freezer.append(number, header, body, blockReceipts.getBytes(hash))
+        batch.add(hash)
+      }
+      if (batch.isEmpty()) {
+        break
+      }
+      freezer.sync()
+      for (hash in batch) {
+        blockHeaderStore.remove(hash.toBytes())
+        blockBodyStore.remove(hash.toBytes())
+        blockReceipts.remove(hash)
+      }
+      moved += batch.size
+    }
+    moved
+  }
+
+  private suspend fun frozenNumber(blockHash: Bytes): Long? {
+    if (freezer == null) {
+      return null
+    }
+    return chainMetadata.get(frozenKey(blockHash))?.toLong()
+  }
+
   /**
    * Retrieves a block into the repository as its serialized RLP bytes representation.
    *
@@ -174,8 +659,8 @@ class BlockchainRepository
    * @param blockHash the hash of the block stored
    * @return a future with the bytes if found
    */
-  suspend fun retrieveBlockBodyBytes(blockHash: Bytes): Bytes? {
-    return blockBodyStore.get(blockHash)
+  suspend fun retrieveBlockBodyBytes(blockHash: Bytes): Bytes? = traced("retrieveBlockBodyBytes") {
+    blockBodyStore.get(blockHash) ?: frozenNumber(blockHash)?.let { readFreezer { freezer!!.body(it) } }
   }
 
   /**
@@ -194,8 +679,11 @@ class BlockchainRepository
    * @param blockHash the hash of the block stored
    * @return a future with the block if found
    */
-  suspend fun retrieveBlockBody(blockHash: Bytes): BlockBody? {
-    return retrieveBlockBodyBytes(blockHash)?.let { BlockBody.fromBytes(it) }
+  suspend fun retrieveBlockBody(blockHash: Bytes): BlockBody? = traced("retrieveBlockBody") {
+    val trace = trace()
+    bodyCache.get(blockHash, { retrieveBlockBodyBytes(blockHash) }) {
+      measure(trace, RepositoryStep.DECODE) { BlockBody.fromBytes(it) }
+    }
   }
 
   /**
@@ -214,10 +702,10 @@ class BlockchainRepository
    * @param blockHash the hash of the block stored
    * @return a future with the block if found
    */
-  suspend fun retrieveBlock(blockHash: Bytes): Block? {
-    return retrieveBlockBody(blockHash)?.let {
+  suspend fun retrieveBlock(blockHash: Bytes): Block? = traced("retrieveBlock") {
+    retrieveBlockBody(blockHash)?.let {
         body -> this.retrieveBlockHeader(blockHash)?.let { Block(it, body) }
-    } ?: return null
+    }
   }
 
   /**
@@ -236,8 +724,8 @@ class BlockchainRepository
    * @param blockHash the hash of the block stored
    * @return a future with the block header bytes if found
    */
-  suspend fun retrieveBlockHeaderBytes(blockHash: Bytes): Bytes? {
-    return blockHeaderStore.get(blockHash)
+  suspend fun retrieveBlockHeaderBytes(blockHash: Bytes): Bytes? = traced("retrieveBlockHeaderBytes") {
+    blockHeaderStore.get(blockHash) ?: frozenNumber(blockHash)?.let { readFreezer { freezer!!.header(it) } }
   }
 
   /**
@@ -247,7 +735,7 @@ class BlockchainRepository
    * @return a future with the block header if found
    */
   suspend fun retrieveBlockHeader(blockHash: Hash): BlockHeader? {
-    return retrieveBlockHeaderBytes(blockHash.toBytes())?.let { BlockHeader.fromBytes(it) } ?: return null
+    return retrieveBlockHeader(blockHash.toBytes())
   }
 
   /**
@@ -256,9 +744,11 @@ class BlockchainRepository
    * @param blockHash the hash of the block stored
    * @return a future with the block header if found
    */
-  suspend fun retrieveBlockHeader(blockHash: Bytes): BlockHeader? {
-    val bytes = retrieveBlockHeaderBytes(blockHash) ?: return null
-    return BlockHeader.fromBytes(bytes)
+  suspend fun retrieveBlockHeader(blockHash: Bytes): BlockHeader? = traced("retrieveBlockHeader") {
+    val trace = trace()
+    headerCache.get(blockHash, { retrieveBlockHeaderBytes(blockHash) }) {
+      measure(trace, RepositoryStep.DECODE) { BlockHeader.fromBytes(it) }
+    }
   }
 
   /**
@@ -266,9 +756,8 @@ class BlockchainRepository
    *
    * @return the current chain head, or the genesis block if no chain head is present.
    */
-  suspend fun retrieveChainHead(): Block? {
-    return blockchainIndex.findByLargest(BlockHeaderFields.TOTAL_DIFFICULTY)
-      ?.let { retrieveBlock(it) } ?: retrieveGenesisBlock()
+  suspend fun retrieveChainHead(): Block? = traced("retrieveChainHead") {
+    chainHeadHash()?.let { retrieveBlock(it) } ?: retrieveGenesisBlock()
   }
 
   /**
@@ -276,9 +765,211 @@ class BlockchainRepository
    *
    * @return the current chain head header, or the genesis block if no chain head is present.
    */
-  suspend fun retrieveChainHeadHeader(): BlockHeader? {
-    return blockchainIndex.findByLargest(BlockHeaderFields.TOTAL_DIFFICULTY)
-      ?.let { retrieveBlockHeader(it) } ?: retrieveGenesisBlock()?.header()
+  suspend fun retrieveChainHeadHeader(): BlockHeader? = traced("retrieveChainHeadHeader") {
+    chainHeadHash()?.let { retrieveBlockHeader(it) } ?: retrieveGenesisBlock()?.header()
+  }
+
+  private suspend fun chainHeadHash(): Hash? = blockTree().head?.hash
+    ?: measure(trace(), RepositoryStep.INDEX_QUERY) {
+      blockchainIndex.findByLargest(BlockHeaderFields.TOTAL_DIFFICULTY)
+    }
+
+  /**
+   * Retrieves the total difficulty of a block.
+   *
+   * @param blockHash the hash of the block
+   * @return the total difficulty of the chain ending with the block, if it could be computed
+   */
+  suspend fun retrieveTotalDifficulty(blockHash: Hash): UInt256? = traced("retrieveTotalDifficulty") {
+    blockTree().totalDifficulty(blockHash)
+      ?: measure(trace(), RepositoryStep.INDEX_QUERY) { blockchainIndex.totalDifficulty(blockHash) }
+  }
+
+  /**
+   * Registers a listener notified when the chain head moves to a block that does not descend from the previous chain
+   * head.
+   *
+   * @param listener the listener
+   */
+  fun addReorgListener(listener: (ReorgEvent) -> Unit) {
+    blockTree.addReorgListener(listener)
+  }
+
+  /**
+   * Finds the hash of the block of the canonical chain with a number.
+   *
+   * @param number the number of the block
+   * @return the hash of the canonical block, if known
+   */
+  suspend fun findCanonicalBlockHash(number: Long): Hash? = traced("findCanonicalBlockHash") {
+    blockTree()
+    canonicalChain.get(number)
+  }
+
+  /**
+   * Retrieves the header of the block of the canonical chain with a number.
+   *
+   * Headers of frozen blocks are read directly from the freezer by number.
+   *
+   * @param number the number of the block
+   * @return the header of the canonical block, if known
+   */
+  suspend fun retrieveCanonicalBlockHeader(number: Long): BlockHeader? = traced("retrieveCanonicalBlockHeader") {
+    val frozen = freezer?.let { freezer -> readFreezer { freezer.header(number) } }
+    if (frozen != null) {
+      measure(trace(), RepositoryStep.DECODE) { BlockHeader.fromBytes(frozen) }
+    } else {
+      findCanonicalBlockHash(number)?.let { retrieveBlockHeader(it) }
+    }
+  }
+
+  /**
+   * Finds the hashes of a range of blocks of the canonical chain.
+   *
+   * The range stops at the first block missing from the canonical chain.
+   *
+   * @param start the number of the first block
+   * @param max the maximum number of hashes to return
+   * @param skip the number of blocks skipped between two consecutive blocks of the range
+   * @param reverse `true` if the range goes towards the genesis block
+   * @return the hashes of the canonical blocks of the range, in range order
+   */
+  suspend fun findCanonicalBlockHashes(
+    start: Long,
+    max: Int,
+    skip: Long,
+    reverse: Boolean
+  ): List<Hash> = traced("findCanonicalBlockHashes") {
+    blockTree()
+    canonicalChain.range(start, max, skip, reverse)
+  }
+
+  private suspend fun blockTree(): BlockTree {
+    if (!blockTreeLoaded) {
+      blockTreeMutex.withLock {
+        if (!blockTreeLoaded) {
+          loadBlockTree()
+          updateCanonicalChain()
+          blockTreeLoaded = true
+        }
+      }
+    }
+    return blockTree
+  }
+
+  private suspend fun updateCanonicalChain() = canonicalChainMutex.withLock {
+    val head = blockTree.head ?: return@withLock
+    var lowestChanged = Long.MAX_VALUE
+    // remove blocks of a longer chain that is no longer canonical
+    var number = head.number + 1
+    while (canonicalChain.get(number) != null) {
+      canonicalChain.remove(number)
+      lowestChanged = minOf(lowestChanged, number)
+      number++
+    }
+    var node: BlockTreeNode? = head
+    var parentHash: Hash? = null
+    while (node != null && canonicalChain.get(node.number) != node.hash) {
+      canonicalChain.put(node.number, node.hash)
+      lowestChanged = node.number
+      parentHash = node.parentHash
+      node = parentHash?.let { blockTree[it] }
+    }
+    if (node == null && parentHash != null) {
+      // the tree only holds the latest blocks, so that older blocks missing from the canonical chain, as in databases
+      // written before it was recorded, are found following parent hashes through the stored headers
+      lowestChanged = backfillCanonicalChain(parentHash) ?: lowestChanged
+    }
+    if (lowestChanged != Long.MAX_VALUE) {
+      // sections holding blocks that are no longer canonical are discarded before the chain head moves on
+      bloomBits.truncate(lowestChanged / bloomBits.sectionSize)
+    }
+    if (nextBloomBitsSectionEnd() <= head.number - BLOOM_BITS_CONFIRMATIONS) {
+      scheduleBloomBits()
+    }
+  }
+
+  private suspend fun backfillCanonicalChain(from: Hash): Long? {
+    var lowest: Long? = null
+    val batch = HashMap<Long, Hash>()
+    var hash: Hash? = from
+    while (hash != null) {
+      val header = retrieveBlockHeaderBytes(hash.toBytes())?.let { BlockHeader.fromBytes(it) } ?: break
+      val number = header.number().toLong()
+      if (canonicalChain.get(number) == hash) {
+        break
+      }
+      batch[number] = hash
+      lowest = number
+      if (batch.size == CANONICAL_BACKFILL_BATCH_SIZE) {
+        canonicalChain.putAll(batch)
+        batch.clear()
+      }
+      hash = header.parentHash()
+    }
+    canonicalChain.putAll(batch)
+    return lowest
+  }
+
+  private suspend fun nextBloomBitsSectionEnd(): Long = (bloomBits.sections() + 1) * bloomBits.sectionSize - 1
+
+  private fun scheduleBloomBits() {
+    if (!bloomBitsScheduled.compareAndSet(false, true)) {
+      return
+    }
+    GlobalScope.launch(Dispatchers.IO) {
+      bloomBitsMutex.withLock {
+        bloomBitsScheduled.set(false)
+        try {
+          // failures are recorded by the metrics of the repository as failed calls to this operation
+          traced("indexBloomBits") { updateBloomBits() }
+        } catch (e: CancellationException) {
+          throw e
+        } catch (e: Exception) {
+          // sections left unindexed are searched block by block, and indexed again on the next chain update
+        }
+      }
+    }
+  }
+
+  private suspend fun updateBloomBits() {
+    val sectionSize = bloomBits.sectionSize
+    while (true) {
+      val headNumber = blockTree.head?.number ?: return
+      if (nextBloomBitsSectionEnd() > headNumber - BLOOM_BITS_CONFIRMATIONS) {
+        return
+      }
+      val section = bloomBits.sections()
+      val hashes = canonicalChain.range(section * sectionSize, sectionSize, 0, false)
+      if (hashes.size < sectionSize) {
+        return
+      }
+      val logsBlooms = hashes.map { retrieveBlockHeader(it)?.logsBloom() ?: return }
+      // the section is only added if no reorg replaced its blocks while their headers were read
+      canonicalChainMutex.withLock {
+        val lastHash = canonicalChain.get(section * sectionSize + sectionSize - 1)
+        if (bloomBits.sections() == section && lastHash == hashes.last()) {
+          bloomBits.addSection(section, logsBlooms)
+        }
+      }
+    }
+  }
+
+  private suspend fun loadBlockTree() {
+    val trace = trace()
+    val chain = mutableListOf<BlockHeader>()
+    var hash = measure(trace, RepositoryStep.INDEX_QUERY) {
+      blockchainIndex.findByLargest(BlockHeaderFields.TOTAL_DIFFICULTY)
+    }
+    while (hash != null && chain.size < BLOCK_TREE_RETENTION) {
+      val header = retrieveBlockHeader(hash) ?: break
+      chain.add(header)
+      hash = header.parentHash()
+    }
+    for (header in chain.asReversed()) {
+      measure(trace, RepositoryStep.INDEX_QUERY) { blockchainIndex.totalDifficulty(header.hash()) }
+        ?.let { blockTree.add(header, it) }
+    }
   }
 
   /**
@@ -286,8 +977,8 @@ class BlockchainRepository
    *
    * @return the genesis block
    */
-  suspend fun retrieveGenesisBlock(): Block? {
-    return chainMetadata.get(GENESIS_BLOCK)?.let { retrieveBlock(it) }
+  suspend fun retrieveGenesisBlock(): Block? = traced("retrieveGenesisBlock") {
+    chainMetadata.get(GENESIS_BLOCK)?.let { retrieveBlock(it) }
   }
 
   /**
@@ -296,29 +987,134 @@ class BlockchainRepository
    * @param blockHash the hash of the block
    * @return all transaction receipts associated with a block, in the correct order
    */
-  suspend fun retrieveTransactionReceipts(blockHash: Hash): List<TransactionReceipt?> {
-    return blockchainIndex.findBy(TransactionReceiptFields.BLOCK_HASH, blockHash).map {
-      transactionReceiptsStore.get(it.toBytes())?.let { TransactionReceipt.fromBytes(it) }
+  suspend fun retrieveTransactionReceipts(blockHash: Hash): List<TransactionReceipt?> =
+    traced("retrieveTransactionReceipts") {
+      val trace = trace()
+      blockReceiptsOf(blockHash) ?: measure(trace, RepositoryStep.INDEX_QUERY) {
+        blockchainIndex.findBy(TransactionReceiptFields.BLOCK_HASH, blockHash)
+      }.map { transactionReceipt(trace, it) }
     }
-  }
 
   /**
    * Retrieves a transaction receipt associated with a block and an index
    * @param blockHash the hash of the block
    * @param index the index of the transaction in the block
    */
-  suspend fun retrieveTransactionReceipt(blockHash: Hash, index: Int): TransactionReceipt? {
-    return blockchainIndex.findByBlockHashAndIndex(blockHash, index)?.let {
-      transactionReceiptsStore.get(it.toBytes())?.let { TransactionReceipt.fromBytes(it) }
+  suspend fun retrieveTransactionReceipt(blockHash: Hash, index: Int): TransactionReceipt? =
+    traced("retrieveTransactionReceipt") {
+      val trace = trace()
+      val receipts = blockReceiptsOf(blockHash)
+      if (receipts != null) {
+        receipts.getOrNull(index)
+      } else {
+        measure(trace, RepositoryStep.INDEX_QUERY) { blockchainIndex.findByBlockHashAndIndex(blockHash, index) }
+          ?.let { transactionReceipt(trace, it) }
+      }
     }
-  }
 
   /**
    * Retrieves a transaction receipt associated with a block and an index
    * @param txHash the hash of the transaction
    */
-  suspend fun retrieveTransactionReceipt(txHash: Hash): TransactionReceipt? {
-    return transactionReceiptsStore.get(txHash.toBytes())?.let { TransactionReceipt.fromBytes(it) }
+  suspend fun retrieveTransactionReceipt(txHash: Hash): TransactionReceipt? = traced("retrieveTransactionReceipt") {
+    transactionReceipt(trace(), txHash)
+      ?: blockReceipts.locate(txHash)?.let { retrieveTransactionReceipt(it.blockHash, it.index) }
+  }
+
+  private suspend fun transactionReceipt(trace: OperationTrace?, txHash: Hash): TransactionReceipt? =
+    transactionReceiptsStore.get(txHash.toBytes())?.let {
+      measure(trace, RepositoryStep.DECODE) { TransactionReceipt.fromBytes(it) }
+    }
+
+  private suspend fun blockReceiptsOf(blockHash: Hash): List<TransactionReceipt>? {
+    val trace = trace()
+    return receiptsCache.get(blockHash.toBytes(), { blockReceiptsBytes(blockHash) }) {
+      measure(trace, RepositoryStep.DECODE) { BlockReceiptsStore.decode(it) }
+    }
+  }
+
+  private suspend fun blockReceiptsBytes(blockHash: Hash): Bytes? =
+    blockReceipts.getBytes(blockHash)
+      ?: frozenNumber(blockHash.toBytes())?.let { readFreezer { freezer!!.transactionReceipts(it) } }
+
+  /**
+   * Provides the hit and miss counts of a cache of decoded objects.
+   *
+   * @param type the type of objects held by the cache
+   * @return the statistics of the cache
+   */
+  fun cacheStats(type: CachedObjectType): CacheStats = when (type) {
+    CachedObjectType.BLOCK_HEADER -> headerCache.stats
+    CachedObjectType.BLOCK_BODY -> bodyCache.stats
+    CachedObjectType.TRANSACTION_RECEIPTS -> receiptsCache.stats
+  }
+
+  /**
+   * Finds the logs matching a filter in the canonical chain.
+   *
+   * Sections of the chain covered by the bloom bits index are searched by combining the bloom bits of the filter for
+   * the whole section, and the receipts of candidate blocks only are read. Sections are indexed in the background once
+   * confirmed, off the path of block imports. The most recent blocks, and sections not indexed yet, are searched by
+   * checking the logs bloom filter of each block header.
+   *
+   * Matching logs are sent in chain order as they are found. Cancel the channel to stop the search early.
+   *
+   * @param filter the log filter
+   * @return a channel receiving the matching logs
+   */
+  fun findLogs(filter: LogFilter): ReceiveChannel<LogMatch> = GlobalScope.produce(Dispatchers.IO, LOG_BUFFER_SIZE) {
+    traced("findLogs") { findLogs(filter, this) }
+  }
+
+  private suspend fun findLogs(filter: LogFilter, matches: SendChannel<LogMatch>) {
+    val toBlock = minOf(filter.toBlock, blockTree().head?.number ?: -1)
+    val sectionSize = bloomBits.sectionSize
+    val sections = bloomBits.sections()
+    var number = filter.fromBlock
+    while (number <= toBlock) {
+      val section = number / sectionSize
+      if (section < sections) {
+        val sectionStart = section * sectionSize
+        val sectionEnd = minOf(toBlock, sectionStart + sectionSize - 1)
+        val candidates = bloomBits.candidates(section, filter)
+        var offset = candidates.nextSetBit((number - sectionStart).toInt())
+        while (offset >= 0 && sectionStart + offset <= sectionEnd) {
+          findLogs(sectionStart + offset, filter, matches)
+          offset = candidates.nextSetBit(offset + 1)
+        }
+        number = sectionEnd + 1
+      } else {
+        findLogs(number, filter, matches)
+        number++
+      }
+    }
+  }
+
+  private suspend fun findLogs(number: Long, filter: LogFilter, matches: SendChannel<LogMatch>) {
+    val hash = canonicalChain.get(number) ?: return
+    val header = retrieveBlockHeader(hash) ?: return
+    if (!filter.mayMatch(header.logsBloom())) {
+      return
+    }
+    var logIndex = 0
+    for ((transactionIndex, receipt) in retrieveTransactionReceipts(hash).withIndex()) {
+      for (log in receipt?.logs() ?: continue) {
+        if (filter.matches(log)) {
+          matches.send(LogMatch(hash, number, transactionIndex, logIndex, log))
+        }
+        logIndex++
+      }
+    }
+  }
+
+  /**
+   * Retrieves the location of a transaction stored with the receipts of its block.
+   *
+   * @param txHash the hash of the transaction
+   * @return the hash of the block holding the transaction and its index in the block, or null if it is not known
+   */
+  suspend fun retrieveTransactionLocation(txHash: Hash): TransactionLocation? = traced("retrieveTransactionLocation") {
+    blockReceipts.locate(txHash)
   }
 
   /**
@@ -327,9 +1123,10 @@ class BlockchainRepository
    * @param blockNumberOrBlockHash the number or hash of the block
    * @return the matching blocks
    */
-  fun findBlockByHashOrNumber(blockNumberOrBlockHash: Bytes32): List<Hash> {
-    return blockchainIndex.findByHashOrNumber(blockNumberOrBlockHash)
-  }
+  suspend fun findBlockByHashOrNumber(blockNumberOrBlockHash: Bytes32): List<Hash> =
+    traced("findBlockByHashOrNumber") {
+      measure(trace(), RepositoryStep.INDEX_QUERY) { blockchainIndex.findByHashOrNumber(blockNumberOrBlockHash) }
+    }
 
   /**
    * Finds hashes of blocks which have a matching parent hash.
@@ -337,12 +1134,52 @@ class BlockchainRepository
    * @param parentHash the parent hash
    * @return the matching blocks
    */
-  fun findBlocksByParentHash(parentHash: Hash): List<Hash> {
-    return blockchainIndex.findBy(BlockHeaderFields.PARENT_HASH, parentHash)
+  suspend fun findBlocksByParentHash(parentHash: Hash): List<Hash> = traced("findBlocksByParentHash") {
+    measure(trace(), RepositoryStep.INDEX_QUERY) { blockchainIndex.findBy(BlockHeaderFields.PARENT_HASH, parentHash) }
   }
 
   private suspend fun setGenesisBlock(block: Block) {
     return chainMetadata
       .put(GENESIS_BLOCK, block.header().hash().toBytes())
   }
+
+  /**
+   * Runs a call to an operation, recording its trace unless it is made from within another operation.
+   */
+  private suspend inline fun <T> traced(operation: String, crossinline fn: suspend () -> T): T {
+    val metrics = this.metrics
+    if (metrics == null || coroutineContext[OperationTrace] != null) {
+      return fn()
+    }
+    val trace = OperationTrace(operation)
+    var success = false
+    try {
+      val result = withContext(trace) { fn() }
+      success = true
+      return result
+    } finally {
+      trace.complete()
+      metrics.recordOperation(trace, success)
+    }
+  }
+
+  private suspend fun trace(): OperationTrace? = if (metrics == null) null else coroutineContext[OperationTrace]
+
+  private inline fun <T> measure(trace: OperationTrace?, step: RepositoryStep, fn: () -> T): T {
+    if (trace == null) {
+      return fn()
+    }
+    val start = System.nanoTime()
+    val result = fn()
+    trace.record(step, System.nanoTime() - start)
+    return result
+  }
+
+  private suspend inline fun readFreezer(fn: () -> Bytes?): Bytes? {
+    val trace = trace() ?: return fn()
+    val start = System.nanoTime()
+    val bytes = fn()
+    trace.record(RepositoryStep.FREEZER_READ, System.nanoTime() - start, bytes?.size() ?: 0)
+    return bytes
+  }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.eth.LogsBloomFilter
+import net.consensys.cava.kv.KeyValueStore
+import java.util.BitSet
+
+/**
+ * Index of the logs bloom filters of the canonical chain, rotated per section of blocks.
+ *
+ * The chain is split in sections of `sectionSize` blocks. For each section and each of the 2048 bits of a logs bloom
+ * filter, the index holds a vector with one bit per block of the section, set if the bloom filter of that block has the
+ * bit set. Candidate blocks for a filter are found for a whole section by combining the vectors of the bits the filter
+ * looks for with bitwise operations, instead of checking the bloom filter of each block.
+ *
+ * Vectors with no bit set are not stored. Logs bloom filters of unexpected size are recorded with all bits set, so that
+ * the blocks holding them are always candidates. Vectors are stored with the first block of the section in the least
+ * significant bit of the first byte.
+ *
+ * @param store the key-value store holding the index
+ * @param sectionSize the number of blocks in a section, which must be a multiple of 8
+ */
+internal class BloomBitsIndex(private val store: KeyValueStore, val sectionSize: Int) {
+
+  companion object {
+    private val PREFIX = Bytes.wrap("bloomBits".toByteArray())
+    private val SECTIONS_KEY = Bytes.wrap("bloomBitsSections".toByteArray())
+
+    private fun key(bit: Int, section: Long): Bytes =
+      Bytes.wrap(PREFIX, Bytes.ofUnsignedShort(bit), Bytes.ofUnsignedLong(section))
+  }
+
+  init {
+    if (sectionSize < 8 || sectionSize % 8 != 0) {
+      throw IllegalArgumentException("Invalid section size $sectionSize")
+    }
+  }
+
+  /**
+   * Provides the number of sections indexed, starting from the genesis block.
+   *
+   * @return the number of sections indexed
+   */
+  suspend fun sections(): Long = store.get(SECTIONS_KEY)?.toLong() ?: 0
+
+  /**
+   * Indexes the next section.
+   *
+   * The vectors of the section are written with the number of sections in a single [KeyValueStore.putAll] call.
+   *
+   * @param section the section, which must be the next section to index
+   * @param logsBlooms the logs bloom filters of the blocks of the section, in block order
+   */
+  suspend fun addSection(section: Long, logsBlooms: List<Bytes>) {
+    if (section != sections()) {
+      throw IllegalArgumentException("Expected section ${sections()}, got $section")
+    }
+    if (logsBlooms.size != sectionSize) {
+      throw IllegalArgumentException("Expected $sectionSize logs bloom filters, got ${logsBlooms.size}")
+    }
+    val vectors = arrayOfNulls<ByteArray>(LogsBloomFilter.BITS)
+    for ((block, logsBloom) in logsBlooms.withIndex()) {
+      val mask = 1 shl (block % 8)
+      for (bit in 0 until LogsBloomFilter.BITS) {
+        if (logsBloom.size() != LogsBloomFilter.BYTES || LogsBloomFilter.isBitSet(logsBloom, bit)) {
+          val vector = vectors[bit] ?: ByteArray(sectionSize / 8).also { vectors[bit] = it }
+          vector[block / 8] = (vector[block / 8].toInt() or mask).toByte()
+        }
+      }
+    }
+    val entries = HashMap<Bytes, Bytes>()
+    for (bit in 0 until LogsBloomFilter.BITS) {
+      vectors[bit]?.let { entries[key(bit, section)] = Bytes.wrap(it) }
+    }
+    entries[SECTIONS_KEY] = Bytes.ofUnsignedLong(section + 1)
+    store.putAll(entries)
+  }
+
+  /**
+   * Discards indexed sections, so that they are indexed again.
+   *
+   * @param sections the number of sections to keep
+   */
+  suspend fun truncate(sections: Long) {
+    val current = sections()
+    if (sections >= current) {
+      return
+    }
+    store.put(SECTIONS_KEY, Bytes.ofUnsignedLong(sections))
+    for (section in sections until current) {
+      for (bit in 0 until LogsBloomFilter.BITS) {
+        store.remove(key(bit, section))
+      }
+    }
+  }
+
+  /**
+   * Provides the blocks of an indexed section that may hold logs matching a filter.
+   *
+   * @param section the section
+   * @param filter the log filter
+   * @return the offsets of the candidate blocks within the section
+   */
+  suspend fun candidates(section: Long, filter: LogFilter): BitSet {
+    val vectors = HashMap<Int, BitSet>()
+    suspend fun vector(bit: Int): BitSet = vectors[bit] ?: (store.get(key(bit, section))
+      ?.let { BitSet.valueOf(it.toArrayUnsafe()) }
+      ?: BitSet()).also { vectors[bit] = it }
+
+    val result = BitSet()
+    result.set(0, sectionSize)
+    for (clause in filter.clauses()) {
+      val matches = BitSet()
+      for (bits in clause) {
+        val value = vector(bits[0]).clone() as BitSet
+        for (i in 1 until bits.size) {
+          value.and(vector(bits[i]))
+        }
+        matches.or(value)
+      }
+      result.and(matches)
+      if (result.isEmpty) {
+        break
+      }
+    }
+    return result
+  }
+}
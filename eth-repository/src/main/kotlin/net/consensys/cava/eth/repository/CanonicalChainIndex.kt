@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.bytes.Bytes32
+import net.consensys.cava.eth.Hash
+import net.consensys.cava.kv.KeyValueStore
+
+/**
+ * Index of the hashes of the blocks of the canonical chain by block number, kept in a key-value store.
+ *
+ * Keys are made of a prefix followed by the block number as 8 big-endian bytes, so that ordered stores keep canonical
+ * blocks in chain order.
+ *
+ * @param store the key-value store holding the index
+ */
+internal class CanonicalChainIndex(private val store: KeyValueStore) {
+
+  companion object {
+    private val PREFIX = Bytes.wrap("canonical".toByteArray())
+
+    private fun key(number: Long): Bytes = Bytes.wrap(PREFIX, Bytes.ofUnsignedLong(number))
+
+    private fun number(key: Bytes): Long = key.slice(PREFIX.size()).toLong()
+  }
+
+  /**
+   * Provides the hash of the canonical block with a number.
+   *
+   * @param number the number of the block
+   * @return the hash of the canonical block, or null if no canonical block is known for this number
+   */
+  suspend fun get(number: Long): Hash? = store.get(key(number))?.let { Hash.fromBytes(Bytes32.wrap(it)) }
+
+  /**
+   * Records the hash of the canonical block with a number.
+   *
+   * @param number the number of the block
+   * @param hash the hash of the block
+   */
+  suspend fun put(number: Long, hash: Hash) = store.put(key(number), hash.toBytes())
+
+  /**
+   * Records the hashes of canonical blocks with a single write.
+   *
+   * @param hashes the hashes of the blocks, by block number
+   */
+  suspend fun putAll(hashes: Map<Long, Hash>) =
+    store.putAll(hashes.entries.associate { (number, hash) -> key(number) to hash.toBytes() })
+
+  /**
+   * Removes the canonical block with a number.
+   *
+   * @param number the number of the block
+   */
+  suspend fun remove(number: Long) = store.remove(key(number))
+
+  /**
+   * Provides the hashes of a range of canonical blocks.
+   *
+   * The range stops at the first number with no canonical block, or before the genesis block. A range of consecutive
+   * blocks scans the keys of the range to find its end, and reads the hashes of its blocks concurrently.
+   *
+   * @param start the number of the first block
+   * @param max the maximum number of hashes to return
+   * @param skip the number of blocks skipped between two consecutive blocks of the range
+   * @param reverse `true` if the range goes towards the genesis block
+   * @return the hashes of the canonical blocks of the range, in range order
+   */
+  suspend fun range(start: Long, max: Int, skip: Long, reverse: Boolean): List<Hash> {
+    if (start < 0 || max < 1 || skip < 0) {
+      return emptyList()
+    }
+    if (skip == 0L) {
+      return consecutiveRange(start, max, reverse)
+    }
+    val step = if (reverse) -(skip + 1) else skip + 1
+    val hashes = mutableListOf<Hash>()
+    var number = start
+    while (hashes.size < max && number >= 0) {
+      hashes += get(number) ?: break
+      number += step
+    }
+    return hashes
+  }
+
+  private suspend fun consecutiveRange(start: Long, max: Int, reverse: Boolean): List<Hash> = coroutineScope {
+    val first = if (reverse) maxOf(0, start - max + 1) else start
+    val last = if (reverse) start else start + max - 1
+    val present = HashSet<Long>()
+    var cursor: Bytes? = null
+    do {
+      val page = store.scanKeys(key(first), key(last + 1), cursor, max)
+      page.keys.mapTo(present) { number(it) }
+      cursor = page.cursor
+    } while (cursor != null)
+    val numbers = if (reverse) (start downTo first) else (first..last)
+    numbers.takeWhile { it in present }.map { async { get(it) } }.awaitAll().takeWhile { it != null }.filterNotNull()
+  }
+}
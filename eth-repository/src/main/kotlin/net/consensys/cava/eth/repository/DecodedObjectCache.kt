@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.cache.CacheStats
+import net.consensys.cava.bytes.Bytes
+
+/**
+ * Kinds of decoded objects cached by a [BlockchainRepository].
+ */
+enum class CachedObjectType {
+  /**
+   * Block headers, by block hash.
+   */
+  BLOCK_HEADER,
+  /**
+   * Block bodies, by block hash.
+   */
+  BLOCK_BODY,
+  /**
+   * Lists of transaction receipts of a block, by block hash.
+   */
+  TRANSACTION_RECEIPTS
+}
+
+/**
+ * A least-recently-used cache of objects decoded from their serialized form, keyed by hash.
+ *
+ * Entries are weighed by the size of their serialized form, and the cache holds at most `maximumSize` bytes worth of
+ * entries.
+ *
+ * @param maximumSize the maximum total size of the serialized form of the cached objects, in bytes
+ */
+internal class DecodedObjectCache<T : Any>(maximumSize: Long) {
+
+  private class Entry<T>(val value: T, val size: Int)
+
+  private val cache: Cache<Bytes, Entry<T>> = CacheBuilder.newBuilder()
+    .maximumWeight(maximumSize)
+    .weigher<Bytes, Entry<T>> { _, entry -> entry.size }
+    .recordStats()
+    .build()
+
+  /**
+   * Provides a cached object, loading and decoding it on a miss.
+   *
+   * @param key the hash of the object
+   * @param load the function loading the serialized form of the object
+   * @param decode the function decoding the object
+   * @return the object, or null if it could not be loaded
+   */
+  suspend fun get(key: Bytes, load: suspend () -> Bytes?, decode: (Bytes) -> T): T? {
+    cache.getIfPresent(key)?.let { return it.value }
+    val bytes = load() ?: return null
+    val value = decode(bytes)
+    cache.put(key, Entry(value, bytes.size()))
+    return value
+  }
+
+  /**
+   * Caches an object, replacing any object cached under the same key.
+   *
+   * @param key the hash of the object
+   * @param value the object
+   * @param size the size of the serialized form of the object, in bytes
+   */
+  fun put(key: Bytes, value: T, size: Int) = cache.put(key, Entry(value, size))
+
+  /**
+   * Removes an object from the cache.
+   *
+   * @param key the hash of the object
+   */
+  fun invalidate(key: Bytes) = cache.invalidate(key)
+
+  /**
+   * The hit and miss counts of the cache.
+   */
+  val stats: CacheStats
+    get() = cache.stats()
+}
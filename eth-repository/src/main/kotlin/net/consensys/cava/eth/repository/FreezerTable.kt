@@ -0,0 +1,188 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import net.consensys.cava.bytes.Bytes
+import java.io.Closeable
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.CREATE
+import java.nio.file.StandardOpenOption.READ
+import java.nio.file.StandardOpenOption.WRITE
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * An append-only table of values stored in flat files, addressed by their position.
+ *
+ * Values are appended to a data file. An index file holds, for each value, the 8-byte offset of its end in the data
+ * file, so that the value at a position is located with a single index read. Both files are memory-mapped for reads,
+ * in segments of fixed size: a segment is mapped once the files have grown past its end, and reads falling in the
+ * last, partial segment go through the file channel.
+ *
+ * On opening, values appended without their index entry are discarded.
+ *
+ * @param directory the directory holding the files of the table
+ * @param name the name of the table, used as the base name of its files
+ * @param segmentSize the size of the memory-mapped segments, in bytes
+ */
+internal class FreezerTable(
+  directory: Path,
+  name: String,
+  private val segmentSize: Int = DEFAULT_SEGMENT_SIZE
+) : Closeable {
+
+  companion object {
+    const val DEFAULT_SEGMENT_SIZE = 1 shl 30
+    private const val ENTRY_SIZE = 8
+  }
+
+  private val data: FileChannel
+  private val index: FileChannel
+  private val dataSegments = CopyOnWriteArrayList<MappedByteBuffer>()
+  private val indexSegments = CopyOnWriteArrayList<MappedByteBuffer>()
+  @Volatile
+  private var entries: Long
+  private var dataSize: Long
+
+  init {
+    if (segmentSize < ENTRY_SIZE || segmentSize % ENTRY_SIZE != 0) {
+      throw IllegalArgumentException("Invalid segment size $segmentSize")
+    }
+    Files.createDirectories(directory)
+    data = FileChannel.open(directory.resolve("$name.dat"), CREATE, READ, WRITE)
+    index = FileChannel.open(directory.resolve("$name.idx"), CREATE, READ, WRITE)
+    entries = index.size() / ENTRY_SIZE
+    index.truncate(entries * ENTRY_SIZE)
+    mapSegments(index, indexSegments, entries * ENTRY_SIZE)
+    dataSize = if (entries == 0L) 0 else readLong(entries - 1)
+    if (data.size() < dataSize) {
+      throw IOException("Data file of table $name is shorter than its index")
+    }
+    data.truncate(dataSize)
+    mapSegments(data, dataSegments, dataSize)
+  }
+
+  /**
+   * The number of values held by the table.
+   */
+  val size: Long
+    get() = entries
+
+  /**
+   * Appends a value to the table.
+   *
+   * @param value the value
+   * @return the position of the value
+   */
+  @Synchronized
+  fun append(value: Bytes): Long {
+    writeFully(data, ByteBuffer.wrap(value.toArrayUnsafe()), dataSize)
+    dataSize += value.size()
+    val entry = ByteBuffer.allocate(ENTRY_SIZE).putLong(0, dataSize)
+    writeFully(index, entry, entries * ENTRY_SIZE)
+    mapSegments(index, indexSegments, (entries + 1) * ENTRY_SIZE)
+    mapSegments(data, dataSegments, dataSize)
+    return entries++
+  }
+
+  /**
+   * Provides a value of the table.
+   *
+   * @param position the position of the value
+   * @return the value, or null if the table holds no value at that position
+   */
+  fun get(position: Long): Bytes? {
+    if (position < 0 || position >= entries) {
+      return null
+    }
+    val start = if (position == 0L) 0 else readLong(position - 1)
+    val end = readLong(position)
+    return read(data, dataSegments, start, (end - start).toInt())
+  }
+
+  /**
+   * Removes the values at and after a position.
+   *
+   * @param position the number of values to keep
+   */
+  @Synchronized
+  fun truncate(position: Long) {
+    if (position >= entries) {
+      return
+    }
+    val newSize = if (position <= 0L) 0 else readLong(position - 1)
+    entries = maxOf(position, 0)
+    dataSize = newSize
+    index.truncate(entries * ENTRY_SIZE)
+    data.truncate(dataSize)
+    unmapSegments(indexSegments, entries * ENTRY_SIZE)
+    unmapSegments(dataSegments, dataSize)
+  }
+
+  /**
+   * Forces appended values to the storage device.
+   */
+  fun sync() {
+    data.force(false)
+    index.force(false)
+  }
+
+  override fun close() {
+    sync()
+    data.close()
+    index.close()
+  }
+
+  private fun readLong(position: Long): Long = read(index, indexSegments, position * ENTRY_SIZE, ENTRY_SIZE).toLong()
+
+  private fun read(channel: FileChannel, segments: List<MappedByteBuffer>, offset: Long, length: Int): Bytes {
+    val bytes = ByteArray(length)
+    val segment = (offset / segmentSize).toInt()
+    val segmentOffset = (offset % segmentSize).toInt()
+    if (segment < segments.size && segmentOffset + length <= segmentSize) {
+      val buffer = segments[segment].duplicate()
+      buffer.position(segmentOffset)
+      buffer.get(bytes)
+    } else {
+      val buffer = ByteBuffer.wrap(bytes)
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) < 0) {
+          throw IOException("Unexpected end of file")
+        }
+      }
+    }
+    return Bytes.wrap(bytes)
+  }
+
+  private fun writeFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position())
+    }
+  }
+
+  private fun mapSegments(channel: FileChannel, segments: MutableList<MappedByteBuffer>, size: Long) {
+    while ((segments.size + 1L) * segmentSize <= size) {
+      segments += channel.map(FileChannel.MapMode.READ_ONLY, segments.size.toLong() * segmentSize, segmentSize.toLong())
+    }
+  }
+
+  private fun unmapSegments(segments: MutableList<MappedByteBuffer>, size: Long) {
+    while (segments.isNotEmpty() && segments.size.toLong() * segmentSize > size) {
+      segments.removeAt(segments.size - 1)
+    }
+  }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.produce
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.bytes.Bytes32
+import net.consensys.cava.eth.Address
+import net.consensys.cava.eth.BlockHeader
+import net.consensys.cava.eth.Hash
+import net.consensys.cava.eth.TransactionReceipt
+import net.consensys.cava.kv.KeyValueStore
+import net.consensys.cava.rlp.RLP
+import net.consensys.cava.units.bigints.UInt256
+import net.consensys.cava.units.ethereum.Gas
+
+/**
+ * A blockchain index kept as secondary-index entries in a key-value store, as a lighter alternative to
+ * [BlockchainIndex] for deployments relying on exact-match lookups.
+ *
+ * Each indexed field value is stored as an entry whose key is made of the field, the value and the hash of the element,
+ * so that exact matches are answered by scanning the keys starting with the field and the value. Numeric fields are
+ * stored as 32-byte big-endian values, so that range queries scan the keys from the smallest to the largest value of
+ * the range, in key order. The transactions of a block are also indexed under the block hash and their index in the
+ * block, and the total difficulty and the largest value of each numeric block header field are kept in their own
+ * entries. Queries page through the keys with [KeyValueStore.scanKeys], so that stores keeping their keys ordered seek
+ * to the matching keys, and streams read one page at a time.
+ *
+ * The store should keep its keys ordered, as the LevelDB, RocksDB and SQL stores do. Stores that do not, such as the
+ * in-memory, MapDB, Infinispan and Redis stores, list and sort all of their keys for every query, including exact-match
+ * lookups, so that each query takes time proportional to the size of the whole index.
+ *
+ * All entries written by a call to [index] are written with a single [KeyValueStore.putAll], along with the entries
+ * passed to it when they belong to the same store, so that stores supporting write batches apply them atomically.
+ * Entries made obsolete by indexing an element again are removed afterwards.
+ *
+ * @param store the key-value store holding the index
+ */
+class KeyValueBlockchainIndex(private val store: KeyValueStore) : BlockchainIndexStore {
+
+  companion object {
+    private const val BLOCK: Byte = 0
+    private const val TX_RECEIPT: Byte = 1
+
+    private val DOCUMENT_PREFIX = Bytes.wrap("indexDocument".toByteArray())
+    private val FIELD_PREFIX = Bytes.wrap("indexField".toByteArray())
+    private val TOTAL_DIFFICULTY_PREFIX = Bytes.wrap("indexTotalDifficulty".toByteArray())
+    private val TRANSACTION_PREFIX = Bytes.wrap("indexTransaction".toByteArray())
+    private val LARGEST_PREFIX = Bytes.wrap("indexLargest".toByteArray())
+    private val LAST_TX_RECEIPT = Bytes.wrap("indexLastTxReceipt".toByteArray())
+    private val PRESENT = Bytes.of(1)
+    private const val SCAN_PAGE_SIZE = 1000
+
+    private val NUMERIC_BLOCK_FIELDS = setOf(
+      BlockHeaderFields.DIFFICULTY,
+      BlockHeaderFields.NUMBER,
+      BlockHeaderFields.GAS_LIMIT,
+      BlockHeaderFields.GAS_USED,
+      BlockHeaderFields.TIMESTAMP,
+      BlockHeaderFields.TOTAL_DIFFICULTY
+    )
+    private val NUMERIC_TX_RECEIPT_FIELDS = setOf(
+      TransactionReceiptFields.INDEX,
+      TransactionReceiptFields.CUMULATIVE_GAS_USED,
+      TransactionReceiptFields.STATUS
+    )
+
+    private fun documentKey(type: Byte, hash: Hash): Bytes =
+      Bytes.concatenate(DOCUMENT_PREFIX, Bytes.of(type), hash.toBytes())
+
+    private fun fieldPrefix(type: Byte, field: Int): Bytes =
+      Bytes.concatenate(FIELD_PREFIX, Bytes.of(type, field.toByte()))
+
+    private fun valuePrefix(type: Byte, field: Int, value: Bytes): Bytes =
+      Bytes.concatenate(fieldPrefix(type, field), Bytes.ofUnsignedInt(value.size().toLong()), value)
+
+    private fun totalDifficultyKey(hash: Hash): Bytes = Bytes.wrap(TOTAL_DIFFICULTY_PREFIX, hash.toBytes())
+
+    private fun transactionKey(blockHash: Hash, index: Int): Bytes =
+      Bytes.concatenate(TRANSACTION_PREFIX, blockHash.toBytes(), Bytes.ofUnsignedInt(index.toLong()))
+
+    private fun largestKey(field: BlockHeaderFields): Bytes = Bytes.wrap(LARGEST_PREFIX, Bytes.of(field.ordinal))
+
+    private fun hashSuffix(key: Bytes): Hash = Hash.fromBytes(Bytes32.wrap(key.slice(key.size() - 32, 32)))
+
+    private fun numeric(value: Long): Bytes = if (value < 0) Bytes.EMPTY else UInt256.valueOf(value).toBytes()
+
+    /**
+     * Provides the smallest key greater than all keys starting with a prefix, or null if there is none.
+     */
+    private fun prefixEnd(prefix: Bytes): Bytes? {
+      val end = prefix.mutableCopy()
+      for (i in end.size() - 1 downTo 0) {
+        if (end.get(i) != 0xFF.toByte()) {
+          end.set(i, (end.get(i) + 1).toByte())
+          return end.slice(0, i + 1)
+        }
+      }
+      return null
+    }
+  }
+
+  /**
+   * Records the calls made by an indexing function, so that they are applied once it completes, reading the store from
+   * coroutines.
+   */
+  private class Recorder : BlockchainIndexWriter {
+    val operations = mutableListOf<suspend Batch.() -> Unit>()
+
+    override fun indexBlockHeader(blockHeader: BlockHeader) {
+      operations.add { indexBlockHeader(blockHeader) }
+    }
+
+    override fun indexBlockHeader(blockHeader: BlockHeader, totalDifficulty: UInt256) {
+      operations.add { writeBlockHeader(blockHeader, totalDifficulty) }
+    }
+
+    override fun indexTransactionReceipt(txReceipt: TransactionReceipt, txIndex: Int, txHash: Hash, blockHash: Hash) {
+      operations.add { indexTransactionReceipt(txReceipt, txIndex, txHash, blockHash) }
+    }
+  }
+
+  /**
+   * Entries collected from the calls of an indexing function, written at once.
+   */
+  private inner class Batch {
+    val entries = LinkedHashMap<Bytes, Bytes>()
+    val obsolete = mutableSetOf<Bytes>()
+    val staleLargest = mutableSetOf<BlockHeaderFields>()
+
+    suspend fun get(key: Bytes): Bytes? = entries[key] ?: store.get(key)
+
+    suspend fun indexBlockHeader(blockHeader: BlockHeader) {
+      val parentHash = blockHeader.parentHash()
+      val totalDifficulty = if (parentHash == null) {
+        blockHeader.difficulty()
+      } else {
+        get(totalDifficultyKey(parentHash))?.let { UInt256.fromBytes(it).add(blockHeader.difficulty()) }
+      }
+      writeBlockHeader(blockHeader, totalDifficulty)
+    }
+
+    suspend fun writeBlockHeader(blockHeader: BlockHeader, totalDifficulty: UInt256?) {
+      val hash = blockHeader.hash()
+      val values = mutableListOf<Pair<BlockHeaderFields, Bytes>>()
+      blockHeader.parentHash()?.let { values += Pair(BlockHeaderFields.PARENT_HASH, it.toBytes()) }
+      values += Pair(BlockHeaderFields.OMMERS_HASH, blockHeader.ommersHash().toBytes())
+      values += Pair(BlockHeaderFields.COINBASE, blockHeader.coinbase().toBytes())
+      values += Pair(BlockHeaderFields.STATE_ROOT, blockHeader.stateRoot().toBytes())
+      values += Pair(BlockHeaderFields.DIFFICULTY, blockHeader.difficulty().toBytes())
+      values += Pair(BlockHeaderFields.NUMBER, blockHeader.number().toBytes())
+      values += Pair(BlockHeaderFields.GAS_LIMIT, numeric(blockHeader.gasLimit().toLong()))
+      values += Pair(BlockHeaderFields.GAS_USED, numeric(blockHeader.gasUsed().toLong()))
+      values += Pair(BlockHeaderFields.EXTRA_DATA, blockHeader.extraData())
+      values += Pair(BlockHeaderFields.TIMESTAMP, numeric(blockHeader.timestamp().toEpochMilli()))
+      if (totalDifficulty != null) {
+        values += Pair(BlockHeaderFields.TOTAL_DIFFICULTY, totalDifficulty.toBytes())
+        entries[totalDifficultyKey(hash)] = totalDifficulty.toBytes()
+      }
+      writeDocument(BLOCK, hash, values.map { (field, value) ->
+        Bytes.concatenate(valuePrefix(BLOCK, field.ordinal, value), hash.toBytes())
+      })
+      for ((field, value) in values) {
+        if (field in NUMERIC_BLOCK_FIELDS) {
+          updateLargest(field, UInt256.fromBytes(value), hash)
+        }
+      }
+    }
+
+    private suspend fun updateLargest(field: BlockHeaderFields, value: UInt256, hash: Hash) {
+      val current = get(largestKey(field))
+      if (current == null || value > UInt256.fromBytes(current.slice(0, 32))) {
+        entries[largestKey(field)] = Bytes.wrap(value.toBytes(), hash.toBytes())
+        staleLargest.remove(field)
+      } else if (hashSuffix(current) == hash && value < UInt256.fromBytes(current.slice(0, 32))) {
+        // the largest value was lowered, another element may now hold the largest value
+        staleLargest.add(field)
+      }
+    }
+
+    suspend fun indexTransactionReceipt(txReceipt: TransactionReceipt, txIndex: Int, txHash: Hash, blockHash: Hash) {
+      val values = mutableListOf<Pair<TransactionReceiptFields, Bytes>>()
+      values += Pair(TransactionReceiptFields.INDEX, numeric(txIndex.toLong()))
+      values += Pair(TransactionReceiptFields.TRANSACTION_HASH, txHash.toBytes())
+      values += Pair(TransactionReceiptFields.BLOCK_HASH, blockHash.toBytes())
+      for (log in txReceipt.logs()) {
+        values += Pair(TransactionReceiptFields.LOGGER, log.logger().toBytes())
+        for (topic in log.topics()) {
+          values += Pair(TransactionReceiptFields.LOG_TOPIC, topic)
+        }
+      }
+      txReceipt.stateRoot()?.let { values += Pair(TransactionReceiptFields.STATE_ROOT, it) }
+      values += Pair(TransactionReceiptFields.BLOOM_FILTER, txReceipt.bloomFilter().toBytes())
+      values += Pair(TransactionReceiptFields.CUMULATIVE_GAS_USED, numeric(txReceipt.cumulativeGasUsed()))
+      txReceipt.status()?.let { values += Pair(TransactionReceiptFields.STATUS, numeric(it.toLong())) }
+
+      val keys = values.map { (field, value) ->
+        Bytes.concatenate(valuePrefix(TX_RECEIPT, field.ordinal, value), txHash.toBytes())
+      } + transactionKey(blockHash, txIndex)
+      writeDocument(TX_RECEIPT, txHash, keys)
+      entries[transactionKey(blockHash, txIndex)] = txHash.toBytes()
+      entries[LAST_TX_RECEIPT] = txHash.toBytes()
+    }
+
+    private suspend fun writeDocument(type: Byte, hash: Hash, keys: List<Bytes>) {
+      val documentKey = documentKey(type, hash)
+      get(documentKey)?.let { previous ->
+        val stale = RLP.decodeToList(previous) { reader -> reader.readValue() }.toMutableSet()
+        stale.removeAll(keys)
+        obsolete.addAll(stale)
+      }
+      obsolete.removeAll(keys)
+      for (key in keys) {
+        entries[key] = PRESENT
+      }
+      entries[documentKey] = RLP.encodeList(keys) { writer, key -> writer.writeValue(key) }
+    }
+  }
+
+  override suspend fun index(indexer: (BlockchainIndexWriter) -> Unit) = index(store, emptyMap(), indexer)
+
+  /**
+   * Indexes elements, along with entries of a key-value store they describe.
+   *
+   * If the entries belong to the store holding this index, they are written in the same [KeyValueStore.putAll] as the
+   * index entries. Otherwise, they are written first.
+   *
+   * @param store the key-value store to write the entries to
+   * @param entries the entries, by key
+   * @param indexer function indexing the elements
+   */
+  override suspend fun index(
+    store: KeyValueStore,
+    entries: Map<Bytes, Bytes>,
+    indexer: (BlockchainIndexWriter) -> Unit
+  ) {
+    val recorder = Recorder()
+    indexer(recorder)
+    if (store !== this.store) {
+      store.putAll(entries)
+    }
+    val batch = Batch()
+    for (operation in recorder.operations) {
+      batch.operation()
+    }
+    if (store === this.store) {
+      this.store.putAll(entries + batch.entries)
+    } else {
+      this.store.putAll(batch.entries)
+    }
+    for (key in batch.obsolete) {
+      if (!batch.entries.containsKey(key)) {
+        this.store.remove(key)
+      }
+    }
+    for (field in batch.staleLargest) {
+      val largest = scan(BLOCK, field.ordinal).maxBy { UInt256.fromBytes(it.first) }
+      if (largest == null) {
+        this.store.remove(largestKey(field))
+      } else {
+        this.store.put(largestKey(field), Bytes.wrap(largest.first, largest.second.toBytes()))
+      }
+    }
+  }
+
+  private suspend fun scanKeys(start: Bytes, end: Bytes?): List<Bytes> {
+    val keys = mutableListOf<Bytes>()
+    var cursor: Bytes? = null
+    do {
+      val page = store.scanKeys(start, end, cursor, SCAN_PAGE_SIZE)
+      keys.addAll(page.keys)
+      cursor = page.cursor
+    } while (cursor != null)
+    return keys
+  }
+
+  private fun streamKeys(start: Bytes, end: Bytes?, hashOf: suspend (Bytes) -> Hash?): ReceiveChannel<Hash> =
+    GlobalScope.produce(Dispatchers.IO, SCAN_PAGE_SIZE) {
+      var cursor: Bytes? = null
+      do {
+        val page = store.scanKeys(start, end, cursor, SCAN_PAGE_SIZE)
+        for (key in page.keys) {
+          hashOf(key)?.let { send(it) }
+        }
+        cursor = page.cursor
+      } while (cursor != null)
+    }
+
+  private suspend fun scan(type: Byte, field: Int): List<Pair<Bytes, Hash>> {
+    val prefix = fieldPrefix(type, field)
+    return scanKeys(prefix, prefixEnd(prefix)).map { key ->
+      val length = key.slice(prefix.size(), 4).toInt()
+      Pair(key.slice(prefix.size() + 4, length), hashSuffix(key))
+    }
+  }
+
+  private suspend fun find(type: Byte, field: Int, value: Bytes): List<Hash> {
+    val prefix = valuePrefix(type, field, value)
+    return scanKeys(prefix, prefixEnd(prefix)).map { hashSuffix(it) }
+  }
+
+  private fun stream(type: Byte, field: Int, value: Bytes?): ReceiveChannel<Hash> {
+    if (value == null) {
+      // no element holds a value that cannot be indexed: scan an empty range
+      return streamKeys(fieldPrefix(type, field), fieldPrefix(type, field)) { hashSuffix(it) }
+    }
+    val prefix = valuePrefix(type, field, value)
+    return streamKeys(prefix, prefixEnd(prefix)) { hashSuffix(it) }
+  }
+
+  private suspend fun findInRange(type: Byte, field: Int, minValue: UInt256, maxValue: UInt256): List<Hash> {
+    if (minValue > maxValue) {
+      return emptyList()
+    }
+    val start = valuePrefix(type, field, minValue.toBytes())
+    return scanKeys(start, prefixEnd(valuePrefix(type, field, maxValue.toBytes()))).map { hashSuffix(it) }
+  }
+
+  private fun blockValue(field: BlockHeaderFields, value: Bytes): Bytes? =
+    if (field in NUMERIC_BLOCK_FIELDS) padNumeric(value) else value
+
+  private fun txReceiptValue(field: TransactionReceiptFields, value: Bytes): Bytes? =
+    if (field in NUMERIC_TX_RECEIPT_FIELDS) padNumeric(value) else value
+
+  private fun padNumeric(value: Bytes): Bytes? = if (value.size() > 32) null else Bytes32.leftPad(value)
+
+  override suspend fun findInRange(field: BlockHeaderFields, minValue: UInt256, maxValue: UInt256): List<Hash> =
+    findInRange(BLOCK, field.ordinal, minValue, maxValue)
+
+  override suspend fun findBy(field: BlockHeaderFields, value: Bytes): List<Hash> =
+    blockValue(field, value)?.let { find(BLOCK, field.ordinal, it) } ?: emptyList()
+
+  override suspend fun findBy(field: BlockHeaderFields, value: Long): List<Hash> = findBy(field, numeric(value))
+
+  override suspend fun findBy(field: BlockHeaderFields, value: Gas): List<Hash> =
+    findBy(field, numeric(value.toLong()))
+
+  override suspend fun findByLargest(field: BlockHeaderFields): Hash? =
+    store.get(largestKey(field))?.let { hashSuffix(it) }
+
+  override fun streamInRange(field: BlockHeaderFields, minValue: UInt256, maxValue: UInt256): ReceiveChannel<Hash> {
+    val start = valuePrefix(BLOCK, field.ordinal, minValue.toBytes())
+    val end = if (minValue > maxValue) start else prefixEnd(valuePrefix(BLOCK, field.ordinal, maxValue.toBytes()))
+    return streamKeys(start, end) { hashSuffix(it) }
+  }
+
+  override fun streamBy(field: BlockHeaderFields, value: Bytes): ReceiveChannel<Hash> =
+    stream(BLOCK, field.ordinal, blockValue(field, value))
+
+  override suspend fun findByHashOrNumber(hashOrNumber: Bytes32): List<Hash> {
+    val hash = Hash.fromBytes(hashOrNumber)
+    val byHash = store.get(documentKey(BLOCK, hash))?.let { listOf(hash) } ?: emptyList()
+    return byHash + findBy(BlockHeaderFields.NUMBER, hashOrNumber)
+  }
+
+  override suspend fun findInRange(field: TransactionReceiptFields, minValue: UInt256, maxValue: UInt256): List<Hash> =
+    findInRange(TX_RECEIPT, field.ordinal, minValue, maxValue)
+
+  /**
+   * Find exact matches for a field.
+   *
+   * Transaction receipts matched by block hash are returned in the transactions order of the block.
+   *
+   * @param field the name of the field
+   * @param value the value of the field.
+   * @return the matching transaction receipt hashes.
+   */
+  override suspend fun findBy(field: TransactionReceiptFields, value: Bytes): List<Hash> {
+    if (field == TransactionReceiptFields.BLOCK_HASH && value.size() == 32) {
+      val prefix = Bytes.wrap(TRANSACTION_PREFIX, value)
+      return scanKeys(prefix, prefixEnd(prefix)).mapNotNull { key -> transactionHash(key) }
+    }
+    return txReceiptValue(field, value)?.let { find(TX_RECEIPT, field.ordinal, it) } ?: emptyList()
+  }
+
+  private suspend fun transactionHash(key: Bytes): Hash? = store.get(key)?.let { Hash.fromBytes(Bytes32.wrap(it)) }
+
+  override suspend fun findBy(field: TransactionReceiptFields, value: Long): List<Hash> =
+    findBy(field, numeric(value))
+
+  override suspend fun findBy(field: TransactionReceiptFields, value: Gas): List<Hash> =
+    findBy(field, numeric(value.toLong()))
+
+  /**
+   * Provides the most recently indexed transaction receipt, as [BlockchainIndex] does.
+   *
+   * @param field the field to query on, which is ignored
+   * @return the hash of the most recently indexed transaction receipt.
+   */
+  override suspend fun findByLargest(field: TransactionReceiptFields): Hash? =
+    store.get(LAST_TX_RECEIPT)?.let { Hash.fromBytes(Bytes32.wrap(it)) }
+
+  override fun streamBy(field: TransactionReceiptFields, value: Bytes): ReceiveChannel<Hash> {
+    if (field == TransactionReceiptFields.BLOCK_HASH && value.size() == 32) {
+      val prefix = Bytes.wrap(TRANSACTION_PREFIX, value)
+      return streamKeys(prefix, prefixEnd(prefix)) { key -> transactionHash(key) }
+    }
+    return stream(TX_RECEIPT, field.ordinal, txReceiptValue(field, value))
+  }
+
+  override suspend fun findByBlockHashAndIndex(blockHash: Hash, index: Int): Hash? =
+    transactionHash(transactionKey(blockHash, index))
+
+  override suspend fun totalDifficulty(hash: Hash): UInt256? =
+    store.get(totalDifficultyKey(hash))?.let { UInt256.fromBytes(it) }
+}
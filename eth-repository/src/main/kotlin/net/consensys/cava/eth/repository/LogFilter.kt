@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.bytes.Bytes32
+import net.consensys.cava.eth.Address
+import net.consensys.cava.eth.Hash
+import net.consensys.cava.eth.Log
+import net.consensys.cava.eth.LogsBloomFilter
+
+/**
+ * A query for logs emitted in a range of blocks of the canonical chain.
+ *
+ * A log matches the filter if it was emitted by one of the addresses, and if each of its topics matches one of the
+ * topics expected at its position. An empty list of addresses, or an empty list of topics at a position, matches any
+ * value.
+ *
+ * @param fromBlock the number of the first block of the range
+ * @param toBlock the number of the last block of the range, inclusive
+ * @param addresses the addresses of the loggers
+ * @param topics the topics expected at each position
+ */
+data class LogFilter(
+  val fromBlock: Long,
+  val toBlock: Long,
+  val addresses: List<Address> = emptyList(),
+  val topics: List<List<Bytes32>> = emptyList()
+) {
+
+  init {
+    if (fromBlock < 0) {
+      throw IllegalArgumentException("Invalid first block $fromBlock")
+    }
+  }
+
+  /**
+   * Checks whether a log matches the filter.
+   *
+   * @param log the log
+   * @return `true` if the log matches the filter
+   */
+  fun matches(log: Log): Boolean {
+    if (!addresses.isEmpty() && log.logger() !in addresses) {
+      return false
+    }
+    for (i in topics.indices) {
+      if (topics[i].isEmpty()) {
+        continue
+      }
+      if (i >= log.topics().size || log.topics()[i] !in topics[i]) {
+        return false
+      }
+    }
+    return true
+  }
+
+  /**
+   * Checks whether a logs bloom filter may contain logs matching the filter.
+   *
+   * @param logsBloom the bytes of the logs bloom filter
+   * @return `false` if no log recorded in the bloom filter matches the filter
+   */
+  fun mayMatch(logsBloom: Bytes): Boolean {
+    if (logsBloom.size() != LogsBloomFilter.BYTES) {
+      return true
+    }
+    return clauses().all { clause ->
+      clause.any { bits -> bits.all { LogsBloomFilter.isBitSet(logsBloom, it) } }
+    }
+  }
+
+  /**
+   * Provides the bloom bits to look for, as a conjunction of disjunctions of values, each value being the bloom bits
+   * that must all be set for it to be present.
+   */
+  internal fun clauses(): List<List<IntArray>> {
+    val clauses = mutableListOf<List<IntArray>>()
+    if (!addresses.isEmpty()) {
+      clauses.add(addresses.map { LogsBloomFilter.bitIndices(it.toBytes()) })
+    }
+    for (topic in topics) {
+      if (!topic.isEmpty()) {
+        clauses.add(topic.map { LogsBloomFilter.bitIndices(it) })
+      }
+    }
+    return clauses
+  }
+}
+
+/**
+ * A log matching a [LogFilter].
+ *
+ * @param blockHash the hash of the block holding the log
+ * @param blockNumber the number of the block holding the log
+ * @param transactionIndex the index of the transaction emitting the log in the block
+ * @param logIndex the index of the log in the block
+ * @param log the log
+ */
+data class LogMatch(
+  val blockHash: Hash,
+  val blockNumber: Long,
+  val transactionIndex: Int,
+  val logIndex: Int,
+  val log: Log
+)
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import net.consensys.cava.eth.BlockHeader
+import net.consensys.cava.eth.Hash
+
+/**
+ * A bounded buffer of block headers whose parent is not known yet, grouped by parent hash.
+ *
+ * When the buffer is full, the oldest headers are dropped to make room for new ones.
+ *
+ * @param capacity the maximum number of headers held by the buffer
+ */
+internal class OrphanBuffer(private val capacity: Int) {
+
+  private val headers = LinkedHashMap<Hash, BlockHeader>()
+  private val children = HashMap<Hash, MutableSet<Hash>>()
+
+  init {
+    if (capacity < 1) {
+      throw IllegalArgumentException("Invalid capacity $capacity")
+    }
+  }
+
+  /**
+   * The number of headers held by the buffer.
+   */
+  val size: Int
+    @Synchronized get() = headers.size
+
+  /**
+   * Checks whether a header is held by the buffer.
+   *
+   * @param hash the hash of the block header
+   * @return `true` if the header is held by the buffer
+   */
+  @Synchronized
+  operator fun contains(hash: Hash): Boolean = headers.containsKey(hash)
+
+  /**
+   * Adds a header to the buffer.
+   *
+   * @param header the block header, which must have a parent
+   */
+  @Synchronized
+  fun add(header: BlockHeader) {
+    val parentHash = header.parentHash() ?: throw IllegalArgumentException("Block header has no parent")
+    if (headers.put(header.hash(), header) != null) {
+      return
+    }
+    children.getOrPut(parentHash) { LinkedHashSet() }.add(header.hash())
+    if (headers.size > capacity) {
+      val eldest = headers.values.iterator().next()
+      headers.remove(eldest.hash())
+      children[eldest.parentHash()]?.let {
+        it.remove(eldest.hash())
+        if (it.isEmpty()) {
+          children.remove(eldest.parentHash())
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the headers of the buffer with a parent.
+   *
+   * @param parentHash the hash of the parent
+   * @return the children of the parent held by the buffer, in the order they were added
+   */
+  @Synchronized
+  fun removeChildren(parentHash: Hash): List<BlockHeader> {
+    val hashes = children.remove(parentHash) ?: return emptyList()
+    return hashes.mapNotNull { headers.remove(it) }
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import net.consensys.cava.concurrent.LatencyHistogram
+import java.util.ArrayDeque
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Sub-steps of the operations of a [BlockchainRepository].
+ */
+enum class RepositoryStep {
+  /**
+   * Reads from the key-value stores.
+   */
+  STORE_READ,
+  /**
+   * Writes to and removals from the key-value stores.
+   */
+  STORE_WRITE,
+  /**
+   * Reads from the freezer of ancient blocks.
+   */
+  FREEZER_READ,
+  /**
+   * RLP decoding of block headers, block bodies and transaction receipts.
+   */
+  DECODE,
+  /**
+   * RLP encoding of block headers, block bodies and transaction receipts.
+   */
+  ENCODE,
+  /**
+   * Queries of the blockchain index.
+   */
+  INDEX_QUERY,
+  /**
+   * Updates of the blockchain index, including their commit.
+   */
+  INDEX_UPDATE
+}
+
+/**
+ * The breakdown of the time spent by a call to a public operation of a [BlockchainRepository].
+ *
+ * The trace travels with the coroutine context of the call, so that sub-steps run by nested calls and child coroutines
+ * are recorded to it. Sub-steps running concurrently are all recorded, so their times may add up to more than the
+ * duration of the call.
+ *
+ * @param operation the name of the operation
+ */
+class OperationTrace internal constructor(val operation: String) : AbstractCoroutineContextElement(OperationTrace) {
+
+  /**
+   * Key of the trace in a coroutine context.
+   */
+  companion object Key : CoroutineContext.Key<OperationTrace> {
+    private val STEPS = RepositoryStep.values().size
+  }
+
+  private val startNanos = System.nanoTime()
+  private val counts = AtomicLongArray(STEPS)
+  private val nanos = AtomicLongArray(STEPS)
+  private val bytes = AtomicLongArray(STEPS)
+
+  /**
+   * The duration of the call, in nanoseconds, or zero while the call is in progress.
+   */
+  @Volatile
+  var durationNanos: Long = 0
+    private set
+
+  /**
+   * Records a sub-step of the call.
+   *
+   * @param step the sub-step
+   * @param elapsedNanos the time spent in the sub-step, in nanoseconds
+   * @param size the number of bytes read or written by the sub-step
+   */
+  fun record(step: RepositoryStep, elapsedNanos: Long, size: Int = 0) {
+    counts.incrementAndGet(step.ordinal)
+    nanos.addAndGet(step.ordinal, elapsedNanos)
+    if (size > 0) {
+      bytes.addAndGet(step.ordinal, size.toLong())
+    }
+  }
+
+  internal fun complete() {
+    durationNanos = System.nanoTime() - startNanos
+  }
+
+  /**
+   * Provides the number of times a sub-step ran during the call.
+   *
+   * @param step the sub-step
+   * @return the number of times the sub-step ran
+   */
+  fun count(step: RepositoryStep): Long = counts.get(step.ordinal)
+
+  /**
+   * Provides the time spent in a sub-step during the call.
+   *
+   * @param step the sub-step
+   * @return the time spent in the sub-step, in nanoseconds
+   */
+  fun nanos(step: RepositoryStep): Long = nanos.get(step.ordinal)
+
+  /**
+   * Provides the number of bytes read or written by a sub-step during the call.
+   *
+   * @param step the sub-step
+   * @return the number of bytes
+   */
+  fun bytes(step: RepositoryStep): Long = bytes.get(step.ordinal)
+
+  override fun toString(): String {
+    val builder = StringBuilder(operation).append(" took ").append(micros(durationNanos)).append("us")
+    for (step in RepositoryStep.values()) {
+      val count = count(step)
+      if (count > 0) {
+        builder.append(", ").append(step).append(": ").append(count).append("x ").append(micros(nanos(step)))
+          .append("us")
+        if (bytes(step) > 0) {
+          builder.append(' ').append(bytes(step)).append('B')
+        }
+      }
+    }
+    return builder.toString()
+  }
+
+  private fun micros(nanos: Long): Long = TimeUnit.NANOSECONDS.toMicros(nanos)
+}
+
+/**
+ * Receiver of measurements taken by a [BlockchainRepository].
+ *
+ * Implementations are called once per call to a public operation of the repository, and must be thread-safe and
+ * cheap.
+ */
+interface RepositoryMetrics {
+
+  /**
+   * Records a completed call to an operation.
+   *
+   * Calls made by the repository to its own public operations are recorded as part of the outer call only.
+   *
+   * @param trace the breakdown of the time spent by the call
+   * @param success `true` if the call completed normally
+   */
+  fun recordOperation(trace: OperationTrace, success: Boolean)
+}
+
+/**
+ * Default [RepositoryMetrics], recording latencies of operations and sub-steps to [LatencyHistogram]s, and keeping the
+ * traces of the most recent slow calls.
+ *
+ * @param slowOperationThresholdNanos the duration from which a call is recorded as slow, in nanoseconds
+ * @param slowOperationLogSize the number of slow calls kept
+ */
+class HistogramRepositoryMetrics @JvmOverloads constructor(
+  private val slowOperationThresholdNanos: Long = DEFAULT_SLOW_OPERATION_THRESHOLD,
+  private val slowOperationLogSize: Int = DEFAULT_SLOW_OPERATION_LOG_SIZE
+) : RepositoryMetrics {
+
+  companion object {
+    /**
+     * The default duration from which a call is recorded as slow, in nanoseconds.
+     */
+    val DEFAULT_SLOW_OPERATION_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(100)
+
+    /**
+     * The default number of slow calls kept.
+     */
+    const val DEFAULT_SLOW_OPERATION_LOG_SIZE = 100
+  }
+
+  init {
+    if (slowOperationLogSize < 0) {
+      throw IllegalArgumentException("Invalid slow operation log size $slowOperationLogSize")
+    }
+  }
+
+  private val latencies = ConcurrentHashMap<String, LatencyHistogram>()
+  private val errors = ConcurrentHashMap<String, AtomicLong>()
+  private val stepLatencies = Array(RepositoryStep.values().size) { LatencyHistogram() }
+  private val stepSizes = Array(RepositoryStep.values().size) { LatencyHistogram() }
+  private val slowOperations = ArrayDeque<OperationTrace>()
+
+  /**
+   * Provides the names of the operations called so far.
+   *
+   * @return the names of the operations
+   */
+  fun operations(): Set<String> = latencies.keys.toSet()
+
+  /**
+   * Provides the histogram of latencies of an operation, in nanoseconds.
+   *
+   * @param operation the name of the operation
+   * @return the histogram of latencies of the operation
+   */
+  fun latency(operation: String): LatencyHistogram = latencies.computeIfAbsent(operation) { LatencyHistogram() }
+
+  /**
+   * Provides the number of failed calls to an operation.
+   *
+   * @param operation the name of the operation
+   * @return the number of errors
+   */
+  fun errors(operation: String): Long = errors[operation]?.get() ?: 0
+
+  /**
+   * Provides the histogram of the time spent in a sub-step per call, in nanoseconds.
+   *
+   * @param step the sub-step
+   * @return the histogram of the time spent in the sub-step, for calls running the sub-step
+   */
+  fun stepLatency(step: RepositoryStep): LatencyHistogram = stepLatencies[step.ordinal]
+
+  /**
+   * Provides the histogram of the number of bytes read or written by a sub-step per call.
+   *
+   * @param step the sub-step
+   * @return the histogram of sizes, for calls running the sub-step
+   */
+  fun stepSize(step: RepositoryStep): LatencyHistogram = stepSizes[step.ordinal]
+
+  /**
+   * Provides the traces of the most recent slow calls.
+   *
+   * @return the traces of slow calls, oldest first
+   */
+  fun slowOperations(): List<OperationTrace> = synchronized(slowOperations) { slowOperations.toList() }
+
+  override fun recordOperation(trace: OperationTrace, success: Boolean) {
+    latency(trace.operation).record(trace.durationNanos)
+    if (!success) {
+      errors.computeIfAbsent(trace.operation) { AtomicLong() }.incrementAndGet()
+    }
+    for (step in RepositoryStep.values()) {
+      if (trace.count(step) > 0) {
+        stepLatencies[step.ordinal].record(trace.nanos(step))
+        stepSizes[step.ordinal].record(trace.bytes(step))
+      }
+    }
+    if (trace.durationNanos >= slowOperationThresholdNanos && slowOperationLogSize > 0) {
+      synchronized(slowOperations) {
+        if (slowOperations.size == slowOperationLogSize) {
+          slowOperations.removeFirst()
+        }
+        slowOperations.addLast(trace)
+      }
+    }
+  }
+}
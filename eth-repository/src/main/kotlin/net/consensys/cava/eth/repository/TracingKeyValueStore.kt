@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.kv.KeyPage
+import net.consensys.cava.kv.KeyValueStore
+import kotlin.coroutines.coroutineContext
+
+/**
+ * A key-value store recording its reads and writes to the [OperationTrace] of the calling coroutine, if any.
+ *
+ * @param delegate the key-value store to trace
+ */
+internal class TracingKeyValueStore(private val delegate: KeyValueStore) : KeyValueStore {
+
+  override suspend fun get(key: Bytes): Bytes? {
+    val trace = coroutineContext[OperationTrace] ?: return delegate.get(key)
+    val start = System.nanoTime()
+    val value = delegate.get(key)
+    trace.record(RepositoryStep.STORE_READ, System.nanoTime() - start, value?.size() ?: 0)
+    return value
+  }
+
+  override suspend fun put(key: Bytes, value: Bytes) {
+    val trace = coroutineContext[OperationTrace] ?: return delegate.put(key, value)
+    val start = System.nanoTime()
+    delegate.put(key, value)
+    trace.record(RepositoryStep.STORE_WRITE, System.nanoTime() - start, value.size())
+  }
+
+  override suspend fun putAll(entries: Map<Bytes, Bytes>) {
+    val trace = coroutineContext[OperationTrace] ?: return delegate.putAll(entries)
+    val start = System.nanoTime()
+    delegate.putAll(entries)
+    trace.record(RepositoryStep.STORE_WRITE, System.nanoTime() - start, entries.values.sumBy { it.size() })
+  }
+
+  override suspend fun remove(key: Bytes) {
+    val trace = coroutineContext[OperationTrace] ?: return delegate.remove(key)
+    val start = System.nanoTime()
+    delegate.remove(key)
+    trace.record(RepositoryStep.STORE_WRITE, System.nanoTime() - start)
+  }
+
+  override suspend fun keys(): Iterable<Bytes> {
+    val trace = coroutineContext[OperationTrace] ?: return delegate.keys()
+    val start = System.nanoTime()
+    val keys = delegate.keys()
+    trace.record(RepositoryStep.STORE_READ, System.nanoTime() - start)
+    return keys
+  }
+
+  override suspend fun keys(prefix: Bytes): Iterable<Bytes> {
+    val trace = coroutineContext[OperationTrace] ?: return delegate.keys(prefix)
+    val start = System.nanoTime()
+    val keys = delegate.keys(prefix)
+    trace.record(RepositoryStep.STORE_READ, System.nanoTime() - start)
+    return keys
+  }
+
+  override suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage {
+    val trace = coroutineContext[OperationTrace] ?: return delegate.scanKeys(cursor, limit)
+    val start = System.nanoTime()
+    val page = delegate.scanKeys(cursor, limit)
+    trace.record(RepositoryStep.STORE_READ, System.nanoTime() - start)
+    return page
+  }
+
+  override suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage {
+    val trace = coroutineContext[OperationTrace] ?: return delegate.scanKeys(start, end, cursor, limit)
+    val scanStart = System.nanoTime()
+    val page = delegate.scanKeys(start, end, cursor, limit)
+    trace.record(RepositoryStep.STORE_READ, System.nanoTime() - scanStart)
+    return page
+  }
+
+  override fun close() = delegate.close()
+}
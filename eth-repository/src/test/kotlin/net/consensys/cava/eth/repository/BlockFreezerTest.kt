@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.junit.TempDirectory
+import net.consensys.cava.junit.TempDirectoryExtension
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.extension.ExtendWith
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.WRITE
+
+@ExtendWith(TempDirectoryExtension::class)
+internal class BlockFreezerTest {
+
+  @Test
+  fun readsValuesAcrossSegments(@TempDirectory tempDir: Path) {
+    val values = (0 until 100).map { Bytes.random(it % 7 + 1) }
+    FreezerTable(tempDir, "test", 16).use { table ->
+      for ((i, value) in values.withIndex()) {
+        assertEquals(i.toLong(), table.append(value))
+      }
+      assertEquals(100L, table.size)
+      for ((i, value) in values.withIndex()) {
+        assertEquals(value, table.get(i.toLong()))
+      }
+      assertNull(table.get(100))
+    }
+    FreezerTable(tempDir, "test", 16).use { table ->
+      assertEquals(100L, table.size)
+      assertEquals(values[42], table.get(42))
+      table.truncate(50)
+      assertEquals(50L, table.size)
+      assertNull(table.get(50))
+      assertEquals(values[49], table.get(49))
+    }
+  }
+
+  @Test
+  fun discardsPartialAppends(@TempDirectory tempDir: Path) {
+    FreezerTable(tempDir, "test").use { table ->
+      table.append(Bytes.of(1, 2, 3))
+      table.append(Bytes.of(4, 5))
+    }
+    FileChannel.open(tempDir.resolve("test.idx"), WRITE).use { it.truncate(12) }
+    FreezerTable(tempDir, "test").use { table ->
+      assertEquals(1L, table.size)
+      assertEquals(Bytes.of(1, 2, 3), table.get(0))
+      assertEquals(1L, table.append(Bytes.of(6)))
+      assertEquals(Bytes.of(6), table.get(1))
+    }
+  }
+
+  @Test
+  fun appendsBlocksInOrder(@TempDirectory tempDir: Path) {
+    BlockFreezer(tempDir, 10).use { freezer ->
+      freezer.append(0, Bytes.of(1), Bytes.of(2), null)
+      freezer.append(1, Bytes.of(3), Bytes.of(4), Bytes.of(5))
+      assertThrows(IllegalArgumentException::class.java) { freezer.append(3, Bytes.of(6), Bytes.of(7), null) }
+    }
+    BlockFreezer(tempDir, 10).use { freezer ->
+      assertEquals(2L, freezer.frozen)
+      assertEquals(Bytes.of(3), freezer.header(1))
+      assertEquals(Bytes.of(2), freezer.body(0))
+      assertNull(freezer.transactionReceipts(0))
+      assertEquals(Bytes.of(5), freezer.transactionReceipts(1))
+      assertNull(freezer.header(2))
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import net.consensys.cava.bytes.Bytes32
+import net.consensys.cava.eth.Hash
+import net.consensys.cava.units.bigints.UInt256
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+internal class BlockTreeTest {
+
+  private fun chain(tree: BlockTree, parent: BlockTreeNode?, length: Int, difficulty: Long): List<BlockTreeNode> {
+    val nodes = mutableListOf<BlockTreeNode>()
+    var previous = parent
+    for (i in 0 until length) {
+      val node = BlockTreeNode(
+        Hash.fromBytes(Bytes32.random()),
+        previous?.hash,
+        previous?.number?.plus(1) ?: 0,
+        (previous?.totalDifficulty ?: UInt256.ZERO).add(UInt256.valueOf(difficulty))
+      )
+      tree.add(node)
+      nodes.add(node)
+      previous = node
+    }
+    return nodes
+  }
+
+  @Test
+  fun tracksHeadAndCanonicalChain() {
+    val tree = BlockTree()
+    val blocks = chain(tree, null, 10, 1)
+    assertEquals(blocks[9], tree.head)
+    assertEquals(UInt256.valueOf(5), tree.totalDifficulty(blocks[4].hash))
+    assertEquals(blocks[3], tree.canonical(3))
+    assertEquals(blocks[2], tree.ancestor(blocks[9].hash, 2))
+  }
+
+  @Test
+  fun emitsReorgEvents() {
+    val tree = BlockTree()
+    val events = mutableListOf<ReorgEvent>()
+    tree.addReorgListener { events.add(it) }
+    val blocks = chain(tree, null, 10, 1)
+    assertTrue(events.isEmpty())
+
+    val fork = chain(tree, blocks[7], 1, 5)
+    assertEquals(fork[0], tree.head)
+    assertEquals(1, events.size)
+    assertEquals(blocks[7], events[0].commonAncestor)
+    assertEquals(listOf(blocks[9], blocks[8]), events[0].removed)
+    assertEquals(fork, events[0].added)
+    assertNull(tree.canonical(9))
+    assertEquals(fork[0], tree.canonical(8))
+    assertEquals(blocks[8], tree.ancestor(blocks[9].hash, 8))
+  }
+
+  @Test
+  fun prunesOldBlocks() {
+    val tree = BlockTree(10)
+    val blocks = chain(tree, null, 100, 1)
+    assertEquals(11, tree.size)
+    assertNull(tree[blocks[10].hash])
+    assertEquals(blocks[95], tree.ancestor(blocks[99].hash, 95))
+  }
+}
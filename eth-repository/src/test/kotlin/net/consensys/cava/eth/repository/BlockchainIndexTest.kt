@@ -36,9 +36,13 @@ import org.apache.lucene.search.TopScoreDocCollector
 import org.apache.lucene.store.Directory
 import org.apache.lucene.util.BytesRef
 import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.extension.ExtendWith
 import java.io.IOException
+import java.time.Duration
 import java.time.Instant
 import java.time.temporal.ChronoUnit
 
@@ -109,6 +113,73 @@ internal class BlockchainIndexTest {
     assertEquals(1, hits.size)
   }
 
+  @Test
+  @Throws(IOException::class)
+  fun testGroupCommit(@LuceneIndexWriter writer: IndexWriter, @LuceneIndex index: Directory) {
+    val blockchainIndex = BlockchainIndex(writer, Duration.ofHours(1), 1000)
+    val header = BlockHeader(
+      Hash.fromBytes(Bytes32.random()),
+      Hash.fromBytes(Bytes32.random()),
+      Address.fromBytes(Bytes.random(20)),
+      Hash.fromBytes(Bytes32.random()),
+      Hash.fromBytes(Bytes32.random()),
+      Hash.fromBytes(Bytes32.random()),
+      Bytes32.random(),
+      UInt256.fromBytes(Bytes32.random()),
+      UInt256.fromBytes(Bytes32.random()),
+      Gas.valueOf(3),
+      Gas.valueOf(2),
+      Instant.now().truncatedTo(ChronoUnit.SECONDS),
+      Bytes.of(2, 3, 4),
+      Hash.fromBytes(Bytes32.random()),
+      Bytes32.random()
+    )
+    blockchainIndex.index { w -> w.indexBlockHeader(header) }
+    assertEquals(listOf(header.hash()), blockchainIndex.findBy(BlockHeaderFields.PARENT_HASH, header.parentHash()!!))
+    assertTrue(writer.hasUncommittedChanges())
+
+    blockchainIndex.flush()
+    assertFalse(writer.hasUncommittedChanges())
+    val reader = DirectoryReader.open(index)
+    val searcher = IndexSearcher(reader)
+    val collector = TopScoreDocCollector.create(10, ScoreDoc(1, 1.0f))
+    searcher.search(TermQuery(Term("_id", BytesRef(header.hash().toBytes().toArrayUnsafe()))), collector)
+    assertEquals(1, collector.topDocs().scoreDocs.size)
+    blockchainIndex.close()
+  }
+
+  @Test
+  @Throws(IOException::class)
+  fun testGroupCommitDiscardsFailedIndexing(@LuceneIndexWriter writer: IndexWriter) {
+    val blockchainIndex = BlockchainIndex(writer, Duration.ofHours(1), 1000)
+    val header = BlockHeader(
+      Hash.fromBytes(Bytes32.random()),
+      Hash.fromBytes(Bytes32.random()),
+      Address.fromBytes(Bytes.random(20)),
+      Hash.fromBytes(Bytes32.random()),
+      Hash.fromBytes(Bytes32.random()),
+      Hash.fromBytes(Bytes32.random()),
+      Bytes32.random(),
+      UInt256.fromBytes(Bytes32.random()),
+      UInt256.fromBytes(Bytes32.random()),
+      Gas.valueOf(3),
+      Gas.valueOf(2),
+      Instant.now().truncatedTo(ChronoUnit.SECONDS),
+      Bytes.of(2, 3, 4),
+      Hash.fromBytes(Bytes32.random()),
+      Bytes32.random()
+    )
+    assertThrows(IllegalStateException::class.java) {
+      blockchainIndex.index { w ->
+        w.indexBlockHeader(header)
+        throw IllegalStateException()
+      }
+    }
+    assertTrue(blockchainIndex.findBy(BlockHeaderFields.PARENT_HASH, header.parentHash()!!).isEmpty())
+    assertTrue(writer.isOpen)
+    blockchainIndex.close()
+  }
+
   @Test
   @Throws(IOException::class)
   fun queryBlockHeaderByField(@LuceneIndexWriter writer: IndexWriter) {
@@ -339,4 +410,105 @@ internal class BlockchainIndexTest {
       assertEquals(txHash, entries[0])
     }
   }
+
+  private fun header(number: UInt256, gasUsed: Long): BlockHeader = BlockHeader(
+    Hash.fromBytes(Bytes32.random()),
+    Hash.fromBytes(Bytes32.random()),
+    Address.fromBytes(Bytes.random(20)),
+    Hash.fromBytes(Bytes32.random()),
+    Hash.fromBytes(Bytes32.random()),
+    Hash.fromBytes(Bytes32.random()),
+    Bytes32.random(),
+    UInt256.valueOf(1),
+    number,
+    Gas.valueOf(100000),
+    Gas.valueOf(gasUsed),
+    Instant.now().truncatedTo(ChronoUnit.SECONDS),
+    Bytes.of(2, 3, 4),
+    Hash.fromBytes(Bytes32.random()),
+    Bytes32.random()
+  )
+
+  @Test
+  fun testNumericRangeQueries(@LuceneIndexWriter writer: IndexWriter) {
+    val blockchainIndex = BlockchainIndex(writer)
+    assertFalse(blockchainIndex.isMigrationRequired())
+    val headers = (0L until 8L).map { header(UInt256.valueOf(it), 1000 - it) }
+    val large = header(UInt256.MAX_VALUE.subtract(1), 10)
+    blockchainIndex.index { w ->
+      headers.forEach { w.indexBlockHeader(it) }
+      w.indexBlockHeader(large)
+    }
+
+    assertEquals(
+      headers.subList(2, 6).map { it.hash() }.toSet(),
+      blockchainIndex.findInRange(BlockHeaderFields.NUMBER, UInt256.valueOf(2), UInt256.valueOf(5)).toSet()
+    )
+    assertEquals(
+      setOf(headers[7].hash(), large.hash()),
+      blockchainIndex.findInRange(BlockHeaderFields.NUMBER, UInt256.valueOf(7), UInt256.MAX_VALUE).toSet()
+    )
+    assertEquals(
+      setOf(large.hash(), headers[7].hash()),
+      blockchainIndex.findInRange(BlockHeaderFields.GAS_USED, UInt256.valueOf(0), UInt256.valueOf(993)).toSet()
+    )
+    assertTrue(blockchainIndex.findInRange(BlockHeaderFields.NUMBER, UInt256.valueOf(5), UInt256.valueOf(2)).isEmpty())
+    assertEquals(large.hash(), blockchainIndex.findByLargest(BlockHeaderFields.NUMBER))
+    assertEquals(headers[0].hash(), blockchainIndex.findByLargest(BlockHeaderFields.GAS_USED))
+  }
+
+  @Test
+  fun testMigration(@LuceneIndexWriter writer: IndexWriter) {
+    val headers = (0L until 4L).map { header(UInt256.valueOf(it), 1000) }
+    BlockchainIndex(writer).index { w -> headers.forEach { w.indexBlockHeader(it, UInt256.valueOf(10)) } }
+    // simulate an index written by an earlier version, which did not record its format version
+    writer.setLiveCommitData(emptyMap<String, String>().entries)
+    writer.commit()
+
+    val blockchainIndex = BlockchainIndex(writer)
+    assertTrue(blockchainIndex.isMigrationRequired())
+    assertEquals(2, blockchainIndex.findInRange(BlockHeaderFields.NUMBER, UInt256.valueOf(1), UInt256.valueOf(2)).size)
+
+    blockchainIndex.index { w -> headers.forEach { w.indexBlockHeader(it, UInt256.valueOf(10)) } }
+    blockchainIndex.completeMigration()
+    assertFalse(blockchainIndex.isMigrationRequired())
+    assertFalse(BlockchainIndex(writer).isMigrationRequired())
+    assertEquals(2, blockchainIndex.findInRange(BlockHeaderFields.NUMBER, UInt256.valueOf(1), UInt256.valueOf(2)).size)
+    assertEquals(UInt256.valueOf(10), blockchainIndex.totalDifficulty(headers[3].hash()))
+  }
+
+  @Test
+  fun testStreamingQueries(@LuceneIndexWriter writer: IndexWriter) {
+    val blockchainIndex = BlockchainIndex(writer)
+    val headers = (0L until 2500L).map { header(UInt256.valueOf(it), 1000) }
+    val blockHash = Hash.fromBytes(Bytes32.random())
+    val txHashes = (0 until 15).map { Hash.fromBytes(Bytes32.random()) }
+    blockchainIndex.index { w ->
+      headers.forEach { w.indexBlockHeader(it, UInt256.valueOf(10)) }
+      for ((i, txHash) in txHashes.withIndex()) {
+        w.indexTransactionReceipt(
+          TransactionReceipt(Bytes32.random(), 3, LogsBloomFilter(Bytes.random(256)), emptyList()),
+          i,
+          txHash,
+          blockHash
+        )
+      }
+    }
+
+    assertEquals(10, blockchainIndex.findBy(BlockHeaderFields.EXTRA_DATA, Bytes.of(2, 3, 4)).size)
+    val all = blockchainIndex.streamBy(BlockHeaderFields.EXTRA_DATA, Bytes.of(2, 3, 4)).toList()
+    assertEquals(headers.map { it.hash() }.sortedBy { it.toBytes().toHexString() }, all)
+    assertEquals(
+      1500,
+      blockchainIndex.streamInRange(BlockHeaderFields.NUMBER, UInt256.valueOf(100), UInt256.valueOf(1599)).count()
+    )
+    assertEquals(
+      txHashes.toSet(),
+      blockchainIndex.streamBy(TransactionReceiptFields.BLOCK_HASH, blockHash.toBytes()).toSet()
+    )
+    assertEquals(
+      headers[0].hash(),
+      blockchainIndex.streamBy(BlockHeaderFields.NUMBER, UInt256.valueOf(0).toBytes()).first()
+    )
+  }
 }
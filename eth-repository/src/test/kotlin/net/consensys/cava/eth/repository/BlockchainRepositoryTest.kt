@@ -12,6 +12,9 @@
  */
 package net.consensys.cava.eth.repository
 
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.toList
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
 import net.consensys.cava.bytes.Bytes
 import net.consensys.cava.bytes.Bytes32
@@ -28,18 +31,26 @@ import net.consensys.cava.eth.TransactionReceipt
 import net.consensys.cava.junit.BouncyCastleExtension
 import net.consensys.cava.junit.LuceneIndexWriter
 import net.consensys.cava.junit.LuceneIndexWriterExtension
+import net.consensys.cava.junit.TempDirectory
+import net.consensys.cava.junit.TempDirectoryExtension
+import net.consensys.cava.kv.HistogramKeyValueStoreMetrics
+import net.consensys.cava.kv.InstrumentedKeyValueStore
+import net.consensys.cava.kv.KeyValueStore
+import net.consensys.cava.kv.KeyValueStoreOperation
 import net.consensys.cava.kv.MapKeyValueStore
 import net.consensys.cava.units.bigints.UInt256
 import net.consensys.cava.units.ethereum.Gas
 import net.consensys.cava.units.ethereum.Wei
 import org.apache.lucene.index.IndexWriter
 import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.extension.ExtendWith
+import java.nio.file.Path
 import java.time.Instant
 import java.time.temporal.ChronoUnit
 
-@ExtendWith(BouncyCastleExtension::class, LuceneIndexWriterExtension::class)
+@ExtendWith(BouncyCastleExtension::class, LuceneIndexWriterExtension::class, TempDirectoryExtension::class)
 internal class BlockchainRepositoryTest {
 
   @Test
@@ -474,4 +485,398 @@ internal class BlockchainRepositoryTest {
     assertEquals(listOf(txReceipt), repo.retrieveTransactionReceipts(blockHash))
     assertEquals(txReceipt, repo.retrieveTransactionReceipt(txHash))
   }
+
+  @Test
+  fun storeBlockReceipts(@LuceneIndexWriter writer: IndexWriter) = runBlocking {
+    val genesisHeader = header(null, 1)
+    val repo = repository(writer, genesisHeader)
+    val receipts = (0 until 3).map {
+      TransactionReceipt(Bytes32.random(), it.toLong(), LogsBloomFilter(Bytes.random(256)),
+        listOf(Log(Address.fromBytes(Bytes.random(20)), Bytes.fromHexString("deadbeef"), listOf(Bytes32.random()))))
+    }
+    val txHashes = receipts.map { Hash.fromBytes(Bytes32.random()) }
+    val blockHash = Hash.fromBytes(Bytes32.random())
+    repo.storeBlockReceipts(blockHash, receipts, txHashes)
+
+    assertEquals(receipts, repo.retrieveTransactionReceipts(blockHash))
+    assertEquals(receipts[1], repo.retrieveTransactionReceipt(blockHash, 1))
+    assertNull(repo.retrieveTransactionReceipt(blockHash, 3))
+    assertEquals(receipts[2], repo.retrieveTransactionReceipt(txHashes[2]))
+    assertEquals(TransactionLocation(blockHash, 2), repo.retrieveTransactionLocation(txHashes[2]))
+    assertNull(repo.retrieveTransactionLocation(Hash.fromBytes(Bytes32.random())))
+  }
+
+  @Test
+  fun canonicalChainFollowsReorgs(@LuceneIndexWriter writer: IndexWriter) = runBlocking {
+    val genesisHeader = header(null, 1)
+    val repo = repository(writer, genesisHeader)
+    val reorgs = mutableListOf<ReorgEvent>()
+    repo.addReorgListener { reorgs.add(it) }
+
+    val chain = mutableListOf(genesisHeader)
+    for (i in 1..5) {
+      chain.add(header(chain.last(), 1))
+      repo.storeBlockHeader(chain.last())
+    }
+    assertEquals(chain[5].hash(), repo.retrieveChainHeadHeader()!!.hash())
+    assertEquals(UInt256.valueOf(6), repo.retrieveTotalDifficulty(chain[5].hash()))
+    assertEquals(chain.map { it.hash() }, repo.findCanonicalBlockHashes(0, 10, 0, false))
+    assertEquals(listOf(chain[5].hash(), chain[3].hash(), chain[1].hash()),
+      repo.findCanonicalBlockHashes(5, 10, 1, true))
+
+    val fork = header(chain[3], 10)
+    repo.storeBlockHeader(fork)
+    assertEquals(fork.hash(), repo.retrieveChainHeadHeader()!!.hash())
+    assertEquals(1, reorgs.size)
+    assertEquals(chain[3].hash(), reorgs[0].commonAncestor!!.hash)
+    assertEquals(chain.subList(0, 4).map { it.hash() } + fork.hash(),
+      repo.findCanonicalBlockHashes(0, 10, 0, false))
+    assertNull(repo.findCanonicalBlockHash(5))
+  }
+
+  @Test
+  fun backfillCanonicalChainBeyondBlockTree(@LuceneIndexWriter writer: IndexWriter) = runBlocking {
+    val genesisHeader = header(null, 1)
+    val blockBodyStore = MapKeyValueStore()
+    val blockHeaderStore = MapKeyValueStore()
+    val chainMetadata = MapKeyValueStore()
+    val transactionReceiptsStore = MapKeyValueStore()
+    val blockchainIndex = BlockchainIndex(writer).asStore()
+    val repo = repository(
+      writer,
+      genesisHeader,
+      blockBodyStore,
+      blockHeaderStore,
+      chainMetadata,
+      transactionReceiptsStore,
+      blockchainIndex
+    )
+    val chain = mutableListOf(genesisHeader)
+    for (i in 1..4200) {
+      chain.add(header(chain.last(), 2))
+    }
+    val blocks = Channel<Block>(10)
+    launch {
+      for (header in chain.drop(1)) {
+        blocks.send(Block(header, BlockBody(emptyList(), emptyList())))
+      }
+      blocks.close()
+    }
+    repo.storeBlocks(blocks)
+
+    // a database written before the canonical chain was recorded
+    val canonicalPrefix = Bytes.wrap("canonical".toByteArray())
+    for (key in chainMetadata.keys(canonicalPrefix)) {
+      chainMetadata.remove(key)
+    }
+    val reopened = BlockchainRepository(
+      chainMetadata,
+      blockBodyStore,
+      blockHeaderStore,
+      transactionReceiptsStore,
+      blockchainIndex
+    )
+    assertEquals(chain.map { it.hash() }, reopened.findCanonicalBlockHashes(0, 5000, 0, false))
+    assertEquals(chain.subList(0, 11).map { it.hash() }.asReversed(), reopened.findCanonicalBlockHashes(10, 20, 0, true))
+  }
+
+  @Test
+  fun storeBlocksInPipeline(@LuceneIndexWriter writer: IndexWriter) = runBlocking {
+    val genesisHeader = header(null, 1)
+    val bodyStoreMetrics = HistogramKeyValueStoreMetrics()
+    val repo = repository(
+      writer,
+      genesisHeader,
+      blockBodyStore = InstrumentedKeyValueStore(MapKeyValueStore(), bodyStoreMetrics)
+    )
+    val chain = mutableListOf(genesisHeader)
+    for (i in 1..50) {
+      chain.add(header(chain.last(), 2))
+    }
+    val blocks = Channel<Block>(10)
+    launch {
+      for (header in chain.drop(1)) {
+        blocks.send(Block(header, BlockBody(emptyList(), emptyList())))
+      }
+      blocks.close()
+    }
+    val metrics = repo.storeBlocks(blocks, batchSize = 8, parallelism = 3)
+
+    for (stage in BlockImportStage.values()) {
+      assertEquals(50L, metrics.blocks(stage))
+    }
+    assertEquals(chain[50].hash(), repo.retrieveChainHeadHeader()!!.hash())
+    assertEquals(UInt256.valueOf(101), repo.retrieveTotalDifficulty(chain[50].hash()))
+    assertEquals(chain[20], repo.retrieveBlock(chain[20].hash())!!.header())
+    assertEquals(chain.map { it.hash() }, repo.findCanonicalBlockHashes(0, 100, 0, false))
+    // the genesis block, then one write per batch
+    assertEquals(8L, bodyStoreMetrics.latency(KeyValueStoreOperation.PUT).count())
+  }
+
+  @Test
+  fun linkOrphansWhenParentArrives(@LuceneIndexWriter writer: IndexWriter) = runBlocking {
+    val genesisHeader = header(null, 1)
+    val repo = repository(writer, genesisHeader)
+    val chain = mutableListOf(genesisHeader)
+    for (i in 1..500) {
+      chain.add(header(chain.last(), 2))
+    }
+    for (header in chain.drop(2).asReversed()) {
+      repo.storeBlockHeader(header)
+    }
+    assertEquals(genesisHeader.hash(), repo.retrieveChainHeadHeader()!!.hash())
+
+    repo.storeBlockHeader(chain[1])
+    assertEquals(chain[500].hash(), repo.retrieveChainHeadHeader()!!.hash())
+    assertEquals(UInt256.valueOf(1001), repo.retrieveTotalDifficulty(chain[500].hash()))
+    assertEquals(UInt256.valueOf(501), repo.retrieveTotalDifficulty(chain[250].hash()))
+    assertEquals(chain.map { it.hash() }, repo.findCanonicalBlockHashes(0, 1000, 0, false))
+  }
+
+  @Test
+  fun storeKnownHeaderWithoutRelinkingDescendants(@LuceneIndexWriter writer: IndexWriter) = runBlocking {
+    val genesisHeader = header(null, 1)
+    val headerStoreMetrics = HistogramKeyValueStoreMetrics()
+    val repo = repository(
+      writer,
+      genesisHeader,
+      blockHeaderStore = InstrumentedKeyValueStore(MapKeyValueStore(), headerStoreMetrics),
+      cacheSize = 0
+    )
+    val chain = mutableListOf(genesisHeader)
+    for (i in 1..100) {
+      chain.add(header(chain.last(), 2))
+    }
+    for (header in chain.drop(1)) {
+      repo.storeBlockHeader(header)
+    }
+
+    val reads = headerStoreMetrics.latency(KeyValueStoreOperation.GET).count()
+    repo.storeBlockHeader(chain[1])
+    // only the child of the header is read, as it is already linked
+    assertEquals(reads + 1, headerStoreMetrics.latency(KeyValueStoreOperation.GET).count())
+    assertEquals(chain[100].hash(), repo.retrieveChainHeadHeader()!!.hash())
+    assertEquals(UInt256.valueOf(201), repo.retrieveTotalDifficulty(chain[100].hash()))
+  }
+
+  @Test
+  fun linkOrphansStoredBeforeReopening(@LuceneIndexWriter writer: IndexWriter) = runBlocking {
+    val genesisHeader = header(null, 1)
+    val blockBodyStore = MapKeyValueStore()
+    val blockHeaderStore = MapKeyValueStore()
+    val chainMetadata = MapKeyValueStore()
+    val transactionReceiptsStore = MapKeyValueStore()
+    val index = BlockchainIndex(writer).asStore()
+    val repo = repository(
+      writer,
+      genesisHeader,
+      blockBodyStore = blockBodyStore,
+      blockHeaderStore = blockHeaderStore,
+      chainMetadata = chainMetadata,
+      transactionReceiptsStore = transactionReceiptsStore,
+      blockchainIndex = index
+    )
+    val chain = mutableListOf(genesisHeader)
+    for (i in 1..5) {
+      chain.add(header(chain.last(), 2))
+    }
+    for (header in chain.drop(2)) {
+      repo.storeBlockHeader(header)
+    }
+    assertEquals(genesisHeader.hash(), repo.retrieveChainHeadHeader()!!.hash())
+
+    val reopened = BlockchainRepository(chainMetadata, blockBodyStore, blockHeaderStore, transactionReceiptsStore, index)
+    reopened.storeBlockHeader(chain[1])
+    assertEquals(chain[5].hash(), reopened.retrieveChainHeadHeader()!!.hash())
+    assertEquals(UInt256.valueOf(11), reopened.retrieveTotalDifficulty(chain[5].hash()))
+  }
+
+  @Test
+  fun cacheDecodedObjects(@LuceneIndexWriter writer: IndexWriter) = runBlocking {
+    val genesisHeader = header(null, 1)
+    val headerStore = MapKeyValueStore()
+    val repo = repository(writer, genesisHeader, blockHeaderStore = headerStore)
+    val header = header(genesisHeader, 1)
+    headerStore.put(header.hash().toBytes(), header.toBytes())
+
+    assertEquals(header, repo.retrieveBlockHeader(header.hash()))
+    assertEquals(header, repo.retrieveBlockHeader(header.hash()))
+    assertEquals(genesisHeader, repo.retrieveGenesisBlock()!!.header())
+    val headerStats = repo.cacheStats(CachedObjectType.BLOCK_HEADER)
+    assertEquals(2L, headerStats.hitCount())
+    assertEquals(1L, headerStats.missCount())
+
+    val receipt = TransactionReceipt(Bytes32.random(), 3, LogsBloomFilter(Bytes.random(256)), emptyList())
+    val blockHash = Hash.fromBytes(Bytes32.random())
+    repo.storeBlockReceipts(blockHash, listOf(receipt), listOf(Hash.fromBytes(Bytes32.random())))
+    assertEquals(listOf(receipt), repo.retrieveTransactionReceipts(blockHash))
+    val otherReceipt = TransactionReceipt(Bytes32.random(), 4, LogsBloomFilter(Bytes.random(256)), emptyList())
+    repo.storeBlockReceipts(blockHash, listOf(otherReceipt), listOf(Hash.fromBytes(Bytes32.random())))
+    assertEquals(listOf(otherReceipt), repo.retrieveTransactionReceipts(blockHash))
+  }
+
+  @Test
+  fun disabledCache(@LuceneIndexWriter writer: IndexWriter) = runBlocking {
+    val genesisHeader = header(null, 1)
+    val repo = repository(writer, genesisHeader, cacheSize = 0)
+    assertEquals(genesisHeader, repo.retrieveBlockHeader(genesisHeader.hash()))
+    assertEquals(genesisHeader, repo.retrieveBlockHeader(genesisHeader.hash()))
+    assertEquals(0L, repo.cacheStats(CachedObjectType.BLOCK_HEADER).hitCount())
+  }
+
+  @Test
+  fun findLogs(@LuceneIndexWriter writer: IndexWriter) = runBlocking {
+    val genesisHeader = header(null, 1)
+    val repo = repository(writer, genesisHeader)
+    val chain = mutableListOf(genesisHeader)
+    for (i in 1..5) {
+      chain.add(header(chain.last(), 1))
+      repo.storeBlockHeader(chain.last())
+    }
+    val address = Address.fromBytes(Bytes.random(20))
+    val topic = Bytes32.random()
+    val matching = Log(address, Bytes.fromHexString("deadbeef"), listOf(topic))
+    val other = Log(Address.fromBytes(Bytes.random(20)), Bytes.EMPTY, listOf(topic))
+    for (number in listOf(2, 4)) {
+      val receipts = listOf(
+        TransactionReceipt(Bytes32.random(), 1, LogsBloomFilter.compute(listOf(other)), listOf(other)),
+        TransactionReceipt(
+          Bytes32.random(),
+          2,
+          LogsBloomFilter.compute(listOf(other, matching)),
+          listOf(other, matching)
+        )
+      )
+      repo.storeBlockReceipts(chain[number].hash(), receipts, receipts.map { Hash.fromBytes(Bytes32.random()) })
+    }
+
+    assertEquals(
+      listOf(LogMatch(chain[2].hash(), 2, 1, 2, matching), LogMatch(chain[4].hash(), 4, 1, 2, matching)),
+      repo.findLogs(LogFilter(0, 10, listOf(address))).toList()
+    )
+    assertEquals(
+      listOf(LogMatch(chain[4].hash(), 4, 1, 2, matching)),
+      repo.findLogs(LogFilter(3, 4, listOf(address), listOf(listOf(topic)))).toList()
+    )
+    assertEquals(6, repo.findLogs(LogFilter(0, 5, topics = listOf(listOf(topic)))).toList().size)
+    assertEquals(0, repo.findLogs(LogFilter(0, 5, topics = listOf(emptyList(), listOf(topic)))).toList().size)
+  }
+
+  @Test
+  fun freezeAncientBlocks(@LuceneIndexWriter writer: IndexWriter, @TempDirectory tempDir: Path) = runBlocking {
+    val genesisHeader = header(null, 1)
+    val blockBodyStore = MapKeyValueStore()
+    val blockHeaderStore = MapKeyValueStore()
+    val transactionReceiptsStore = MapKeyValueStore()
+    val freezer = BlockFreezer(tempDir, 10)
+    val repo = repository(
+      writer,
+      genesisHeader,
+      blockBodyStore = blockBodyStore,
+      blockHeaderStore = blockHeaderStore,
+      transactionReceiptsStore = transactionReceiptsStore,
+      cacheSize = 0,
+      freezer = freezer
+    )
+    val chain = mutableListOf(genesisHeader)
+    for (i in 1..30) {
+      chain.add(header(chain.last(), 1))
+      repo.storeBlock(Block(chain.last(), BlockBody(emptyList(), emptyList())))
+    }
+    val receipt = TransactionReceipt(Bytes32.random(), 3, LogsBloomFilter(Bytes.random(256)), emptyList())
+    val txHash = Hash.fromBytes(Bytes32.random())
+    repo.storeBlockReceipts(chain[5].hash(), listOf(receipt), listOf(txHash))
+
+    assertEquals(20L, repo.freeze())
+    assertEquals(0L, repo.freeze())
+    assertEquals(20L, freezer.frozen)
+    assertNull(blockHeaderStore.get(chain[5].hash().toBytes()))
+    assertEquals(11, blockHeaderStore.keys().count())
+    assertEquals(11, blockBodyStore.keys().count())
+    assertEquals(chain[5], repo.retrieveBlockHeader(chain[5].hash()))
+    assertEquals(chain[5], repo.retrieveCanonicalBlockHeader(5))
+    assertEquals(chain[25], repo.retrieveCanonicalBlockHeader(25))
+    assertEquals(BlockBody(emptyList(), emptyList()), repo.retrieveBlockBody(chain[19].hash()))
+    assertEquals(genesisHeader, repo.retrieveGenesisBlock()!!.header())
+    assertEquals(listOf(receipt), repo.retrieveTransactionReceipts(chain[5].hash()))
+    assertEquals(receipt, repo.retrieveTransactionReceipt(txHash))
+    freezer.close()
+  }
+
+  @Test
+  fun recordOperationMetrics(@LuceneIndexWriter writer: IndexWriter) = runBlocking {
+    val genesisHeader = header(null, 1)
+    val metrics = HistogramRepositoryMetrics(0, 2)
+    val repo = repository(writer, genesisHeader, cacheSize = 0, metrics = metrics)
+    val block = Block(header(genesisHeader, 1), BlockBody(emptyList(), emptyList()))
+    repo.storeBlock(block)
+    assertEquals(block, repo.retrieveBlock(block.header().hash()))
+    assertEquals(listOf(block.header().hash()), repo.findBlocksByParentHash(genesisHeader.hash()))
+
+    assertEquals(setOf("storeBlock", "retrieveBlock", "findBlocksByParentHash"), metrics.operations())
+    assertEquals(2L, metrics.latency("storeBlock").count())
+    assertEquals(1L, metrics.latency("retrieveBlock").count())
+    assertEquals(0L, metrics.errors("retrieveBlock"))
+    assertEquals(3L, metrics.stepLatency(RepositoryStep.INDEX_QUERY).count())
+
+    val slowOperations = metrics.slowOperations()
+    assertEquals(2, slowOperations.size)
+    val retrieveBlock = slowOperations[0]
+    assertEquals("retrieveBlock", retrieveBlock.operation)
+    assertEquals(2L, retrieveBlock.count(RepositoryStep.STORE_READ))
+    assertEquals(2L, retrieveBlock.count(RepositoryStep.DECODE))
+    assertEquals(block.header().toBytes().size() + block.body().toBytes().size().toLong(),
+      retrieveBlock.bytes(RepositoryStep.STORE_READ))
+    assertEquals(0L, retrieveBlock.count(RepositoryStep.STORE_WRITE))
+    assertEquals(1L, slowOperations[1].count(RepositoryStep.INDEX_QUERY))
+
+    val receipt = TransactionReceipt(Bytes32.random(), 1L, LogsBloomFilter(Bytes.random(256)), emptyList())
+    repo.storeBlockReceipts(block.header().hash(), listOf(receipt), listOf(Hash.fromBytes(Bytes32.random())))
+    assertEquals(listOf(receipt), repo.retrieveTransactionReceipts(block.header().hash()))
+    val retrieveReceipts = metrics.slowOperations()[1]
+    assertEquals("retrieveTransactionReceipts", retrieveReceipts.operation)
+    assertEquals(1L, retrieveReceipts.count(RepositoryStep.STORE_READ))
+    assertEquals(0L, retrieveReceipts.count(RepositoryStep.INDEX_QUERY))
+  }
+
+  private fun header(parent: BlockHeader?, difficulty: Long): BlockHeader = BlockHeader(
+    parent?.hash(),
+    Hash.fromBytes(Bytes32.random()),
+    Address.fromBytes(Bytes.random(20)),
+    Hash.fromBytes(Bytes32.random()),
+    Hash.fromBytes(Bytes32.random()),
+    Hash.fromBytes(Bytes32.random()),
+    Bytes32.random(),
+    UInt256.valueOf(difficulty),
+    parent?.number()?.add(UInt256.valueOf(1)) ?: UInt256.valueOf(0),
+    Gas.valueOf(3000),
+    Gas.valueOf(2000),
+    Instant.now().truncatedTo(ChronoUnit.SECONDS),
+    Bytes.of(2, 3, 4),
+    Hash.fromBytes(Bytes32.random()),
+    Bytes32.random()
+  )
+
+  private suspend fun repository(
+    writer: IndexWriter,
+    genesisHeader: BlockHeader,
+    blockBodyStore: KeyValueStore = MapKeyValueStore(),
+    blockHeaderStore: KeyValueStore = MapKeyValueStore(),
+    chainMetadata: KeyValueStore = MapKeyValueStore(),
+    transactionReceiptsStore: KeyValueStore = MapKeyValueStore(),
+    blockchainIndex: BlockchainIndexStore = BlockchainIndex(writer).asStore(),
+    cacheSize: Long = BlockchainRepository.DEFAULT_CACHE_SIZE,
+    freezer: BlockFreezer? = null,
+    metrics: RepositoryMetrics? = null
+  ): BlockchainRepository = BlockchainRepository.init(
+    blockBodyStore,
+    blockHeaderStore,
+    chainMetadata,
+    transactionReceiptsStore,
+    blockchainIndex,
+    Block(genesisHeader, BlockBody(emptyList(), emptyList())),
+    cacheSize,
+    freezer,
+    metrics
+  )
 }
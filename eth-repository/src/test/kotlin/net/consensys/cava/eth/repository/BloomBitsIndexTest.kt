@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import kotlinx.coroutines.runBlocking
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.bytes.Bytes32
+import net.consensys.cava.eth.Address
+import net.consensys.cava.eth.Log
+import net.consensys.cava.eth.LogsBloomFilter
+import net.consensys.cava.junit.BouncyCastleExtension
+import net.consensys.cava.kv.MapKeyValueStore
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.extension.ExtendWith
+import java.util.BitSet
+
+@ExtendWith(BouncyCastleExtension::class)
+internal class BloomBitsIndexTest {
+
+  private val address = Address.fromBytes(Bytes.random(20))
+  private val topic = Bytes32.random()
+
+  private fun bloom(vararg logs: Log): Bytes = LogsBloomFilter.compute(logs.asList()).toBytes()
+
+  private fun bits(vararg offsets: Int): BitSet {
+    val bits = BitSet()
+    offsets.forEach { bits.set(it) }
+    return bits
+  }
+
+  @Test
+  fun findsCandidateBlocks() = runBlocking {
+    val index = BloomBitsIndex(MapKeyValueStore(), 16)
+    val blooms = MutableList(16) { bloom() }
+    blooms[3] = bloom(Log(address, Bytes.EMPTY, listOf(topic)))
+    blooms[7] = bloom(Log(address, Bytes.EMPTY, emptyList()))
+    blooms[12] = Bytes.random(32)
+    index.addSection(0, blooms)
+    assertEquals(1L, index.sections())
+
+    assertEquals(bits(3, 7, 12), index.candidates(0, LogFilter(0, 15, listOf(address))))
+    assertEquals(bits(3, 12), index.candidates(0, LogFilter(0, 15, listOf(address), listOf(listOf(topic)))))
+    assertEquals(bits(3, 12), index.candidates(0, LogFilter(0, 15, topics = listOf(emptyList(), listOf(topic)))))
+    assertEquals(bits(12), index.candidates(0, LogFilter(0, 15, listOf(Address.fromBytes(Bytes.random(20))))))
+    assertEquals(16, index.candidates(0, LogFilter(0, 15)).cardinality())
+  }
+
+  @Test
+  fun truncatesSections() = runBlocking {
+    val index = BloomBitsIndex(MapKeyValueStore(), 8)
+    index.addSection(0, List(8) { bloom(Log(address, Bytes.EMPTY, emptyList())) })
+    index.addSection(1, List(8) { bloom(Log(address, Bytes.EMPTY, emptyList())) })
+    index.truncate(1)
+    assertEquals(1L, index.sections())
+    assertTrue(index.candidates(1, LogFilter(0, 15, listOf(address))).isEmpty)
+    assertFalse(index.candidates(0, LogFilter(0, 15, listOf(address))).isEmpty)
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.eth.repository
+
+import kotlinx.coroutines.channels.toList
+import kotlinx.coroutines.runBlocking
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.bytes.Bytes32
+import net.consensys.cava.eth.Address
+import net.consensys.cava.eth.Block
+import net.consensys.cava.eth.BlockBody
+import net.consensys.cava.eth.BlockHeader
+import net.consensys.cava.eth.Hash
+import net.consensys.cava.eth.Log
+import net.consensys.cava.eth.LogsBloomFilter
+import net.consensys.cava.eth.TransactionReceipt
+import net.consensys.cava.junit.BouncyCastleExtension
+import net.consensys.cava.kv.MapKeyValueStore
+import net.consensys.cava.units.bigints.UInt256
+import net.consensys.cava.units.ethereum.Gas
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.extension.ExtendWith
+import java.time.Instant
+import java.time.temporal.ChronoUnit
+
+@ExtendWith(BouncyCastleExtension::class)
+internal class KeyValueBlockchainIndexTest {
+
+  private fun header(parent: BlockHeader?, difficulty: Long, gasUsed: Long = 2000): BlockHeader = BlockHeader(
+    parent?.hash(),
+    Hash.fromBytes(Bytes32.random()),
+    Address.fromBytes(Bytes.random(20)),
+    Hash.fromBytes(Bytes32.random()),
+    Hash.fromBytes(Bytes32.random()),
+    Hash.fromBytes(Bytes32.random()),
+    Bytes32.random(),
+    UInt256.valueOf(difficulty),
+    parent?.number()?.add(UInt256.valueOf(1)) ?: UInt256.valueOf(0),
+    Gas.valueOf(3000),
+    Gas.valueOf(gasUsed),
+    Instant.now().truncatedTo(ChronoUnit.SECONDS),
+    Bytes.of(2, 3, 4),
+    Hash.fromBytes(Bytes32.random()),
+    Bytes32.random()
+  )
+
+  @Test
+  fun findBlockHeaders() = runBlocking {
+    val index = KeyValueBlockchainIndex(MapKeyValueStore())
+    val genesis = header(null, 5, 100)
+    val chain = mutableListOf(genesis)
+    for (i in 1..5) {
+      chain.add(header(chain.last(), 2, 100L * (i + 1)))
+    }
+    index.index { writer -> chain.forEach { writer.indexBlockHeader(it) } }
+
+    assertEquals(listOf(chain[3].hash()), index.findBy(BlockHeaderFields.PARENT_HASH, chain[2].hash()))
+    assertEquals(listOf(chain[4].hash()), index.findBy(BlockHeaderFields.NUMBER, UInt256.valueOf(4)))
+    assertEquals(listOf(chain[2].hash()), index.findBy(BlockHeaderFields.GAS_USED, Gas.valueOf(300)))
+    assertEquals(listOf(chain[5].hash()), index.findBy(BlockHeaderFields.COINBASE, chain[5].coinbase()))
+    assertEquals(6, index.findBy(BlockHeaderFields.EXTRA_DATA, Bytes.of(2, 3, 4)).size)
+    assertTrue(index.findBy(BlockHeaderFields.EXTRA_DATA, Bytes.of(2, 3)).isEmpty())
+    assertEquals(
+      setOf(chain[1].hash(), chain[2].hash(), chain[3].hash()),
+      index.findInRange(BlockHeaderFields.NUMBER, UInt256.valueOf(1), UInt256.valueOf(3)).toSet()
+    )
+    assertEquals(UInt256.valueOf(11), index.totalDifficulty(chain[3].hash()))
+    assertEquals(chain[5].hash(), index.findByLargest(BlockHeaderFields.TOTAL_DIFFICULTY))
+    assertEquals(chain[5].hash(), index.findByLargest(BlockHeaderFields.GAS_USED))
+    assertEquals(
+      listOf(chain[2].hash()),
+      index.findByHashOrNumber(Bytes32.leftPad(UInt256.valueOf(2).toBytes()))
+    )
+    assertEquals(listOf(chain[1].hash()), index.findByHashOrNumber(chain[1].hash().toBytes()))
+  }
+
+  @Test
+  fun reindexingRemovesObsoleteEntries() = runBlocking {
+    val index = KeyValueBlockchainIndex(MapKeyValueStore())
+    val genesis = header(null, 1)
+    val child = header(genesis, 1)
+    index.index { writer ->
+      writer.indexBlockHeader(genesis)
+      writer.indexBlockHeader(child, UInt256.valueOf(100))
+    }
+    assertEquals(child.hash(), index.findByLargest(BlockHeaderFields.TOTAL_DIFFICULTY))
+
+    index.index { writer -> writer.indexBlockHeader(child, UInt256.valueOf(2)) }
+    assertEquals(UInt256.valueOf(2), index.totalDifficulty(child.hash()))
+    assertTrue(index.findBy(BlockHeaderFields.TOTAL_DIFFICULTY, UInt256.valueOf(100)).isEmpty())
+    assertEquals(listOf(child.hash()), index.findBy(BlockHeaderFields.TOTAL_DIFFICULTY, UInt256.valueOf(2)))
+    assertEquals(child.hash(), index.findByLargest(BlockHeaderFields.TOTAL_DIFFICULTY))
+  }
+
+  @Test
+  fun failedIndexingWritesNothing() = runBlocking {
+    val store = MapKeyValueStore()
+    val index = KeyValueBlockchainIndex(store)
+    val genesis = header(null, 1)
+    assertThrows(IllegalStateException::class.java) {
+      runBlocking {
+        index.index(store, mapOf(genesis.hash().toBytes() to genesis.toBytes())) { writer ->
+          writer.indexBlockHeader(genesis)
+          throw IllegalStateException("failed")
+        }
+      }
+    }
+    assertNull(store.get(genesis.hash().toBytes()))
+    assertNull(index.totalDifficulty(genesis.hash()))
+    assertTrue(index.findBy(BlockHeaderFields.NUMBER, UInt256.valueOf(0)).isEmpty())
+  }
+
+  @Test
+  fun writeEntriesWithIndexEntries() = runBlocking {
+    val store = MapKeyValueStore()
+    val index = KeyValueBlockchainIndex(store)
+    val genesis = header(null, 1)
+    index.index(store, mapOf(genesis.hash().toBytes() to genesis.toBytes())) { writer ->
+      writer.indexBlockHeader(genesis)
+    }
+    assertEquals(genesis.toBytes(), store.get(genesis.hash().toBytes()))
+    assertEquals(listOf(genesis.hash()), index.findBy(BlockHeaderFields.NUMBER, UInt256.valueOf(0)))
+  }
+
+  @Test
+  fun streamBlockHeadersInRange() = runBlocking {
+    val index = KeyValueBlockchainIndex(MapKeyValueStore())
+    val chain = mutableListOf(header(null, 1))
+    for (i in 1..300) {
+      chain.add(header(chain.last(), 1))
+    }
+    index.index { writer -> chain.forEach { writer.indexBlockHeader(it) } }
+
+    assertEquals(
+      chain.subList(10, 271).map { it.hash() },
+      index.streamInRange(BlockHeaderFields.NUMBER, UInt256.valueOf(10), UInt256.valueOf(270)).toList()
+    )
+    assertEquals(
+      chain.subList(255, 258).map { it.hash() },
+      index.findInRange(BlockHeaderFields.NUMBER, UInt256.valueOf(255), UInt256.valueOf(257))
+    )
+  }
+
+  @Test
+  fun findTransactionReceipts() = runBlocking {
+    val index = KeyValueBlockchainIndex(MapKeyValueStore())
+    val blockHash = Hash.fromBytes(Bytes32.random())
+    val logger = Address.fromBytes(Bytes.random(20))
+    val topic = Bytes32.random()
+    val log = Log(logger, Bytes.of(1), listOf(topic))
+    val receipts = (0 until 20).map {
+      TransactionReceipt(Bytes32.random(), 1000L * it, LogsBloomFilter.compute(listOf(log)), listOf(log))
+    }
+    val txHashes = receipts.map { Hash.fromBytes(Bytes32.random()) }
+    index.index { writer ->
+      for (i in receipts.indices) {
+        writer.indexTransactionReceipt(receipts[i], i, txHashes[i], blockHash)
+      }
+    }
+
+    assertEquals(txHashes, index.findBy(TransactionReceiptFields.BLOCK_HASH, blockHash))
+    assertEquals(txHashes[7], index.findByBlockHashAndIndex(blockHash, 7))
+    assertEquals(listOf(txHashes[3]), index.findBy(TransactionReceiptFields.CUMULATIVE_GAS_USED, 3000L))
+    assertEquals(20, index.findBy(TransactionReceiptFields.LOGGER, logger).size)
+    assertEquals(20, index.streamBy(TransactionReceiptFields.LOG_TOPIC, topic).toList().size)
+    assertEquals(txHashes[19], index.findByLargest(TransactionReceiptFields.INDEX))
+  }
+
+  @Test
+  fun backBlockchainRepository() = runBlocking {
+    val genesis = header(null, 1)
+    val repo = BlockchainRepository.init(
+      MapKeyValueStore(),
+      MapKeyValueStore(),
+      MapKeyValueStore(),
+      MapKeyValueStore(),
+      KeyValueBlockchainIndex(MapKeyValueStore()),
+      Block(genesis, BlockBody(emptyList(), emptyList()))
+    )
+    val chain = mutableListOf(genesis)
+    for (i in 1..20) {
+      chain.add(header(chain.last(), 2))
+    }
+    for (header in chain.drop(1).asReversed()) {
+      repo.storeBlockHeader(header)
+    }
+    assertEquals(chain[20].hash(), repo.retrieveChainHeadHeader()!!.hash())
+    assertEquals(UInt256.valueOf(41), repo.retrieveTotalDifficulty(chain[20].hash()))
+    assertEquals(listOf(chain[8].hash()), repo.findBlocksByParentHash(chain[7].hash()))
+    assertEquals(chain.map { it.hash() }, repo.findCanonicalBlockHashes(0, 100, 0, false))
+  }
+}
@@ -14,6 +14,8 @@ package net.consensys.cava.eth;
 
 import net.consensys.cava.bytes.Bytes;
 import net.consensys.cava.bytes.Bytes32;
+import net.consensys.cava.rlp.RLPCodec;
+import net.consensys.cava.rlp.RLPField;
 import net.consensys.cava.rlp.RLPReader;
 import net.consensys.cava.rlp.RLPWriter;
 
@@ -24,6 +26,7 @@ import java.util.Objects;
  * A log entry is a tuple of a logger’s address (the address of the contract that added the logs), a series of 32-bytes
  * log topics, and some number of bytes of data.
  */
+@RLPCodec
 public final class Log {
 
   /**
@@ -33,16 +36,17 @@ public final class Log {
    * @return the read log entry.
    */
   public static Log readFrom(final RLPReader in) {
-    return in.readList(reader -> {
-      final Address logger = Address.fromBytes(reader.readValue());
-      final List<Bytes32> topics = reader.readListContents(topicsReader -> Bytes32.wrap(topicsReader.readValue()));
-      final Bytes data = reader.readValue();
-      return new Log(logger, data, topics);
-    });
+    in.enterList();
+    final Log log = RLPCodec_Log.INSTANCE.readFrom(in);
+    in.exitList();
+    return log;
   }
 
+  @RLPField(0)
   private final Address logger;
+  @RLPField(2)
   private final Bytes data;
+  @RLPField(1)
   private final List<Bytes32> topics;
 
   /**
@@ -62,15 +66,9 @@ public final class Log {
    * @param writer the output in which to encode the log entry.
    */
   public void writeTo(final RLPWriter writer) {
-    writer.writeList(out -> {
-      out.writeValue(logger.toBytes());
-      out.writeList(topicsWriter -> {
-        for (Bytes32 topic : topics) {
-          topicsWriter.writeValue(topic);
-        }
-      });
-      out.writeValue(data);
-    });
+    writer.startList();
+    RLPCodec_Log.INSTANCE.writeTo(this, writer);
+    writer.endList();
   }
 
   /**
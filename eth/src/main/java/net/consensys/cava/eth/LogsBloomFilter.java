@@ -32,6 +32,16 @@ import java.util.Collection;
  */
 public final class LogsBloomFilter {
 
+  /**
+   * The size of a logs bloom filter, in bytes.
+   */
+  public static final int BYTES = 256;
+
+  /**
+   * The number of bits of a logs bloom filter.
+   */
+  public static final int BITS = BYTES * 8;
+
   private static final int LEAST_SIGNIFICANT_THREE_BITS = 0x7;
 
   /**
@@ -56,16 +66,45 @@ public final class LogsBloomFilter {
     return new LogsBloomFilter(input.readValue());
   }
 
+  /**
+   * Provides the indices of the bits set in a bloom filter for a value: the low order 11-bits, of the first three
+   * double-bytes, of the SHA3 hash of the value.
+   *
+   * @param value The value, such as the address of a logger or a topic.
+   * @return The indices of the three bits set for the value, which may repeat.
+   */
+  public static int[] bitIndices(final Bytes value) {
+    final Bytes hashValue = keccak256(value);
+    final int[] indices = new int[3];
+    for (int i = 0; i < indices.length; ++i) {
+      indices[i] = ((hashValue.get(2 * i) & LEAST_SIGNIFICANT_THREE_BITS) << 8) + (hashValue.get(2 * i + 1) & 0xFF);
+    }
+    return indices;
+  }
+
+  /**
+   * Checks whether a bit of a bloom filter is set.
+   *
+   * @param data The bytes of the bloom filter.
+   * @param index The index of the bit, as provided by {@link #bitIndices(Bytes)}.
+   * @return {@code true} if the bit is set.
+   */
+  public static boolean isBitSet(final Bytes data, final int index) {
+    checkArgument(data.size() == BYTES, "Invalid size for bloom filter: expected %s but got %s", BYTES, data.size());
+    return (data.get(BYTES - 1 - index / 8) & (1 << (index % 8))) != 0;
+  }
+
   private final MutableBytes data;
 
   public LogsBloomFilter() {
-    this.data = MutableBytes.create(256);
+    this.data = MutableBytes.create(BYTES);
   }
 
   public LogsBloomFilter(Bytes data) {
     checkArgument(
-        data.size() == 256,
-        "Invalid size for bloom filter backing array: expected 256 but got %s",
+        data.size() == BYTES,
+        "Invalid size for bloom filter backing array: expected %s but got %s",
+        BYTES,
         data.size());
     this.data = data.mutableCopy();
   }
@@ -75,10 +114,10 @@ public final class LogsBloomFilter {
   }
 
   public void insertLog(final Log log) {
-    setBits(keccak256(log.logger().toBytes()));
+    setBits(log.logger().toBytes());
 
     for (final Bytes32 topic : log.topics()) {
-      setBits(keccak256(topic));
+      setBits(topic);
     }
   }
 
@@ -88,22 +127,14 @@ public final class LogsBloomFilter {
     }
   }
 
-  /**
-   * Discover the low order 11-bits, of the first three double-bytes, of the SHA3 hash, of each value and update the
-   * bloom filter accordingly.
-   *
-   * @param hashValue The hash of the log item.
-   */
-  private void setBits(final Bytes hashValue) {
-    for (int counter = 0; counter < 6; counter += 2) {
-      final int setBloomBit =
-          ((hashValue.get(counter) & LEAST_SIGNIFICANT_THREE_BITS) << 8) + (hashValue.get(counter + 1) & 0xFF);
-      setBit(setBloomBit);
+  private void setBits(final Bytes value) {
+    for (final int index : bitIndices(value)) {
+      setBit(index);
     }
   }
 
   private void setBit(final int index) {
-    final int byteIndex = 256 - 1 - index / 8;
+    final int byteIndex = BYTES - 1 - index / 8;
     final int bitIndex = index % 8;
     data.set(byteIndex, (byte) (data.get(byteIndex) | (1 << bitIndex)));
   }
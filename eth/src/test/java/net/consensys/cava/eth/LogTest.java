@@ -17,6 +17,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import net.consensys.cava.bytes.Bytes;
 import net.consensys.cava.bytes.Bytes32;
 import net.consensys.cava.rlp.RLP;
+import net.consensys.cava.rlp.RLPWriter;
 
 import java.util.Arrays;
 
@@ -34,4 +35,20 @@ class LogTest {
     Log read = RLP.decode(rlp, Log::readFrom);
     assertEquals(log, read);
   }
+
+  @Test
+  void testRLPCompatibleWithListEncoding() {
+    Log log = new Log(
+        Address.fromBytes(Bytes.random(20)),
+        Bytes.of(1, 2, 3),
+        Arrays.asList(Bytes32.random(), Bytes32.random()));
+    Bytes expected = RLP.encodeList(writer -> {
+      writer.writeValue(log.logger().toBytes());
+      writer.writeList(log.topics(), RLPWriter::writeValue);
+      writer.writeValue(log.data());
+    });
+    assertEquals(expected, RLP.encode(log::writeTo));
+    assertEquals(log, RLP.codec(Log.class).decode(expected));
+    assertEquals(log, RLP.decode(expected, Log::readFrom));
+  }
 }
@@ -12,13 +12,17 @@
  */
 package net.consensys.cava.eth;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import net.consensys.cava.bytes.Bytes;
 import net.consensys.cava.bytes.Bytes32;
 import net.consensys.cava.junit.BouncyCastleExtension;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
@@ -45,4 +49,21 @@ class LogsBloomFilterTest {
         bloom.toBytes());
   }
 
+  @Test
+  void bitIndices() {
+    Address address = Address.fromHexString("0x0F572E5295C57F15886F9B263E2F6D2D6C7B5EC6");
+    assertArrayEquals(new int[] {1323, 431, 1319}, LogsBloomFilter.bitIndices(address.toBytes()));
+  }
+
+  @Test
+  void bitsSetForLog() {
+    Address address = Address.fromHexString("0x095e7baea6a6c7c4c2dfeb977efac326af552d87");
+    Log log = new Log(address, Bytes.EMPTY, new ArrayList<>());
+    Bytes bloom = LogsBloomFilter.compute(Collections.singletonList(log)).toBytes();
+
+    for (int index : LogsBloomFilter.bitIndices(address.toBytes())) {
+      assertTrue(LogsBloomFilter.isBitSet(bloom, index));
+    }
+    assertFalse(LogsBloomFilter.isBitSet(new LogsBloomFilter().toBytes(), 1323));
+  }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import com.google.common.io.MoreFiles
+import com.google.common.io.RecursiveDeleteOption
+import kotlinx.coroutines.runBlocking
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.bytes.Bytes32
+import org.infinispan.configuration.cache.ConfigurationBuilder
+import org.infinispan.manager.DefaultCacheManager
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Threads
+import org.openjdk.jmh.annotations.Warmup
+import java.nio.file.Files
+import java.nio.file.Path
+import java.sql.DriverManager
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares key-value store backends under the same workload.
+ *
+ * Each benchmark performs either a read of a key present in the store or a write of a new key, in the proportion given
+ * by [readPercent]. Throughput benchmarks report operations per second, and latency benchmarks report the distribution
+ * of operation durations, including the 99th percentile. Run with the `gc` profiler to report allocations per operation.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+open class KeyValueStoreBenchmark {
+
+  companion object {
+    private const val PRELOADED_KEYS = 100000
+  }
+
+  @Param("map", "mapdb", "leveldb", "rocksdb", "infinispan", "h2")
+  @JvmField
+  var backend: String = ""
+
+  @Param("32", "256", "4096")
+  @JvmField
+  var valueSize: Int = 0
+
+  @Param("50", "95")
+  @JvmField
+  var readPercent: Int = 0
+
+  private lateinit var testDir: Path
+  private lateinit var store: KeyValueStore
+  private lateinit var keys: Array<Bytes>
+  private lateinit var values: Array<Bytes>
+  private var cacheManager: DefaultCacheManager? = null
+
+  @Setup(Level.Trial)
+  fun setUp() {
+    testDir = Files.createTempDirectory("kvbenchmark")
+    store = openStore()
+    keys = Array(PRELOADED_KEYS) { Bytes32.random() }
+    values = Array(64) { Bytes.random(valueSize) }
+    runBlocking {
+      for (i in keys.indices) {
+        store.put(keys[i], values[i % values.size])
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  fun tearDown() {
+    store.close()
+    cacheManager?.stop()
+    MoreFiles.deleteRecursively(testDir, RecursiveDeleteOption.ALLOW_INSECURE)
+  }
+
+  private fun openStore(): KeyValueStore = when (backend) {
+    "map" -> MapKeyValueStore.open(ConcurrentHashMap())
+    "mapdb" -> MapDBKeyValueStore.open(testDir.resolve("data.db"))
+    "leveldb" -> LevelDBKeyValueStore.open(testDir.resolve("leveldb"))
+    "rocksdb" -> RocksDBKeyValueStore.open(testDir.resolve("rocksdb"))
+    "infinispan" -> {
+      val manager = DefaultCacheManager()
+      manager.defineConfiguration("local", ConfigurationBuilder().build())
+      cacheManager = manager
+      InfinispanKeyValueStore.open(manager.getCache("local"))
+    }
+    "h2" -> {
+      val jdbcUrl = "jdbc:h2:${testDir.resolve("h2")}"
+      DriverManager.getConnection(jdbcUrl).use {
+        it.createStatement().executeUpdate("create table store(key binary, value binary, primary key(key))")
+      }
+      SQLKeyValueStore.open(jdbcUrl)
+    }
+    else -> throw IllegalArgumentException("Unknown backend $backend")
+  }
+
+  private fun isRead(random: ThreadLocalRandom) = random.nextInt(100) < readPercent
+
+  private fun anyKey(random: ThreadLocalRandom) = keys[random.nextInt(keys.size)]
+
+  private fun anyValue(random: ThreadLocalRandom) = values[random.nextInt(values.size)]
+
+  private suspend fun operation(): Any? {
+    val random = ThreadLocalRandom.current()
+    return if (isRead(random)) {
+      store.get(anyKey(random))
+    } else {
+      // new keys come from the thread's random generator, so that writes do not measure entropy gathering
+      store.put(Bytes32.random(random), anyValue(random))
+    }
+  }
+
+  private fun asyncOperation(): Any? {
+    val random = ThreadLocalRandom.current()
+    return if (isRead(random)) {
+      store.getAsync(anyKey(random)).get()
+    } else {
+      store.putAsync(Bytes32.random(random), anyValue(random)).join()
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  fun throughput(): Any? = runBlocking { operation() }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  fun throughputAsync(): Any? = asyncOperation()
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  fun latency(): Any? = runBlocking { operation() }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  fun latencyAsync(): Any? = asyncOperation()
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import com.google.common.hash.BloomFilter
+import com.google.common.hash.Funnels
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.GlobalScope
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.concurrent.AsyncCompletion
+import net.consensys.cava.concurrent.coroutines.asyncCompletion
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.UncheckedIOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * A key-value store answering lookups of absent keys from a Bloom filter, without querying the underlying store.
+ *
+ * The filter is scalable: when it fills up, a larger filter with a tighter false positive rate is added, so that the
+ * overall false positive rate stays bounded as the store grows.
+ *
+ * If a filter path is provided, the filter is loaded from that file when the store is opened and written back when
+ * the store is closed. The file is deleted once loaded, so that a filter that was not saved on a clean shutdown is
+ * never trusted. Without a saved filter, the underlying store is checked on the first lookup: a new filter is used at
+ * once if the store is empty, since every key stored from then on is added to it. Otherwise, the filter is rebuilt from
+ * the keys of the store in the background, and lookups are sent to the underlying store until the rebuild completes.
+ *
+ * @param delegate The underlying key-value store.
+ * @param filterPath The file to persist the filter to, or null to keep it in memory only.
+ * @param expectedKeys The number of keys the initial filter is sized for.
+ * @param falsePositiveRate The target false positive rate for negative lookups.
+ * @param dispatcher The co-routine dispatcher for blocking tasks.
+ * @return A key-value store.
+ * @throws IOException If an I/O error occurs while loading the filter.
+ * @constructor Open a Bloom filter fronted key-value store.
+ */
+class BloomFilterKeyValueStore
+@JvmOverloads
+@Throws(IOException::class)
+constructor(
+  private val delegate: KeyValueStore,
+  private val filterPath: Path? = null,
+  private val expectedKeys: Long = 1000000,
+  private val falsePositiveRate: Double = 0.01,
+  private val dispatcher: CoroutineDispatcher = Dispatchers.IO
+) : KeyValueStore {
+
+  companion object {
+    /**
+     * Open a Bloom filter fronted key-value store, keeping its filter in memory.
+     *
+     * If the underlying store is not empty, the filter is rebuilt in the background after the first lookup.
+     *
+     * @param delegate The underlying key-value store.
+     * @return A key-value store.
+     */
+    @JvmStatic
+    fun open(delegate: KeyValueStore) = BloomFilterKeyValueStore(delegate)
+
+    /**
+     * Open a Bloom filter fronted key-value store.
+     *
+     * If no filter could be loaded from the path and the underlying store is not empty, the filter is rebuilt in the
+     * background after the first lookup.
+     *
+     * @param delegate The underlying key-value store.
+     * @param filterPath The file to persist the filter to.
+     * @return A key-value store.
+     * @throws IOException If an I/O error occurs while loading the filter.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun open(delegate: KeyValueStore, filterPath: Path) = BloomFilterKeyValueStore(delegate, filterPath)
+
+    private const val FORMAT_VERSION = 1
+    private const val GROWTH_FACTOR = 2
+    private const val TIGHTENING_RATIO = 0.5
+    private const val REBUILD_PAGE_SIZE = 1000
+  }
+
+  private class Stage(val filter: BloomFilter<ByteArray>, val capacity: Long, val falsePositiveRate: Double)
+
+  private val stages = CopyOnWriteArrayList<Stage>()
+  private val lock = ReentrantReadWriteLock()
+  @Volatile
+  private var ready = false
+  @Volatile
+  private var checkEmpty = true
+  private val filteredLookups = AtomicLong()
+
+  init {
+    if (expectedKeys < 1) {
+      throw IllegalArgumentException("Invalid number of expected keys $expectedKeys")
+    }
+    if (falsePositiveRate <= 0.0 || falsePositiveRate >= 1.0) {
+      throw IllegalArgumentException("Invalid false positive rate $falsePositiveRate")
+    }
+    if (filterPath != null && Files.exists(filterPath)) {
+      load(filterPath)
+      Files.delete(filterPath)
+      ready = true
+      checkEmpty = false
+    } else {
+      stages.add(newStage(expectedKeys, falsePositiveRate * (1 - TIGHTENING_RATIO)))
+    }
+  }
+
+  /**
+   * `true` if negative lookups are answered by the filter.
+   */
+  val isReady: Boolean
+    get() = ready
+
+  /**
+   * The number of lookups answered by the filter without querying the underlying store.
+   */
+  val filteredLookupCount: Long
+    get() = filteredLookups.get()
+
+  override suspend fun get(key: Bytes): Bytes? {
+    if (checkEmpty) {
+      checkIfEmpty()
+    }
+    if (ready && !mightContain(key.toArrayUnsafe())) {
+      filteredLookups.incrementAndGet()
+      return null
+    }
+    return delegate.get(key)
+  }
+
+  /**
+   * Checks if the store may contain a key.
+   *
+   * @param key The key to check.
+   * @return `false` if the key is definitely not present in the store.
+   */
+  suspend fun containsKey(key: Bytes): Boolean {
+    if (checkEmpty) {
+      checkIfEmpty()
+    }
+    if (ready && !mightContain(key.toArrayUnsafe())) {
+      filteredLookups.incrementAndGet()
+      return false
+    }
+    return delegate.get(key) != null
+  }
+
+  override suspend fun put(key: Bytes, value: Bytes) {
+    // the key is added once stored, so that a concurrent rebuild either scans it or sees it added to its filter
+    delegate.put(key, value)
+    add(key.toArrayUnsafe())
+  }
+
+  override suspend fun putAll(entries: Map<Bytes, Bytes>) {
+    delegate.putAll(entries)
+    entries.keys.forEach { add(it.toArrayUnsafe()) }
+  }
+
+  /**
+   * Removes data from the underlying store.
+   *
+   * Keys cannot be removed from a Bloom filter, so lookups of the removed key will still reach the underlying store
+   * until the filter is rebuilt.
+   *
+   * @param key The key of the content to remove.
+   */
+  override suspend fun remove(key: Bytes) = delegate.remove(key)
+
+  override suspend fun keys(): Iterable<Bytes> = delegate.keys()
+
+  override suspend fun keys(prefix: Bytes): Iterable<Bytes> = delegate.keys(prefix)
+
+  override suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage = delegate.scanKeys(cursor, limit)
+
+  override suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage =
+    delegate.scanKeys(start, end, cursor, limit)
+
+  /**
+   * Rebuilds the filter from the keys of the underlying store.
+   *
+   * Lookups are sent to the underlying store while the filter is rebuilt.
+   */
+  suspend fun rebuild() {
+    ready = false
+    val count = stages.map { it.filter.approximateElementCount() }.sum()
+    val fresh = newStage(Math.max(expectedKeys, count * GROWTH_FACTOR), falsePositiveRate * (1 - TIGHTENING_RATIO))
+    lock.write { stages.add(fresh) }
+    var cursor: Bytes? = null
+    do {
+      val page = delegate.scanKeys(cursor, REBUILD_PAGE_SIZE)
+      page.keys.forEach { add(it.toArrayUnsafe()) }
+      cursor = page.cursor
+    } while (cursor != null)
+    lock.write { stages.subList(0, stages.indexOf(fresh)).clear() }
+    ready = true
+  }
+
+  /**
+   * Rebuilds the filter from the keys of the underlying store.
+   *
+   * @return An [AsyncCompletion] that will complete when the filter is rebuilt.
+   */
+  fun rebuildAsync(): AsyncCompletion = GlobalScope.asyncCompletion(dispatcher) { rebuild() }
+
+  private suspend fun checkIfEmpty() {
+    checkEmpty = false
+    var page = delegate.scanKeys(null, 1)
+    while (page.keys.isEmpty() && page.cursor != null) {
+      page = delegate.scanKeys(page.cursor, 1)
+    }
+    // keys stored from now on are added to the filter, so a filter over an empty store is complete
+    if (page.keys.isEmpty()) {
+      ready = true
+    } else {
+      rebuildAsync()
+    }
+  }
+
+  private fun mightContain(key: ByteArray): Boolean = stages.any { it.filter.mightContain(key) }
+
+  private fun add(key: ByteArray) {
+    val added = lock.read {
+      val stage = stages.last()
+      if (stage.filter.approximateElementCount() < stage.capacity) {
+        stage.filter.put(key)
+        true
+      } else {
+        false
+      }
+    }
+    if (!added) {
+      lock.write {
+        var stage = stages.last()
+        if (stage.filter.approximateElementCount() >= stage.capacity) {
+          stage = newStage(stage.capacity * GROWTH_FACTOR, stage.falsePositiveRate * TIGHTENING_RATIO)
+          stages.add(stage)
+        }
+        stage.filter.put(key)
+      }
+    }
+  }
+
+  private fun newStage(capacity: Long, falsePositiveRate: Double) =
+    Stage(BloomFilter.create(Funnels.byteArrayFunnel(), capacity, falsePositiveRate), capacity, falsePositiveRate)
+
+  private fun load(path: Path) {
+    DataInputStream(Files.newInputStream(path).buffered()).use { input ->
+      val version = input.readInt()
+      if (version != FORMAT_VERSION) {
+        throw IOException("Unsupported filter format version $version")
+      }
+      val count = input.readInt()
+      for (i in 0 until count) {
+        val capacity = input.readLong()
+        val rate = input.readDouble()
+        stages.add(Stage(BloomFilter.readFrom(input, Funnels.byteArrayFunnel()), capacity, rate))
+      }
+    }
+  }
+
+  private fun save(path: Path) {
+    Files.createDirectories(path.toAbsolutePath().parent)
+    DataOutputStream(Files.newOutputStream(path).buffered()).use { output ->
+      output.writeInt(FORMAT_VERSION)
+      output.writeInt(stages.size)
+      for (stage in stages) {
+        output.writeLong(stage.capacity)
+        output.writeDouble(stage.falsePositiveRate)
+        stage.filter.writeTo(output)
+      }
+    }
+  }
+
+  /**
+   * Saves the filter, if it is ready and a filter path was provided, and closes the underlying store.
+   */
+  override fun close() {
+    try {
+      if (ready && filterPath != null) {
+        save(filterPath)
+      }
+    } catch (e: IOException) {
+      throw UncheckedIOException(e)
+    } finally {
+      delegate.close()
+    }
+  }
+}
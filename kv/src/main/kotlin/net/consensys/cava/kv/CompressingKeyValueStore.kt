@@ -0,0 +1,236 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import net.consensys.cava.bytes.Bytes
+import org.xerial.snappy.Snappy
+import java.util.zip.DataFormatException
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+
+/**
+ * A key-value store compressing the values of another key-value store.
+ *
+ * Values at or above a size threshold are compressed with the configured codec. If a dictionary is provided, smaller
+ * values are compressed using DEFLATE with that dictionary. Each stored value is prefixed with a header byte recording
+ * how it was encoded, so the codec or dictionary threshold may be changed without rewriting existing values. Values are
+ * stored uncompressed when compression does not reduce their size.
+ *
+ * Using the [Codec.SNAPPY] codec requires the `org.xerial.snappy:snappy-java` library.
+ *
+ * @param delegate The key-value store holding the compressed values.
+ * @param codec The codec used to compress values at or above the threshold.
+ * @param threshold The size in bytes at or above which values are compressed with the codec.
+ * @param dictionary A dictionary for compressing values below the threshold, or null to store them uncompressed.
+ * @return A key-value store.
+ * @constructor Open a compressing key-value store.
+ */
+class CompressingKeyValueStore
+@JvmOverloads
+constructor(
+  private val delegate: KeyValueStore,
+  private val codec: Codec = Codec.SNAPPY,
+  private val threshold: Int = 256,
+  private val dictionary: Bytes? = null
+) : KeyValueStore {
+
+  /**
+   * Compression codecs available for values at or above the threshold.
+   */
+  enum class Codec {
+    /**
+     * Snappy compression, favouring speed over compression ratio.
+     */
+    SNAPPY,
+    /**
+     * DEFLATE compression, favouring compression ratio over speed.
+     */
+    DEFLATE
+  }
+
+  companion object {
+    /**
+     * Open a compressing key-value store, using Snappy for values of 256 bytes or more.
+     *
+     * @param delegate The key-value store holding the compressed values.
+     * @return A key-value store.
+     */
+    @JvmStatic
+    fun open(delegate: KeyValueStore) = CompressingKeyValueStore(delegate)
+
+    /**
+     * Open a compressing key-value store.
+     *
+     * @param delegate The key-value store holding the compressed values.
+     * @param codec The codec used to compress values at or above the threshold.
+     * @param threshold The size in bytes at or above which values are compressed with the codec.
+     * @return A key-value store.
+     */
+    @JvmStatic
+    fun open(delegate: KeyValueStore, codec: Codec, threshold: Int) =
+      CompressingKeyValueStore(delegate, codec, threshold)
+
+    /**
+     * Builds a dictionary for compressing small values from a set of sample values.
+     *
+     * The dictionary is made of the byte sequences most frequently found across the samples, with the most frequent
+     * sequences placed last, as DEFLATE encodes references to the end of the dictionary most compactly.
+     *
+     * @param samples Representative values to be stored.
+     * @param maxSize The maximum size of the dictionary, in bytes.
+     * @return A dictionary for use with a compressing key-value store.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun trainDictionary(samples: Iterable<Bytes>, maxSize: Int = MAX_DICTIONARY_SIZE): Bytes {
+      if (maxSize < 1 || maxSize > MAX_DICTIONARY_SIZE) {
+        throw IllegalArgumentException("Invalid dictionary size $maxSize")
+      }
+      val counts = HashMap<Bytes, Int>()
+      for (sample in samples) {
+        var i = 0
+        while (i + SEGMENT_SIZE <= sample.size()) {
+          counts.merge(sample.slice(i, SEGMENT_SIZE), 1, Int::plus)
+          i += SEGMENT_SIZE / 2
+        }
+      }
+      val segments = counts.entries.filter { it.value > 1 }.sortedByDescending { it.value }.take(maxSize / SEGMENT_SIZE)
+      return Bytes.concatenate(*segments.reversed().map { it.key }.toTypedArray())
+    }
+
+    private const val MAX_DICTIONARY_SIZE = 32768
+    private const val SEGMENT_SIZE = 16
+    private const val MIN_DICTIONARY_VALUE_SIZE = 16
+
+    private const val HEADER_NONE: Byte = 0
+    private const val HEADER_SNAPPY: Byte = 1
+    private const val HEADER_DEFLATE: Byte = 2
+    private const val HEADER_DEFLATE_DICTIONARY: Byte = 3
+
+    private val deflaters = ThreadLocal.withInitial { Deflater() }
+    private val inflaters = ThreadLocal.withInitial { Inflater() }
+  }
+
+  private val dictionaryBytes: ByteArray? = dictionary?.toArray()
+
+  init {
+    if (threshold < 0) {
+      throw IllegalArgumentException("Invalid threshold $threshold")
+    }
+    if (dictionary != null && dictionary.size() > MAX_DICTIONARY_SIZE) {
+      throw IllegalArgumentException("Dictionary is larger than $MAX_DICTIONARY_SIZE bytes")
+    }
+  }
+
+  override suspend fun get(key: Bytes): Bytes? = delegate.get(key)?.let { decode(it) }
+
+  override suspend fun put(key: Bytes, value: Bytes) = delegate.put(key, encode(value))
+
+  override suspend fun remove(key: Bytes) = delegate.remove(key)
+
+  override suspend fun keys(): Iterable<Bytes> = delegate.keys()
+
+  override suspend fun keys(prefix: Bytes): Iterable<Bytes> = delegate.keys(prefix)
+
+  override suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage = delegate.scanKeys(cursor, limit)
+
+  override suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage =
+    delegate.scanKeys(start, end, cursor, limit)
+
+  override suspend fun putAll(entries: Map<Bytes, Bytes>) = delegate.putAll(entries.mapValues { encode(it.value) })
+
+  private fun encode(value: Bytes): Bytes {
+    val compressed = if (value.size() >= threshold) {
+      when (codec) {
+        Codec.SNAPPY -> Bytes.wrap(Bytes.of(HEADER_SNAPPY), Bytes.wrap(Snappy.compress(value.toArrayUnsafe())))
+        Codec.DEFLATE -> deflate(value, HEADER_DEFLATE, null)
+      }
+    } else if (dictionaryBytes != null && value.size() >= MIN_DICTIONARY_VALUE_SIZE) {
+      deflate(value, HEADER_DEFLATE_DICTIONARY, dictionaryBytes)
+    } else {
+      null
+    }
+    if (compressed != null && compressed.size() < value.size() + 1) {
+      return compressed
+    }
+    return Bytes.wrap(Bytes.of(HEADER_NONE), value)
+  }
+
+  private fun decode(stored: Bytes): Bytes {
+    if (stored.isEmpty) {
+      throw IllegalStateException("Stored value is missing its compression header")
+    }
+    val payload = stored.slice(1)
+    return when (stored.get(0)) {
+      HEADER_NONE -> payload
+      HEADER_SNAPPY -> Bytes.wrap(Snappy.uncompress(payload.toArrayUnsafe()))
+      HEADER_DEFLATE -> inflate(payload, null)
+      HEADER_DEFLATE_DICTIONARY -> inflate(
+        payload,
+        dictionaryBytes ?: throw IllegalStateException("Value was compressed with a dictionary, but none is configured")
+      )
+      else -> throw IllegalStateException("Unknown compression header ${stored.get(0)}")
+    }
+  }
+
+  private fun deflate(value: Bytes, header: Byte, dictionary: ByteArray?): Bytes {
+    val deflater = deflaters.get()
+    deflater.reset()
+    dictionary?.let { deflater.setDictionary(it) }
+    deflater.setInput(value.toArrayUnsafe())
+    deflater.finish()
+    // the output is only used if it is smaller than the input
+    val output = ByteArray(value.size() + 5)
+    output[0] = header
+    val length = value.size()
+    for (i in 1..4) {
+      output[i] = (length ushr (8 * (4 - i))).toByte()
+    }
+    var offset = 5
+    while (!deflater.finished()) {
+      if (offset == output.size) {
+        return Bytes.wrap(Bytes.of(HEADER_NONE), value)
+      }
+      offset += deflater.deflate(output, offset, output.size - offset)
+    }
+    return Bytes.wrap(output, 0, offset)
+  }
+
+  private fun inflate(payload: Bytes, dictionary: ByteArray?): Bytes {
+    val inflater = inflaters.get()
+    inflater.reset()
+    val output = ByteArray(payload.slice(0, 4).toInt())
+    inflater.setInput(payload.slice(4).toArrayUnsafe())
+    try {
+      var offset = 0
+      while (!inflater.finished()) {
+        val inflated = inflater.inflate(output, offset, output.size - offset)
+        if (inflated == 0 && !inflater.finished()) {
+          if (!inflater.needsDictionary()) {
+            throw IllegalStateException("Truncated compressed value")
+          }
+          inflater.setDictionary(dictionary ?: throw IllegalStateException("Missing compression dictionary"))
+        }
+        offset += inflated
+      }
+    } catch (e: DataFormatException) {
+      throw IllegalStateException("Invalid compressed value", e)
+    }
+    return Bytes.wrap(output)
+  }
+
+  /**
+   * Closes the underlying key-value store.
+   */
+  override fun close() = delegate.close()
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import net.consensys.cava.concurrent.LatencyHistogram
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Default [KeyValueStoreMetrics], recording latencies and value sizes to [LatencyHistogram]s and counting misses and
+ * errors.
+ */
+class HistogramKeyValueStoreMetrics : KeyValueStoreMetrics {
+
+  private val operations = KeyValueStoreOperation.values().size
+  private val latencies = Array(operations) { LatencyHistogram() }
+  private val valueSizes = Array(operations) { LatencyHistogram() }
+  private val misses = Array(operations) { AtomicLong() }
+  private val errors = Array(operations) { AtomicLong() }
+
+  /**
+   * Provides the histogram of latencies of an operation, in nanoseconds.
+   *
+   * @param operation The operation.
+   * @return The histogram of latencies of the operation.
+   */
+  fun latency(operation: KeyValueStoreOperation): LatencyHistogram = latencies[operation.ordinal]
+
+  /**
+   * Provides the histogram of value sizes of an operation, in bytes.
+   *
+   * @param operation The operation.
+   * @return The histogram of value sizes of the operation.
+   */
+  fun valueSize(operation: KeyValueStoreOperation): LatencyHistogram = valueSizes[operation.ordinal]
+
+  /**
+   * Provides the number of lookups of an operation that found no value.
+   *
+   * @param operation The operation.
+   * @return The number of misses.
+   */
+  fun misses(operation: KeyValueStoreOperation): Long = misses[operation.ordinal].get()
+
+  /**
+   * Provides the number of failures of an operation.
+   *
+   * @param operation The operation.
+   * @return The number of errors.
+   */
+  fun errors(operation: KeyValueStoreOperation): Long = errors[operation.ordinal].get()
+
+  override fun recordLatency(operation: KeyValueStoreOperation, nanos: Long, success: Boolean) =
+    latencies[operation.ordinal].record(nanos)
+
+  override fun recordValueSize(operation: KeyValueStoreOperation, size: Int) =
+    valueSizes[operation.ordinal].record(size.toLong())
+
+  override fun recordMiss(operation: KeyValueStoreOperation) {
+    misses[operation.ordinal].incrementAndGet()
+  }
+
+  override fun recordError(operation: KeyValueStoreOperation, error: Throwable) {
+    errors[operation.ordinal].incrementAndGet()
+  }
+}
@@ -34,12 +34,42 @@ class InfinispanKeyValueStore constructor(private val cache: Cache<Bytes, Bytes>
     fun open(cache: Cache<Bytes, Bytes>) = InfinispanKeyValueStore(cache)
   }
 
+  private val sortedKeys = SortedKeys { keys() }
+
   override suspend fun get(key: Bytes): Bytes? = cache.getAsync(key).await()
 
   override suspend fun put(key: Bytes, value: Bytes) {
     cache.putAsync(key, value).await()
   }
 
+  override suspend fun remove(key: Bytes) {
+    cache.removeAsync(key).await()
+  }
+
+  override suspend fun keys(): Iterable<Bytes> = ArrayList(cache.keys)
+
+  /**
+   * Scans a page of the keys present in the store, listing and sorting the keys of the store once per scan.
+   *
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return A page of keys.
+   */
+  override suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage = sortedKeys.scan(Bytes.EMPTY, null, cursor, limit)
+
+  /**
+   * Scans a page of the keys present in the store within a range, in unsigned byte order, listing and sorting the keys
+   * of the store once per scan.
+   *
+   * @param start The first key of the range, inclusive.
+   * @param end The end of the range, exclusive, or null to scan up to the last key of the store.
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return A page of keys.
+   */
+  override suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage =
+    sortedKeys.scan(start, end, cursor, limit)
+
   /**
    * The cache is managed outside the scope of this key-value store.
    */
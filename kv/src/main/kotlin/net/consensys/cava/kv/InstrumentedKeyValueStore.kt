@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import kotlinx.coroutines.CancellationException
+import net.consensys.cava.bytes.Bytes
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Operations of a key-value store reported to [KeyValueStoreMetrics].
+ */
+enum class KeyValueStoreOperation {
+  GET,
+  PUT,
+  REMOVE,
+  KEYS
+}
+
+/**
+ * Receiver of measurements taken by an [InstrumentedKeyValueStore].
+ *
+ * Implementations are called on the path of every store operation, and must be thread-safe and cheap.
+ */
+interface KeyValueStoreMetrics {
+
+  /**
+   * Records the duration of an operation.
+   *
+   * @param operation The operation.
+   * @param nanos The duration of the operation, in nanoseconds.
+   * @param success `true` if the operation completed normally.
+   */
+  fun recordLatency(operation: KeyValueStoreOperation, nanos: Long, success: Boolean)
+
+  /**
+   * Records the size of a value read or written.
+   *
+   * @param operation The operation.
+   * @param size The size of the value, in bytes.
+   */
+  fun recordValueSize(operation: KeyValueStoreOperation, size: Int)
+
+  /**
+   * Records a lookup that found no value.
+   *
+   * @param operation The operation.
+   */
+  fun recordMiss(operation: KeyValueStoreOperation)
+
+  /**
+   * Records an operation failing with an exception.
+   *
+   * Operations that are cancelled are not reported as failing.
+   *
+   * @param operation The operation.
+   * @param error The exception thrown.
+   */
+  fun recordError(operation: KeyValueStoreOperation, error: Throwable)
+}
+
+/**
+ * A key-value store reporting latency, value size, miss and error measurements of another key-value store.
+ *
+ * The number of operations in flight is tracked by the store itself, and is available through [inFlight].
+ *
+ * @param delegate The key-value store to instrument.
+ * @param metrics The receiver of measurements.
+ * @return A key-value store.
+ * @constructor Open an instrumented key-value store.
+ */
+class InstrumentedKeyValueStore
+@JvmOverloads
+constructor(
+  private val delegate: KeyValueStore,
+  val metrics: KeyValueStoreMetrics = HistogramKeyValueStoreMetrics()
+) : KeyValueStore {
+
+  companion object {
+    /**
+     * Open an instrumented key-value store, recording measurements to histograms.
+     *
+     * @param delegate The key-value store to instrument.
+     * @return A key-value store.
+     */
+    @JvmStatic
+    fun open(delegate: KeyValueStore) = InstrumentedKeyValueStore(delegate)
+
+    /**
+     * Open an instrumented key-value store.
+     *
+     * @param delegate The key-value store to instrument.
+     * @param metrics The receiver of measurements.
+     * @return A key-value store.
+     */
+    @JvmStatic
+    fun open(delegate: KeyValueStore, metrics: KeyValueStoreMetrics) = InstrumentedKeyValueStore(delegate, metrics)
+  }
+
+  private val inFlight = Array(KeyValueStoreOperation.values().size) { AtomicInteger() }
+
+  /**
+   * Provides the number of operations currently in flight.
+   *
+   * @param operation The operation.
+   * @return The number of operations of that type that have started but not completed.
+   */
+  fun inFlight(operation: KeyValueStoreOperation): Int = inFlight[operation.ordinal].get()
+
+  override suspend fun get(key: Bytes): Bytes? {
+    val value = measure(KeyValueStoreOperation.GET) { delegate.get(key) }
+    if (value == null) {
+      metrics.recordMiss(KeyValueStoreOperation.GET)
+    } else {
+      metrics.recordValueSize(KeyValueStoreOperation.GET, value.size())
+    }
+    return value
+  }
+
+  override suspend fun put(key: Bytes, value: Bytes) {
+    metrics.recordValueSize(KeyValueStoreOperation.PUT, value.size())
+    measure(KeyValueStoreOperation.PUT) { delegate.put(key, value) }
+  }
+
+  override suspend fun remove(key: Bytes) = measure(KeyValueStoreOperation.REMOVE) { delegate.remove(key) }
+
+  override suspend fun keys(): Iterable<Bytes> = measure(KeyValueStoreOperation.KEYS) { delegate.keys() }
+
+  override suspend fun keys(prefix: Bytes): Iterable<Bytes> =
+    measure(KeyValueStoreOperation.KEYS) { delegate.keys(prefix) }
+
+  override suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage =
+    measure(KeyValueStoreOperation.KEYS) { delegate.scanKeys(cursor, limit) }
+
+  override suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage =
+    measure(KeyValueStoreOperation.KEYS) { delegate.scanKeys(start, end, cursor, limit) }
+
+  override suspend fun putAll(entries: Map<Bytes, Bytes>) {
+    for (value in entries.values) {
+      metrics.recordValueSize(KeyValueStoreOperation.PUT, value.size())
+    }
+    measure(KeyValueStoreOperation.PUT) { delegate.putAll(entries) }
+  }
+
+  private inline fun <T> measure(operation: KeyValueStoreOperation, fn: () -> T): T {
+    val counter = inFlight[operation.ordinal]
+    counter.incrementAndGet()
+    val start = System.nanoTime()
+    var success = false
+    try {
+      val result = fn()
+      success = true
+      return result
+    } catch (e: CancellationException) {
+      // a cancelled operation did not fail
+      throw e
+    } catch (e: Throwable) {
+      metrics.recordError(operation, e)
+      throw e
+    } finally {
+      metrics.recordLatency(operation, System.nanoTime() - start, success)
+      counter.decrementAndGet()
+    }
+  }
+
+  /**
+   * Closes the underlying key-value store.
+   */
+  override fun close() = delegate.close()
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import net.consensys.cava.bytes.Bytes
+import java.util.Collections
+
+/**
+ * A page of keys returned by a scan of a key-value store.
+ *
+ * @property keys The keys of this page.
+ * @property cursor The cursor to continue the scan from, or null if the scan is complete.
+ * @see KeyValueStore.scanKeys
+ */
+class KeyPage(val keys: List<Bytes>, val cursor: Bytes?)
+
+/**
+ * Orders keys by their unsigned bytes, as ordered key-value stores do.
+ */
+internal val KEY_ORDER: Comparator<Bytes> = Comparator { a, b ->
+  val common = a.commonPrefixLength(b)
+  if (common == a.size() || common == b.size()) {
+    a.size() - b.size()
+  } else {
+    (a.get(common).toInt() and 0xFF) - (b.get(common).toInt() and 0xFF)
+  }
+}
+
+internal fun checkScanLimit(limit: Int) {
+  if (limit < 1) {
+    throw IllegalArgumentException("Invalid scan limit $limit")
+  }
+}
+
+internal fun inScanRange(key: Bytes, start: Bytes, end: Bytes?, cursor: Bytes?): Boolean =
+  KEY_ORDER.compare(key, start) >= 0 &&
+    (end == null || KEY_ORDER.compare(key, end) < 0) &&
+    (cursor == null || KEY_ORDER.compare(key, cursor) > 0)
+
+/**
+ * Provides the key to seek to for a range scan: the cursor if past the start of the range, the start otherwise.
+ */
+internal fun scanFrom(start: Bytes, cursor: Bytes?): Bytes =
+  if (cursor != null && KEY_ORDER.compare(cursor, start) >= 0) cursor else start
+
+/**
+ * The keys of a store that does not keep its keys ordered, listed and sorted once per scan.
+ *
+ * Starting a scan lists and sorts the keys of the store, and the following pages of that scan, or of any other scan
+ * running at the same time, seek past their cursor in the sorted keys. A scan therefore returns every key present for
+ * its whole duration, while keys added after the keys were listed are skipped, and keys removed may still be returned.
+ *
+ * @param listKeys Lists all keys of the store.
+ */
+internal class SortedKeys(private val listKeys: suspend () -> Iterable<Bytes>) {
+
+  @Volatile
+  private var snapshot: List<Bytes>? = null
+
+  suspend fun scan(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage {
+    checkScanLimit(limit)
+    var keys = snapshot
+    if (cursor == null || keys == null) {
+      keys = listKeys().sortedWith(KEY_ORDER)
+      snapshot = keys
+    }
+    val from = scanFrom(start, cursor)
+    val found = Collections.binarySearch(keys, from, KEY_ORDER)
+    val first = when {
+      found < 0 -> -found - 1
+      from === cursor -> found + 1
+      else -> found
+    }
+    var last = first
+    while (last < keys.size && last - first < limit && (end == null || KEY_ORDER.compare(keys[last], end) < 0)) {
+      last++
+    }
+    val page = ArrayList(keys.subList(first, last))
+    val more = last < keys.size && last - first == limit && (end == null || KEY_ORDER.compare(keys[last], end) < 0)
+    if (!more) {
+      // release the keys once a scan completes, a scan continuing later lists them again
+      snapshot = null
+    }
+    return KeyPage(page, if (more) page.last() else null)
+  }
+}
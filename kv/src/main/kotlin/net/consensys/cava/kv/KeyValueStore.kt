@@ -88,4 +88,219 @@ interface KeyValueStore : Closeable {
    */
   fun putAsync(dispatcher: CoroutineDispatcher, key: Bytes, value: Bytes): AsyncCompletion =
     GlobalScope.asyncCompletion(dispatcher) { put(key, value) }
+
+  /**
+   * Puts data into the store for multiple keys.
+   *
+   * Stores supporting write batches apply all entries atomically. By default, entries are put one at a time.
+   *
+   * @param entries The data to store, by key.
+   */
+  suspend fun putAll(entries: Map<Bytes, Bytes>) {
+    for ((key, value) in entries) {
+      put(key, value)
+    }
+  }
+
+  /**
+   * Puts data into the store for multiple keys.
+   *
+   * @param entries The data to store, by key.
+   * @return An [AsyncCompletion] that will complete when the content is stored.
+   */
+  fun putAllAsync(entries: Map<Bytes, Bytes>): AsyncCompletion = putAllAsync(Dispatchers.Default, entries)
+
+  /**
+   * Puts data into the store for multiple keys.
+   *
+   * @param dispatcher The co-routine dispatcher for asynchronous tasks.
+   * @param entries The data to store, by key.
+   * @return An [AsyncCompletion] that will complete when the content is stored.
+   */
+  fun putAllAsync(dispatcher: CoroutineDispatcher, entries: Map<Bytes, Bytes>): AsyncCompletion =
+    GlobalScope.asyncCompletion(dispatcher) { putAll(entries) }
+
+  /**
+   * Removes data from the store.
+   *
+   * Removing a key that is not present in the store has no effect. This operation is optional: by default, it throws
+   * [UnsupportedOperationException].
+   *
+   * @param key The key of the content to remove.
+   * @throws UnsupportedOperationException If the store does not support removing keys.
+   */
+  suspend fun remove(key: Bytes) {
+    throw UnsupportedOperationException("${javaClass.simpleName} does not support removing keys")
+  }
+
+  /**
+   * Removes data from the store.
+   *
+   * @param key The key of the content to remove.
+   * @return An [AsyncCompletion] that will complete when the content is removed.
+   */
+  fun removeAsync(key: Bytes): AsyncCompletion = removeAsync(Dispatchers.Default, key)
+
+  /**
+   * Removes data from the store.
+   *
+   * @param key The key of the content to remove.
+   * @param dispatcher The co-routine dispatcher for asynchronous tasks.
+   * @return An [AsyncCompletion] that will complete when the content is removed.
+   */
+  fun removeAsync(dispatcher: CoroutineDispatcher, key: Bytes): AsyncCompletion =
+    GlobalScope.asyncCompletion(dispatcher) { remove(key) }
+
+  /**
+   * Provides the keys present in the store.
+   *
+   * The keys are not guaranteed to reflect modifications made to the store after this method returns. Stores may hold
+   * all keys in memory to provide them, so [scanKeys] should be used to iterate over the keys of large stores. This
+   * operation is optional: by default, it throws [UnsupportedOperationException].
+   *
+   * @return An [Iterable] over the keys of the store.
+   * @throws UnsupportedOperationException If the store does not support listing keys.
+   */
+  suspend fun keys(): Iterable<Bytes> {
+    throw UnsupportedOperationException("${javaClass.simpleName} does not support listing keys")
+  }
+
+  /**
+   * Provides the keys present in the store.
+   *
+   * @return An [AsyncResult] that will complete with an [Iterable] over the keys of the store.
+   */
+  fun keysAsync(): AsyncResult<Iterable<Bytes>> = keysAsync(Dispatchers.Default)
+
+  /**
+   * Provides the keys present in the store.
+   *
+   * @param dispatcher The co-routine dispatcher for asynchronous tasks.
+   * @return An [AsyncResult] that will complete with an [Iterable] over the keys of the store.
+   */
+  fun keysAsync(dispatcher: CoroutineDispatcher): AsyncResult<Iterable<Bytes>> =
+    GlobalScope.asyncResult(dispatcher) { keys() }
+
+  /**
+   * Provides the keys present in the store that start with a prefix.
+   *
+   * Stores keeping their keys ordered seek to the prefix. By default, all keys of the store are scanned.
+   *
+   * @param prefix The prefix of the keys.
+   * @return An [Iterable] over the matching keys of the store.
+   */
+  suspend fun keys(prefix: Bytes): Iterable<Bytes> = keys().filter { it.commonPrefixLength(prefix) == prefix.size() }
+
+  /**
+   * Provides the keys present in the store that start with a prefix.
+   *
+   * @param prefix The prefix of the keys.
+   * @return An [AsyncResult] that will complete with an [Iterable] over the matching keys of the store.
+   */
+  fun keysAsync(prefix: Bytes): AsyncResult<Iterable<Bytes>> = keysAsync(Dispatchers.Default, prefix)
+
+  /**
+   * Provides the keys present in the store that start with a prefix.
+   *
+   * @param dispatcher The co-routine dispatcher for asynchronous tasks.
+   * @param prefix The prefix of the keys.
+   * @return An [AsyncResult] that will complete with an [Iterable] over the matching keys of the store.
+   */
+  fun keysAsync(dispatcher: CoroutineDispatcher, prefix: Bytes): AsyncResult<Iterable<Bytes>> =
+    GlobalScope.asyncResult(dispatcher) { keys(prefix) }
+
+  /**
+   * Scans a page of the keys present in the store.
+   *
+   * A scan starts with a null cursor, and continues with the cursor of each page until a page has a null cursor, even
+   * when a page holds no keys. Every key present for the whole duration of the scan is returned at least once, while
+   * keys added or removed during the scan may or may not be returned. Cursors are opaque, and remain valid when the
+   * store is reopened, so that a scan can be resumed from a persisted cursor.
+   *
+   * Stores keeping their keys ordered seek past the key ending the previous page, so that a scan runs in memory bounded
+   * by the page size. By default, all keys of the store are listed and sorted for each page.
+   *
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return A page of keys.
+   * @throws IllegalArgumentException If the limit is less than 1.
+   */
+  suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage {
+    checkScanLimit(limit)
+    val keys = keys().filter { cursor == null || KEY_ORDER.compare(it, cursor) > 0 }.sortedWith(KEY_ORDER)
+    return if (keys.size > limit) KeyPage(keys.subList(0, limit), keys[limit - 1]) else KeyPage(keys, null)
+  }
+
+  /**
+   * Scans a page of the keys present in the store.
+   *
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return An [AsyncResult] that will complete with a page of keys.
+   */
+  fun scanKeysAsync(cursor: Bytes?, limit: Int): AsyncResult<KeyPage> =
+    scanKeysAsync(Dispatchers.Default, cursor, limit)
+
+  /**
+   * Scans a page of the keys present in the store.
+   *
+   * @param dispatcher The co-routine dispatcher for asynchronous tasks.
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return An [AsyncResult] that will complete with a page of keys.
+   */
+  fun scanKeysAsync(dispatcher: CoroutineDispatcher, cursor: Bytes?, limit: Int): AsyncResult<KeyPage> =
+    GlobalScope.asyncResult(dispatcher) { scanKeys(cursor, limit) }
+
+  /**
+   * Scans a page of the keys present in the store within a range, in unsigned byte order.
+   *
+   * A scan starts with a null cursor, and continues with the cursor of each page until a page has a null cursor. The
+   * cursor of a page is the last key it holds.
+   *
+   * Stores keeping their keys ordered seek to the start of the range, or past the cursor, and stop at the end of the
+   * range. By default, all keys of the store are listed and sorted for each page.
+   *
+   * @param start The first key of the range, inclusive.
+   * @param end The end of the range, exclusive, or null to scan up to the last key of the store.
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return A page of keys.
+   * @throws IllegalArgumentException If the limit is less than 1.
+   */
+  suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage {
+    checkScanLimit(limit)
+    val keys = keys().filter { inScanRange(it, start, end, cursor) }.sortedWith(KEY_ORDER)
+    return if (keys.size > limit) KeyPage(keys.subList(0, limit), keys[limit - 1]) else KeyPage(keys, null)
+  }
+
+  /**
+   * Scans a page of the keys present in the store within a range, in unsigned byte order.
+   *
+   * @param start The first key of the range, inclusive.
+   * @param end The end of the range, exclusive, or null to scan up to the last key of the store.
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return An [AsyncResult] that will complete with a page of keys.
+   */
+  fun scanKeysAsync(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): AsyncResult<KeyPage> =
+    scanKeysAsync(Dispatchers.Default, start, end, cursor, limit)
+
+  /**
+   * Scans a page of the keys present in the store within a range, in unsigned byte order.
+   *
+   * @param dispatcher The co-routine dispatcher for asynchronous tasks.
+   * @param start The first key of the range, inclusive.
+   * @param end The end of the range, exclusive, or null to scan up to the last key of the store.
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return An [AsyncResult] that will complete with a page of keys.
+   */
+  fun scanKeysAsync(
+    dispatcher: CoroutineDispatcher,
+    start: Bytes,
+    end: Bytes?,
+    cursor: Bytes?,
+    limit: Int
+  ): AsyncResult<KeyPage> = GlobalScope.asyncResult(dispatcher) { scanKeys(start, end, cursor, limit) }
 }
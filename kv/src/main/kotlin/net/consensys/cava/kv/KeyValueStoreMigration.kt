@@ -0,0 +1,316 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import com.google.common.hash.Hashing
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.concurrent.AsyncResult
+import net.consensys.cava.concurrent.coroutines.asyncResult
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Copies all entries of a key-value store to another key-value store.
+ *
+ * The key space is split into ranges of the first two bytes of the keys, several for each worker. Workers take ranges in
+ * turn, scan the keys of their range in batches with a range [KeyValueStore.scanKeys], and write each batch to the target
+ * store with a single [KeyValueStore.putAll], so that source stores keeping their keys ordered are read concurrently.
+ * Keys spread over the key space, such as hashes, are copied with the most parallelism. Only one batch per worker is held
+ * in memory at any time, and copies may be throttled to a maximum number of entries per second.
+ *
+ * If a checkpoint path is provided, the scan cursor of each range is saved to that file as batches complete, together
+ * with the number of keys copied from the range. A migration restarted with the same checkpoint path resumes the scan of
+ * each range from its cursor, using the ranges of the checkpoint. The checkpoint file is deleted once the migration
+ * completes.
+ *
+ * @param source The key-value store to copy from.
+ * @param target The key-value store to copy to.
+ * @param checkpointPath The file to save progress to, or null to disable resumption.
+ * @param batchSize The number of keys copied by a worker at a time.
+ * @param parallelism The number of concurrent workers.
+ * @param maxEntriesPerSecond The maximum number of entries copied per second, or 0 for no limit.
+ * @param dispatcher The co-routine dispatcher for blocking tasks.
+ * @constructor Create a key-value store migration.
+ */
+class KeyValueStoreMigration
+@JvmOverloads
+constructor(
+  private val source: KeyValueStore,
+  private val target: KeyValueStore,
+  private val checkpointPath: Path? = null,
+  private val batchSize: Int = 1000,
+  private val parallelism: Int = 4,
+  private val maxEntriesPerSecond: Long = 0,
+  private val dispatcher: CoroutineDispatcher = Dispatchers.IO
+) {
+
+  companion object {
+    private const val FORMAT_VERSION = 3
+    private const val RANGES_PER_WORKER = 4
+    private const val KEY_SPACE = 65536
+  }
+
+  /**
+   * The outcome of a migration.
+   *
+   * @param resumedFrom The number of keys skipped, as they had been copied by a previous run.
+   * @param copied The number of entries copied by this run.
+   * @param missing The number of keys that were removed from the source store before their value could be copied.
+   */
+  data class Result(val resumedFrom: Long, val copied: Long, val missing: Long)
+
+  /**
+   * The outcome of the verification of a migration.
+   *
+   * Checksums are computed over all entries of a store, regardless of their order, scanning the ranges of the key space
+   * concurrently.
+   *
+   * @param sourceCount The number of entries in the source store.
+   * @param sourceChecksum The checksum of the entries of the source store.
+   * @param targetCount The number of entries in the target store.
+   * @param targetChecksum The checksum of the entries of the target store.
+   */
+  data class Verification(
+    val sourceCount: Long,
+    val sourceChecksum: Long,
+    val targetCount: Long,
+    val targetChecksum: Long
+  ) {
+    /**
+     * `true` if both stores hold the same number of entries with the same checksum.
+     */
+    val matches: Boolean
+      get() = sourceCount == targetCount && sourceChecksum == targetChecksum
+  }
+
+  private class KeyRange(val index: Int, val start: Bytes, val end: Bytes?)
+
+  private class RangeProgress(var copied: Long, var cursor: Bytes?, var done: Boolean)
+
+  private val copiedCount = AtomicLong()
+
+  init {
+    if (batchSize < 1) {
+      throw IllegalArgumentException("Invalid batch size $batchSize")
+    }
+    if (parallelism < 1) {
+      throw IllegalArgumentException("Invalid parallelism $parallelism")
+    }
+    if (maxEntriesPerSecond < 0) {
+      throw IllegalArgumentException("Invalid maximum entries per second $maxEntriesPerSecond")
+    }
+  }
+
+  /**
+   * The number of entries copied so far by the current run.
+   */
+  val copied: Long
+    get() = copiedCount.get()
+
+  /**
+   * Copies all entries of the source store to the target store.
+   *
+   * @return The outcome of the migration.
+   * @throws IOException If an I/O error occurs while reading or writing the checkpoint.
+   */
+  suspend fun migrate(): Result = withContext(dispatcher) {
+    copiedCount.set(0)
+    val progress = loadCheckpoint() ?: List(parallelism * RANGES_PER_WORKER) { RangeProgress(0, null, false) }
+    val resumedFrom = progress.map { it.copied }.sum()
+    val missing = AtomicLong()
+    val throttle = Throttle(maxEntriesPerSecond)
+    val checkpointMutex = Mutex()
+
+    forEachRange(progress.size) { range ->
+      val state = progress[range.index]
+      while (!state.done) {
+        val page = source.scanKeys(range.start, range.end, state.cursor, batchSize)
+        throttle.acquire(page.keys.size)
+        val entries = HashMap<Bytes, Bytes>(page.keys.size * 2)
+        for (key in page.keys) {
+          val value = source.get(key)
+          if (value == null) {
+            missing.incrementAndGet()
+          } else {
+            entries[key] = value
+          }
+        }
+        if (!entries.isEmpty()) {
+          target.putAll(entries)
+          copiedCount.addAndGet(entries.size.toLong())
+        }
+        checkpointMutex.withLock {
+          state.copied += page.keys.size
+          state.cursor = page.cursor
+          state.done = page.cursor == null
+          checkpointPath?.let { saveCheckpoint(it, progress) }
+        }
+      }
+    }
+
+    checkpointPath?.let { Files.deleteIfExists(it) }
+    Result(resumedFrom, copiedCount.get(), missing.get())
+  }
+
+  /**
+   * Copies all entries of the source store to the target store.
+   *
+   * @return An [AsyncResult] that will complete with the outcome of the migration.
+   */
+  fun migrateAsync(): AsyncResult<Result> = GlobalScope.asyncResult(dispatcher) { migrate() }
+
+  /**
+   * Compares the number of entries and checksums of the source and target stores.
+   *
+   * @return The outcome of the verification.
+   */
+  suspend fun verify(): Verification = withContext(dispatcher) {
+    val (sourceCount, sourceChecksum) = checksum(source)
+    val (targetCount, targetChecksum) = checksum(target)
+    Verification(sourceCount, sourceChecksum, targetCount, targetChecksum)
+  }
+
+  /**
+   * Compares the number of entries and checksums of the source and target stores.
+   *
+   * @return An [AsyncResult] that will complete with the outcome of the verification.
+   */
+  fun verifyAsync(): AsyncResult<Verification> = GlobalScope.asyncResult(dispatcher) { verify() }
+
+  private suspend fun checksum(store: KeyValueStore): Pair<Long, Long> {
+    val count = AtomicLong()
+    val checksum = AtomicLong()
+    forEachRange(parallelism * RANGES_PER_WORKER) { range ->
+      var cursor: Bytes? = null
+      do {
+        val page = store.scanKeys(range.start, range.end, cursor, batchSize)
+        for (key in page.keys) {
+          val value = store.get(key) ?: continue
+          count.incrementAndGet()
+          checksum.addAndGet(
+            Hashing.murmur3_128()
+              .newHasher()
+              .putInt(key.size())
+              .putBytes(key.toArrayUnsafe())
+              .putBytes(value.toArrayUnsafe())
+              .hash()
+              .asLong()
+          )
+        }
+        cursor = page.cursor
+      } while (cursor != null)
+    }
+    return Pair(count.get(), checksum.get())
+  }
+
+  /**
+   * Runs an action on each range of the key space, with as many ranges in progress at a time as there are workers.
+   */
+  private suspend fun forEachRange(count: Int, action: suspend (KeyRange) -> Unit) = coroutineScope {
+    val ranges = Channel<KeyRange>(count)
+    for (index in 0 until count) {
+      val end = if (index + 1 < count) rangeStart(index + 1, count) else null
+      ranges.send(KeyRange(index, rangeStart(index, count), end))
+    }
+    ranges.close()
+    repeat(parallelism) {
+      launch {
+        for (range in ranges) {
+          action(range)
+        }
+      }
+    }
+  }
+
+  private fun rangeStart(index: Int, count: Int): Bytes =
+    if (index == 0) Bytes.EMPTY else Bytes.ofUnsignedShort((index.toLong() * KEY_SPACE / count).toInt())
+
+  private fun loadCheckpoint(): List<RangeProgress>? {
+    val path = checkpointPath ?: return null
+    if (!Files.exists(path)) {
+      return null
+    }
+    return DataInputStream(Files.newInputStream(path).buffered()).use { input ->
+      val version = input.readInt()
+      if (version != FORMAT_VERSION) {
+        throw IOException("Unsupported checkpoint format version $version")
+      }
+      List(input.readInt()) {
+        val copied = input.readLong()
+        val done = input.readBoolean()
+        val length = input.readInt()
+        val cursor = if (length < 0) null else ByteArray(length).also { input.readFully(it) }
+        RangeProgress(copied, cursor?.let { Bytes.wrap(it) }, done)
+      }
+    }
+  }
+
+  private fun saveCheckpoint(path: Path, progress: List<RangeProgress>) {
+    val temp = path.resolveSibling(path.fileName.toString() + ".tmp")
+    Files.createDirectories(path.toAbsolutePath().parent)
+    DataOutputStream(Files.newOutputStream(temp).buffered()).use { output ->
+      output.writeInt(FORMAT_VERSION)
+      output.writeInt(progress.size)
+      for (range in progress) {
+        output.writeLong(range.copied)
+        output.writeBoolean(range.done)
+        val cursor = range.cursor
+        if (cursor == null) {
+          output.writeInt(-1)
+        } else {
+          output.writeInt(cursor.size())
+          output.write(cursor.toArrayUnsafe())
+        }
+      }
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+  }
+
+  /**
+   * Spaces out permits so that at most a number of them are granted per second.
+   */
+  private class Throttle(private val permitsPerSecond: Long) {
+    private val mutex = Mutex()
+    private var nextFree = System.nanoTime()
+
+    suspend fun acquire(permits: Int) {
+      if (permitsPerSecond == 0L) {
+        return
+      }
+      val wait = mutex.withLock {
+        val now = System.nanoTime()
+        val start = Math.max(now, nextFree)
+        nextFree = start + permits * 1000000000L / permitsPerSecond
+        start - now
+      }
+      if (wait > 0) {
+        delay(wait / 1000000)
+      }
+    }
+  }
+}
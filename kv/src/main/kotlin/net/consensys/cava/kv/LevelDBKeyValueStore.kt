@@ -86,6 +86,96 @@ constructor(
     db.put(key.toArrayUnsafe(), value.toArrayUnsafe())
   }
 
+  override suspend fun remove(key: Bytes) = withContext(dispatcher) {
+    db.delete(key.toArrayUnsafe())
+  }
+
+  override suspend fun keys(): Iterable<Bytes> = withContext(dispatcher) {
+    val keys = mutableListOf<Bytes>()
+    db.iterator().use { iterator ->
+      iterator.seekToFirst()
+      while (iterator.hasNext()) {
+        keys.add(Bytes.wrap(iterator.next().key))
+      }
+    }
+    keys
+  }
+
+  /**
+   * Puts data into the store for multiple keys, in a single atomic write batch.
+   *
+   * @param entries The data to store, by key.
+   */
+  override suspend fun putAll(entries: Map<Bytes, Bytes>) = withContext(dispatcher) {
+    db.createWriteBatch().use { batch ->
+      for ((key, value) in entries) {
+        batch.put(key.toArrayUnsafe(), value.toArrayUnsafe())
+      }
+      db.write(batch)
+    }
+  }
+
+  override suspend fun keys(prefix: Bytes): Iterable<Bytes> = withContext(dispatcher) {
+    val keys = mutableListOf<Bytes>()
+    db.iterator().use { iterator ->
+      iterator.seek(prefix.toArrayUnsafe())
+      while (iterator.hasNext()) {
+        val key = Bytes.wrap(iterator.next().key)
+        if (key.commonPrefixLength(prefix) != prefix.size()) {
+          break
+        }
+        keys.add(key)
+      }
+    }
+    keys
+  }
+
+  override suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage = withContext(dispatcher) {
+    checkScanLimit(limit)
+    val keys = mutableListOf<Bytes>()
+    db.iterator().use { iterator ->
+      if (cursor == null) {
+        iterator.seekToFirst()
+      } else {
+        iterator.seek(cursor.toArrayUnsafe())
+        if (iterator.hasNext() && Bytes.wrap(iterator.peekNext().key) == cursor) {
+          iterator.next()
+        }
+      }
+      while (keys.size < limit && iterator.hasNext()) {
+        keys.add(Bytes.wrap(iterator.next().key))
+      }
+      KeyPage(keys, if (iterator.hasNext()) keys.last() else null)
+    }
+  }
+
+  override suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage =
+    withContext(dispatcher) {
+      checkScanLimit(limit)
+      val from = scanFrom(start, cursor)
+      val keys = mutableListOf<Bytes>()
+      db.iterator().use { iterator ->
+        iterator.seek(from.toArrayUnsafe())
+        if (from == cursor && iterator.hasNext() && Bytes.wrap(iterator.peekNext().key) == cursor) {
+          iterator.next()
+        }
+        var more = false
+        while (iterator.hasNext()) {
+          val key = Bytes.wrap(iterator.peekNext().key)
+          if (end != null && KEY_ORDER.compare(key, end) >= 0) {
+            break
+          }
+          if (keys.size == limit) {
+            more = true
+            break
+          }
+          keys.add(key)
+          iterator.next()
+        }
+        KeyPage(keys, if (more) keys.last() else null)
+      }
+    }
+
   /**
    * Closes the underlying LevelDB instance.
    */
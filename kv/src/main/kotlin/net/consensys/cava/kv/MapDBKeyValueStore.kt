@@ -57,6 +57,8 @@ constructor(
   private val db: DB
   private val storageData: HTreeMap<Bytes, Bytes>
 
+  private val sortedKeys = SortedKeys { keys() }
+
   init {
     Files.createDirectories(dbPath.parent)
     db = DBMaker.fileDB(dbPath.toFile()).transactionEnable().closeOnJvmShutdown().make()
@@ -76,6 +78,37 @@ constructor(
     db.commit()
   }
 
+  override suspend fun remove(key: Bytes) = withContext(dispatcher) {
+    storageData.remove(key)
+    db.commit()
+  }
+
+  override suspend fun keys(): Iterable<Bytes> = withContext(dispatcher) {
+    ArrayList(storageData.keys)
+  }
+
+  /**
+   * Scans a page of the keys present in the store, listing and sorting the keys of the store once per scan.
+   *
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return A page of keys.
+   */
+  override suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage = sortedKeys.scan(Bytes.EMPTY, null, cursor, limit)
+
+  /**
+   * Scans a page of the keys present in the store within a range, in unsigned byte order, listing and sorting the keys
+   * of the store once per scan.
+   *
+   * @param start The first key of the range, inclusive.
+   * @param end The end of the range, exclusive, or null to scan up to the last key of the store.
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return A page of keys.
+   */
+  override suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage =
+    sortedKeys.scan(start, end, cursor, limit)
+
   /**
    * Closes the underlying MapDB instance.
    */
@@ -45,12 +45,46 @@ constructor(private val map: MutableMap<Bytes, Bytes> = HashMap()) : KeyValueSto
     fun open(map: MutableMap<Bytes, Bytes>) = MapKeyValueStore(map)
   }
 
+  private val sortedKeys = SortedKeys { keys() }
+
   override suspend fun get(key: Bytes): Bytes? = map[key]
 
   override suspend fun put(key: Bytes, value: Bytes) {
     map[key] = value
   }
 
+  override suspend fun remove(key: Bytes) {
+    map.remove(key)
+  }
+
+  override suspend fun keys(): Iterable<Bytes> = ArrayList(map.keys)
+
+  /**
+   * Scans a page of the keys present in the store, listing and sorting the keys of the store once per scan.
+   *
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return A page of keys.
+   */
+  override suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage = sortedKeys.scan(Bytes.EMPTY, null, cursor, limit)
+
+  /**
+   * Scans a page of the keys present in the store within a range, in unsigned byte order, listing and sorting the keys
+   * of the store once per scan.
+   *
+   * @param start The first key of the range, inclusive.
+   * @param end The end of the range, exclusive, or null to scan up to the last key of the store.
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return A page of keys.
+   */
+  override suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage =
+    sortedKeys.scan(start, end, cursor, limit)
+
+  override suspend fun putAll(entries: Map<Bytes, Bytes>) {
+    map.putAll(entries)
+  }
+
   /**
    * Has no effect in this KeyValueStore implementation.
    */
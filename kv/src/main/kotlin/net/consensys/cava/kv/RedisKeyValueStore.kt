@@ -14,12 +14,15 @@ package net.consensys.cava.kv
 
 import io.lettuce.core.RedisClient
 import io.lettuce.core.RedisURI
+import io.lettuce.core.ScanArgs
+import io.lettuce.core.ScanCursor
 import io.lettuce.core.api.StatefulRedisConnection
 import io.lettuce.core.api.async.RedisAsyncCommands
 import io.lettuce.core.codec.RedisCodec
 import kotlinx.coroutines.future.await
 import net.consensys.cava.bytes.Bytes
 import java.net.InetAddress
+import java.nio.charset.StandardCharsets.UTF_8
 import java.util.concurrent.CompletionStage
 
 /**
@@ -80,6 +83,8 @@ class RedisKeyValueStore(uri: String) : KeyValueStore {
   private val conn: StatefulRedisConnection<Bytes, Bytes>
   private val asyncCommands: RedisAsyncCommands<Bytes, Bytes>
 
+  private val sortedKeys = SortedKeys { keys() }
+
   /**
    * Open a Redis-backed key-value store.
    *
@@ -105,6 +110,51 @@ class RedisKeyValueStore(uri: String) : KeyValueStore {
     future.await()
   }
 
+  override suspend fun remove(key: Bytes) {
+    val future: CompletionStage<Long> = asyncCommands.del(key)
+    future.await()
+  }
+
+  override suspend fun keys(): Iterable<Bytes> {
+    val keys = mutableListOf<Bytes>()
+    var cursor: ScanCursor = ScanCursor.INITIAL
+    do {
+      val result = asyncCommands.scan(cursor).await()
+      keys.addAll(result.keys)
+      cursor = result
+    } while (!result.isFinished)
+    return keys
+  }
+
+  /**
+   * Scans a page of the keys present in the store, using the Redis `SCAN` command.
+   *
+   * As with `SCAN`, the limit is a hint: a page may hold more keys than the limit, or no keys at all.
+   *
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The number of keys to request.
+   * @return A page of keys.
+   */
+  override suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage {
+    checkScanLimit(limit)
+    val scanCursor = if (cursor == null) ScanCursor.INITIAL else ScanCursor.of(String(cursor.toArrayUnsafe(), UTF_8))
+    val result = asyncCommands.scan(scanCursor, ScanArgs.Builder.limit(limit.toLong())).await()
+    return KeyPage(result.keys, if (result.isFinished) null else Bytes.wrap(result.cursor.toByteArray(UTF_8)))
+  }
+
+  /**
+   * Scans a page of the keys present in the store within a range, in unsigned byte order, listing and sorting the keys
+   * of the store once per scan.
+   *
+   * @param start The first key of the range, inclusive.
+   * @param end The end of the range, exclusive, or null to scan up to the last key of the store.
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return A page of keys.
+   */
+  override suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage =
+    sortedKeys.scan(start, end, cursor, limit)
+
   override fun close() {
     conn.close()
   }
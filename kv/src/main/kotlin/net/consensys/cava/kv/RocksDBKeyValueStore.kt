@@ -18,6 +18,8 @@ import kotlinx.coroutines.withContext
 import net.consensys.cava.bytes.Bytes
 import org.rocksdb.Options
 import org.rocksdb.RocksDB
+import org.rocksdb.WriteBatch
+import org.rocksdb.WriteOptions
 import java.io.IOException
 import java.nio.file.Files
 import java.nio.file.Path
@@ -94,6 +96,117 @@ constructor(
     db.put(key.toArrayUnsafe(), value.toArrayUnsafe())
   }
 
+  override suspend fun remove(key: Bytes) = withContext(dispatcher) {
+    if (closed.get()) {
+      throw IllegalStateException("Closed DB")
+    }
+    db.delete(key.toArrayUnsafe())
+  }
+
+  override suspend fun keys(): Iterable<Bytes> = withContext(dispatcher) {
+    if (closed.get()) {
+      throw IllegalStateException("Closed DB")
+    }
+    val keys = mutableListOf<Bytes>()
+    db.newIterator().use { iterator ->
+      iterator.seekToFirst()
+      while (iterator.isValid) {
+        keys.add(Bytes.wrap(iterator.key()))
+        iterator.next()
+      }
+    }
+    keys
+  }
+
+  /**
+   * Puts data into the store for multiple keys, in a single atomic write batch.
+   *
+   * @param entries The data to store, by key.
+   */
+  override suspend fun putAll(entries: Map<Bytes, Bytes>) = withContext(dispatcher) {
+    if (closed.get()) {
+      throw IllegalStateException("Closed DB")
+    }
+    WriteBatch().use { batch ->
+      for ((key, value) in entries) {
+        batch.put(key.toArrayUnsafe(), value.toArrayUnsafe())
+      }
+      WriteOptions().use { options -> db.write(options, batch) }
+    }
+  }
+
+  override suspend fun keys(prefix: Bytes): Iterable<Bytes> = withContext(dispatcher) {
+    if (closed.get()) {
+      throw IllegalStateException("Closed DB")
+    }
+    val keys = mutableListOf<Bytes>()
+    db.newIterator().use { iterator ->
+      iterator.seek(prefix.toArrayUnsafe())
+      while (iterator.isValid) {
+        val key = Bytes.wrap(iterator.key())
+        if (key.commonPrefixLength(prefix) != prefix.size()) {
+          break
+        }
+        keys.add(key)
+        iterator.next()
+      }
+    }
+    keys
+  }
+
+  override suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage = withContext(dispatcher) {
+    checkScanLimit(limit)
+    if (closed.get()) {
+      throw IllegalStateException("Closed DB")
+    }
+    val keys = mutableListOf<Bytes>()
+    db.newIterator().use { iterator ->
+      if (cursor == null) {
+        iterator.seekToFirst()
+      } else {
+        iterator.seek(cursor.toArrayUnsafe())
+        if (iterator.isValid && Bytes.wrap(iterator.key()) == cursor) {
+          iterator.next()
+        }
+      }
+      while (keys.size < limit && iterator.isValid) {
+        keys.add(Bytes.wrap(iterator.key()))
+        iterator.next()
+      }
+      KeyPage(keys, if (iterator.isValid) keys.last() else null)
+    }
+  }
+
+  override suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage =
+    withContext(dispatcher) {
+      checkScanLimit(limit)
+      if (closed.get()) {
+        throw IllegalStateException("Closed DB")
+      }
+      val from = scanFrom(start, cursor)
+      val keys = mutableListOf<Bytes>()
+      db.newIterator().use { iterator ->
+        iterator.seek(from.toArrayUnsafe())
+        if (from == cursor && iterator.isValid && Bytes.wrap(iterator.key()) == cursor) {
+          iterator.next()
+        }
+        var more = false
+        while (iterator.isValid) {
+          val key = Bytes.wrap(iterator.key())
+          if (end != null && KEY_ORDER.compare(key, end) >= 0) {
+            break
+          }
+          if (keys.size == limit) {
+            more = true
+            break
+          }
+          keys.add(key)
+          iterator.next()
+        }
+        KeyPage(keys, if (more) keys.last() else null)
+      }
+    }
+
   /**
    * Closes the underlying RocksDB instance.
    */
@@ -106,6 +106,77 @@ constructor(
       }
   }
 
+  override suspend fun remove(key: Bytes) = withContext(dispatcher) {
+    connectionPool.asyncConnection.await().use {
+      val stmt = it.prepareStatement("DELETE FROM $tableName WHERE $keyColumn = ?")
+      stmt.setBytes(1, key.toArrayUnsafe())
+      stmt.execute()
+      Unit
+    }
+  }
+
+  override suspend fun keys(): Iterable<Bytes> = withContext(dispatcher) {
+    connectionPool.asyncConnection.await().use {
+      val stmt = it.prepareStatement("SELECT $keyColumn FROM $tableName")
+      stmt.execute()
+
+      val rs = stmt.resultSet
+      val keys = mutableListOf<Bytes>()
+      while (rs.next()) {
+        keys.add(Bytes.wrap(rs.getBytes(1)))
+      }
+      keys
+    }
+  }
+
+  override suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage = withContext(dispatcher) {
+    checkScanLimit(limit)
+    connectionPool.asyncConnection.await().use {
+      val stmt = if (cursor == null) {
+        it.prepareStatement("SELECT $keyColumn FROM $tableName ORDER BY $keyColumn")
+      } else {
+        it.prepareStatement("SELECT $keyColumn FROM $tableName WHERE $keyColumn > ? ORDER BY $keyColumn").apply {
+          setBytes(1, cursor.toArrayUnsafe())
+        }
+      }
+      stmt.maxRows = limit + 1
+      stmt.execute()
+
+      val rs = stmt.resultSet
+      val keys = mutableListOf<Bytes>()
+      while (keys.size < limit && rs.next()) {
+        keys.add(Bytes.wrap(rs.getBytes(1)))
+      }
+      KeyPage(keys, if (rs.next()) keys.last() else null)
+    }
+  }
+
+  override suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage =
+    withContext(dispatcher) {
+      checkScanLimit(limit)
+      val from = scanFrom(start, cursor)
+      val lower = if (from == cursor) ">" else ">="
+      connectionPool.asyncConnection.await().use {
+        val stmt = if (end == null) {
+          it.prepareStatement("SELECT $keyColumn FROM $tableName WHERE $keyColumn $lower ? ORDER BY $keyColumn")
+        } else {
+          it.prepareStatement(
+            "SELECT $keyColumn FROM $tableName WHERE $keyColumn $lower ? AND $keyColumn < ? ORDER BY $keyColumn"
+          ).apply { setBytes(2, end.toArrayUnsafe()) }
+        }
+        stmt.setBytes(1, from.toArrayUnsafe())
+        stmt.maxRows = limit + 1
+        stmt.execute()
+
+        val rs = stmt.resultSet
+        val keys = mutableListOf<Bytes>()
+        while (keys.size < limit && rs.next()) {
+          keys.add(Bytes.wrap(rs.getBytes(1)))
+        }
+        KeyPage(keys, if (rs.next()) keys.last() else null)
+      }
+    }
+
   /**
    * Closes the underlying connection pool.
    */
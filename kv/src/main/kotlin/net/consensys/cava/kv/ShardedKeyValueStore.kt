@@ -0,0 +1,470 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import com.google.common.hash.Hashing
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.concurrent.AsyncCompletion
+import net.consensys.cava.concurrent.coroutines.asyncCompletion
+import net.consensys.cava.concurrent.coroutines.await
+import java.util.TreeMap
+import java.util.TreeSet
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A key-value store spreading its keys over a set of child key-value stores.
+ *
+ * Keys are assigned to shards using consistent hashing, so that adding a shard only moves the keys that are assigned to
+ * it. When shards are added, existing keys are moved to their new shard in the background, while the store remains
+ * available for reads and writes.
+ *
+ * The number of shards and the progress of moving keys are recorded in a state store. When the state store is
+ * persistent, a store closed while keys were being moved resumes moving them in the background once reopened. The
+ * order of the shards is significant: shards must always be provided in the same order when reopening the store,
+ * including the shards that were being added.
+ *
+ * @param shards The child key-value stores, in a stable order.
+ * @param virtualNodes The number of positions each shard occupies on the hash ring.
+ * @param dispatcher The co-routine dispatcher for background tasks.
+ * @param stateStore The key-value store recording the state of resharding.
+ * @return A key-value store.
+ * @constructor Open a sharded key-value store.
+ */
+class ShardedKeyValueStore
+@JvmOverloads
+constructor(
+  shards: List<KeyValueStore>,
+  private val virtualNodes: Int = 64,
+  private val dispatcher: CoroutineDispatcher = Dispatchers.Default,
+  private val stateStore: KeyValueStore = MapKeyValueStore()
+) : KeyValueStore {
+
+  companion object {
+    /**
+     * Open a sharded key-value store.
+     *
+     * @param shards The child key-value stores, in a stable order.
+     * @return A key-value store.
+     */
+    @JvmStatic
+    fun open(shards: List<KeyValueStore>) = ShardedKeyValueStore(shards)
+
+    /**
+     * Open a sharded key-value store.
+     *
+     * @param shards The child key-value stores, in a stable order.
+     * @param virtualNodes The number of positions each shard occupies on the hash ring.
+     * @return A key-value store.
+     */
+    @JvmStatic
+    fun open(shards: List<KeyValueStore>, virtualNodes: Int) = ShardedKeyValueStore(shards, virtualNodes)
+
+    /**
+     * Open a sharded key-value store.
+     *
+     * @param shards The child key-value stores, in a stable order.
+     * @param stateStore The key-value store recording the state of resharding.
+     * @return A key-value store.
+     */
+    @JvmStatic
+    fun open(shards: List<KeyValueStore>, stateStore: KeyValueStore) =
+      ShardedKeyValueStore(shards, stateStore = stateStore)
+
+    private const val LOCK_STRIPES = 256
+    private const val MOVE_PAGE_SIZE = 1000
+    private val SHARD_COUNT_KEY = Bytes.wrap("shard-count".toByteArray())
+    private val MOVE_CURSOR_KEY = Bytes.wrap("move-cursor".toByteArray())
+    private val FIRST_PAGE = Bytes.of(0)
+    private val NEXT_PAGE = Bytes.of(1)
+    private val MOVED = Bytes.of(0)
+  }
+
+  // the current and previous rings are replaced together, so that a writer reads both from the same snapshot
+  @Volatile
+  private var rings: Rings
+  @Volatile
+  private var stateLoaded = false
+  private val stateLock = Mutex()
+  private var reshardingTask: AsyncCompletion? = null
+  private val locks = Array(LOCK_STRIPES) { Mutex() }
+  private val movedKeys = AtomicLong()
+
+  init {
+    if (shards.isEmpty()) {
+      throw IllegalArgumentException("At least one shard is required")
+    }
+    if (virtualNodes < 1) {
+      throw IllegalArgumentException("Invalid number of virtual nodes: $virtualNodes")
+    }
+    rings = Rings(HashRing(shards, virtualNodes), null)
+  }
+
+  private val ring: HashRing
+    get() = rings.ring
+
+  private val previousRing: HashRing?
+    get() = rings.previous
+
+  /**
+   * The shards of this store, in order.
+   */
+  val shards: List<KeyValueStore>
+    get() = ring.shards
+
+  /**
+   * `true` if keys are being moved following the addition of shards.
+   */
+  val isResharding: Boolean
+    get() = previousRing != null
+
+  /**
+   * The number of keys moved to a different shard since this store was opened.
+   */
+  val keysMoved: Long
+    get() = movedKeys.get()
+
+  override suspend fun get(key: Bytes): Bytes? {
+    loadState()
+    val hash = hash(key)
+    val snapshot = rings
+    val previous = snapshot.previous ?: return snapshot.ring.shardFor(hash).get(key)
+    return lockFor(hash).withLock {
+      snapshot.ring.shardFor(hash).get(key) ?: previous.shardFor(hash).get(key)
+    }
+  }
+
+  override suspend fun put(key: Bytes, value: Bytes) {
+    loadState()
+    val hash = hash(key)
+    val snapshot = rings
+    if (snapshot.previous == null) {
+      snapshot.ring.shardFor(hash).put(key, value)
+      if (rings === snapshot) {
+        return
+      }
+      // shards were added during the write, and the key may already have been scanned for moving
+      lockFor(hash).withLock { putMoved(hash, key, value, snapshot.ring) }
+      return
+    }
+    lockFor(hash).withLock {
+      ring.shardFor(hash).put(key, value)
+    }
+  }
+
+  override suspend fun remove(key: Bytes) {
+    loadState()
+    val hash = hash(key)
+    val snapshot = rings
+    if (snapshot.previous == null) {
+      snapshot.ring.shardFor(hash).remove(key)
+      if (rings === snapshot) {
+        return
+      }
+    }
+    lockFor(hash).withLock {
+      ring.shardFor(hash).remove(key)
+      (snapshot.previous ?: snapshot.ring).shardFor(hash).remove(key)
+    }
+  }
+
+  /**
+   * Writes a key to its shard in the current ring, removing the copy written to its shard in an older ring.
+   *
+   * Must be called holding the lock of the key.
+   */
+  private suspend fun putMoved(hash: Long, key: Bytes, value: Bytes, written: HashRing) {
+    val target = ring.shardFor(hash)
+    target.put(key, value)
+    val stale = written.shardFor(hash)
+    if (stale !== target) {
+      stale.remove(key)
+    }
+  }
+
+  override suspend fun keys(): Iterable<Bytes> = coroutineScope {
+    loadState()
+    val all = ring.shards.map { shard -> async(dispatcher) { shard.keys() } }.awaitAll()
+    if (previousRing == null) {
+      all.flatten()
+    } else {
+      all.flatten().toSet()
+    }
+  }
+
+  override suspend fun keys(prefix: Bytes): Iterable<Bytes> = coroutineScope {
+    loadState()
+    val all = ring.shards.map { shard -> async(dispatcher) { shard.keys(prefix) } }.awaitAll()
+    if (previousRing == null) {
+      all.flatten()
+    } else {
+      all.flatten().toSet()
+    }
+  }
+
+  /**
+   * Scans a page of the keys present in the store, one shard after the other.
+   *
+   * Keys are only ever moved to shards that were added after the shard holding them, so a scan running while keys are
+   * moved still returns every key, though a moved key may be returned twice.
+   *
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return A page of keys.
+   */
+  override suspend fun scanKeys(cursor: Bytes?, limit: Int): KeyPage {
+    checkScanLimit(limit)
+    loadState()
+    val shards = ring.shards
+    val index = cursor?.getInt(0) ?: 0
+    val shardCursor = if (cursor != null && cursor.get(4) == NEXT_PAGE.get(0)) cursor.slice(5) else null
+    val page = shards[index].scanKeys(shardCursor, limit)
+    val next = page.cursor
+    return when {
+      next != null -> KeyPage(page.keys, Bytes.concatenate(Bytes.ofUnsignedInt(index.toLong()), NEXT_PAGE, next))
+      index + 1 < shards.size -> KeyPage(page.keys, Bytes.concatenate(Bytes.ofUnsignedInt(index + 1L), FIRST_PAGE))
+      else -> KeyPage(page.keys, null)
+    }
+  }
+
+  /**
+   * Scans a page of the keys present in the store within a range, in unsigned byte order, querying all shards
+   * concurrently.
+   *
+   * Each shard provides up to `limit` keys of the range, and the smallest keys are kept.
+   *
+   * @param start The first key of the range, inclusive.
+   * @param end The end of the range, exclusive, or null to scan up to the last key of the store.
+   * @param cursor The cursor of the previous page, or null to start a scan.
+   * @param limit The maximum number of keys to return.
+   * @return A page of keys.
+   */
+  override suspend fun scanKeys(start: Bytes, end: Bytes?, cursor: Bytes?, limit: Int): KeyPage = coroutineScope {
+    checkScanLimit(limit)
+    loadState()
+    val pages = ring.shards.map { shard -> async(dispatcher) { shard.scanKeys(start, end, cursor, limit) } }.awaitAll()
+    val merged = TreeSet(KEY_ORDER)
+    pages.forEach { merged.addAll(it.keys) }
+    val keys = merged.take(limit)
+    val more = merged.size > limit || pages.any { it.cursor != null }
+    KeyPage(keys, if (more) keys.last() else null)
+  }
+
+  /**
+   * Retrieves data from the store for multiple keys, querying all shards concurrently.
+   *
+   * @param keys The keys for the content.
+   * @return A map of the keys to their stored data. Keys with no stored data are absent from the map.
+   */
+  suspend fun getAll(keys: Collection<Bytes>): Map<Bytes, Bytes> = coroutineScope {
+    loadState()
+    keys.groupBy { key -> ring.shardFor(hash(key)) }.map { (_, shardKeys) ->
+      async(dispatcher) { shardKeys.mapNotNull { key -> get(key)?.let { key to it } } }
+    }.awaitAll().flatten().toMap()
+  }
+
+  /**
+   * Puts data into the store for multiple keys, writing to all shards concurrently.
+   *
+   * @param entries The data to store, by key.
+   */
+  override suspend fun putAll(entries: Map<Bytes, Bytes>) = coroutineScope {
+    loadState()
+    val snapshot = rings
+    if (snapshot.previous != null) {
+      // while keys are moved, each write must hold the lock of its key
+      entries.entries.map { entry -> async(dispatcher) { put(entry.key, entry.value) } }.awaitAll()
+      return@coroutineScope
+    }
+    entries.entries.groupBy { entry -> snapshot.ring.shardFor(hash(entry.key)) }.map { (shard, shardEntries) ->
+      async(dispatcher) { shard.putAll(shardEntries.associate { entry -> entry.key to entry.value }) }
+    }.awaitAll()
+    if (rings !== snapshot) {
+      // shards were added during the writes, and the keys may already have been scanned for moving
+      for ((key, value) in entries) {
+        val hash = hash(key)
+        lockFor(hash).withLock { putMoved(hash, key, value, snapshot.ring) }
+      }
+    }
+  }
+
+  /**
+   * Adds shards to this store, moving the keys they are now responsible for in the background.
+   *
+   * The store remains usable while keys are moved. Reads that miss on the new shard of a key fall back to the shard
+   * that held it previously until the move completes. The new shards must be appended to the shards provided when
+   * reopening the store, even if moving the keys has not completed.
+   *
+   * @param newShards The key-value stores to add as shards.
+   * @return An [AsyncCompletion] that will complete when all keys have been moved.
+   * @throws IllegalStateException If shards are already being added.
+   */
+  @Synchronized
+  fun addShards(newShards: List<KeyValueStore>): AsyncCompletion {
+    val running = reshardingTask
+    if (previousRing != null || (running != null && !running.isDone)) {
+      throw IllegalStateException("Resharding already in progress")
+    }
+    if (newShards.isEmpty()) {
+      return AsyncCompletion.completed()
+    }
+    val task = GlobalScope.asyncCompletion(dispatcher) {
+      loadState()
+      // complete moving keys for shards added before this store was reopened
+      previousRing?.let { moveKeys(it) }
+      moveKeys(switchRing(newShards))
+    }
+    reshardingTask = task
+    return task
+  }
+
+  /**
+   * Resumes moving keys following the addition of shards, after a failure to move them.
+   *
+   * Moving keys interrupted by closing the store resumes in the background on the first operation after reopening it.
+   *
+   * @return An [AsyncCompletion] that will complete when all keys have been moved.
+   */
+  fun resumeResharding(): AsyncCompletion = GlobalScope.asyncCompletion(dispatcher) {
+    loadState()
+    resharding()?.await()
+  }
+
+  @Synchronized
+  private fun switchRing(newShards: List<KeyValueStore>): HashRing {
+    val oldRing = ring
+    rings = Rings(HashRing(oldRing.shards + newShards, virtualNodes), oldRing)
+    return oldRing
+  }
+
+  @Synchronized
+  private fun resharding(): AsyncCompletion? {
+    val running = reshardingTask
+    if (running != null && !running.isDone) {
+      return running
+    }
+    val previous = previousRing ?: return null
+    val task = GlobalScope.asyncCompletion(dispatcher) { moveKeys(previous) }
+    reshardingTask = task
+    return task
+  }
+
+  private suspend fun loadState() {
+    if (stateLoaded) {
+      return
+    }
+    val interrupted = stateLock.withLock {
+      if (stateLoaded) {
+        return
+      }
+      val shards = ring.shards
+      val count = stateStore.get(SHARD_COUNT_KEY)?.toInt()
+      if (count == null) {
+        stateStore.put(SHARD_COUNT_KEY, Bytes.ofUnsignedInt(shards.size.toLong()))
+      } else if (count > shards.size) {
+        throw IllegalStateException("Store has $count shards, but was opened with ${shards.size}")
+      } else if (count < shards.size) {
+        rings = Rings(ring, HashRing(shards.subList(0, count), virtualNodes))
+      }
+      stateLoaded = true
+      previousRing != null
+    }
+    if (interrupted) {
+      resharding()
+    }
+  }
+
+  private suspend fun moveKeys(previous: HashRing) {
+    coroutineScope {
+      previous.shards.mapIndexed { index, shard -> async { moveKeys(shard, index) } }.awaitAll()
+    }
+    stateLock.withLock {
+      // cursors are removed first, so that an interrupted update moves keys again rather than skipping them
+      for (index in previous.shards.indices) {
+        stateStore.remove(moveCursorKey(index))
+      }
+      stateStore.put(SHARD_COUNT_KEY, Bytes.ofUnsignedInt(ring.shards.size.toLong()))
+      rings = Rings(ring, null)
+    }
+  }
+
+  private suspend fun moveKeys(source: KeyValueStore, index: Int) {
+    val cursorKey = moveCursorKey(index)
+    var state = stateStore.get(cursorKey)
+    while (state != MOVED) {
+      val page = source.scanKeys(state?.slice(1), MOVE_PAGE_SIZE)
+      for (key in page.keys) {
+        moveKey(source, key)
+      }
+      // progress is recorded after each page, so that moving keys resumes from the last page after a restart
+      state = page.cursor?.let { Bytes.concatenate(NEXT_PAGE, it) } ?: MOVED
+      stateStore.put(cursorKey, state)
+    }
+  }
+
+  private suspend fun moveKey(source: KeyValueStore, key: Bytes) {
+    val hash = hash(key)
+    val target = ring.shardFor(hash)
+    if (target === source) {
+      return
+    }
+    lockFor(hash).withLock {
+      source.get(key)?.let { value ->
+        // a write made during resharding is more recent than the value being moved
+        if (target.get(key) == null) {
+          target.put(key, value)
+        }
+        source.remove(key)
+        movedKeys.incrementAndGet()
+      }
+    }
+  }
+
+  private fun moveCursorKey(index: Int) = Bytes.concatenate(MOVE_CURSOR_KEY, Bytes.ofUnsignedInt(index.toLong()))
+
+  private fun lockFor(hash: Long): Mutex = locks[(hash ushr 1).rem(LOCK_STRIPES).toInt()]
+
+  /**
+   * Closes all shards of this store, and its state store.
+   */
+  override fun close() {
+    ring.shards.forEach { it.close() }
+    stateStore.close()
+  }
+}
+
+private fun hash(key: Bytes): Long = Hashing.murmur3_128().hashBytes(key.toArrayUnsafe()).asLong()
+
+private class Rings(val ring: HashRing, val previous: HashRing?)
+
+private class HashRing(val shards: List<KeyValueStore>, virtualNodes: Int) {
+
+  private val positions = TreeMap<Long, KeyValueStore>()
+
+  init {
+    for ((index, shard) in shards.withIndex()) {
+      for (node in 0 until virtualNodes) {
+        positions[Hashing.murmur3_128().newHasher().putInt(index).putInt(node).hash().asLong()] = shard
+      }
+    }
+  }
+
+  fun shardFor(hash: Long): KeyValueStore = (positions.ceilingEntry(hash) ?: positions.firstEntry()).value
+}
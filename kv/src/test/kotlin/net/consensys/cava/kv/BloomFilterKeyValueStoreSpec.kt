@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import com.google.common.io.MoreFiles
+import com.google.common.io.RecursiveDeleteOption
+import com.winterbe.expekt.should
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.bytes.Bytes32
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.describe
+import org.jetbrains.spek.api.dsl.it
+import java.nio.file.Files
+
+object BloomFilterKeyValueStoreSpec : Spek({
+  val testDir = Files.createTempDirectory("bloom")
+  val filterPath = testDir.resolve("filter")
+  val backingStore = MapKeyValueStore()
+  val keys = List(1000) { Bytes32.random() }
+  val kv = BloomFilterKeyValueStore(backingStore, filterPath, 100, 0.01)
+
+  afterGroup {
+    MoreFiles.deleteRecursively(testDir, RecursiveDeleteOption.ALLOW_INSECURE)
+  }
+
+  describe("a Bloom filter fronted key value store") {
+
+    it("should rebuild its filter in the background over a store that is not empty") {
+      runBlocking {
+        keys.forEach { backingStore.put(it, it) }
+        kv.isReady.should.be.`false`
+        kv.get(keys[0]).should.equal(keys[0])
+        kv.filteredLookupCount.should.equal(0L)
+        while (!kv.isReady) {
+          delay(10)
+        }
+        keys.forEach { kv.get(it).should.equal(it) }
+      }
+    }
+
+    it("should filter lookups over an empty store without a rebuild") {
+      runBlocking {
+        val emptyStore = BloomFilterKeyValueStore(MapKeyValueStore(), null, 100, 0.01)
+        emptyStore.get(keys[0]).should.be.`null`
+        emptyStore.isReady.should.be.`true`
+        emptyStore.filteredLookupCount.should.equal(1L)
+        emptyStore.put(keys[0], keys[0])
+        emptyStore.get(keys[0]).should.equal(keys[0])
+        emptyStore.putAll(mapOf(keys[1] to keys[1], keys[2] to keys[2]))
+        emptyStore.get(keys[1]).should.equal(keys[1])
+        emptyStore.get(keys[2]).should.equal(keys[2])
+      }
+    }
+
+    it("should rebuild its filter from the underlying store") {
+      runBlocking {
+        kv.rebuild()
+        kv.isReady.should.be.`true`
+        keys.forEach { kv.get(it).should.equal(it) }
+      }
+    }
+
+    it("should answer most lookups of absent keys from the filter") {
+      runBlocking {
+        repeat(1000) { kv.get(Bytes32.random()).should.be.`null` }
+        kv.filteredLookupCount.should.be.above(950)
+      }
+    }
+
+    it("should grow its filter as keys are added") {
+      runBlocking {
+        val moreKeys = List(5000) { Bytes32.random() }
+        moreKeys.forEach { kv.put(it, it) }
+        moreKeys.forEach { kv.get(it).should.equal(it) }
+      }
+    }
+
+    it("should persist its filter when closed") {
+      runBlocking {
+        kv.close()
+        Files.exists(filterPath).should.be.`true`
+        val reopened = BloomFilterKeyValueStore(backingStore, filterPath, 100, 0.01)
+        reopened.isReady.should.be.`true`
+        Files.exists(filterPath).should.be.`false`
+        keys.forEach { reopened.get(it).should.equal(it) }
+        reopened.get(Bytes.wrap("foofoobar".toByteArray())).should.be.`null`
+      }
+    }
+  }
+})
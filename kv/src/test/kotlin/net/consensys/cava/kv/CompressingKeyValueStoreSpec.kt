@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import com.winterbe.expekt.should
+import kotlinx.coroutines.runBlocking
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.kv.Vars.foo
+import net.consensys.cava.kv.Vars.foobar
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.describe
+import org.jetbrains.spek.api.dsl.it
+
+object CompressingKeyValueStoreSpec : Spek({
+  val samples = List(50) { Bytes.wrap("{\"type\":\"receipt\",\"status\":1,\"gasUsed\":${it * 1000}}".toByteArray()) }
+  val repetitive = Bytes.wrap(ByteArray(1000) { (it % 7).toByte() })
+
+  for (codec in CompressingKeyValueStore.Codec.values()) {
+    val backingMap = mutableMapOf<Bytes, Bytes>()
+    val kv = CompressingKeyValueStore(
+      MapKeyValueStore(backingMap),
+      codec,
+      256,
+      CompressingKeyValueStore.trainDictionary(samples)
+    )
+
+    describe("a key value store compressing with $codec") {
+
+      it("should store small values uncompressed") {
+        runBlocking {
+          kv.put(foobar, foo)
+          backingMap[foobar].should.equal(Bytes.wrap(Bytes.of(0), foo))
+          kv.get(foobar).should.equal(foo)
+        }
+      }
+
+      it("should compress large values") {
+        runBlocking {
+          kv.put(foo, repetitive)
+          backingMap[foo]!!.size().should.be.below(100)
+          kv.get(foo).should.equal(repetitive)
+        }
+      }
+
+      it("should compress small values with the dictionary") {
+        runBlocking {
+          kv.put(foo, samples[3])
+          backingMap[foo]!!.size().should.be.below(samples[3].size())
+          kv.get(foo).should.equal(samples[3])
+        }
+      }
+
+      it("should store incompressible values uncompressed") {
+        runBlocking {
+          val random = Bytes.random(500)
+          kv.put(foo, random)
+          backingMap[foo]!!.size().should.equal(501)
+          kv.get(foo).should.equal(random)
+        }
+      }
+
+      it("should return null when no value is present") {
+        runBlocking {
+          kv.get(Bytes.wrap("foofoobar".toByteArray())).should.be.`null`
+        }
+      }
+    }
+  }
+})
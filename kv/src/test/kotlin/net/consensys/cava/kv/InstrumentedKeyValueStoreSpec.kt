@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import com.winterbe.expekt.should
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.kv.Vars.foo
+import net.consensys.cava.kv.Vars.foobar
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.describe
+import org.jetbrains.spek.api.dsl.it
+
+object InstrumentedKeyValueStoreSpec : Spek({
+  val metrics = HistogramKeyValueStoreMetrics()
+  val kv = InstrumentedKeyValueStore(MapKeyValueStore(), metrics)
+
+  describe("an instrumented key value store") {
+
+    it("should record latencies and value sizes") {
+      runBlocking {
+        kv.put(foo, foobar)
+        kv.get(foo).should.equal(foobar)
+        metrics.latency(KeyValueStoreOperation.PUT).count().should.equal(1)
+        metrics.latency(KeyValueStoreOperation.GET).count().should.equal(1)
+        metrics.valueSize(KeyValueStoreOperation.PUT).max().should.equal(foobar.size().toLong())
+        metrics.valueSize(KeyValueStoreOperation.GET).max().should.equal(foobar.size().toLong())
+        kv.inFlight(KeyValueStoreOperation.GET).should.equal(0)
+      }
+    }
+
+    it("should record misses") {
+      runBlocking {
+        kv.get(Bytes.wrap("foofoobar".toByteArray())).should.be.`null`
+        metrics.misses(KeyValueStoreOperation.GET).should.equal(1)
+      }
+    }
+
+    it("should record errors") {
+      val failing = InstrumentedKeyValueStore(object : KeyValueStore {
+        override suspend fun get(key: Bytes): Bytes? = throw IllegalStateException("failed")
+        override suspend fun put(key: Bytes, value: Bytes) = throw IllegalStateException("failed")
+        override suspend fun remove(key: Bytes) = throw IllegalStateException("failed")
+        override suspend fun keys(): Iterable<Bytes> = throw IllegalStateException("failed")
+        override fun close() {}
+      }, metrics)
+      runBlocking {
+        var caught = false
+        try {
+          failing.get(foo)
+        } catch (e: IllegalStateException) {
+          caught = true
+        }
+        caught.should.be.`true`
+        metrics.errors(KeyValueStoreOperation.GET).should.equal(1)
+        failing.inFlight(KeyValueStoreOperation.GET).should.equal(0)
+      }
+    }
+
+    it("should not record cancelled operations as errors") {
+      val cancelledMetrics = HistogramKeyValueStoreMetrics()
+      val blocking = InstrumentedKeyValueStore(object : KeyValueStore {
+        override suspend fun get(key: Bytes): Bytes? {
+          delay(Long.MAX_VALUE)
+          return null
+        }
+        override suspend fun put(key: Bytes, value: Bytes) {}
+        override fun close() {}
+      }, cancelledMetrics)
+      runBlocking {
+        val job = launch { blocking.get(foo) }
+        yield()
+        job.cancelAndJoin()
+        cancelledMetrics.errors(KeyValueStoreOperation.GET).should.equal(0)
+        blocking.inFlight(KeyValueStoreOperation.GET).should.equal(0)
+      }
+    }
+  }
+})
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import com.google.common.io.MoreFiles
+import com.google.common.io.RecursiveDeleteOption
+import com.winterbe.expekt.should
+import kotlinx.coroutines.runBlocking
+import net.consensys.cava.bytes.Bytes
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.describe
+import org.jetbrains.spek.api.dsl.it
+import java.nio.file.Files
+import java.util.concurrent.ConcurrentHashMap
+
+object KeyValueStoreMigrationSpec : Spek({
+  val testDir = Files.createTempDirectory("migration")
+  val checkpointPath = testDir.resolve("checkpoint")
+  val source = MapKeyValueStore()
+  val target = MapKeyValueStore()
+
+  afterGroup {
+    MoreFiles.deleteRecursively(testDir, RecursiveDeleteOption.ALLOW_INSECURE)
+  }
+
+  describe("a key value store migration") {
+
+    it("should resume from its checkpoint after a failure") {
+      runBlocking {
+        for (i in 0 until 5000L) {
+          source.put(Bytes.ofUnsignedInt(i), Bytes.random(32))
+        }
+        var puts = 0
+        val failing = object : KeyValueStore {
+          override suspend fun get(key: Bytes): Bytes? = target.get(key)
+          override suspend fun put(key: Bytes, value: Bytes) {
+            if (++puts > 2000) {
+              throw IllegalStateException("failed")
+            }
+            target.put(key, value)
+          }
+          override suspend fun remove(key: Bytes) = target.remove(key)
+          override suspend fun keys(): Iterable<Bytes> = target.keys()
+          override fun close() {}
+        }
+        var caught = false
+        try {
+          KeyValueStoreMigration(source, failing, checkpointPath, 100, 4).migrate()
+        } catch (e: IllegalStateException) {
+          caught = true
+        }
+        caught.should.be.`true`
+        Files.exists(checkpointPath).should.be.`true`
+
+        val result = KeyValueStoreMigration(source, target, checkpointPath, 100, 4).migrate()
+        result.resumedFrom.should.be.above(0)
+        (result.resumedFrom + result.copied).should.equal(5000)
+        Files.exists(checkpointPath).should.be.`false`
+      }
+    }
+
+    it("should verify the copied entries") {
+      runBlocking {
+        val verification = KeyValueStoreMigration(source, target).verify()
+        verification.sourceCount.should.equal(5000)
+        verification.matches.should.be.`true`
+
+        target.put(Bytes.ofUnsignedInt(0), Bytes.random(32))
+        KeyValueStoreMigration(source, target).verify().matches.should.be.`false`
+      }
+    }
+
+    it("should write each batch of entries at once") {
+      runBlocking {
+        var writes = 0
+        val batched = MapKeyValueStore()
+        val counting = object : KeyValueStore {
+          override suspend fun get(key: Bytes): Bytes? = batched.get(key)
+          override suspend fun put(key: Bytes, value: Bytes) = batched.put(key, value)
+          override suspend fun putAll(entries: Map<Bytes, Bytes>) {
+            writes++
+            batched.putAll(entries)
+          }
+          override fun close() {}
+        }
+        KeyValueStoreMigration(source, counting, null, 100, 1).migrate().copied.should.equal(5000)
+        writes.should.equal(50)
+      }
+    }
+
+    it("should copy ranges of the key space concurrently") {
+      runBlocking {
+        val spread = MapKeyValueStore()
+        for (i in 0 until 5000) {
+          spread.put(Bytes.random(32), Bytes.random(32))
+        }
+        val copy = MapKeyValueStore(ConcurrentHashMap())
+        val migration = KeyValueStoreMigration(spread, copy, checkpointPath, 100, 4)
+        migration.migrate().copied.should.equal(5000)
+        migration.verify().matches.should.be.`true`
+        Files.exists(checkpointPath).should.be.`false`
+      }
+    }
+
+    it("should throttle copies") {
+      runBlocking {
+        val start = System.currentTimeMillis()
+        KeyValueStoreMigration(source, MapKeyValueStore(), null, 100, 2, 10000).migrate().copied.should.equal(5000)
+        (System.currentTimeMillis() - start).should.be.at.least(400)
+      }
+    }
+  }
+})
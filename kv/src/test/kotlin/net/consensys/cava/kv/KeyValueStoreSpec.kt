@@ -61,6 +61,73 @@ object KeyValueStoreSpec : Spek({
         kv.get(Bytes.wrap("foofoobar".toByteArray())).should.be.`null`
       }
     }
+
+    it("should list stored keys") {
+      runBlocking {
+        kv.put(foo, foo)
+        kv.put(foobar, foo)
+        kv.keys().toSet().should.equal(setOf(foo, foobar))
+      }
+    }
+
+    it("should list stored keys with a prefix") {
+      runBlocking {
+        kv.put(foo, foo)
+        kv.put(foobar, foo)
+        kv.put(Bytes.wrap("bar".toByteArray()), foo)
+        kv.keys(foobar).toSet().should.equal(setOf(foobar))
+        kv.keys(foo).toSet().should.equal(setOf(foo, foobar))
+      }
+    }
+
+    it("should scan stored keys in pages") {
+      runBlocking {
+        val first = kv.scanKeys(null, 2)
+        first.keys.should.equal(listOf(Bytes.wrap("bar".toByteArray()), foo))
+        val second = kv.scanKeys(first.cursor, 2)
+        second.keys.should.equal(listOf(foobar))
+        second.cursor.should.be.`null`
+      }
+    }
+
+    it("should scan stored keys in a range") {
+      runBlocking {
+        val first = kv.scanKeys(foo, Bytes.wrap("fop".toByteArray()), null, 1)
+        first.keys.should.equal(listOf(foo))
+        val second = kv.scanKeys(foo, Bytes.wrap("fop".toByteArray()), first.cursor, 1)
+        second.keys.should.equal(listOf(foobar))
+        second.cursor.should.be.`null`
+      }
+    }
+
+    it("should scan the keys listed when the scan started") {
+      runBlocking {
+        val first = kv.scanKeys(null, 2)
+        val added = Bytes.wrap("fooz".toByteArray())
+        kv.put(added, added)
+        val second = kv.scanKeys(first.cursor, 2)
+        second.keys.should.equal(listOf(foobar))
+        second.cursor.should.be.`null`
+        kv.remove(added)
+      }
+    }
+
+    it("should allow to store multiple values") {
+      runBlocking {
+        kv.putAll(mapOf(foo to foobar, foobar to foobar))
+        kv.get(foo).should.equal(foobar)
+        kv.get(foobar).should.equal(foobar)
+      }
+    }
+
+    it("should allow to remove values") {
+      runBlocking {
+        kv.put(foobar, foo)
+        kv.remove(foobar)
+        kv.get(foobar).should.be.`null`
+        backingMap.containsKey(foobar).should.be.`false`
+      }
+    }
   }
 })
 
@@ -150,6 +217,33 @@ object LevelDBKeyValueStoreSpec : Spek({
       }
     }
 
+    it("should list stored keys with a prefix in order") {
+      runBlocking {
+        kv.putAll(mapOf(foo to foo, foobar to foo, Bytes.wrap("fop".toByteArray()) to foo))
+        kv.keys(foo).toList().should.equal(listOf(foo, foobar))
+      }
+    }
+
+    it("should scan stored keys in pages") {
+      runBlocking {
+        val first = kv.scanKeys(null, 2)
+        first.keys.should.equal(listOf(foo, foobar))
+        val second = kv.scanKeys(first.cursor, 2)
+        second.keys.should.equal(listOf(Bytes.wrap("fop".toByteArray())))
+        second.cursor.should.be.`null`
+      }
+    }
+
+    it("should scan stored keys in a range") {
+      runBlocking {
+        val first = kv.scanKeys(foo, Bytes.wrap("fop".toByteArray()), null, 1)
+        first.keys.should.equal(listOf(foo))
+        val second = kv.scanKeys(foo, Bytes.wrap("fop".toByteArray()), first.cursor, 1)
+        second.keys.should.equal(listOf(foobar))
+        second.cursor.should.be.`null`
+      }
+    }
+
     it("should return null when no value is present") {
       runBlocking {
         kv.get(Bytes.wrap("foofoobar".toByteArray())).should.be.`null`
@@ -188,6 +282,46 @@ object RocksDBKeyValueStoreSpec : Spek({
       }
     }
 
+    it("should allow to remove values and list keys") {
+      runBlocking {
+        kv.put(foo, foo)
+        kv.remove(foobar)
+        kv.get(foobar).should.be.`null`
+        kv.keys().toList().should.equal(listOf(foo))
+      }
+    }
+
+    it("should list stored keys with a prefix in order") {
+      runBlocking {
+        val baz = Bytes.wrap("baz".toByteArray())
+        val bazbar = Bytes.wrap("bazbar".toByteArray())
+        kv.putAll(mapOf(bazbar to foo, baz to foo, Bytes.wrap("bb".toByteArray()) to foo))
+        kv.keys(baz).toList().should.equal(listOf(baz, bazbar))
+      }
+    }
+
+    it("should scan stored keys in pages") {
+      runBlocking {
+        val first = kv.scanKeys(null, 3)
+        first.keys.should.equal(listOf(Bytes.wrap("baz".toByteArray()), Bytes.wrap("bazbar".toByteArray()),
+          Bytes.wrap("bb".toByteArray())))
+        val second = kv.scanKeys(first.cursor, 3)
+        second.keys.should.equal(listOf(foo))
+        second.cursor.should.be.`null`
+      }
+    }
+
+    it("should scan stored keys in a range") {
+      runBlocking {
+        val baz = Bytes.wrap("baz".toByteArray())
+        val first = kv.scanKeys(baz, Bytes.wrap("bb".toByteArray()), null, 1)
+        first.keys.should.equal(listOf(baz))
+        val second = kv.scanKeys(baz, Bytes.wrap("bb".toByteArray()), first.cursor, 1)
+        second.keys.should.equal(listOf(Bytes.wrap("bazbar".toByteArray())))
+        second.cursor.should.be.`null`
+      }
+    }
+
     it("should return null when no value is present") {
       runBlocking {
         kv.get(Bytes.wrap("foofoobar".toByteArray())).should.be.`null`
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.kv
+
+import com.winterbe.expekt.should
+import kotlinx.coroutines.runBlocking
+import net.consensys.cava.bytes.Bytes
+import net.consensys.cava.bytes.Bytes32
+import net.consensys.cava.kv.Vars.foo
+import net.consensys.cava.kv.Vars.foobar
+import org.jetbrains.spek.api.Spek
+import org.jetbrains.spek.api.dsl.describe
+import org.jetbrains.spek.api.dsl.it
+import java.io.IOException
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ConcurrentHashMap
+
+object ShardedKeyValueStoreSpec : Spek({
+  val maps = List(3) { mutableMapOf<Bytes, Bytes>() }
+  val kv = ShardedKeyValueStore(maps.map { MapKeyValueStore(it) })
+
+  describe("a sharded key value store") {
+
+    it("should allow to retrieve values") {
+      runBlocking {
+        kv.put(foobar, foo)
+        kv.get(foobar).should.equal(foo)
+      }
+    }
+
+    it("should return null when no value is present") {
+      runBlocking {
+        kv.get(Bytes.wrap("foofoobar".toByteArray())).should.be.`null`
+      }
+    }
+
+    it("should store each value in a single shard") {
+      runBlocking {
+        kv.put(foo, foobar)
+        maps.count { it.containsKey(foo) }.should.equal(1)
+      }
+    }
+
+    it("should spread keys over all shards") {
+      runBlocking {
+        val entries = List(300) { Bytes32.random() }.associate { Pair<Bytes, Bytes>(it, it) }
+        kv.putAll(entries)
+        maps.forEach { it.size.should.be.above(50) }
+        kv.getAll(entries.keys).should.equal(entries)
+      }
+    }
+
+    it("should allow to remove values") {
+      runBlocking {
+        kv.put(foobar, foo)
+        kv.remove(foobar)
+        kv.get(foobar).should.be.`null`
+      }
+    }
+
+    it("should move keys to added shards") {
+      runBlocking {
+        val newMap = mutableMapOf<Bytes, Bytes>()
+        val keys = kv.keys().toList()
+        kv.addShards(listOf(MapKeyValueStore(newMap))).join()
+        kv.isResharding.should.be.`false`
+        newMap.size.should.be.above(0)
+        kv.keysMoved.should.equal(newMap.size.toLong())
+        (maps.sumBy { it.size } + newMap.size).should.equal(keys.size)
+        for (key in keys) {
+          kv.get(key).should.not.be.`null`
+        }
+      }
+    }
+
+    it("should scan all keys in pages") {
+      runBlocking {
+        val keys = mutableListOf<Bytes>()
+        var page = kv.scanKeys(null, 7)
+        keys.addAll(page.keys)
+        while (page.cursor != null) {
+          page.keys.size.should.be.at.most(7)
+          page = kv.scanKeys(page.cursor, 7)
+          keys.addAll(page.keys)
+        }
+        keys.size.should.equal(kv.keys().count())
+        keys.toSet().should.equal(kv.keys().toSet())
+      }
+    }
+
+    it("should resume moving keys when reopened after a failure") {
+      runBlocking {
+        val stateStore = MapKeyValueStore()
+        val oldShards = List(2) { MapKeyValueStore() }
+        val store = ShardedKeyValueStore(oldShards, stateStore = stateStore)
+        val entries = List(200) { Bytes32.random() }.associate { Pair<Bytes, Bytes>(it, it) }
+        store.putAll(entries)
+
+        val newMap = ConcurrentHashMap<Bytes, Bytes>()
+        val failingShard = object : KeyValueStore {
+          override suspend fun get(key: Bytes): Bytes? = newMap[key]
+
+          override suspend fun put(key: Bytes, value: Bytes) {
+            if (newMap.size >= 5) {
+              throw IOException("Disk full")
+            }
+            newMap[key] = value
+          }
+
+          override fun close() {}
+        }
+        try {
+          store.addShards(listOf(failingShard)).join()
+          throw AssertionError("Expected resharding to fail")
+        } catch (e: CompletionException) {
+          e.cause.should.be.instanceof(IOException::class.java)
+        }
+        store.isResharding.should.be.`true`
+        store.getAll(entries.keys).should.equal(entries)
+
+        val reopened = ShardedKeyValueStore(oldShards + MapKeyValueStore(newMap), stateStore = stateStore)
+        reopened.resumeResharding().join()
+        reopened.isResharding.should.be.`false`
+        reopened.getAll(entries.keys).should.equal(entries)
+        newMap.size.should.be.above(5)
+        (oldShards.sumBy { it.keys().count() } + newMap.size).should.equal(entries.size)
+      }
+    }
+  }
+})
@@ -19,6 +19,7 @@ import net.consensys.cava.concurrent.AsyncCompletion
 import net.consensys.cava.concurrent.coroutines.asyncCompletion
 import net.consensys.cava.eth.BlockBody
 import net.consensys.cava.eth.BlockHeader
+import net.consensys.cava.eth.Hash
 import net.consensys.cava.eth.TransactionReceipt
 import net.consensys.cava.eth.repository.BlockchainRepository
 import net.consensys.cava.rlpx.RLPxService
@@ -26,7 +27,6 @@ import net.consensys.cava.rlpx.wire.DisconnectReason
 import net.consensys.cava.rlpx.wire.SubProtocolHandler
 import net.consensys.cava.rlpx.wire.SubProtocolIdentifier
 import net.consensys.cava.units.bigints.UInt256
-import java.util.TreeSet
 import java.util.concurrent.ConcurrentHashMap
 import kotlin.collections.ArrayList
 import kotlin.coroutines.CoroutineContext
@@ -45,6 +45,13 @@ internal class LESSubProtocolHandler(
   override val coroutineContext: CoroutineContext = Dispatchers.Default
 ) : SubProtocolHandler, CoroutineScope {
 
+  companion object {
+    /**
+     * The maximum number of headers served for a single query, as specified by the LES protocol.
+     */
+    internal const val MAX_HEADERS_PER_QUERY = 192
+  }
+
   private val peerStateMap = ConcurrentHashMap<String, LESPeerState>()
 
   override fun handle(connectionId: String, messageType: Int, message: Bytes): AsyncCompletion {
@@ -142,10 +149,9 @@ internal class LESSubProtocolHandler(
     connectionId: String,
     getBlockHeadersMessage: GetBlockHeadersMessage
   ) {
-    val headersFound = TreeSet<BlockHeader>()
+    val headersFound = LinkedHashSet<BlockHeader>()
     for (query in getBlockHeadersMessage.queries) {
-      val hashes = repo.findBlockByHashOrNumber(query.blockNumberOrBlockHash)
-      for (h in hashes) {
+      for (h in findHeaderHashes(query)) {
         repo.retrieveBlockHeader(h)?.let { header ->
             headersFound.add(header)
         }
@@ -159,6 +165,28 @@ internal class LESSubProtocolHandler(
       )
   }
 
+  private suspend fun findHeaderHashes(query: GetBlockHeadersMessage.BlockHeaderQuery): List<Hash> {
+    val hashes = repo.findBlockByHashOrNumber(query.blockNumberOrBlockHash)
+    val start = hashes.firstOrNull()?.let { repo.retrieveBlockHeader(it)?.number() } ?: return hashes
+    if (!start.fitsLong() || !query.skip.fitsLong()) {
+      return hashes
+    }
+    val maxHeaders = if (query.maxHeaders.fitsInt()) {
+      Math.min(query.maxHeaders.intValue(), MAX_HEADERS_PER_QUERY)
+    } else {
+      MAX_HEADERS_PER_QUERY
+    }
+    val range = repo.findCanonicalBlockHashes(
+      start.toLong(),
+      maxHeaders,
+      query.skip.toLong(),
+      query.direction == GetBlockHeadersMessage.BlockHeaderQuery.Direction.BACKWARDS
+    )
+    // a query by hash of a block outside of the canonical chain is answered with that block only
+    val byHash = hashes.first() == Hash.fromBytes(query.blockNumberOrBlockHash)
+    return if (range.isEmpty() || (byHash && range.first() != hashes.first())) hashes else range
+  }
+
   override fun handleNewPeerConnection(connectionId: String): AsyncCompletion {
     return asyncCompletion {
         val head = repo.retrieveChainHead()!!
@@ -307,6 +307,76 @@ constructor() {
       assertTrue(blockHeaders.blockHeaders.isEmpty())
   }
 
+  @Test
+  @Throws(Exception::class)
+  fun limitHeadersServedForOversizedQuery(@LuceneIndexWriter writer: IndexWriter) =
+    runBlocking {
+      val service = MyRLPxService()
+      val genesis = childHeader(null)
+      val repo = BlockchainRepository
+        .init(
+          MapKeyValueStore(),
+          MapKeyValueStore(),
+          MapKeyValueStore(),
+          MapKeyValueStore(),
+          BlockchainIndex(writer),
+          Block(genesis, BlockBody(emptyList(), emptyList()))
+        )
+      var parent = genesis
+      for (i in 1..250) {
+        parent = childHeader(parent)
+        repo.storeBlockHeader(parent)
+      }
+      val handler = LESSubProtocolHandler(
+        service,
+        LES_ID,
+        1,
+        false,
+        UInt256.ZERO,
+        UInt256.ZERO,
+        UInt256.ZERO,
+        UInt256.ZERO,
+        UInt256.ZERO,
+        repo
+      )
+      val status = StatusMessage(
+        2,
+        1,
+        UInt256.valueOf(23),
+        Bytes32.random(),
+        UInt256.valueOf(3443),
+        Bytes32.random(), null,
+        UInt256.valueOf(333),
+        UInt256.valueOf(453),
+        true,
+        UInt256.valueOf(3),
+        UInt256.valueOf(4),
+        UInt256.valueOf(5),
+        0
+      ).toBytes()
+      handler.handleNewPeerConnection("abc").await()
+      handler.handle("abc", 0, status).await()
+
+      handler.handle(
+        "abc",
+        2,
+        GetBlockHeadersMessage(
+          1,
+          listOf(
+            GetBlockHeadersMessage.BlockHeaderQuery(
+              genesis.hash().toBytes(),
+              UInt256.valueOf(100000),
+              UInt256.valueOf(0),
+              GetBlockHeadersMessage.BlockHeaderQuery.Direction.FORWARD
+            )
+          )
+        ).toBytes()
+      ).await()
+      val blockHeaders = BlockHeadersMessage.read(service.message!!)
+      assertEquals(LESSubProtocolHandler.MAX_HEADERS_PER_QUERY, blockHeaders.blockHeaders.size)
+      assertEquals(genesis, blockHeaders.blockHeaders[0])
+    }
+
   @Test
   @Throws(Exception::class)
   fun receivedBlockHeadersMessage(@LuceneIndexWriter writer: IndexWriter) =
@@ -475,4 +545,22 @@ constructor() {
       val receipts = ReceiptsMessage.read(received!!)
       assertTrue(receipts.receipts.isEmpty())
     }
+
+  private fun childHeader(parent: BlockHeader?): BlockHeader = BlockHeader(
+    parent?.hash(),
+    Hash.fromBytes(Bytes32.random()),
+    Address.fromBytes(Bytes.random(20)),
+    Hash.fromBytes(Bytes32.random()),
+    Hash.fromBytes(Bytes32.random()),
+    Hash.fromBytes(Bytes32.random()),
+    Bytes32.random(),
+    UInt256.valueOf(1),
+    parent?.number()?.add(UInt256.valueOf(1)) ?: UInt256.valueOf(0),
+    Gas.valueOf(3000),
+    Gas.valueOf(2000),
+    Instant.now().truncatedTo(ChronoUnit.SECONDS),
+    Bytes.of(2, 3, 4),
+    Hash.fromBytes(Bytes32.random()),
+    Bytes32.random()
+  )
 }
@@ -0,0 +1,518 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp.codegen;
+
+import net.consensys.cava.rlp.RLPCodec;
+import net.consensys.cava.rlp.RLPField;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * An annotation processor generating codecs for classes annotated with {@link RLPCodec}.
+ *
+ * <p>
+ * For a class {@code Outer.Inner}, the codec {@code RLPCodec_Outer_Inner} is generated in the same package. Generated
+ * codecs call the {@link net.consensys.cava.rlp.RLPWriter} and {@link net.consensys.cava.rlp.RLPReader} methods for
+ * each field directly, and read fields into local variables of their declared types before invoking the constructor.
+ * Lists and nested codecs are written and read in loops between calls starting and ending the list, so that no
+ * function is created for their values.
+ */
+public final class RLPCodecProcessor extends AbstractProcessor {
+
+  private static final String CODEC_PREFIX = "RLPCodec_";
+  private static final String RLP_READER = "net.consensys.cava.rlp.RLPReader";
+  private static final String RLP_WRITER = "net.consensys.cava.rlp.RLPWriter";
+  private static final String RLP_TYPE_CODEC = "net.consensys.cava.rlp.RLPTypeCodec";
+  private static final String BYTES = "net.consensys.cava.bytes.Bytes";
+  private static final String UINT256 = "net.consensys.cava.units.bigints.UInt256";
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return new HashSet<>(Arrays.asList(RLPCodec.class.getName(), RLPField.class.getName()));
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (Element element : roundEnv.getElementsAnnotatedWith(RLPCodec.class)) {
+      try {
+        generate((TypeElement) element);
+      } catch (InvalidCodecException e) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+      } catch (IOException e) {
+        processingEnv.getMessager().printMessage(
+            Diagnostic.Kind.ERROR,
+            "Unable to write RLP codec: " + e.getMessage(),
+            element);
+      }
+    }
+    return true;
+  }
+
+  private void generate(TypeElement type) throws IOException {
+    checkCodecType(type);
+    List<VariableElement> fields = new ArrayList<>();
+    for (Element member : type.getEnclosedElements()) {
+      if (member.getKind() == ElementKind.FIELD && member.getAnnotation(RLPField.class) != null) {
+        if (member.getModifiers().contains(Modifier.STATIC)) {
+          throw new InvalidCodecException("@RLPField cannot be applied to a static field", member);
+        }
+        fields.add((VariableElement) member);
+      }
+    }
+    fields.sort(Comparator.comparingInt(field -> field.getAnnotation(RLPField.class).value()));
+    for (int i = 1; i < fields.size(); i++) {
+      if (position(fields.get(i - 1)) == position(fields.get(i))) {
+        throw new InvalidCodecException("Duplicate @RLPField position " + position(fields.get(i)), fields.get(i));
+      }
+    }
+    int[] arguments = constructorArguments(type, fields);
+
+    String packageName = packageOf(type).getQualifiedName().toString();
+    String codecName = codecName(type);
+    String typeName = type.getQualifiedName().toString();
+
+    StringBuilder source = new StringBuilder();
+    if (!packageName.isEmpty()) {
+      source.append("package ").append(packageName).append(";\n\n");
+    }
+    TypeElement generated = generatedAnnotation();
+    if (generated != null) {
+      source.append("@").append(generated.getQualifiedName()).append("(\"").append(getClass().getName()).append(
+          "\")\n");
+    }
+    source.append("public final class ").append(codecName).append(" implements ").append(RLP_TYPE_CODEC).append("<")
+        .append(typeName).append("> {\n\n");
+    source.append("  public static final ").append(codecName).append(" INSTANCE = new ").append(codecName).append(
+        "();\n\n");
+    source.append("  private ").append(codecName).append("() {}\n\n");
+
+    source.append("  @Override\n");
+    source.append("  public void writeTo(").append(typeName).append(" value, ").append(RLP_WRITER).append(
+        " writer) {\n");
+    for (VariableElement field : fields) {
+      write(source, field.asType(), accessor(type, field), 2, 1, field);
+    }
+    source.append("  }\n\n");
+
+    source.append("  @Override\n");
+    source.append("  public ").append(typeName).append(" readFrom(").append(RLP_READER).append(" reader) {\n");
+    for (int i = 0; i < fields.size(); i++) {
+      read(source, fields.get(i).asType(), "field" + i, 2, 1, fields.get(i));
+    }
+    source.append("    return new ").append(typeName).append("(");
+    for (int i = 0; i < arguments.length; i++) {
+      source.append((i == 0) ? "" : ", ").append("field").append(arguments[i]);
+    }
+    source.append(");\n");
+    source.append("  }\n");
+    source.append("}\n");
+
+    String qualifiedCodecName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+    try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedCodecName, type).openWriter()) {
+      writer.write(source.toString());
+    }
+  }
+
+  /**
+   * Append the statements writing a value.
+   */
+  private void write(StringBuilder source, TypeMirror type, String value, int indent, int depth, Element field) {
+    String statement = writeValue(type, value);
+    if (statement != null) {
+      line(source, indent, "writer." + statement + ";");
+      return;
+    }
+    if (type.getKind() == TypeKind.DECLARED) {
+      TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+      if (element.getQualifiedName().contentEquals("java.util.List")) {
+        TypeMirror elementType = listElementType(type, field);
+        String elementValue = "e" + depth;
+        line(source, indent, "writer.startList();");
+        line(source, indent, "for (" + elementType + " " + elementValue + " : " + value + ") {");
+        write(source, elementType, elementValue, indent + 1, depth + 1, field);
+        line(source, indent, "}");
+        line(source, indent, "writer.endList();");
+        return;
+      }
+      if (element.getAnnotation(RLPCodec.class) != null) {
+        line(source, indent, "writer.startList();");
+        line(source, indent, qualifiedCodecName(element) + ".INSTANCE.writeTo(" + value + ", writer);");
+        line(source, indent, "writer.endList();");
+        return;
+      }
+    }
+    throw new InvalidCodecException("Unsupported type " + type + " for @RLPField", field);
+  }
+
+  /**
+   * Provide the call to the writer method for a value written as a single RLP value, or null if the value is not.
+   */
+  private String writeValue(TypeMirror type, String value) {
+    switch (type.getKind()) {
+      case BYTE:
+        return "writeByte(" + value + ")";
+      case INT:
+        return "writeInt(" + value + ")";
+      case LONG:
+        return "writeLong(" + value + ")";
+      case ARRAY:
+        return isByteArray(type) ? "writeByteArray(" + value + ")" : null;
+      case DECLARED:
+        switch (qualifiedName(type)) {
+          case "java.lang.Byte":
+            return "writeByte(" + value + ")";
+          case "java.lang.Integer":
+            return "writeInt(" + value + ")";
+          case "java.lang.Long":
+            return "writeLong(" + value + ")";
+          case "java.math.BigInteger":
+            return "writeBigInteger(" + value + ")";
+          case UINT256:
+            return "writeUInt256(" + value + ")";
+          case "java.lang.String":
+            return "writeString(" + value + ")";
+          case BYTES:
+            return "writeValue(" + value + ")";
+          default:
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            if (hasWrap(element, type)) {
+              return "writeValue(" + value + ")";
+            }
+            if (hasFromBytes(element, type)) {
+              return "writeValue(" + value + ".toBytes())";
+            }
+            return null;
+        }
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Append the statements reading a value into a new local variable.
+   */
+  private void read(StringBuilder source, TypeMirror type, String variable, int indent, int depth, Element field) {
+    String expression = readValue(type);
+    if (expression != null) {
+      line(source, indent, type + " " + variable + " = " + expression + ";");
+      return;
+    }
+    if (type.getKind() == TypeKind.DECLARED) {
+      TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+      if (element.getQualifiedName().contentEquals("java.util.List")) {
+        TypeMirror elementType = listElementType(type, field);
+        String elementVariable = "e" + depth;
+        line(source, indent, type + " " + variable + " = new java.util.ArrayList<>();");
+        line(source, indent, "reader.enterList();");
+        line(source, indent, "while (!reader.isComplete()) {");
+        read(source, elementType, elementVariable, indent + 1, depth + 1, field);
+        line(source, indent + 1, variable + ".add(" + elementVariable + ");");
+        line(source, indent, "}");
+        line(source, indent, "reader.exitList();");
+        return;
+      }
+      if (element.getAnnotation(RLPCodec.class) != null) {
+        line(source, indent, "reader.enterList();");
+        line(
+            source,
+            indent,
+            type + " " + variable + " = " + qualifiedCodecName(element) + ".INSTANCE.readFrom(reader);");
+        line(source, indent, "reader.exitList();");
+        return;
+      }
+    }
+    throw new InvalidCodecException("Unsupported type " + type + " for @RLPField", field);
+  }
+
+  /**
+   * Provide the expression reading a value encoded as a single RLP value, or null if the value is not.
+   */
+  private String readValue(TypeMirror type) {
+    switch (type.getKind()) {
+      case BYTE:
+        return "reader.readByte()";
+      case INT:
+        return "reader.readInt()";
+      case LONG:
+        return "reader.readLong()";
+      case ARRAY:
+        return isByteArray(type) ? "reader.readByteArray()" : null;
+      case DECLARED:
+        switch (qualifiedName(type)) {
+          case "java.lang.Byte":
+            return "reader.readByte()";
+          case "java.lang.Integer":
+            return "reader.readInt()";
+          case "java.lang.Long":
+            return "reader.readLong()";
+          case "java.math.BigInteger":
+            return "reader.readBigInteger()";
+          case UINT256:
+            return "reader.readUInt256()";
+          case "java.lang.String":
+            return "reader.readString()";
+          case BYTES:
+            return "reader.readValue()";
+          default:
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            if (hasWrap(element, type)) {
+              return element.getQualifiedName() + ".wrap(reader.readValue())";
+            }
+            if (hasFromBytes(element, type)) {
+              return element.getQualifiedName() + ".fromBytes(reader.readValue())";
+            }
+            return null;
+        }
+      default:
+        return null;
+    }
+  }
+
+  private void checkCodecType(TypeElement type) {
+    if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+      throw new InvalidCodecException("@RLPCodec can only be applied to concrete classes", type);
+    }
+    if (!type.getTypeParameters().isEmpty()) {
+      throw new InvalidCodecException("@RLPCodec cannot be applied to generic classes", type);
+    }
+    for (Element element = type; element.getKind() != ElementKind.PACKAGE; element = element.getEnclosingElement()) {
+      TypeElement enclosing = (TypeElement) element;
+      if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+        throw new InvalidCodecException("@RLPCodec cannot be applied to private classes", type);
+      }
+      if (enclosing.getNestingKind() == NestingKind.MEMBER && !enclosing.getModifiers().contains(Modifier.STATIC)) {
+        throw new InvalidCodecException("@RLPCodec cannot be applied to inner classes", type);
+      }
+      if (enclosing.getNestingKind() != NestingKind.TOP_LEVEL && enclosing.getNestingKind() != NestingKind.MEMBER) {
+        throw new InvalidCodecException("@RLPCodec cannot be applied to local or anonymous classes", type);
+      }
+    }
+  }
+
+  /**
+   * Find the non-private constructor taking the annotated fields, either as parameters of the same names and types in
+   * any order, or as parameters of the same types in position order.
+   *
+   * @return The index of the field passed as each parameter of the constructor.
+   */
+  private int[] constructorArguments(TypeElement type, List<VariableElement> fields) {
+    int[] positional = null;
+    for (Element member : type.getEnclosedElements()) {
+      if (member.getKind() != ElementKind.CONSTRUCTOR || member.getModifiers().contains(Modifier.PRIVATE)) {
+        continue;
+      }
+      List<? extends VariableElement> parameters = ((ExecutableElement) member).getParameters();
+      if (parameters.size() != fields.size()) {
+        continue;
+      }
+      int[] named = new int[parameters.size()];
+      boolean matchesNames = true;
+      boolean matchesPositions = true;
+      for (int i = 0; i < parameters.size(); i++) {
+        VariableElement parameter = parameters.get(i);
+        named[i] = -1;
+        for (int j = 0; j < fields.size(); j++) {
+          if (fields.get(j).getSimpleName().equals(parameter.getSimpleName())
+              && processingEnv.getTypeUtils().isSameType(parameter.asType(), fields.get(j).asType())) {
+            named[i] = j;
+            break;
+          }
+        }
+        matchesNames &= named[i] >= 0;
+        matchesPositions &= processingEnv.getTypeUtils().isSameType(parameter.asType(), fields.get(i).asType());
+      }
+      if (matchesNames) {
+        return named;
+      }
+      if (matchesPositions && positional == null) {
+        positional = new int[fields.size()];
+        for (int i = 0; i < positional.length; i++) {
+          positional[i] = i;
+        }
+      }
+    }
+    if (positional != null) {
+      return positional;
+    }
+    String parameters = fields.stream().map(field -> field.asType().toString()).collect(Collectors.joining(", "));
+    throw new InvalidCodecException(
+        "@RLPCodec requires a non-private constructor (" + parameters + "), or taking these fields by name",
+        type);
+  }
+
+  private String accessor(TypeElement type, VariableElement field) {
+    String name = field.getSimpleName().toString();
+    if (!field.getModifiers().contains(Modifier.PRIVATE)) {
+      return "value." + name;
+    }
+    for (Element member : type.getEnclosedElements()) {
+      if (member.getKind() == ElementKind.METHOD
+          && member.getSimpleName().contentEquals(name)
+          && !member.getModifiers().contains(Modifier.PRIVATE)
+          && !member.getModifiers().contains(Modifier.STATIC)) {
+        ExecutableElement method = (ExecutableElement) member;
+        if (method.getParameters().isEmpty()
+            && processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType())) {
+          return "value." + name + "()";
+        }
+      }
+    }
+    throw new InvalidCodecException("Private @RLPField " + name + " requires a non-private accessor method", field);
+  }
+
+  private TypeMirror listElementType(TypeMirror type, Element field) {
+    List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+    if (arguments.size() != 1
+        || (arguments.get(0).getKind() != TypeKind.DECLARED && arguments.get(0).getKind() != TypeKind.ARRAY)) {
+      throw new InvalidCodecException("Unsupported type " + type + " for @RLPField", field);
+    }
+    return arguments.get(0);
+  }
+
+  private boolean hasWrap(TypeElement element, TypeMirror type) {
+    TypeElement bytes = processingEnv.getElementUtils().getTypeElement(BYTES);
+    if (bytes == null || !processingEnv.getTypeUtils().isAssignable(type, bytes.asType())) {
+      return false;
+    }
+    for (Element member : element.getEnclosedElements()) {
+      if (member.getKind() == ElementKind.METHOD
+          && member.getSimpleName().contentEquals("wrap")
+          && member.getModifiers().contains(Modifier.PUBLIC)
+          && member.getModifiers().contains(Modifier.STATIC)) {
+        ExecutableElement method = (ExecutableElement) member;
+        if (method.getParameters().size() == 1
+            && processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), bytes.asType())
+            && processingEnv.getTypeUtils().isSameType(method.getReturnType(), type)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private boolean hasFromBytes(TypeElement element, TypeMirror type) {
+    TypeElement bytes = processingEnv.getElementUtils().getTypeElement(BYTES);
+    if (bytes == null) {
+      return false;
+    }
+    boolean fromBytes = false;
+    boolean toBytes = false;
+    for (Element member : element.getEnclosedElements()) {
+      if (member.getKind() != ElementKind.METHOD || !member.getModifiers().contains(Modifier.PUBLIC)) {
+        continue;
+      }
+      ExecutableElement method = (ExecutableElement) member;
+      boolean isStatic = method.getModifiers().contains(Modifier.STATIC);
+      if (isStatic
+          && method.getSimpleName().contentEquals("fromBytes")
+          && method.getParameters().size() == 1
+          && processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), bytes.asType())
+          && processingEnv.getTypeUtils().isSameType(method.getReturnType(), type)) {
+        fromBytes = true;
+      } else if (!isStatic
+          && method.getSimpleName().contentEquals("toBytes")
+          && method.getParameters().isEmpty()
+          && processingEnv.getTypeUtils().isAssignable(method.getReturnType(), bytes.asType())) {
+        toBytes = true;
+      }
+    }
+    return fromBytes && toBytes;
+  }
+
+  private TypeElement generatedAnnotation() {
+    TypeElement generated = processingEnv.getElementUtils().getTypeElement("javax.annotation.processing.Generated");
+    if (generated == null) {
+      generated = processingEnv.getElementUtils().getTypeElement("javax.annotation.Generated");
+    }
+    return generated;
+  }
+
+  private String qualifiedCodecName(TypeElement type) {
+    String packageName = packageOf(type).getQualifiedName().toString();
+    return packageName.isEmpty() ? codecName(type) : packageName + "." + codecName(type);
+  }
+
+  private static String codecName(TypeElement type) {
+    String name = type.getSimpleName().toString();
+    for (Element element = type.getEnclosingElement(); element.getKind() != ElementKind.PACKAGE;
+        element = element.getEnclosingElement()) {
+      name = element.getSimpleName() + "_" + name;
+    }
+    return CODEC_PREFIX + name;
+  }
+
+  private static PackageElement packageOf(Element element) {
+    while (element.getKind() != ElementKind.PACKAGE) {
+      element = element.getEnclosingElement();
+    }
+    return (PackageElement) element;
+  }
+
+  private static String qualifiedName(TypeMirror type) {
+    return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+  }
+
+  private static boolean isByteArray(TypeMirror type) {
+    return type.getKind() == TypeKind.ARRAY
+        && ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE;
+  }
+
+  private static int position(VariableElement field) {
+    return field.getAnnotation(RLPField.class).value();
+  }
+
+  private static void line(StringBuilder source, int indent, String line) {
+    for (int i = 0; i < indent; i++) {
+      source.append("  ");
+    }
+    source.append(line).append('\n');
+  }
+
+  private static final class InvalidCodecException extends RuntimeException {
+    private final Element element;
+
+    InvalidCodecException(String message, Element element) {
+      super(message);
+      this.element = element;
+    }
+  }
+}
@@ -0,0 +1,11 @@
+/**
+ * Compile-time generation of RLP codecs.
+ * <p>
+ * The annotation processor in this package generates codecs for classes annotated with
+ * {@link net.consensys.cava.rlp.RLPCodec}. It is enabled by adding 'net.consensys.cava:cava-rlp-codegen' to the
+ * annotation processor path, for example using the gradle configuration {@code annotationProcessor}.
+ */
+@ParametersAreNonnullByDefault
+package net.consensys.cava.rlp.codegen;
+
+import javax.annotation.ParametersAreNonnullByDefault;
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import net.consensys.cava.bytes.Bytes;
+import net.consensys.cava.bytes.Bytes32;
+import net.consensys.cava.units.bigints.UInt256;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RLPCodecTest {
+
+  @RLPCodec
+  static final class Account {
+    @RLPField(0)
+    final long nonce;
+    @RLPField(1)
+    final UInt256 balance;
+    @RLPField(2)
+    private final Bytes32 storageRoot;
+    @RLPField(3)
+    final byte[] code;
+
+    Account(long nonce, UInt256 balance, Bytes32 storageRoot, byte[] code) {
+      this.nonce = nonce;
+      this.balance = balance;
+      this.storageRoot = storageRoot;
+      this.code = code;
+    }
+
+    Bytes32 storageRoot() {
+      return storageRoot;
+    }
+  }
+
+  @RLPCodec
+  static final class Message {
+    @RLPField(1)
+    final String name;
+    @RLPField(0)
+    final int id;
+    @RLPField(2)
+    final List<Account> accounts;
+    @RLPField(3)
+    final List<List<Bytes>> groups;
+    @RLPField(4)
+    final BigInteger total;
+    final String ignored;
+
+    Message(int id, String name, List<Account> accounts, List<List<Bytes>> groups, BigInteger total) {
+      this.name = name;
+      this.id = id;
+      this.accounts = accounts;
+      this.groups = groups;
+      this.total = total;
+      this.ignored = "ignored";
+    }
+  }
+
+  static final class Id {
+    private final Bytes bytes;
+
+    private Id(Bytes bytes) {
+      this.bytes = bytes;
+    }
+
+    public static Id fromBytes(Bytes bytes) {
+      return new Id(bytes);
+    }
+
+    public Bytes toBytes() {
+      return bytes;
+    }
+  }
+
+  @RLPCodec
+  static final class Entry {
+    @RLPField(0)
+    final Id id;
+    @RLPField(1)
+    final List<Id> children;
+    @RLPField(2)
+    final long weight;
+
+    Entry(long weight, Id id, List<Id> children) {
+      this.id = id;
+      this.children = children;
+      this.weight = weight;
+    }
+  }
+
+  private static void writeAccount(RLPWriter writer, Account account) {
+    writer.writeLong(account.nonce);
+    writer.writeUInt256(account.balance);
+    writer.writeValue(account.storageRoot());
+    writer.writeByteArray(account.code);
+  }
+
+  @Test
+  void shouldEncodeLikeHandWrittenCode() {
+    Account account = new Account(7L, UInt256.valueOf(100000L), Bytes32.random(), new byte[] {1, 2, 3});
+    Bytes encoded = RLP.codec(Account.class).encode(account);
+    assertEquals(RLP.encodeList(writer -> writeAccount(writer, account)), encoded);
+
+    Account decoded = RLP.codec(Account.class).decode(encoded);
+    assertEquals(account.nonce, decoded.nonce);
+    assertEquals(account.balance, decoded.balance);
+    assertEquals(account.storageRoot(), decoded.storageRoot());
+    assertArrayEquals(account.code, decoded.code);
+  }
+
+  @Test
+  void shouldEncodeFieldsInPositionOrder() {
+    Account account = new Account(0L, UInt256.ZERO, Bytes32.ZERO, new byte[0]);
+    List<List<Bytes>> groups = Arrays.asList(Collections.emptyList(), Arrays.asList(Bytes.of(1), Bytes.of(2, 3)));
+    Message message = new Message(42, "hello", Arrays.asList(account, account), groups, BigInteger.TEN);
+    Bytes encoded = RLP.codec(Message.class).encode(message);
+    assertEquals(RLP.encodeList(writer -> {
+      writer.writeInt(42);
+      writer.writeString("hello");
+      writer.writeList(Arrays.asList(account, account), (listWriter, a) -> {
+        listWriter.writeList(accountWriter -> writeAccount(accountWriter, a));
+      });
+      writer.writeList(groups, (listWriter, group) -> listWriter.writeList(group, RLPWriter::writeValue));
+      writer.writeBigInteger(BigInteger.TEN);
+    }), encoded);
+
+    Message decoded = RLP.decodeList(encoded, RLP.codec(Message.class)::readFrom);
+    assertEquals(42, decoded.id);
+    assertEquals("hello", decoded.name);
+    assertEquals(2, decoded.accounts.size());
+    assertEquals(Bytes32.ZERO, decoded.accounts.get(1).storageRoot());
+    assertEquals(groups, decoded.groups);
+    assertEquals(BigInteger.TEN, decoded.total);
+  }
+
+  @Test
+  void shouldEncodeValueTypesAndMatchConstructorParametersByName() {
+    Entry entry = new Entry(3L, Id.fromBytes(Bytes.of(1, 2)), Arrays.asList(Id.fromBytes(Bytes32.random())));
+    Bytes encoded = RLP.codec(Entry.class).encode(entry);
+    assertEquals(RLP.encodeList(writer -> {
+      writer.writeValue(entry.id.toBytes());
+      writer.writeList(entry.children, (listWriter, child) -> listWriter.writeValue(child.toBytes()));
+      writer.writeLong(3L);
+    }), encoded);
+
+    Entry decoded = RLP.codec(Entry.class).decode(encoded);
+    assertEquals(entry.id.toBytes(), decoded.id.toBytes());
+    assertEquals(entry.children.get(0).toBytes(), decoded.children.get(0).toBytes());
+    assertEquals(3L, decoded.weight);
+  }
+
+  @Test
+  void shouldRejectClassesWithoutGeneratedCodecs() {
+    assertThrows(IllegalArgumentException.class, () -> RLP.codec(RLPCodecTest.class));
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp;
+
+import net.consensys.cava.bytes.Bytes;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * An RLP reader over the readable bytes of a Netty {@link ByteBuf}.
+ *
+ * <p>
+ * Bytes are read in place, and values are returned as slices sharing the memory of the buffer. Lists are read by
+ * bounding a new reader to the range of the list, without slicing the buffer, or by bounding this reader when they are
+ * entered.
+ */
+final class ByteBufRLPReader implements RLPReader {
+
+  private final ByteBuf buffer;
+  private final boolean lenient;
+  private int index;
+  private int end;
+  // the ends of the enclosing entered lists
+  private int[] ends = new int[8];
+  private int depth;
+
+  // set when reading a prefix
+  private int payloadIndex;
+  private int payloadLength;
+
+  ByteBufRLPReader(ByteBuf buffer, int start, int end, boolean lenient) {
+    this.buffer = buffer;
+    this.index = start;
+    this.end = end;
+    this.lenient = lenient;
+  }
+
+  @Override
+  public boolean isLenient() {
+    return lenient;
+  }
+
+  @Override
+  public Bytes readValue(boolean lenient) {
+    int prefix = nextPrefix();
+    if (prefix <= 0x7f) {
+      return Bytes.wrapByteBuf(buffer, index++, 1);
+    }
+    if (prefix > 0xbf) {
+      throw new InvalidRLPTypeException("Attempted to read a value but next item is a list");
+    }
+    readPrefix(prefix, lenient);
+    checkSingleByte(lenient);
+    index = payloadIndex + payloadLength;
+    return Bytes.wrapByteBuf(buffer, payloadIndex, payloadLength);
+  }
+
+  @Override
+  public boolean nextIsList() {
+    return nextPrefix() > 0xbf;
+  }
+
+  @Override
+  public boolean nextIsEmpty() {
+    return nextPrefix() == 0x80;
+  }
+
+  @Override
+  public <T> T readList(boolean lenient, Function<RLPReader, T> fn) {
+    int prefix = nextPrefix();
+    if (prefix <= 0xbf) {
+      throw new InvalidRLPTypeException("Attempted to read a list but next item is a value");
+    }
+    readPrefix(prefix, lenient);
+    index = payloadIndex + payloadLength;
+    return fn.apply(new ByteBufRLPReader(buffer, payloadIndex, index, lenient));
+  }
+
+  @Override
+  public void enterList(boolean lenient) {
+    int prefix = nextPrefix();
+    if (prefix <= 0xbf) {
+      throw new InvalidRLPTypeException("Attempted to read a list but next item is a value");
+    }
+    readPrefix(prefix, lenient);
+    if (depth == ends.length) {
+      ends = Arrays.copyOf(ends, depth * 2);
+    }
+    ends[depth++] = end;
+    index = payloadIndex;
+    end = payloadIndex + payloadLength;
+  }
+
+  @Override
+  public void exitList() {
+    if (depth == 0) {
+      throw new IllegalStateException("No list was entered");
+    }
+    index = end;
+    end = ends[--depth];
+  }
+
+  @Override
+  public void skipNext(boolean lenient) {
+    int prefix = nextPrefix();
+    if (prefix <= 0x7f) {
+      index++;
+      return;
+    }
+    readPrefix(prefix, lenient);
+    if (prefix <= 0xbf) {
+      checkSingleByte(lenient);
+    }
+    index = payloadIndex + payloadLength;
+  }
+
+  @Override
+  public int remaining() {
+    int oldIndex = index;
+    try {
+      int count = 0;
+      while (!isComplete()) {
+        count++;
+        skipNext();
+      }
+      return count;
+    } finally {
+      index = oldIndex;
+    }
+  }
+
+  @Override
+  public boolean isComplete() {
+    return index >= end;
+  }
+
+  private int nextPrefix() {
+    if (index >= end) {
+      throw new EndOfRLPException();
+    }
+    return buffer.getByte(index) & 0xFF;
+  }
+
+  /**
+   * Decode the prefix of the next item, which is not a single byte, into its payload range.
+   */
+  private void readPrefix(int prefix, boolean lenient) {
+    int remaining = end - index - 1;
+    if (prefix <= 0xb7 || (prefix >= 0xc0 && prefix <= 0xf7)) {
+      payloadLength = prefix - ((prefix <= 0xb7) ? 0x80 : 0xc0);
+      payloadIndex = index + 1;
+    } else {
+      int lengthOfLength = prefix - ((prefix <= 0xbf) ? 0xb7 : 0xf7);
+      if (remaining < lengthOfLength) {
+        throw new InvalidRLPEncodingException(
+            "Insufficient bytes in RLP encoding: expected " + lengthOfLength + " but have only " + remaining);
+      }
+      remaining -= lengthOfLength;
+      payloadLength = readLength(lengthOfLength, lenient, (prefix <= 0xbf) ? "value" : "list");
+      payloadIndex = index + 1 + lengthOfLength;
+    }
+    if (remaining < payloadLength) {
+      throw new InvalidRLPEncodingException(
+          "Insufficient bytes in RLP encoding: expected " + payloadLength + " but have only " + remaining);
+    }
+  }
+
+  private int readLength(int lengthOfLength, boolean lenient, String type) {
+    int lengthIndex = index + 1;
+    if (!lenient && buffer.getByte(lengthIndex) == 0) {
+      throw new InvalidRLPEncodingException("RLP " + type + " length contains leading zero bytes");
+    }
+    long length = 0;
+    for (int i = 0; i < lengthOfLength; i++) {
+      length = (length << 8) | (buffer.getByte(lengthIndex + i) & 0xFF);
+      if (length > Integer.MAX_VALUE) {
+        throw new InvalidRLPEncodingException("RLP " + type + " length is oversized");
+      }
+    }
+    if (length == 0) {
+      throw new InvalidRLPEncodingException("RLP " + type + " length is zero");
+    }
+    if (!lenient && length <= 55) {
+      throw new InvalidRLPEncodingException("RLP " + type + " length of " + length + " was not minimally encoded");
+    }
+    return (int) length;
+  }
+
+  private void checkSingleByte(boolean lenient) {
+    if (!lenient && payloadLength == 1 && (buffer.getByte(payloadIndex) & 0xFF) <= 0x7f) {
+      throw new InvalidRLPEncodingException(
+          "Value should have been encoded as a single byte " + Bytes.of(buffer.getByte(payloadIndex)).toHexString());
+    }
+  }
+}
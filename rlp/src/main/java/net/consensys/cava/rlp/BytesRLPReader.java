@@ -14,6 +14,7 @@ package net.consensys.cava.rlp;
 
 import net.consensys.cava.bytes.Bytes;
 
+import java.util.Arrays;
 import java.util.function.Function;
 
 final class BytesRLPReader implements RLPReader {
@@ -21,10 +22,15 @@ final class BytesRLPReader implements RLPReader {
   private final Bytes content;
   private boolean lenient;
   private int index = 0;
+  private int end;
+  // the ends of the enclosing entered lists
+  private int[] ends = new int[8];
+  private int depth;
 
   BytesRLPReader(Bytes content, boolean lenient) {
     this.content = content;
     this.lenient = lenient;
+    this.end = content.size();
   }
 
   @Override
@@ -34,7 +40,7 @@ final class BytesRLPReader implements RLPReader {
 
   @Override
   public Bytes readValue(boolean lenient) {
-    int remaining = content.size() - index;
+    int remaining = end - index;
     if (remaining == 0) {
       throw new EndOfRLPException();
     }
@@ -82,7 +88,7 @@ final class BytesRLPReader implements RLPReader {
 
   @Override
   public boolean nextIsList() {
-    int remaining = content.size() - index;
+    int remaining = end - index;
     if (remaining == 0) {
       throw new EndOfRLPException();
     }
@@ -92,7 +98,7 @@ final class BytesRLPReader implements RLPReader {
 
   @Override
   public boolean nextIsEmpty() {
-    int remaining = content.size() - index;
+    int remaining = end - index;
     if (remaining == 0) {
       throw new EndOfRLPException();
     }
@@ -105,9 +111,28 @@ final class BytesRLPReader implements RLPReader {
     return fn.apply(new BytesRLPReader(readList(lenient), lenient));
   }
 
+  @Override
+  public void enterList(boolean lenient) {
+    int length = readListPrefix(lenient);
+    if (depth == ends.length) {
+      ends = Arrays.copyOf(ends, depth * 2);
+    }
+    ends[depth++] = end;
+    end = index + length;
+  }
+
+  @Override
+  public void exitList() {
+    if (depth == 0) {
+      throw new IllegalStateException("No list was entered");
+    }
+    index = end;
+    end = ends[--depth];
+  }
+
   @Override
   public void skipNext(boolean lenient) {
-    int remaining = content.size() - index;
+    int remaining = end - index;
     if (remaining == 0) {
       throw new EndOfRLPException();
     }
@@ -193,11 +218,27 @@ final class BytesRLPReader implements RLPReader {
 
   @Override
   public boolean isComplete() {
-    return (content.size() - index) == 0;
+    return (end - index) == 0;
+  }
+
+  int position() {
+    return index;
+  }
+
+  Bytes readList(boolean lenient) {
+    int length = readListPrefix(lenient);
+    Bytes bytes = content.slice(index, length);
+    index += length;
+    return bytes;
   }
 
-  private Bytes readList(boolean lenient) {
-    int remaining = content.size() - index;
+  /**
+   * Consume the prefix of the next list.
+   *
+   * @return The length of the payload of the list, which starts at the current index.
+   */
+  private int readListPrefix(boolean lenient) {
+    int remaining = end - index;
     if (remaining == 0) {
       throw new EndOfRLPException();
     }
@@ -214,9 +255,7 @@ final class BytesRLPReader implements RLPReader {
             "Insufficient bytes in RLP encoding: expected " + length + " but have only " + remaining);
       }
       index++;
-      Bytes bytes = content.slice(index, length);
-      index += length;
-      return bytes;
+      return length;
     }
 
     int lengthOfLength = prefix - 0xf7;
@@ -234,9 +273,7 @@ final class BytesRLPReader implements RLPReader {
     }
 
     index += 1 + lengthOfLength;
-    Bytes bytes = content.slice(index, length);
-    index += length;
-    return bytes;
+    return length;
   }
 
   private int getLength(int lengthOfLength, boolean lenient, String type) {
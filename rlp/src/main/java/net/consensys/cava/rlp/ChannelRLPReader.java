@@ -0,0 +1,404 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp;
+
+import net.consensys.cava.bytes.Bytes;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * An RLP reader pulling its source from a channel, through a bounded buffer.
+ *
+ * <p>
+ * Values are copied out of the buffer as they are read, so that the buffer can be refilled. Values larger than the
+ * buffer are read directly from the channel into an array of their size. Lists are not materialized: reading a list
+ * bounds the reader to the end of the list until the reading function returns, or until the list is exited.
+ *
+ * <p>
+ * The channel must be blocking, as reads are retried until they return data. Non-blocking channels are rejected.
+ */
+final class ChannelRLPReader implements RLPReader {
+
+  private static final int SINGLE_BYTE = -1;
+  private static final int MAX_PREFIX_LENGTH = 5;
+
+  private final ReadableByteChannel channel;
+  private final ByteBuffer buffer;
+  private final boolean lenient;
+  private boolean endOfChannel;
+  // offset in the source of the next byte to consume
+  private long offset;
+  // the offsets in the source at which the enclosing lists end
+  private long[] ends = new long[8];
+  private int depth;
+
+  // set when reading a prefix
+  private boolean prefixIsList;
+  private int prefixLength;
+
+  ChannelRLPReader(ReadableByteChannel channel, int bufferSize, boolean lenient) {
+    if (bufferSize < MAX_PREFIX_LENGTH) {
+      throw new IllegalArgumentException("Invalid buffer size " + bufferSize);
+    }
+    if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+      throw new IllegalArgumentException("Channel must be in blocking mode");
+    }
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(bufferSize);
+    this.buffer.flip();
+    this.lenient = lenient;
+  }
+
+  /**
+   * Provide the top-level items of the source, each decoded by a function.
+   *
+   * @param fn A function that will be provided a {@link RLPReader} bounded to the next top-level item.
+   * @param <T> The result type of the reading function.
+   * @return An iterator over the results of the reading function.
+   */
+  <T> Iterator<T> items(Function<RLPReader, T> fn) {
+    return new Iterator<T>() {
+      @Override
+      public boolean hasNext() {
+        return !isComplete();
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        long start = offset;
+        int length = readPrefix(lenient);
+        long end = offset + (length == SINGLE_BYTE ? 1 : length);
+        rewind(start);
+        return readBounded(end, fn);
+      }
+    };
+  }
+
+  @Override
+  public boolean isLenient() {
+    return lenient;
+  }
+
+  @Override
+  public Bytes readValue(boolean lenient) {
+    int length = readPrefix(lenient);
+    if (prefixIsList) {
+      rewind(offset - prefixLength);
+      throw new InvalidRLPTypeException("Attempted to read a value but next item is a list");
+    }
+    if (length == SINGLE_BYTE) {
+      return Bytes.of(consumeByte());
+    }
+    byte[] value = consume(length);
+    if (!lenient && length == 1 && (value[0] & 0xFF) <= 0x7f) {
+      throw new InvalidRLPEncodingException(
+          "Value should have been encoded as a single byte " + Bytes.wrap(value).toHexString());
+    }
+    return Bytes.wrap(value);
+  }
+
+  @Override
+  public boolean nextIsList() {
+    return (peekByte() & 0xFF) > 0xbf;
+  }
+
+  @Override
+  public boolean nextIsEmpty() {
+    return (peekByte() & 0xFF) == 0x80;
+  }
+
+  @Override
+  public <T> T readList(boolean lenient, Function<RLPReader, T> fn) {
+    int length = readPrefix(lenient);
+    if (!prefixIsList) {
+      rewind(offset - prefixLength);
+      throw new InvalidRLPTypeException("Attempted to read a list but next item is a value");
+    }
+    return readBounded(offset + length, fn);
+  }
+
+  @Override
+  public void enterList(boolean lenient) {
+    int length = readPrefix(lenient);
+    if (!prefixIsList) {
+      rewind(offset - prefixLength);
+      throw new InvalidRLPTypeException("Attempted to read a list but next item is a value");
+    }
+    pushEnd(offset + length);
+  }
+
+  @Override
+  public void exitList() {
+    if (depth == 0) {
+      throw new IllegalStateException("No list was entered");
+    }
+    long end = ends[depth - 1];
+    if (offset < end) {
+      skip(end - offset);
+    }
+    depth--;
+  }
+
+  @Override
+  public void skipNext(boolean lenient) {
+    int length = readPrefix(lenient);
+    if (length == SINGLE_BYTE) {
+      skip(1);
+      return;
+    }
+    if (!prefixIsList && !lenient && length == 1 && (peekByte() & 0xFF) <= 0x7f) {
+      throw new InvalidRLPEncodingException(
+          "Value should have been encoded as a single byte " + Bytes.of(peekByte()).toHexString());
+    }
+    skip(length);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * The remaining items are counted by scanning ahead in the read buffer, so the remaining part of the enclosing list
+   * must fit in the buffer.
+   *
+   * @throws UnsupportedOperationException If the reader is not within a list, or if the remaining part of the list is
+   *         larger than the read buffer.
+   */
+  @Override
+  public int remaining() {
+    if (depth == 0) {
+      throw new UnsupportedOperationException("Cannot count the remaining items of a stream");
+    }
+    long available = ends[depth - 1] - offset;
+    if (available > buffer.capacity()) {
+      throw new UnsupportedOperationException("Cannot count the remaining items of a list larger than the buffer");
+    }
+    if (!fill((int) available)) {
+      throw new InvalidRLPEncodingException(
+          "Insufficient bytes in RLP encoding: expected " + available + " but have only " + buffer.remaining());
+    }
+    long start = offset;
+    try {
+      int count = 0;
+      while (!isComplete()) {
+        count++;
+        skipNext();
+      }
+      return count;
+    } finally {
+      rewind(start);
+    }
+  }
+
+  @Override
+  public boolean isComplete() {
+    if (depth > 0) {
+      return offset >= ends[depth - 1];
+    }
+    return !fill(1);
+  }
+
+  private <T> T readBounded(long end, Function<RLPReader, T> fn) {
+    pushEnd(end);
+    try {
+      T result = fn.apply(this);
+      if (offset < end) {
+        skip(end - offset);
+      }
+      return result;
+    } finally {
+      depth--;
+    }
+  }
+
+  private void pushEnd(long end) {
+    if (depth == ends.length) {
+      ends = Arrays.copyOf(ends, depth * 2);
+    }
+    ends[depth++] = end;
+  }
+
+  /**
+   * Consume the prefix of the next item.
+   *
+   * @return The length of the payload of the item, or {@link #SINGLE_BYTE} if the item is a byte encoded as itself, in
+   *         which case the byte is not consumed.
+   */
+  private int readPrefix(boolean lenient) {
+    int prefix = peekByte() & 0xFF;
+    prefixIsList = prefix > 0xbf;
+    if (prefix <= 0x7f) {
+      prefixLength = 0;
+      return SINGLE_BYTE;
+    }
+    int length;
+    if (prefix <= 0xb7 || (prefix >= 0xc0 && prefix <= 0xf7)) {
+      length = prefix - (prefixIsList ? 0xc0 : 0x80);
+      prefixLength = 1;
+      skip(1);
+    } else {
+      int lengthOfLength = prefix - (prefixIsList ? 0xf7 : 0xb7);
+      String type = prefixIsList ? "list" : "value";
+      if (!fill(1 + lengthOfLength) || remainingInList() < 1 + lengthOfLength) {
+        long available = Math.min(buffer.remaining(), remainingInList()) - 1;
+        throw new InvalidRLPEncodingException(
+            "Insufficient bytes in RLP encoding: expected " + lengthOfLength + " but have only " + available);
+      }
+      length = readLength(lengthOfLength, lenient, type);
+      prefixLength = 1 + lengthOfLength;
+    }
+    if (remainingInList() < length) {
+      throw new InvalidRLPEncodingException(
+          "Insufficient bytes in RLP encoding: expected " + length + " but have only " + remainingInList());
+    }
+    return length;
+  }
+
+  private int readLength(int lengthOfLength, boolean lenient, String type) {
+    buffer.get();
+    offset++;
+    long length = 0;
+    boolean leadingZero = (buffer.get(buffer.position()) == 0);
+    for (int i = 0; i < lengthOfLength; i++) {
+      length = (length << 8) | (buffer.get() & 0xFF);
+      offset++;
+      if (length > Integer.MAX_VALUE) {
+        throw new InvalidRLPEncodingException("RLP " + type + " length is oversized");
+      }
+    }
+    if (!lenient && leadingZero) {
+      throw new InvalidRLPEncodingException("RLP " + type + " length contains leading zero bytes");
+    }
+    if (length == 0) {
+      throw new InvalidRLPEncodingException("RLP " + type + " length is zero");
+    }
+    if (!lenient && length <= 55) {
+      throw new InvalidRLPEncodingException("RLP " + type + " length of " + length + " was not minimally encoded");
+    }
+    return (int) length;
+  }
+
+  private long remainingInList() {
+    return (depth > 0) ? ends[depth - 1] - offset : Long.MAX_VALUE;
+  }
+
+  private byte peekByte() {
+    if (remainingInList() == 0 || !fill(1)) {
+      throw new EndOfRLPException();
+    }
+    return buffer.get(buffer.position());
+  }
+
+  private byte consumeByte() {
+    offset++;
+    return buffer.get();
+  }
+
+  private byte[] consume(int length) {
+    byte[] value = new byte[length];
+    int copied = Math.min(length, buffer.remaining());
+    buffer.get(value, 0, copied);
+    if (copied < length) {
+      if (length - copied <= buffer.capacity()) {
+        requireFilled(length - copied);
+        buffer.get(value, copied, length - copied);
+      } else {
+        ByteBuffer target = ByteBuffer.wrap(value, copied, length - copied);
+        while (target.hasRemaining()) {
+          if (read(target) < 0) {
+            throw new InvalidRLPEncodingException(
+                "Insufficient bytes in RLP encoding: expected " + length + " but have only " + target.position());
+          }
+        }
+      }
+    }
+    offset += length;
+    return value;
+  }
+
+  private void skip(long length) {
+    long remaining = length;
+    while (remaining > 0) {
+      if (!buffer.hasRemaining()) {
+        requireFilled(1);
+      }
+      int skipped = (int) Math.min(remaining, buffer.remaining());
+      buffer.position(buffer.position() + skipped);
+      remaining -= skipped;
+    }
+    offset += length;
+  }
+
+  /**
+   * Move back to an earlier offset, which must still be held by the buffer.
+   */
+  private void rewind(long previousOffset) {
+    buffer.position(buffer.position() - (int) (offset - previousOffset));
+    offset = previousOffset;
+  }
+
+  private void requireFilled(int length) {
+    if (!fill(length)) {
+      throw new InvalidRLPEncodingException(
+          "Insufficient bytes in RLP encoding: expected " + length + " but have only " + buffer.remaining());
+    }
+  }
+
+  /**
+   * Ensure the buffer holds at least a number of unconsumed bytes, reading from the channel if needed.
+   *
+   * @param length The number of bytes wanted, at most the capacity of the buffer.
+   * @return {@code false} if the channel ended before enough bytes were read.
+   */
+  private boolean fill(int length) {
+    if (buffer.remaining() >= length) {
+      return true;
+    }
+    buffer.compact();
+    try {
+      while (buffer.position() < length && !endOfChannel) {
+        if (read(buffer) < 0) {
+          endOfChannel = true;
+        }
+      }
+    } finally {
+      buffer.flip();
+    }
+    return buffer.remaining() >= length;
+  }
+
+  private int read(ByteBuffer target) {
+    if (endOfChannel) {
+      return -1;
+    }
+    try {
+      int read = channel.read(target);
+      if (read < 0) {
+        endOfChannel = true;
+      }
+      return read;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -13,25 +13,50 @@
 package net.consensys.cava.rlp;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
 import net.consensys.cava.bytes.Bytes;
 
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ReadOnlyBufferException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
 import java.util.List;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.buffer.Buffer;
+
 /**
  * Recursive Length Prefix (RLP) encoding and decoding.
  */
 public final class RLP {
   private static final byte[] EMPTY_VALUE = new byte[] {(byte) 0x80};
+  private static final int DEFAULT_READ_BUFFER_SIZE = 64 * 1024;
+  private static final ClassValue<RLPTypeCodec<?>> CODECS = new ClassValue<RLPTypeCodec<?>>() {
+    @Override
+    protected RLPTypeCodec<?> computeValue(Class<?> type) {
+      String name = type.getName();
+      int packageEnd = name.lastIndexOf('.') + 1;
+      String codecName = name.substring(0, packageEnd) + "RLPCodec_" + name.substring(packageEnd).replace('$', '_');
+      try {
+        Class<?> codecClass = Class.forName(codecName, true, type.getClassLoader());
+        return (RLPTypeCodec<?>) codecClass.getField("INSTANCE").get(null);
+      } catch (ClassNotFoundException e) {
+        return null;
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Unable to load RLP codec " + codecName, e);
+      }
+    }
+  };
 
   private RLP() {}
 
@@ -46,9 +71,13 @@ public final class RLP {
    */
   public static Bytes encode(Consumer<RLPWriter> fn) {
     requireNonNull(fn);
-    BytesRLPWriter writer = new BytesRLPWriter();
-    fn.accept(writer);
-    return writer.toBytes();
+    RecordingRLPWriter writer = RecordingRLPWriter.acquire();
+    try {
+      fn.accept(writer);
+      return writer.toBytes();
+    } finally {
+      writer.release();
+    }
   }
 
   /**
@@ -61,14 +90,20 @@ public final class RLP {
    * @param fn A consumer that will be provided with a {@link RLPWriter} that can consume values.
    * @param <T> The type of the buffer.
    * @return The buffer.
-   * @throws BufferOverflowException If the writer attempts to write more than the provided buffer can hold.
+   * @throws BufferOverflowException If the encoding does not fit in the remaining space of the buffer, in which case
+   *         nothing is written.
    * @throws ReadOnlyBufferException If the provided buffer is read-only.
    */
   public static <T extends ByteBuffer> T encodeTo(T buffer, Consumer<RLPWriter> fn) {
     requireNonNull(fn);
-    ByteBufferRLPWriter writer = new ByteBufferRLPWriter(buffer);
-    fn.accept(writer);
-    return buffer;
+    RecordingRLPWriter writer = RecordingRLPWriter.acquire();
+    try {
+      fn.accept(writer);
+      writer.writeTo(buffer);
+      return buffer;
+    } finally {
+      writer.release();
+    }
   }
 
   /**
@@ -79,9 +114,13 @@ public final class RLP {
    */
   public static Bytes encodeList(Consumer<RLPWriter> fn) {
     requireNonNull(fn);
-    BytesRLPWriter writer = new BytesRLPWriter();
-    writer.writeList(fn);
-    return writer.toBytes();
+    RecordingRLPWriter writer = RecordingRLPWriter.acquire();
+    try {
+      writer.writeList(fn);
+      return writer.toBytes();
+    } finally {
+      writer.release();
+    }
   }
 
   /**
@@ -94,9 +133,13 @@ public final class RLP {
    */
   public static <T> Bytes encodeList(List<T> elements, BiConsumer<RLPWriter, T> fn) {
     requireNonNull(fn);
-    BytesRLPWriter writer = new BytesRLPWriter();
-    writer.writeList(elements, fn);
-    return writer.toBytes();
+    RecordingRLPWriter writer = RecordingRLPWriter.acquire();
+    try {
+      writer.writeList(elements, fn);
+      return writer.toBytes();
+    } finally {
+      writer.release();
+    }
   }
 
   /**
@@ -106,14 +149,20 @@ public final class RLP {
    * @param fn A consumer that will be provided with a {@link RLPWriter} that can consume values.
    * @param <T> The type of the buffer.
    * @return The buffer.
-   * @throws BufferOverflowException If the writer attempts to write more than the provided buffer can hold.
+   * @throws BufferOverflowException If the encoding does not fit in the remaining space of the buffer, in which case
+   *         nothing is written.
    * @throws ReadOnlyBufferException If the provided buffer is read-only.
    */
   public static <T extends ByteBuffer> T encodeListTo(T buffer, Consumer<RLPWriter> fn) {
     requireNonNull(fn);
-    ByteBufferRLPWriter writer = new ByteBufferRLPWriter(buffer);
-    writer.writeList(fn);
-    return buffer;
+    RecordingRLPWriter writer = RecordingRLPWriter.acquire();
+    try {
+      writer.writeList(fn);
+      writer.writeTo(buffer);
+      return buffer;
+    } finally {
+      writer.release();
+    }
   }
 
   /**
@@ -270,6 +319,84 @@ public final class RLP {
     return fn.apply(new BytesRLPReader(source, lenient));
   }
 
+  /**
+   * Read and decode RLP from the readable bytes of a Netty {@link ByteBuf}.
+   * <p>
+   * The buffer is read in place and its reader index is not changed. Values provided by the reader share the memory of
+   * the buffer rather than copying it, and are not retained: they are only valid until the buffer is released.
+   * <p>
+   * Important: this method does not consume any list prefix from the source data. If you are reading a RLP encoded list
+   * of values, you usually want to use {@link #decodeList(ByteBuf, Function)}.
+   *
+   * @param source The buffer containing the RLP encoded bytes.
+   * @param fn A function that will be provided a {@link RLPReader}.
+   * @param <T> The result type of the reading function.
+   * @return The result from the reading function.
+   * @throws IllegalStateException If the buffer has already been released.
+   */
+  public static <T> T decode(ByteBuf source, Function<RLPReader, T> fn) {
+    return decode(source, false, fn);
+  }
+
+  /**
+   * Read and decode RLP from the readable bytes of a Netty {@link ByteBuf}.
+   * <p>
+   * The buffer is read in place and its reader index is not changed. Values provided by the reader share the memory of
+   * the buffer rather than copying it, and are not retained: they are only valid until the buffer is released.
+   * <p>
+   * Important: this method does not consume any list prefix from the source data. If you are reading a RLP encoded list
+   * of values, you usually want to use {@link #decodeList(ByteBuf, boolean, Function)}.
+   *
+   * @param source The buffer containing the RLP encoded bytes.
+   * @param lenient If {@code false}, an exception will be thrown if the value is not minimally encoded.
+   * @param fn A function that will be provided a {@link RLPReader}.
+   * @param <T> The result type of the reading function.
+   * @return The result from the reading function.
+   * @throws IllegalStateException If the buffer has already been released.
+   */
+  public static <T> T decode(ByteBuf source, boolean lenient, Function<RLPReader, T> fn) {
+    requireNonNull(source);
+    requireNonNull(fn);
+    checkState(source.refCnt() > 0, "buffer has been released");
+    return fn.apply(new ByteBufRLPReader(source, source.readerIndex(), source.writerIndex(), lenient));
+  }
+
+  /**
+   * Read and decode RLP from a Vert.x {@link Buffer}.
+   * <p>
+   * Values provided by the reader share the memory of the buffer rather than copying it.
+   * <p>
+   * Important: this method does not consume any list prefix from the source data. If you are reading a RLP encoded list
+   * of values, you usually want to use {@link #decodeList(Buffer, Function)}.
+   *
+   * @param source The buffer containing the RLP encoded bytes.
+   * @param fn A function that will be provided a {@link RLPReader}.
+   * @param <T> The result type of the reading function.
+   * @return The result from the reading function.
+   */
+  public static <T> T decode(Buffer source, Function<RLPReader, T> fn) {
+    return decode(source, false, fn);
+  }
+
+  /**
+   * Read and decode RLP from a Vert.x {@link Buffer}.
+   * <p>
+   * Values provided by the reader share the memory of the buffer rather than copying it.
+   * <p>
+   * Important: this method does not consume any list prefix from the source data. If you are reading a RLP encoded list
+   * of values, you usually want to use {@link #decodeList(Buffer, boolean, Function)}.
+   *
+   * @param source The buffer containing the RLP encoded bytes.
+   * @param lenient If {@code false}, an exception will be thrown if the value is not minimally encoded.
+   * @param fn A function that will be provided a {@link RLPReader}.
+   * @param <T> The result type of the reading function.
+   * @return The result from the reading function.
+   */
+  public static <T> T decode(Buffer source, boolean lenient, Function<RLPReader, T> fn) {
+    requireNonNull(source);
+    return decode(source.getByteBuf(), lenient, fn);
+  }
+
   /**
    * Read an RLP encoded list of values from a {@link Bytes} value.
    *
@@ -302,6 +429,105 @@ public final class RLP {
     return decode(source, lenient, reader -> reader.readList(fn));
   }
 
+  /**
+   * Create a view over an RLP encoded list, providing random access to its items without decoding them all.
+   *
+   * @param source The RLP encoded bytes.
+   * @return A view over the items of the list.
+   * @throws InvalidRLPEncodingException If there is an error decoding the RLP source.
+   * @throws InvalidRLPTypeException If the first RLP value is not a list.
+   */
+  public static RLPListView decodeListView(Bytes source) {
+    return decodeListView(source, false);
+  }
+
+  /**
+   * Create a view over an RLP encoded list, providing random access to its items without decoding them all.
+   *
+   * @param source The RLP encoded bytes.
+   * @param lenient If {@code false}, an exception will be thrown if the list or its items are not minimally encoded.
+   * @return A view over the items of the list.
+   * @throws InvalidRLPEncodingException If there is an error decoding the RLP source.
+   * @throws InvalidRLPTypeException If the first RLP value is not a list.
+   */
+  public static RLPListView decodeListView(Bytes source, boolean lenient) {
+    requireNonNull(source);
+    checkArgument(source.size() > 0, "source is empty");
+    return RLPListView.of(source, lenient);
+  }
+
+  /**
+   * Read an RLP encoded list of values from the readable bytes of a Netty {@link ByteBuf}.
+   * <p>
+   * Values provided by the reader share the memory of the buffer, and are only valid until the buffer is released.
+   *
+   * @param source The buffer containing the RLP encoded bytes.
+   * @param fn A function that will be provided a {@link RLPReader}.
+   * @param <T> The result type of the reading function.
+   * @return The result from the reading function.
+   * @throws InvalidRLPEncodingException If there is an error decoding the RLP source.
+   * @throws InvalidRLPTypeException If the first RLP value is not a list.
+   * @throws IllegalStateException If the buffer has already been released.
+   */
+  public static <T> T decodeList(ByteBuf source, Function<RLPReader, T> fn) {
+    return decodeList(source, false, fn);
+  }
+
+  /**
+   * Read an RLP encoded list of values from the readable bytes of a Netty {@link ByteBuf}.
+   * <p>
+   * Values provided by the reader share the memory of the buffer, and are only valid until the buffer is released.
+   *
+   * @param source The buffer containing the RLP encoded bytes.
+   * @param lenient If {@code false}, an exception will be thrown if the value is not minimally encoded.
+   * @param fn A function that will be provided a {@link RLPReader}.
+   * @param <T> The result type of the reading function.
+   * @return The result from the reading function.
+   * @throws InvalidRLPEncodingException If there is an error decoding the RLP source.
+   * @throws InvalidRLPTypeException If the first RLP value is not a list.
+   * @throws IllegalStateException If the buffer has already been released.
+   */
+  public static <T> T decodeList(ByteBuf source, boolean lenient, Function<RLPReader, T> fn) {
+    requireNonNull(source);
+    requireNonNull(fn);
+    checkArgument(source.isReadable(), "source is empty");
+    return decode(source, lenient, reader -> reader.readList(fn));
+  }
+
+  /**
+   * Read an RLP encoded list of values from a Vert.x {@link Buffer}.
+   * <p>
+   * Values provided by the reader share the memory of the buffer rather than copying it.
+   *
+   * @param source The buffer containing the RLP encoded bytes.
+   * @param fn A function that will be provided a {@link RLPReader}.
+   * @param <T> The result type of the reading function.
+   * @return The result from the reading function.
+   * @throws InvalidRLPEncodingException If there is an error decoding the RLP source.
+   * @throws InvalidRLPTypeException If the first RLP value is not a list.
+   */
+  public static <T> T decodeList(Buffer source, Function<RLPReader, T> fn) {
+    return decodeList(source, false, fn);
+  }
+
+  /**
+   * Read an RLP encoded list of values from a Vert.x {@link Buffer}.
+   * <p>
+   * Values provided by the reader share the memory of the buffer rather than copying it.
+   *
+   * @param source The buffer containing the RLP encoded bytes.
+   * @param lenient If {@code false}, an exception will be thrown if the value is not minimally encoded.
+   * @param fn A function that will be provided a {@link RLPReader}.
+   * @param <T> The result type of the reading function.
+   * @return The result from the reading function.
+   * @throws InvalidRLPEncodingException If there is an error decoding the RLP source.
+   * @throws InvalidRLPTypeException If the first RLP value is not a list.
+   */
+  public static <T> T decodeList(Buffer source, boolean lenient, Function<RLPReader, T> fn) {
+    requireNonNull(source);
+    return decodeList(source.getByteBuf(), lenient, fn);
+  }
+
   /**
    * Read an RLP encoded list of values from a {@link Bytes} value, populating a mutable output list.
    *
@@ -490,6 +716,117 @@ public final class RLP {
     return decode(source, lenient, RLPReader::readString);
   }
 
+  /**
+   * Read the top-level RLP items of a stream, one at a time.
+   * <p>
+   * The stream is read through a buffer of 64 kilobytes, so that streams of any size are decoded in bounded memory.
+   *
+   * @param source The stream of RLP encoded items.
+   * @param fn A function that will be provided a {@link RLPReader} bounded to the next top-level item.
+   * @param <T> The result type of the reading function.
+   * @return An iterator over the results of the reading function, throwing {@link java.io.UncheckedIOException} if the
+   *         stream cannot be read.
+   */
+  public static <T> Iterator<T> decodeAll(InputStream source, Function<RLPReader, T> fn) {
+    requireNonNull(source);
+    return decodeAll(Channels.newChannel(source), fn);
+  }
+
+  /**
+   * Read the top-level RLP items of a channel, one at a time.
+   * <p>
+   * The channel is read through a buffer of 64 kilobytes, so that sources of any size are decoded in bounded memory.
+   * The channel must be in blocking mode.
+   *
+   * @param source The channel providing the RLP encoded items.
+   * @param fn A function that will be provided a {@link RLPReader} bounded to the next top-level item.
+   * @param <T> The result type of the reading function.
+   * @return An iterator over the results of the reading function, throwing {@link java.io.UncheckedIOException} if the
+   *         channel cannot be read.
+   */
+  public static <T> Iterator<T> decodeAll(ReadableByteChannel source, Function<RLPReader, T> fn) {
+    return decodeAll(source, DEFAULT_READ_BUFFER_SIZE, false, fn);
+  }
+
+  /**
+   * Read the top-level RLP items of a channel, one at a time.
+   * <p>
+   * Values are copied out of the read buffer as they are read. Values larger than the buffer are read directly into an
+   * array of their size, and lists are never held in memory as a whole, so that the memory used is bounded by the
+   * buffer size and the size of the values read. Items that are not fully consumed by the reading function are skipped.
+   * <p>
+   * The channel is read with blocking reads, so a non-blocking {@link java.nio.channels.SelectableChannel} is rejected.
+   *
+   * @param source The channel providing the RLP encoded items.
+   * @param bufferSize The size of the read buffer, in bytes.
+   * @param lenient If {@code false}, an exception will be thrown if a value is not minimally encoded.
+   * @param fn A function that will be provided a {@link RLPReader} bounded to the next top-level item.
+   * @param <T> The result type of the reading function.
+   * @return An iterator over the results of the reading function, throwing {@link java.io.UncheckedIOException} if the
+   *         channel cannot be read.
+   * @throws IllegalArgumentException If the buffer size is less than 5 bytes, or the channel is non-blocking.
+   */
+  public static <T> Iterator<T> decodeAll(
+      ReadableByteChannel source,
+      int bufferSize,
+      boolean lenient,
+      Function<RLPReader, T> fn) {
+    requireNonNull(source);
+    requireNonNull(fn);
+    return new ChannelRLPReader(source, bufferSize, lenient).items(fn);
+  }
+
+  /**
+   * Validate the structure of an RLP source without decoding it.
+   * <p>
+   * The source is walked using only integer arithmetic, checking that every item fits within its enclosing list and
+   * that all length prefixes are minimally encoded. No values are created, so this is suitable for rejecting malformed
+   * input before decoding it.
+   *
+   * @param source The RLP encoded bytes.
+   * @param maxDepth The maximum nesting depth of lists.
+   * @return The structure of the source.
+   * @throws InvalidRLPEncodingException If the source is not valid RLP, or has lists nested deeper than the maximum.
+   */
+  public static RLPStructure validate(Bytes source, int maxDepth) {
+    return validate(source, maxDepth, false);
+  }
+
+  /**
+   * Validate the structure of an RLP source without decoding it.
+   * <p>
+   * The source is walked using only integer arithmetic, checking that every item fits within its enclosing list and,
+   * unless lenient, that all length prefixes are minimally encoded. No values are created, so this is suitable for
+   * rejecting malformed input before decoding it.
+   *
+   * @param source The RLP encoded bytes.
+   * @param maxDepth The maximum nesting depth of lists.
+   * @param lenient If {@code false}, an exception will be thrown if any item is not minimally encoded.
+   * @return The structure of the source.
+   * @throws InvalidRLPEncodingException If the source is not valid RLP, or has lists nested deeper than the maximum.
+   */
+  public static RLPStructure validate(Bytes source, int maxDepth, boolean lenient) {
+    requireNonNull(source);
+    checkArgument(maxDepth >= 0, "maxDepth must be non-negative");
+    return RLPStructure.of(source, maxDepth, lenient);
+  }
+
+  /**
+   * Get the codec generated for a class annotated with {@link RLPCodec}.
+   *
+   * @param type The annotated class.
+   * @param <T> The type encoded by the codec.
+   * @return The generated codec.
+   * @throws IllegalArgumentException If no codec was generated for the class.
+   */
+  public static <T> RLPTypeCodec<T> codec(Class<T> type) {
+    requireNonNull(type);
+    @SuppressWarnings("unchecked")
+    RLPTypeCodec<T> codec = (RLPTypeCodec<T>) CODECS.get(type);
+    checkArgument(codec != null, "No RLP codec was generated for %s", type.getName());
+    return codec;
+  }
+
   /**
    * Check if the {@link Bytes} value contains an RLP encoded list.
    *
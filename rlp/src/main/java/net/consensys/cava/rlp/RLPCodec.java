@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class for which an RLP codec is generated at compile time.
+ *
+ * <p>
+ * Instances are encoded as an RLP list of the fields annotated with {@link RLPField}, in the order given by the
+ * annotations. The class must have a non-private constructor taking the annotated fields, either as parameters of the
+ * same names in any order, or in the same order. Each annotated field must be non-private or have a non-private
+ * accessor method of the same name.
+ *
+ * <p>
+ * Fields may be of type {@code byte}, {@code int}, {@code long}, their boxed types, {@link java.math.BigInteger},
+ * {@code UInt256}, {@link String}, {@code byte[]}, {@link net.consensys.cava.bytes.Bytes} or a subtype providing a
+ * static {@code wrap(Bytes)} method, a value type providing a static {@code fromBytes(Bytes)} method and a
+ * {@code toBytes()} method, another class annotated with {@code RLPCodec}, or a {@link java.util.List} of any of these.
+ * Field values must not be {@code null}.
+ *
+ * <p>
+ * The codec is generated by the {@code net.consensys.cava.rlp.codegen.RLPCodecProcessor} annotation processor of
+ * {@code cava-rlp-codegen}, and is obtained using {@link RLP#codec(Class)}.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.CLASS)
+public @interface RLPCodec {
+}
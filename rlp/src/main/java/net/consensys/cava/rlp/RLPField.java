@@ -12,21 +12,20 @@
  */
 package net.consensys.cava.rlp;
 
-import net.consensys.cava.bytes.Bytes;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
 
-import java.util.Deque;
-
-final class BytesRLPWriter extends DelegatingRLPWriter<AccumulatingRLPWriter> {
-
-  BytesRLPWriter() {
-    super(new AccumulatingRLPWriter());
-  }
+/**
+ * Marks a field that is encoded by the generated codec of a class annotated with {@link RLPCodec}.
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.CLASS)
+public @interface RLPField {
 
-  Bytes toBytes() {
-    Deque<byte[]> values = delegate.values();
-    if (values.isEmpty()) {
-      return Bytes.EMPTY;
-    }
-    return Bytes.wrap(values.stream().map(Bytes::wrap).toArray(Bytes[]::new));
-  }
+  /**
+   * @return The position of the field in the encoded list. Positions are ordered, but need not be contiguous.
+   */
+  int value();
 }
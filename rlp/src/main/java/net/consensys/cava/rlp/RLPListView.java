@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static java.util.Objects.requireNonNull;
+
+import net.consensys.cava.bytes.Bytes;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A view over the items of an RLP encoded list, providing random access to each item without decoding the others.
+ *
+ * <p>
+ * The boundaries of the items are scanned once when the view is created, and each item is then decoded only when it is
+ * accessed. The prefixes of the items are validated by the scan, but the contents of nested lists are not validated
+ * until they are decoded.
+ */
+public final class RLPListView {
+
+  private final Bytes content;
+  private final boolean lenient;
+  // offsets of the start of each item, followed by the end of the last item
+  private final int[] offsets;
+
+  /**
+   * Create a view over an RLP encoded list.
+   *
+   * @param source The RLP encoded list.
+   * @param lenient If {@code false}, an exception will be thrown if the list or its items are not minimally encoded.
+   * @return A view over the items of the list.
+   * @throws InvalidRLPEncodingException If there is an error decoding the RLP source.
+   * @throws InvalidRLPTypeException If the source is not a list.
+   */
+  static RLPListView of(Bytes source, boolean lenient) {
+    BytesRLPReader reader = new BytesRLPReader(source, lenient);
+    Bytes content = reader.readList(lenient);
+    return new RLPListView(content, lenient);
+  }
+
+  private RLPListView(Bytes content, boolean lenient) {
+    this.content = content;
+    this.lenient = lenient;
+
+    BytesRLPReader reader = new BytesRLPReader(content, lenient);
+    int[] offsets = new int[8];
+    int count = 0;
+    while (!reader.isComplete()) {
+      if (count == offsets.length - 1) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      offsets[count++] = reader.position();
+      reader.skipNext();
+    }
+    offsets[count] = content.size();
+    this.offsets = (count == offsets.length - 1) ? offsets : Arrays.copyOf(offsets, count + 1);
+  }
+
+  /**
+   * @return The number of items in the list.
+   */
+  public int size() {
+    return offsets.length - 1;
+  }
+
+  /**
+   * @return {@code true} if the list has no items.
+   */
+  public boolean isEmpty() {
+    return offsets.length == 1;
+  }
+
+  /**
+   * Get the RLP encoding of an item.
+   *
+   * @param index The index of the item.
+   * @return The RLP encoded item, sharing the bytes of the list.
+   * @throws IndexOutOfBoundsException If the index is out of range.
+   */
+  public Bytes get(int index) {
+    checkElementIndex(index, size());
+    return content.slice(offsets[index], offsets[index + 1] - offsets[index]);
+  }
+
+  /**
+   * Check if an item is a list.
+   *
+   * @param index The index of the item.
+   * @return {@code true} if the item is a list.
+   * @throws IndexOutOfBoundsException If the index is out of range.
+   */
+  public boolean isList(int index) {
+    checkElementIndex(index, size());
+    return (content.get(offsets[index]) & 0xFF) > 0xbf;
+  }
+
+  /**
+   * Decode an item.
+   * <p>
+   * Important: the reader is positioned before the item, so a list item must be read with
+   * {@link RLPReader#readList(Function)}.
+   *
+   * @param index The index of the item.
+   * @param fn A function that will be provided a {@link RLPReader}.
+   * @param <T> The result type of the reading function.
+   * @return The result from the reading function.
+   * @throws IndexOutOfBoundsException If the index is out of range.
+   */
+  public <T> T decode(int index, Function<RLPReader, T> fn) {
+    requireNonNull(fn);
+    return fn.apply(new BytesRLPReader(get(index), lenient));
+  }
+
+  /**
+   * Create a view over an item that is itself a list.
+   *
+   * @param index The index of the item.
+   * @return A view over the items of the nested list.
+   * @throws IndexOutOfBoundsException If the index is out of range.
+   * @throws InvalidRLPEncodingException If there is an error decoding the nested list.
+   * @throws InvalidRLPTypeException If the item is not a list.
+   */
+  public RLPListView list(int index) {
+    return of(get(index), lenient);
+  }
+
+  /**
+   * Provide the items as a list that decodes each item when it is accessed.
+   * <p>
+   * Items are not cached, so an item accessed more than once is decoded each time.
+   *
+   * @param fn A function that will be provided a {@link RLPReader} positioned before an item.
+   * @param <T> The result type of the reading function.
+   * @return An unmodifiable list of the decoded items.
+   */
+  public <T> List<T> asList(Function<RLPReader, T> fn) {
+    requireNonNull(fn);
+    return new AbstractList<T>() {
+      @Override
+      public T get(int index) {
+        return decode(index, fn);
+      }
+
+      @Override
+      public int size() {
+        return RLPListView.this.size();
+      }
+    };
+  }
+}
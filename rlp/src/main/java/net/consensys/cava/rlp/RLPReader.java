@@ -367,6 +367,46 @@ public interface RLPReader {
     });
   }
 
+  /**
+   * Enter the next list of the RLP source.
+   *
+   * <p>
+   * Until the matching call to {@link #exitList()}, this reader reads the values of the list, and is complete at the
+   * end of the list. Unlike {@link #readList(Function)}, this requires no function to be provided for the values of the
+   * list.
+   *
+   * @throws InvalidRLPEncodingException If there is an error decoding the RLP source.
+   * @throws InvalidRLPTypeException If the next RLP value is not a list.
+   * @throws EndOfRLPException If there are no more RLP values to read.
+   */
+  default void enterList() {
+    enterList(isLenient());
+  }
+
+  /**
+   * Enter the next list of the RLP source.
+   *
+   * @param lenient If {@code false}, an exception will be thrown if the list length is not minimally encoded.
+   * @throws InvalidRLPEncodingException If there is an error decoding the RLP source.
+   * @throws InvalidRLPTypeException If the next RLP value is not a list.
+   * @throws EndOfRLPException If there are no more RLP values to read.
+   * @throws UnsupportedOperationException If this reader does not support reading lists without a function.
+   * @see #enterList()
+   */
+  default void enterList(boolean lenient) {
+    throw new UnsupportedOperationException("Lists cannot be read without a function by this reader");
+  }
+
+  /**
+   * Exit the list entered last, skipping the values of the list that were not read.
+   *
+   * @throws IllegalStateException If no list was entered.
+   * @throws UnsupportedOperationException If this reader does not support reading lists without a function.
+   */
+  default void exitList() {
+    throw new UnsupportedOperationException("Lists cannot be read without a function by this reader");
+  }
+
   /**
    * Skip the next value or list in the RLP source.
    *
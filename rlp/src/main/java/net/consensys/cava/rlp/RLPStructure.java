@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp;
+
+import net.consensys.cava.bytes.Bytes;
+
+import java.util.Arrays;
+
+/**
+ * The structure of a validated RLP source.
+ */
+public final class RLPStructure {
+
+  private final int itemCount;
+  private final int maxDepth;
+
+  /**
+   * Validate the structure of an RLP source, without decoding any of its values.
+   *
+   * @param source The RLP encoded bytes.
+   * @param maxDepth The maximum nesting depth of lists.
+   * @param lenient If {@code false}, an exception will be thrown if any item is not minimally encoded.
+   * @return The structure of the source.
+   * @throws InvalidRLPEncodingException If the source is not valid RLP, or has lists nested deeper than the maximum.
+   */
+  static RLPStructure of(Bytes source, int maxDepth, boolean lenient) {
+    int size = source.size();
+    int[] ends = new int[Math.min(maxDepth, 16)];
+    int depth = 0;
+    int deepest = 0;
+    int count = 0;
+    int index = 0;
+
+    while (true) {
+      while (depth > 0 && index == ends[depth - 1]) {
+        depth--;
+      }
+      if (index == size) {
+        break;
+      }
+      int limit = (depth > 0) ? ends[depth - 1] : size;
+      int prefix = source.get(index) & 0xFF;
+      count++;
+      if (prefix <= 0x7f) {
+        index++;
+        continue;
+      }
+
+      int remaining = limit - index - 1;
+      int length;
+      int lengthOfLength = 0;
+      if (prefix <= 0xb7 || (prefix >= 0xc0 && prefix <= 0xf7)) {
+        length = prefix - ((prefix <= 0xb7) ? 0x80 : 0xc0);
+      } else {
+        lengthOfLength = prefix - ((prefix <= 0xbf) ? 0xb7 : 0xf7);
+        if (remaining < lengthOfLength) {
+          throw new InvalidRLPEncodingException(
+              "Insufficient bytes in RLP encoding: expected " + lengthOfLength + " but have only " + remaining);
+        }
+        remaining -= lengthOfLength;
+        length = readLength(source, index + 1, lengthOfLength, lenient, (prefix <= 0xbf) ? "value" : "list");
+      }
+      if (remaining < length) {
+        throw new InvalidRLPEncodingException(
+            "Insufficient bytes in RLP encoding: expected " + length + " but have only " + remaining);
+      }
+
+      int payloadIndex = index + 1 + lengthOfLength;
+      if (prefix <= 0xbf) {
+        if (!lenient && length == 1 && (source.get(payloadIndex) & 0xFF) <= 0x7f) {
+          throw new InvalidRLPEncodingException(
+              "Value should have been encoded as a single byte " + Bytes.of(source.get(payloadIndex)).toHexString());
+        }
+        index = payloadIndex + length;
+        continue;
+      }
+
+      if (depth == maxDepth) {
+        throw new InvalidRLPEncodingException("RLP lists are nested deeper than " + maxDepth);
+      }
+      if (depth == ends.length) {
+        ends = Arrays.copyOf(ends, Math.min(maxDepth, ends.length * 2));
+      }
+      ends[depth++] = payloadIndex + length;
+      deepest = Math.max(deepest, depth);
+      index = payloadIndex;
+    }
+
+    return new RLPStructure(count, deepest);
+  }
+
+  private static int readLength(Bytes source, int index, int lengthOfLength, boolean lenient, String type) {
+    if (!lenient && source.get(index) == 0) {
+      throw new InvalidRLPEncodingException("RLP " + type + " length contains leading zero bytes");
+    }
+    long length = 0;
+    for (int i = 0; i < lengthOfLength; i++) {
+      length = (length << 8) | (source.get(index + i) & 0xFF);
+      if (length > Integer.MAX_VALUE) {
+        throw new InvalidRLPEncodingException("RLP " + type + " length is oversized");
+      }
+    }
+    if (length == 0) {
+      throw new InvalidRLPEncodingException("RLP " + type + " length is zero");
+    }
+    if (!lenient && length <= 55) {
+      throw new InvalidRLPEncodingException("RLP " + type + " length of " + length + " was not minimally encoded");
+    }
+    return (int) length;
+  }
+
+  private RLPStructure(int itemCount, int maxDepth) {
+    this.itemCount = itemCount;
+    this.maxDepth = maxDepth;
+  }
+
+  /**
+   * @return The number of items in the source, counting values and lists at every depth.
+   */
+  public int itemCount() {
+    return itemCount;
+  }
+
+  /**
+   * @return The deepest nesting of lists in the source, or 0 if the source contains only values.
+   */
+  public int maxDepth() {
+    return maxDepth;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof RLPStructure)) {
+      return false;
+    }
+    RLPStructure other = (RLPStructure) obj;
+    return itemCount == other.itemCount && maxDepth == other.maxDepth;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * itemCount + maxDepth;
+  }
+
+  @Override
+  public String toString() {
+    return "RLPStructure{itemCount=" + itemCount + ", maxDepth=" + maxDepth + '}';
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp;
+
+import net.consensys.cava.bytes.Bytes;
+
+/**
+ * An encoder and decoder for instances of a type, encoded as an RLP list.
+ *
+ * @param <T> The type encoded by this codec.
+ */
+public interface RLPTypeCodec<T> {
+
+  /**
+   * Write the contents of the RLP list encoding a value.
+   *
+   * @param value The value to encode.
+   * @param writer The writer for the contents of the list.
+   */
+  void writeTo(T value, RLPWriter writer);
+
+  /**
+   * Read a value from the contents of an RLP list.
+   *
+   * @param reader The reader for the contents of the list.
+   * @return The decoded value.
+   * @throws RLPException If there is an error decoding the value.
+   */
+  T readFrom(RLPReader reader);
+
+  /**
+   * Encode a value as an RLP list.
+   *
+   * @param value The value to encode.
+   * @return The RLP encoding of the value.
+   */
+  default Bytes encode(T value) {
+    return RLP.encodeList(writer -> writeTo(value, writer));
+  }
+
+  /**
+   * Decode a value from an RLP list.
+   *
+   * @param source The RLP encoded list.
+   * @return The decoded value.
+   * @throws RLPException If there is an error decoding the value.
+   */
+  default T decode(Bytes source) {
+    return RLP.decodeList(source, this::readFrom);
+  }
+}
@@ -123,6 +123,29 @@ public interface RLPWriter {
    */
   void writeList(Consumer<RLPWriter> fn);
 
+  /**
+   * Start writing a list of values.
+   *
+   * <p>
+   * The values written until the matching call to {@link #endList()} are the values of the list. Unlike
+   * {@link #writeList(Consumer)}, this requires no function to be provided for the values of the list.
+   *
+   * @throws UnsupportedOperationException If this writer does not support writing lists without a function.
+   */
+  default void startList() {
+    throw new UnsupportedOperationException("Lists cannot be written without a function by this writer");
+  }
+
+  /**
+   * End the list of values started last.
+   *
+   * @throws IllegalStateException If no list was started.
+   * @throws UnsupportedOperationException If this writer does not support writing lists without a function.
+   */
+  default void endList() {
+    throw new UnsupportedOperationException("Lists cannot be written without a function by this writer");
+  }
+
   /**
    * Write a list of values, sending each value to a function to be interpreted.
    *
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp;
+
+import static java.util.Objects.requireNonNull;
+
+import net.consensys.cava.bytes.Bytes;
+import net.consensys.cava.bytes.MutableBytes;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * An RLP writer encoding into a single, exactly sized output.
+ *
+ * <p>
+ * Writes are first recorded, without copying the values written, while the lengths of lists are computed on a stack
+ * as each list is closed. The encoding is then written in a single pass, into an array or buffer of exactly the
+ * encoded size. Writers are reused by the thread that released them, so that recording arrays are only allocated
+ * when they need to grow.
+ */
+final class RecordingRLPWriter implements RLPWriter {
+
+  private static final int INITIAL_CAPACITY = 64;
+  private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+  private static final byte VALUE = 0;
+  private static final byte ENCODED = 1;
+  private static final byte NUMBER = 2;
+  private static final byte BYTE = 3;
+  private static final byte LIST = 4;
+
+  private static final ThreadLocal<RecordingRLPWriter> CACHED = new ThreadLocal<>();
+
+  /**
+   * Obtain a writer for the current thread.
+   *
+   * <p>
+   * The writer must be returned with {@link #release()} once its encoding has been written. Nested encodings, started
+   * while the writer of the thread is in use, obtain a new writer.
+   *
+   * @return An empty writer.
+   */
+  static RecordingRLPWriter acquire() {
+    RecordingRLPWriter writer = CACHED.get();
+    if (writer == null) {
+      return new RecordingRLPWriter();
+    }
+    CACHED.set(null);
+    return writer;
+  }
+
+  // recorded writes: their kind, the value written (a byte[] or Bytes) and either a number or a list payload length
+  private byte[] kinds = new byte[INITIAL_CAPACITY];
+  private Object[] values = new Object[INITIAL_CAPACITY];
+  private long[] numbers = new long[INITIAL_CAPACITY];
+  private int size;
+
+  // the open lists, as the index of their record and the encoded size before the list was opened
+  private int[] openLists = new int[8];
+  private long[] openListStarts = new long[8];
+  private int depth;
+
+  private long encodedSize;
+
+  @Override
+  public void writeRLP(Bytes value) {
+    requireNonNull(value);
+    record(ENCODED, value, 0);
+    encodedSize += value.size();
+  }
+
+  @Override
+  public void writeValue(Bytes value) {
+    requireNonNull(value);
+    record(VALUE, value, 0);
+    int length = value.size();
+    encodedSize += (length == 1 && (value.get(0) & 0xFF) <= 0x7f) ? 1 : lengthPrefixSize(length) + length;
+  }
+
+  @Override
+  public void writeByteArray(byte[] value) {
+    requireNonNull(value);
+    record(VALUE, value, 0);
+    int length = value.length;
+    encodedSize += (length == 1 && (value[0] & 0xFF) <= 0x7f) ? 1 : lengthPrefixSize(length) + length;
+  }
+
+  @Override
+  public void writeByte(byte value) {
+    record(BYTE, null, value);
+    encodedSize += ((value & 0xFF) <= 0x7f) ? 1 : 2;
+  }
+
+  @Override
+  public void writeLong(long value) {
+    record(NUMBER, null, value);
+    encodedSize += numberSize(value);
+  }
+
+  @Override
+  public void writeList(Consumer<RLPWriter> fn) {
+    requireNonNull(fn);
+    startList();
+    fn.accept(this);
+    endList();
+  }
+
+  @Override
+  public void startList() {
+    if (depth == openLists.length) {
+      openLists = Arrays.copyOf(openLists, depth * 2);
+      openListStarts = Arrays.copyOf(openListStarts, depth * 2);
+    }
+    openLists[depth] = size;
+    openListStarts[depth] = encodedSize;
+    depth++;
+    record(LIST, null, 0);
+  }
+
+  @Override
+  public void endList() {
+    if (depth == 0) {
+      throw new IllegalStateException("No list was started");
+    }
+    depth--;
+    long payloadSize = encodedSize - openListStarts[depth];
+    if (payloadSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Combined length of values is too long (> Integer.MAX_VALUE)");
+    }
+    numbers[openLists[depth]] = payloadSize;
+    encodedSize += lengthPrefixSize((int) payloadSize);
+  }
+
+  /**
+   * Write the recorded encoding to a new array of exactly its size.
+   *
+   * @return The RLP encoding.
+   */
+  Bytes toBytes() {
+    if (size == 0) {
+      return Bytes.EMPTY;
+    }
+    byte[] output = new byte[checkedSize()];
+    writeTo(output, 0);
+    return Bytes.wrap(output);
+  }
+
+  /**
+   * Write the recorded encoding to a buffer, from its current position.
+   *
+   * @param buffer The buffer to write into.
+   * @throws BufferOverflowException If the buffer cannot hold the whole encoding, in which case nothing is written.
+   */
+  void writeTo(ByteBuffer buffer) {
+    int length = checkedSize();
+    if (buffer.remaining() < length) {
+      throw new BufferOverflowException();
+    }
+    if (buffer.hasArray()) {
+      writeTo(buffer.array(), buffer.arrayOffset() + buffer.position());
+      buffer.position(buffer.position() + length);
+    } else {
+      byte[] output = new byte[length];
+      writeTo(output, 0);
+      buffer.put(output);
+    }
+  }
+
+  /**
+   * Return the writer to the current thread, for reuse by its next encoding.
+   */
+  void release() {
+    if (kinds.length > MAX_RETAINED_CAPACITY) {
+      return;
+    }
+    Arrays.fill(values, 0, size, null);
+    size = 0;
+    depth = 0;
+    encodedSize = 0;
+    CACHED.set(this);
+  }
+
+  private int checkedSize() {
+    if (depth != 0) {
+      throw new IllegalStateException("A list was started but not ended");
+    }
+    if (encodedSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Combined length of values is too long (> Integer.MAX_VALUE)");
+    }
+    return (int) encodedSize;
+  }
+
+  private void record(byte kind, Object value, long number) {
+    if (size == kinds.length) {
+      int capacity = size * 2;
+      kinds = Arrays.copyOf(kinds, capacity);
+      values = Arrays.copyOf(values, capacity);
+      numbers = Arrays.copyOf(numbers, capacity);
+    }
+    kinds[size] = kind;
+    values[size] = value;
+    numbers[size] = number;
+    size++;
+  }
+
+  private void writeTo(byte[] output, int offset) {
+    MutableBytes wrapped = null;
+    int position = offset;
+    for (int i = 0; i < size; i++) {
+      switch (kinds[i]) {
+        case VALUE:
+          Object value = values[i];
+          if (value instanceof byte[]) {
+            byte[] array = (byte[]) value;
+            if (array.length == 1 && (array[0] & 0xFF) <= 0x7f) {
+              output[position++] = array[0];
+            } else {
+              position = writeLengthPrefix(output, position, array.length, 0x80);
+              System.arraycopy(array, 0, output, position, array.length);
+              position += array.length;
+            }
+          } else {
+            Bytes bytes = (Bytes) value;
+            int length = bytes.size();
+            if (length == 1 && (bytes.get(0) & 0xFF) <= 0x7f) {
+              output[position++] = bytes.get(0);
+            } else {
+              position = writeLengthPrefix(output, position, length, 0x80);
+              if (wrapped == null) {
+                wrapped = MutableBytes.wrap(output);
+              }
+              bytes.copyTo(wrapped, position);
+              position += length;
+            }
+          }
+          break;
+        case ENCODED:
+          Bytes encoded = (Bytes) values[i];
+          if (wrapped == null) {
+            wrapped = MutableBytes.wrap(output);
+          }
+          encoded.copyTo(wrapped, position);
+          position += encoded.size();
+          break;
+        case NUMBER:
+          position = writeNumber(output, position, numbers[i]);
+          break;
+        case BYTE:
+          byte b = (byte) numbers[i];
+          if ((b & 0xFF) > 0x7f) {
+            output[position++] = (byte) 0x81;
+          }
+          output[position++] = b;
+          break;
+        case LIST:
+          position = writeLengthPrefix(output, position, (int) numbers[i], 0xc0);
+          break;
+        default:
+          throw new IllegalStateException("Unknown record kind " + kinds[i]);
+      }
+    }
+  }
+
+  private static int lengthPrefixSize(int length) {
+    return (length <= 55) ? 1 : 1 + byteLength(length);
+  }
+
+  private static int numberSize(long value) {
+    return (value <= 0x7f) ? 1 : 1 + byteLength(value);
+  }
+
+  private static int byteLength(long value) {
+    return 8 - (Long.numberOfLeadingZeros(value) / 8);
+  }
+
+  private static int writeLengthPrefix(byte[] output, int position, int length, int offset) {
+    if (length <= 55) {
+      output[position] = (byte) ((offset + length) & 0xFF);
+      return position + 1;
+    }
+    return writeLongBytes(output, position, length, offset + 55);
+  }
+
+  private static int writeNumber(byte[] output, int position, long value) {
+    if (value == 0) {
+      output[position] = (byte) 0x80;
+      return position + 1;
+    }
+    if (value <= 0x7f) {
+      output[position] = (byte) (value & 0xFF);
+      return position + 1;
+    }
+    return writeLongBytes(output, position, value, 0x80);
+  }
+
+  private static int writeLongBytes(byte[] output, int position, long value, int offset) {
+    int length = byteLength(value);
+    output[position] = (byte) ((offset + length) & 0xFF);
+    for (int i = length; i > 0; i--) {
+      output[position + i] = (byte) (value & 0xFF);
+      value >>= 8;
+    }
+    return position + length + 1;
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp;
+
+import static net.consensys.cava.bytes.Bytes.fromHexString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import net.consensys.cava.bytes.Bytes;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+
+class ByteBufRLPReaderTest {
+
+  @Test
+  void shouldReadReadableBytesInPlace() {
+    Bytes encoded = RLP.encodeList(writer -> {
+      writer.writeString("asdf");
+      writer.writeList(Arrays.asList("qwer", "zxcv"), RLPWriter::writeString);
+      writer.writeLong(100000L);
+    });
+    ByteBuf buffer = Unpooled.buffer(encoded.size() + 4);
+    buffer.writerIndex(2);
+    buffer.readerIndex(2);
+    for (int i = 0; i < encoded.size(); i++) {
+      buffer.setByte(2 + i, encoded.get(i));
+    }
+    buffer.writerIndex(2 + encoded.size());
+
+    List<Object> result = RLP.decodeList(buffer, reader -> Arrays.asList(
+        reader.readString(),
+        reader.readListContents(RLPReader::readString),
+        reader.readLong()));
+    assertEquals(Arrays.asList("asdf", Arrays.asList("qwer", "zxcv"), 100000L), result);
+    assertEquals(2, buffer.readerIndex());
+  }
+
+  @Test
+  void shouldReadEnteredLists() {
+    Bytes encoded = RLP.encodeList(writer -> {
+      writer.writeList(Arrays.asList("qwer", "zxcv"), RLPWriter::writeString);
+      writer.writeLong(100000L);
+    });
+    List<Object> result = RLP.decodeList(Unpooled.wrappedBuffer(encoded.toArray()), reader -> {
+      reader.enterList();
+      String first = reader.readString();
+      reader.exitList();
+      return Arrays.asList(first, reader.readLong(), reader.isComplete());
+    });
+    assertEquals(Arrays.asList("qwer", 100000L, true), result);
+  }
+
+  @Test
+  void shouldShareValuesWithTheBuffer() {
+    byte[] array = RLP.encodeList(writer -> writer.writeString("asdf")).toArray();
+    ByteBuf buffer = Unpooled.wrappedBuffer(array);
+    Bytes value = RLP.decodeList(buffer, RLPReader::readValue);
+    assertEquals(Bytes.wrap("asdf".getBytes()), value);
+    array[2] = 'x';
+    assertEquals(Bytes.wrap("xsdf".getBytes()), value);
+  }
+
+  @Test
+  void shouldReadVertxBuffers() {
+    Buffer buffer = Buffer.buffer(RLP.encodeList(writer -> {
+      writer.writeInt(7);
+      writer.writeString("qwer");
+    }).toArray());
+    assertEquals(Arrays.asList(7, "qwer"), RLP.decodeList(buffer, reader -> {
+      return Arrays.<Object>asList(reader.readInt(), reader.readString());
+    }));
+  }
+
+  @Test
+  void shouldRejectReleasedBuffers() {
+    ByteBuf buffer = Unpooled.wrappedBuffer(RLP.encodeString("asdf").toArray());
+    buffer.release();
+    assertThrows(IllegalStateException.class, () -> RLP.decode(buffer, RLPReader::readString));
+  }
+
+  @Test
+  void shouldValidateLikeBytesReader() {
+    for (String hex : Arrays.asList("b80105", "8105", "b9000100", "c4830102", "bb", "ba010000")) {
+      Bytes bytes = fromHexString(hex);
+      ByteBuf buffer = Unpooled.wrappedBuffer(bytes.toArray());
+      Class<? extends Throwable> expected = assertThrows(RLPException.class, () -> RLP.decode(bytes, reader -> {
+        reader.skipNext();
+        return null;
+      })).getClass();
+      assertThrows(expected, () -> RLP.decode(buffer, reader -> {
+        reader.skipNext();
+        return null;
+      }));
+    }
+    ByteBuf nonMinimal = Unpooled.wrappedBuffer(fromHexString("b80105").toArray());
+    assertEquals(Bytes.of(5), RLP.decode(nonMinimal, true, RLPReader::readValue));
+  }
+}
@@ -15,12 +15,14 @@ package net.consensys.cava.rlp;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static net.consensys.cava.bytes.Bytes.fromHexString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import net.consensys.cava.bytes.Bytes;
 import net.consensys.cava.units.bigints.UInt256;
 
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
@@ -159,4 +161,12 @@ class ByteBufferWriterTest {
     buffer.flip();
     assertEquals("abc", RLP.decodeString(Bytes.wrapByteBuffer(buffer)));
   }
+
+  @Test
+  void shouldNotWriteEncodingsLargerThanTheBuffer() {
+    ByteBuffer buffer = ByteBuffer.allocate(4);
+    buffer.put((byte) 1);
+    assertThrows(BufferOverflowException.class, () -> RLP.encodeTo(buffer, writer -> writer.writeString("dog")));
+    assertEquals(1, buffer.position());
+  }
 }
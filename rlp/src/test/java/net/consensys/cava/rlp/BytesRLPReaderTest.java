@@ -20,6 +20,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import net.consensys.cava.bytes.Bytes;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -219,4 +220,27 @@ class BytesRLPReaderTest {
     });
     assertEquals(expected, result);
   }
+
+  @Test
+  void shouldReadEnteredLists() {
+    List<String> result = RLP.decode(LONG_LIST, reader -> {
+      reader.enterList();
+      List<String> strings = new ArrayList<>();
+      while (!reader.isComplete()) {
+        reader.enterList();
+        strings.add(reader.readString());
+        reader.exitList();
+      }
+      reader.exitList();
+      assertTrue(reader.isComplete());
+      return strings;
+    });
+    assertEquals(Stream.generate(() -> "asdf").limit(32).collect(Collectors.toList()), result);
+  }
+
+  @Test
+  void shouldRejectExitingListsNotEntered() {
+    assertThrows(IllegalStateException.class, new BytesRLPReader(SHORT_LIST, false)::exitList);
+    assertThrows(InvalidRLPTypeException.class, new BytesRLPReader(RLP.encodeString("asdf"), false)::enterList);
+  }
 }
@@ -15,6 +15,7 @@ package net.consensys.cava.rlp;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static net.consensys.cava.bytes.Bytes.fromHexString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import net.consensys.cava.bytes.Bytes;
@@ -171,4 +172,50 @@ class BytesRLPWriterTest {
     Bytes output = RLP.encode(writer -> writer.writeRLP(RLP.encodeByteArray("abc".getBytes(UTF_8))));
     assertEquals("abc", RLP.decodeString(output));
   }
+
+  @Test
+  void shouldWriteLongLists() {
+    List<String> strings =
+        Arrays.asList("asdf", "qwer", "zxcv", "asdf", "qwer", "zxcv", "asdf", "qwer", "zxcv", "asdf", "qwer", "zxcv");
+
+    assertEquals(
+        fromHexString(
+            "f83c84617364668471776572847a78637684617364668471776572847a"
+                + "78637684617364668471776572847a78637684617364668471776572847a786376"),
+        RLP.encode(writer -> writer.writeList(strings, RLPWriter::writeString)));
+  }
+
+  @Test
+  void shouldWriteValuesEncodedWhileWriting() {
+    Bytes bytes = RLP.encodeList(listWriter -> {
+      listWriter.writeRLP(RLP.encodeList(subListWriter -> subListWriter.writeString("asdf")));
+      listWriter.writeString("qwer");
+    });
+    assertEquals(fromHexString("cbc584617364668471776572"), bytes);
+  }
+
+  @Test
+  void shouldWriteStartedAndEndedLists() {
+    Bytes bytes = RLP.encodeList(listWriter -> {
+      listWriter.writeString("asdf");
+      for (int i = 30; i >= 0; --i) {
+        listWriter.startList();
+        listWriter.writeString("zxcv");
+        listWriter.writeString("qwer");
+        listWriter.endList();
+      }
+    });
+    assertEquals(RLP.encodeList(listWriter -> {
+      listWriter.writeString("asdf");
+      for (int i = 30; i >= 0; --i) {
+        listWriter.writeList(Arrays.asList("zxcv", "qwer"), RLPWriter::writeString);
+      }
+    }), bytes);
+  }
+
+  @Test
+  void shouldRejectUnmatchedLists() {
+    assertThrows(IllegalStateException.class, () -> RLP.encode(RLPWriter::endList));
+    assertThrows(IllegalStateException.class, () -> RLP.encode(RLPWriter::startList));
+  }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp;
+
+import static net.consensys.cava.bytes.Bytes.fromHexString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import net.consensys.cava.bytes.Bytes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ChannelRLPReaderTest {
+
+  private static ReadableByteChannel trickle(Bytes source) {
+    ByteBuffer buffer = ByteBuffer.wrap(source.toArray());
+    return new ReadableByteChannel() {
+      @Override
+      public int read(ByteBuffer dst) {
+        if (!buffer.hasRemaining()) {
+          return -1;
+        }
+        dst.put(buffer.get());
+        return 1;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  @Test
+  void shouldReadTopLevelItems() {
+    Bytes source = Bytes.concatenate(
+        RLP.encodeList(writer -> writer.writeString("asdf")),
+        RLP.encodeLong(100000L),
+        RLP.encodeList(writer -> {
+          writer.writeList(Arrays.asList("qwer", "zxcv"), RLPWriter::writeString);
+          writer.writeLong(7);
+        }));
+    Iterator<Object> items = RLP.decodeAll(trickle(source), 8, false, reader -> {
+      if (!reader.nextIsList()) {
+        return reader.readLong();
+      }
+      return reader.readList(listReader -> {
+        List<Object> list = new ArrayList<>();
+        while (!listReader.isComplete()) {
+          if (listReader.nextIsList()) {
+            list.add(listReader.readListContents(RLPReader::readString));
+          } else {
+            list.add(listReader.readValue());
+          }
+        }
+        return list;
+      });
+    });
+
+    assertEquals(Arrays.asList(Bytes.wrap("asdf".getBytes())), items.next());
+    assertEquals(100000L, items.next());
+    assertEquals(Arrays.asList(Arrays.asList("qwer", "zxcv"), Bytes.of(7)), items.next());
+    assertFalse(items.hasNext());
+  }
+
+  @Test
+  void shouldReadValuesLargerThanTheBuffer() {
+    byte[] value = new byte[100000];
+    new Random(1).nextBytes(value);
+    Bytes source = RLP.encodeList(writer -> {
+      writer.writeByteArray(value);
+      writer.writeString("tail");
+    });
+    Iterator<Boolean> items = RLP.decodeAll(new ByteArrayInputStream(source.toArrayUnsafe()), reader -> {
+      return reader.<Boolean>readList(listReader -> {
+        assertEquals(Bytes.wrap(value), listReader.readValue());
+        assertEquals(1, listReader.remaining());
+        return "tail".equals(listReader.readString());
+      });
+    });
+    assertTrue(items.next());
+    assertFalse(items.hasNext());
+  }
+
+  @Test
+  void shouldSkipUnreadParts() {
+    Bytes source = Bytes.concatenate(
+        RLP.encodeList(writer -> writer.writeList(Arrays.asList("asdf", "qwer", "zxcv"), RLPWriter::writeString)),
+        RLP.encodeString("next"));
+    Iterator<Boolean> items = RLP.decodeAll(trickle(source), 5, false, RLPReader::nextIsList);
+    assertTrue(items.next());
+    assertFalse(items.next());
+    assertFalse(items.hasNext());
+  }
+
+  @Test
+  void shouldReadEnteredLists() {
+    Bytes source = Bytes.concatenate(
+        RLP.encodeList(writer -> {
+          writer.writeList(Arrays.asList("asdf", "qwer", "zxcv"), RLPWriter::writeString);
+          writer.writeLong(7);
+        }),
+        RLP.encodeString("next"));
+    Iterator<Object> items = RLP.decodeAll(trickle(source), 5, false, reader -> {
+      if (!reader.nextIsList()) {
+        return reader.readString();
+      }
+      reader.enterList();
+      reader.enterList();
+      String first = reader.readString();
+      reader.exitList();
+      long last = reader.readLong();
+      reader.exitList();
+      return Arrays.asList(first, last);
+    });
+    assertEquals(Arrays.asList("asdf", 7L), items.next());
+    assertEquals("next", items.next());
+    assertFalse(items.hasNext());
+  }
+
+  @Test
+  void shouldFailOnTruncatedSource() {
+    Bytes source = RLP.encodeList(writer -> writer.writeString("asdf"));
+    Iterator<Bytes> items =
+        RLP.decodeAll(trickle(source.slice(0, 4)), 16, false, reader -> reader.readList(listReader -> {
+          return listReader.readValue();
+        }));
+    assertThrows(InvalidRLPEncodingException.class, items::next);
+  }
+
+  @Test
+  void shouldRejectNonMinimalValues() {
+    Iterator<Bytes> items = RLP.decodeAll(trickle(fromHexString("b80105")), 16, false, RLPReader::readValue);
+    assertThrows(InvalidRLPEncodingException.class, items::next);
+    Iterator<Bytes> lenientItems = RLP.decodeAll(trickle(fromHexString("b80105")), 16, true, RLPReader::readValue);
+    assertEquals(Bytes.of(5), lenientItems.next());
+  }
+
+  @Test
+  void shouldRejectNonBlockingChannels() throws IOException {
+    Pipe pipe = Pipe.open();
+    try {
+      pipe.source().configureBlocking(false);
+      assertThrows(IllegalArgumentException.class, () -> RLP.decodeAll(pipe.source(), RLPReader::readValue));
+    } finally {
+      pipe.source().close();
+      pipe.sink().close();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp;
+
+import static net.consensys.cava.bytes.Bytes.fromHexString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import net.consensys.cava.bytes.Bytes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RLPListViewTest {
+
+  @Test
+  void shouldProvideRawItems() {
+    Bytes encoded = RLP.encodeList(writer -> {
+      writer.writeString("asdf");
+      writer.writeList(Arrays.asList("qwer", "zxcv"), RLPWriter::writeString);
+      writer.writeInt(7);
+    });
+    RLPListView view = RLP.decodeListView(encoded);
+    assertEquals(3, view.size());
+    assertEquals(RLP.encodeString("asdf"), view.get(0));
+    assertEquals(RLP.encodeList(Arrays.asList("qwer", "zxcv"), RLPWriter::writeString), view.get(1));
+    assertEquals(RLP.encodeInt(7), view.get(2));
+    assertFalse(view.isList(0));
+    assertTrue(view.isList(1));
+    assertThrows(IndexOutOfBoundsException.class, () -> view.get(3));
+  }
+
+  @Test
+  void shouldDecodeOnlyAccessedItems() {
+    List<String> values = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      values.add("value " + i);
+    }
+    RLPListView view = RLP.decodeListView(RLP.encodeList(values, RLPWriter::writeString));
+    assertEquals(100, view.size());
+    assertEquals("value 42", view.decode(42, RLPReader::readString));
+
+    List<Integer> decoded = new ArrayList<>();
+    List<String> items = view.asList(reader -> {
+      decoded.add(0);
+      return reader.readString();
+    });
+    assertEquals(100, items.size());
+    assertEquals("value 99", items.get(99));
+    assertEquals(1, decoded.size());
+  }
+
+  @Test
+  void shouldViewNestedLists() {
+    Bytes encoded = RLP.encodeList(writer -> {
+      writer.writeList(Arrays.asList("a", "b", "c"), RLPWriter::writeString);
+      writer.writeList(listWriter -> {});
+    });
+    RLPListView view = RLP.decodeListView(encoded);
+    RLPListView nested = view.list(0);
+    assertEquals(3, nested.size());
+    assertEquals("c", nested.decode(2, RLPReader::readString));
+    assertTrue(view.list(1).isEmpty());
+    assertThrows(InvalidRLPTypeException.class, () -> nested.list(0));
+  }
+
+  @Test
+  void shouldValidateItemPrefixes() {
+    assertThrows(InvalidRLPTypeException.class, () -> RLP.decodeListView(fromHexString("8100")));
+    assertThrows(InvalidRLPEncodingException.class, () -> RLP.decodeListView(fromHexString("c3830102")));
+    assertThrows(InvalidRLPEncodingException.class, () -> RLP.decodeListView(fromHexString("c28101")));
+    assertEquals(1, RLP.decodeListView(fromHexString("c28101"), true).size());
+  }
+}
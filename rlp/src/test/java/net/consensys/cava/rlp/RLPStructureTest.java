@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 ConsenSys AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package net.consensys.cava.rlp;
+
+import static net.consensys.cava.bytes.Bytes.fromHexString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import net.consensys.cava.bytes.Bytes;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class RLPStructureTest {
+
+  @Test
+  void shouldCountItemsAndDepth() {
+    Bytes encoded = RLP.encodeList(writer -> {
+      writer.writeString("asdf");
+      writer.writeList(Arrays.asList("qwer", "zxcv"), RLPWriter::writeString);
+      writer.writeList(listWriter -> listWriter.writeList(nested -> nested.writeLong(100000L)));
+    });
+    RLPStructure structure = RLP.validate(encoded, 8);
+    assertEquals(8, structure.itemCount());
+    assertEquals(3, structure.maxDepth());
+  }
+
+  @Test
+  void shouldValidateSequencesOfValues() {
+    Bytes encoded = Bytes.concatenate(RLP.encodeString("a"), RLP.encodeByteArray(new byte[60]));
+    RLPStructure structure = RLP.validate(encoded, 0);
+    assertEquals(2, structure.itemCount());
+    assertEquals(0, structure.maxDepth());
+    assertEquals(0, RLP.validate(Bytes.EMPTY, 0).itemCount());
+  }
+
+  @Test
+  void shouldRejectDeepNesting() {
+    Bytes encoded = fromHexString("c3c2c1c0");
+    assertEquals(4, RLP.validate(encoded, 4).maxDepth());
+    assertThrows(InvalidRLPEncodingException.class, () -> RLP.validate(encoded, 3));
+  }
+
+  @Test
+  void shouldRejectItemsOverrunningTheirList() {
+    assertThrows(InvalidRLPEncodingException.class, () -> RLP.validate(fromHexString("c2830102"), 8));
+    assertThrows(InvalidRLPEncodingException.class, () -> RLP.validate(fromHexString("c1"), 8));
+    assertThrows(InvalidRLPEncodingException.class, () -> RLP.validate(fromHexString("ba010000"), 8));
+  }
+
+  @Test
+  void shouldRejectNonCanonicalPrefixes() {
+    for (String hex : Arrays.asList("8105", "b80105", "f800", "b9000100")) {
+      assertThrows(InvalidRLPEncodingException.class, () -> RLP.validate(fromHexString(hex), 8));
+    }
+    assertEquals(1, RLP.validate(fromHexString("b80105"), 8, true).itemCount());
+  }
+}